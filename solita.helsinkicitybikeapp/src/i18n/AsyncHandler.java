@@ -0,0 +1,215 @@
+package i18n;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * The log handler publishing the records on a dedicated thread.
+ *
+ * The records are queued into a bounded ring buffer, and the publishing thread
+ * passes them to the target handler. The logging thread never waits for the
+ * output of the target handler. If the buffer is full, the record is dropped
+ * and counted, and the number of dropped records is reported once the buffer
+ * has room again.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class AsyncHandler extends Handler {
+
+	/**
+	 * The default capacity of the buffer.
+	 */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/**
+	 * The target handler.
+	 */
+	private final Handler target;
+
+	/**
+	 * The buffer of the records waiting for publishing.
+	 */
+	private final BlockingQueue<LogRecord> buffer;
+
+	/**
+	 * The number of records queued but not yet published.
+	 */
+	private final AtomicLong pending = new AtomicLong();
+
+	/**
+	 * The number of dropped records not yet reported.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * The publishing thread.
+	 */
+	private final Thread publisher;
+
+	/**
+	 * Is the handler closed.
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates a new asynchronous handler with the default capacity.
+	 *
+	 * @param target The target handler.
+	 */
+	public AsyncHandler(Handler target) {
+		this(target, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new asynchronous handler.
+	 *
+	 * @param target   The target handler.
+	 * @param capacity The maximum number of records waiting for publishing.
+	 * @throws IllegalArgumentException The capacity was not positive.
+	 * @throws NullPointerException     The target was undefined.
+	 */
+	public AsyncHandler(Handler target, int capacity) throws IllegalArgumentException, NullPointerException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.target = java.util.Objects.requireNonNull(target, "Undefined target handler");
+		this.buffer = new ArrayBlockingQueue<>(capacity);
+		setLevel(target.getLevel());
+		this.publisher = new Thread(this::publishQueued, "async-log-handler");
+		this.publisher.setDaemon(true);
+		this.publisher.start();
+	}
+
+	/**
+	 * Replaces the handlers of the logger with asynchronous handlers.
+	 *
+	 * @param logger   The logger, for example the root logger.
+	 * @param capacity The capacity of the buffers.
+	 * @return The installed asynchronous handlers.
+	 */
+	public static java.util.List<AsyncHandler> install(Logger logger, int capacity) {
+		java.util.List<AsyncHandler> result = new java.util.ArrayList<>();
+		for (Handler handler : logger.getHandlers()) {
+			if (handler instanceof AsyncHandler) {
+				result.add((AsyncHandler) handler);
+			} else {
+				AsyncHandler async = new AsyncHandler(handler, capacity);
+				logger.removeHandler(handler);
+				logger.addHandler(async);
+				result.add(async);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The target handler.
+	 *
+	 * @return The handler publishing the records.
+	 */
+	public Handler getTarget() {
+		return target;
+	}
+
+	/**
+	 * The number of dropped records not yet reported.
+	 *
+	 * @return The number of records dropped since the last report.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Publishes the queued records until the handler is closed.
+	 */
+	private void publishQueued() {
+		LogRecord logRecord;
+		while (!closed || !buffer.isEmpty()) {
+			try {
+				logRecord = buffer.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ie) {
+				// The handler is closed.
+				continue;
+			}
+			if (logRecord != null) {
+				try {
+					target.publish(logRecord);
+				} catch (RuntimeException re) {
+					reportError(re.getMessage(), re, java.util.logging.ErrorManager.WRITE_FAILURE);
+				} finally {
+					pending.decrementAndGet();
+				}
+				reportDropped();
+			}
+		}
+	}
+
+	/**
+	 * Reports the dropped records to the target handler.
+	 */
+	private void reportDropped() {
+		long count = dropped.getAndSet(0);
+		if (count > 0) {
+			target.publish(new LogRecord(Level.WARNING, "Dropped " + count + " log records"));
+		}
+	}
+
+	@Override
+	public void publish(LogRecord logRecord) {
+		if (closed || !isLoggable(logRecord)) {
+			return;
+		}
+		// The caller is inferred on the logging thread, as the stack of the
+		// publishing thread does not contain it.
+		logRecord.getSourceClassName();
+		pending.incrementAndGet();
+		if (!buffer.offer(logRecord)) {
+			pending.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Waits until the queued records are published, and flushes the target.
+	 */
+	@Override
+	public void flush() {
+		while (pending.get() > 0 && publisher.isAlive()) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		target.flush();
+	}
+
+	/**
+	 * Publishes the queued records and closes the target.
+	 */
+	@Override
+	public void close() throws SecurityException {
+		if (closed) {
+			return;
+		}
+		flush();
+		closed = true;
+		publisher.interrupt();
+		try {
+			publisher.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		reportDropped();
+		target.close();
+	}
+}
@@ -0,0 +1,116 @@
+package i18n;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.ListResourceBundle;
+import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The cache of the compiled message formats and the resource bundles.
+ *
+ * Parsing a message format pattern is far more expensive than formatting with
+ * the parsed format, and looking up a missing resource bundle throws an
+ * exception on every lookup. The cache compiles each pattern once per locale
+ * and thread, and remembers the missing bundles.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public final class FormatCache {
+
+	/**
+	 * The maximum number of cached formats of a locale. The formats of a locale
+	 * are forgotten, when the limit is reached.
+	 */
+	public static final int MAX_FORMATS_PER_LOCALE = 1024;
+
+	/**
+	 * The compiled message formats of the current thread by locale and pattern.
+	 * As the message formats are not thread safe, each thread has its own
+	 * formats.
+	 */
+	private static final ThreadLocal<Map<Locale, Map<String, MessageFormat>>> FORMATS = ThreadLocal
+			.withInitial(HashMap::new);
+
+	/**
+	 * The resource bundle without resources.
+	 */
+	private static final ResourceBundle EMPTY_BUNDLE = new ListResourceBundle() {
+
+		@Override
+		protected Object[][] getContents() {
+			return new Object[0][];
+		}
+	};
+
+	/**
+	 * The resource bundles by locale and base name. Missing bundles are empty.
+	 */
+	private static final ConcurrentMap<Locale, ConcurrentMap<String, ResourceBundle>> BUNDLES = new ConcurrentHashMap<>();
+
+	/**
+	 * The cache is not instantiated.
+	 */
+	private FormatCache() {
+	}
+
+	/**
+	 * The compiled message format of a pattern.
+	 *
+	 * @param locale  The locale of the format.
+	 * @param pattern The message format pattern.
+	 * @return The compiled format of the current thread. The format must not be
+	 *         passed to other threads.
+	 * @throws IllegalArgumentException The pattern was invalid.
+	 */
+	static MessageFormat getMessageFormat(Locale locale, String pattern) throws IllegalArgumentException {
+		Map<String, MessageFormat> formats = FORMATS.get().computeIfAbsent(locale, (Locale key) -> new HashMap<>());
+		MessageFormat result = formats.get(pattern);
+		if (result == null) {
+			if (formats.size() >= MAX_FORMATS_PER_LOCALE) {
+				// The patterns are not constants.
+				formats.clear();
+			}
+			result = new MessageFormat(pattern, locale);
+			formats.put(pattern, result);
+		}
+		return result;
+	}
+
+	/**
+	 * Formats a message with the cached message format.
+	 *
+	 * @param locale    The locale of the format.
+	 * @param pattern   The message format pattern.
+	 * @param arguments The arguments of the message.
+	 * @return The formatted message.
+	 * @throws IllegalArgumentException The pattern or an argument was invalid.
+	 */
+	public static String format(Locale locale, String pattern, Object... arguments) throws IllegalArgumentException {
+		return getMessageFormat(locale, pattern).format(arguments);
+	}
+
+	/**
+	 * The resource bundle of a locale.
+	 *
+	 * @param baseName The base name of the bundle.
+	 * @param locale   The locale of the bundle.
+	 * @return The resource bundle, or an empty bundle, if the bundle does not
+	 *         exist.
+	 */
+	public static ResourceBundle getBundle(String baseName, Locale locale) {
+		return BUNDLES.computeIfAbsent(locale, (Locale key) -> new ConcurrentHashMap<>()).computeIfAbsent(baseName,
+				(String name) -> {
+					try {
+						return ResourceBundle.getBundle(name, locale);
+					} catch (MissingResourceException mre) {
+						return EMPTY_BUNDLE;
+					}
+				});
+	}
+}
@@ -15,10 +15,11 @@ public interface Localized {
 
 	/**
 	 * The localization bundle. 
-	 * @return The resource bundle handling localization of the current file. 
+	 * @return The resource bundle handling localization of the current file. If the 
+	 *  bundle does not exist, the bundle is empty. 
 	 */
 	default ResourceBundle getLocalisationBundle() {
-		return ResourceBundle.getBundle("messages");
+		return FormatCache.getBundle("messages", getLocale());
 	}
 	
 	/**
@@ -1,7 +1,7 @@
 package i18n;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.ResourceBundle;
 
@@ -10,6 +10,12 @@ import java.util.ResourceBundle;
  * 
  * The basic logging uses two different methods for logging - one using
  * {@link java.text.MessageFormat} and another using {@link String.format}.
+ * 
+ * The messages are formatted only, if the logger logs them, except the severe
+ * messages, which are always formatted, as the severe message is often used as
+ * the message of a thrown exception. The arguments are formatted lazily, thus
+ * passing an object instead of its string representation avoids the conversion
+ * of the object, when the message is not logged.
  *
  * @author Antti Kautiainen
  *
@@ -93,7 +99,12 @@ public interface Logging {
 
 					@Override
 					public String info(String format, Object... formatArgs) {
-						return logging.info(this.getLocalizedFormat(format), formatArgs);
+						return isLoggable(Level.INFO) ? logging.info(this.getLocalizedFormat(format), formatArgs) : null;
+					}
+
+					@Override
+					public String fine(String format, Object... formatArgs) {
+						return isLoggable(Level.FINE) ? logging.fine(this.getLocalizedFormat(format), formatArgs) : null;
 					}
 
 					@Override
@@ -167,7 +178,12 @@ public interface Logging {
 
 					@Override
 					public String info(String format, Object... formatArgs) {
-						return logging.info(this.getLocalizedFormat(format), formatArgs);
+						return isLoggable(Level.INFO) ? logging.info(this.getLocalizedFormat(format), formatArgs) : null;
+					}
+
+					@Override
+					public String fine(String format, Object... formatArgs) {
+						return isLoggable(Level.FINE) ? logging.fine(this.getLocalizedFormat(format), formatArgs) : null;
 					}
 
 					@Override
@@ -203,10 +219,17 @@ public interface Logging {
 		 * The localized version of the format.
 		 * 
 		 * @param format The format string whose localized version is acquired.
-		 * @return The localized format string.
+		 * @return The localized format string, or the given format, if it has no
+		 *         localization.
 		 */
 		default String getLocalizedFormat(String format) {
-			return this.getFormatLocalizationBundle().getString(format);
+			try {
+				ResourceBundle bundle = this.getFormatLocalizationBundle();
+				return (bundle.containsKey(format) ? bundle.getString(format) : format);
+			} catch (java.util.MissingResourceException mre) {
+				// Using the format without localization.
+				return format;
+			}
 		}
 
 		@Override
@@ -217,21 +240,89 @@ public interface Logging {
 	}
 
 	/**
-	 * Logs information message.
+	 * Is a message of the level logged.
 	 * 
+	 * @param level The level of the message.
+	 * @return True, if and only if the logger logs the messages of the level.
+	 */
+	default boolean isLoggable(Level level) {
+		Logger logger = getLogger();
+		return logger != null && logger.isLoggable(level);
+	}
+
+	/**
+	 * Logs a message, if the level is logged.
+	 * 
+	 * @param level      The level of the message.
 	 * @param format     The format of the message.
 	 * @param formatArgs The format arguments.
-	 * @return The logged message.
+	 * @return The logged message, or undefined value, if the level is not
+	 *         logged.
 	 */
-	default String info(String format, Object... formatArgs) {
-		Logger logger = getLogger();
+	default String log(Level level, String format, Object... formatArgs) {
+		if (!isLoggable(level)) {
+			return null;
+		}
 		String result = format(format, formatArgs);
-		if (logger != null) {
-			getLogger().info(result);
+		getLogger().log(level, result);
+		return result;
+	}
+
+	/**
+	 * Logs a repetitive message, if the level is logged and the rate limit
+	 * permits the message.
+	 * 
+	 * The format is the key of the rate limit, thus the messages with the same
+	 * format share the limit. The number of the suppressed messages is appended
+	 * to the next logged message.
+	 * 
+	 * @param limit      The rate limit.
+	 * @param level      The level of the message.
+	 * @param format     The format of the message.
+	 * @param formatArgs The format arguments.
+	 * @return The logged message, or undefined value, if the message was not
+	 *         logged.
+	 */
+	default String log(RateLimit limit, Level level, String format, Object... formatArgs) {
+		if (!isLoggable(level)) {
+			return null;
+		}
+		long suppressed = limit.acquire(format);
+		if (suppressed == RateLimit.SUPPRESSED) {
+			return null;
 		}
+		String result = format(format, formatArgs);
+		if (suppressed > 0) {
+			result = result + " (" + suppressed + " similar messages suppressed)";
+		}
+		getLogger().log(level, result);
 		return result;
 	}
 
+	/**
+	 * Logs information message.
+	 * 
+	 * @param format     The format of the message.
+	 * @param formatArgs The format arguments.
+	 * @return The logged message, or undefined value, if the information
+	 *         messages are not logged.
+	 */
+	default String info(String format, Object... formatArgs) {
+		return log(Level.INFO, format, formatArgs);
+	}
+
+	/**
+	 * Logs detailed message.
+	 * 
+	 * @param format     The format of the message.
+	 * @param formatArgs The format arguments.
+	 * @return The logged message, or undefined value, if the detailed messages
+	 *         are not logged.
+	 */
+	default String fine(String format, Object... formatArgs) {
+		return log(Level.FINE, format, formatArgs);
+	}
+
 	/**
 	 * Logs error message.
 	 * 
@@ -286,7 +377,7 @@ public interface Logging {
 		 * @return The formatted message using given pattern and arguments.
 		 */
 		default String format(String pattern, Object... arguments) {
-			return MessageFormat.format(pattern, arguments);
+			return FormatCache.format(Locale.getDefault(Locale.Category.FORMAT), pattern, arguments);
 		}
 	}
 
@@ -300,7 +391,7 @@ public interface Logging {
 
 		@Override
 		default String format(String pattern, Object... arguments) {
-			return MessageFormat.format(this.getLocalizedFormat(pattern), arguments);
+			return FormatCache.format(this.getLocale(), this.getLocalizedFormat(pattern), arguments);
 		}
 
 	}
@@ -0,0 +1,148 @@
+package i18n;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The rate limit of repetitive log messages.
+ *
+ * The messages are grouped by a key, typically the message format. At most
+ * the given number of messages of a key are permitted within an interval, and
+ * the rest are suppressed. The number of suppressed messages is reported with
+ * the next permitted message of the key.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class RateLimit {
+
+	/**
+	 * The default number of permitted messages of a key per interval.
+	 */
+	public static final int DEFAULT_PERMITS = 10;
+
+	/**
+	 * The default interval in milliseconds.
+	 */
+	public static final long DEFAULT_INTERVAL = 10000L;
+
+	/**
+	 * The result of acquiring a permit for a suppressed message.
+	 */
+	public static final long SUPPRESSED = -1L;
+
+	/**
+	 * The messages of a key within the current interval.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static class Window {
+
+		/**
+		 * The start of the interval in milliseconds.
+		 */
+		private long start;
+
+		/**
+		 * The number of permitted messages within the interval.
+		 */
+		private int permitted = 0;
+
+		/**
+		 * The number of suppressed messages since the last permitted message.
+		 */
+		private long suppressed = 0;
+
+		/**
+		 * Creates a new window.
+		 *
+		 * @param start The start of the interval.
+		 */
+		private Window(long start) {
+			this.start = start;
+		}
+	}
+
+	/**
+	 * The number of permitted messages of a key per interval.
+	 */
+	private final int permits;
+
+	/**
+	 * The length of the interval in milliseconds.
+	 */
+	private final long interval;
+
+	/**
+	 * The windows by keys.
+	 */
+	private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new rate limit with the default permits and interval.
+	 */
+	public RateLimit() {
+		this(DEFAULT_PERMITS, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Creates a new rate limit.
+	 *
+	 * @param permits  The number of permitted messages of a key per interval.
+	 * @param interval The interval in milliseconds.
+	 * @throws IllegalArgumentException The permits or the interval was not
+	 *                                  positive.
+	 */
+	public RateLimit(int permits, long interval) throws IllegalArgumentException {
+		if (permits <= 0 || interval <= 0) {
+			throw new IllegalArgumentException("Permits and interval must be positive");
+		}
+		this.permits = permits;
+		this.interval = interval;
+	}
+
+	/**
+	 * Acquires a permit to log a message.
+	 *
+	 * @param key The key of the message.
+	 * @return {@link #SUPPRESSED}, if the message is suppressed, or the number of
+	 *         messages of the key suppressed since the previous permitted
+	 *         message.
+	 */
+	public long acquire(String key) {
+		long now = System.currentTimeMillis();
+		Window window = windows.computeIfAbsent(key, (String k) -> new Window(now));
+		synchronized (window) {
+			if (now - window.start >= interval) {
+				window.start = now;
+				window.permitted = 0;
+			}
+			if (window.permitted >= permits) {
+				window.suppressed++;
+				return SUPPRESSED;
+			}
+			window.permitted++;
+			long result = window.suppressed;
+			window.suppressed = 0;
+			return result;
+		}
+	}
+
+	/**
+	 * The number of suppressed messages not yet reported.
+	 *
+	 * @param key The key of the messages.
+	 * @return The number of the messages of the key suppressed since the last
+	 *         permitted message.
+	 */
+	public long getSuppressed(String key) {
+		Window window = windows.get(key);
+		if (window == null) {
+			return 0;
+		}
+		synchronized (window) {
+			return window.suppressed;
+		}
+	}
+}
@@ -0,0 +1,90 @@
+-- -*- mode: sql; sql-product: derby; -*-
+-- The station tables of the embedded Derby database.
+-- The script creates the tables into an empty database. The statements are executed one by one,
+-- and thus the statements must not contain semicolons.
+
+-- The operators of the stations.
+CREATE TABLE operators (
+    opid smallint GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    operator_name varchar(80) NOT NULL UNIQUE,
+    lang varchar(80) DEFAULT 'fi'
+);
+
+-- The stations table containing station info.
+-- The stations without known operator have undefined operator.
+CREATE TABLE stations (
+    id smallint GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    sid smallint NOT NULL UNIQUE,
+    operator_id smallint,
+    lang varchar(80) DEFAULT 'fi',
+    capacity smallint DEFAULT 0,
+    x decimal(9, 6),
+    y decimal(9, 6),
+    FOREIGN KEY (operator_id) REFERENCES operators (opid) ON DELETE SET NULL
+);
+
+-- The names of the stations by language.
+CREATE TABLE station_names (
+    station_id smallint NOT NULL,
+    lang varchar(20) NOT NULL DEFAULT 'fi',
+    name varchar(80) NOT NULL,
+    PRIMARY KEY (station_id, lang),
+    FOREIGN KEY (station_id) REFERENCES stations (sid) ON DELETE CASCADE
+);
+
+-- The station view with the name of the default language of the station.
+CREATE VIEW station_info AS
+SELECT
+    stations.id AS jid,
+    sid,
+    opid,
+    operator_name,
+    capacity,
+    x,
+    y,
+    stations.lang AS lang,
+    name AS station_name
+FROM
+    stations
+    LEFT JOIN operators ON stations.operator_id = operators.opid
+    LEFT JOIN station_names ON station_names.station_id = sid
+        AND station_names.lang = stations.lang;
+
+-- The staging tables of the station import merged into the station tables.
+CREATE TABLE station_staging (
+    sid smallint PRIMARY KEY,
+    operator_name varchar(80),
+    operator_id smallint,
+    capacity smallint,
+    x decimal(9, 6),
+    y decimal(9, 6)
+);
+CREATE TABLE station_name_staging (
+    sid smallint NOT NULL,
+    lang varchar(20) NOT NULL,
+    name varchar(80),
+    PRIMARY KEY (sid, lang)
+);
+
+-- The journeys tables are created by create_journeys.derby.sql after the station tables.
+
+-- The data set version increased whenever journeys or stations change.
+-- The clients derive the cache validators of the served data from the version.
+-- - The version is the next value of a sequence, thus the concurrent altering transactions do not wait for each other.
+CREATE SEQUENCE dataset_version_sequence AS bigint START WITH 1;
+
+-- The triggers increasing the data set version once per altering statement.
+-- - The Derby triggers have a single event.
+-- - The values of the trigger actions are evaluated for their side effects.
+CREATE TRIGGER stations_inserted_version AFTER INSERT ON stations
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER stations_updated_version AFTER UPDATE ON stations
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER stations_deleted_version AFTER DELETE ON stations
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER station_names_inserted_version AFTER INSERT ON station_names
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER station_names_updated_version AFTER UPDATE ON station_names
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER station_names_deleted_version AFTER DELETE ON station_names
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
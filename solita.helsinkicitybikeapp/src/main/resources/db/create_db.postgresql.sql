@@ -5,26 +5,19 @@
 DROP TABLE IF EXISTS stations, station_names, "operators", localized_operator_names CASCADE;
 
 
+/* The sequences of the generated identifiers. The sequences do not lock the tables, 
+ * thus concurrent writers do not serialize on the identifier generation. 
+ */
+CREATE SEQUENCE IF NOT EXISTS operators_opid_seq AS smallint;
+CREATE SEQUENCE IF NOT EXISTS stations_sid_seq AS smallint;
+
 /* The function returning the next identifier for a new entry on operators.  
  */
 CREATE OR REPLACE FUNCTION get_next_opid ()
     RETURNS int
     AS $$
-DECLARE
-    result int;
 BEGIN
-    LOCK TABLE operators IN SHARE ROW EXCLUSIVE MODE;
-    SELECT
-        MAX(opid) INTO result
-    FROM
-        operators;
-    IF NOT FOUND OR result IS NULL THEN
-        -- DEBUG
-        RAISE NOTICE 'Adding first opid';
-        RETURN 1;
-    ELSE
-        RETURN result + 1;
-    END IF;
+    RETURN nextval('operators_opid_seq');
 END;
 $$
 LANGUAGE PLPGSQL;
@@ -35,54 +28,38 @@ LANGUAGE PLPGSQL;
  * language of the operator. 
  */
 CREATE TABLE IF NOT EXISTS operators (
-    opid smallint PRIMARY KEY DEFAULT get_next_opid (),
+    opid smallint PRIMARY KEY DEFAULT nextval('operators_opid_seq'),
     operator_name varchar(80) NOT NULL UNIQUE,
     lang varchar(80) DEFAULT 'fi'
 );
+ALTER SEQUENCE operators_opid_seq OWNED BY operators.opid;
 
 -- The method performing necessary operations after the operators has been altered.
 -- This method ensures that the operation_names table contains the primary name of the
--- operator.
+-- operator. The altered operators are handled as a set once per statement. 
+-- Deleting needs nothing as foreign key constraint on the operator_name table removes 
+-- all references to the deleted operator.
 CREATE OR REPLACE FUNCTION operators_altered_trigger ()
     RETURNS TRIGGER
     AS $$
 BEGIN
-    LOCK TABLE localized_operator_names IN SHARE ROW EXCLUSIVE MODE;
-    IF (TG_OP = 'INSERT' OR TG_OP = 'UPDATE') THEN
-        -- Inserting or Adding requires that the new primary operator name exists in the localized_operator_names.
-        IF (NOT EXISTS (
-            SELECT
-                operator_id
-            FROM
-                localized_operator_names
-            WHERE
-                operator_id = NEW.opid AND localized_operator_names.lang = NEW.lang)) THEN
-            -- Creating new default value entry.
-            INSERT INTO localized_operator_names (operator_id, lang, name)
-                VALUES (NEW.opid, NEW.lang, NEW.name);
-            IF NOT FOUND THEN
-                -- Could not create new primary name for the operator
-                RAISE EXCEPTION 'Could not add the new name %1 with id %2 into table localized_operator_names', NEW.operator_name, NEW.name_id;
-            END IF;
-        END IF;
-    ELSIF (TG_OP = 'DELETE') THEN
-        -- Nothing to do as foreign key constraint on the operator_name table removes all references to the current operator,
-        -- and separate trigger deals with name id update.
-    END IF;
-    IF (TG_OP = 'DELETE') THEN
-        RETURN OLD;
-    ELSE
-        RETURN NEW;
-    END IF;
+    -- Inserting or Adding requires that the new primary operator name exists in the localized_operator_names.
+    INSERT INTO localized_operator_names (operator_id, lang, name)
+        SELECT opid, lang, operator_name FROM altered_operators WHERE lang IS NOT NULL
+        ON CONFLICT (operator_id, lang) DO NOTHING;
+    RETURN NULL;
 END;
 $$
 LANGUAGE plpgsql;
 
--- Adding the trigger updating the localized_operator_names table accordingly after the operators table has been updated.
--- - This trigger is called before the operator counts are updated.
-CREATE OR REPLACE TRIGGER operators_altered_trigger AFTER INSERT
-    OR UPDATE
-    OR DELETE ON operators FOR EACH ROW EXECUTE FUNCTION operators_altered_trigger ();
+-- Adding the triggers updating the localized_operator_names table accordingly after the operators table has been updated.
+-- - The transition tables allow only one event per trigger.
+CREATE OR REPLACE TRIGGER operators_inserted_trigger AFTER INSERT ON operators 
+    REFERENCING NEW TABLE AS altered_operators
+    FOR EACH STATEMENT EXECUTE FUNCTION operators_altered_trigger ();
+CREATE OR REPLACE TRIGGER operators_updated_trigger AFTER UPDATE ON operators 
+    REFERENCING NEW TABLE AS altered_operators
+    FOR EACH STATEMENT EXECUTE FUNCTION operators_altered_trigger ();
 
 
 /* The names of the operators cascaded. 
@@ -202,42 +179,33 @@ CREATE TRIGGER names_of_operators_alteration
 CREATE OR REPLACE FUNCTION get_next_station_id ()
     RETURNS smallint
     AS $$
-DECLARE
-    result smallint;
 BEGIN
-    LOCK TABLE operators IN SHARE MODE;
-    SELECT
-        MAX(sid) INTO result
-    FROM
-        operators;
-    IF NOT FOUND OR result IS NULL THEN
-        RETURN 1;
-    ELSE
-        RETURN result + 1;
-    END IF;
+    RETURN nextval('stations_sid_seq');
 END;
 $$
 LANGUAGE PLPGSQL;
 
 
 /* The stations table containing station info. 
+ * The stations without known operator have undefined operator. 
  */
 CREATE TABLE stations (
     id smallserial PRIMARY KEY,
-    sid smallint NOT NULL UNIQUE DEFAULT get_next_station_id (),
-    operator_id smallint NOT NULL,
+    sid smallint NOT NULL UNIQUE DEFAULT nextval('stations_sid_seq'),
+    operator_id smallint,
     lang varchar(80) DEFAULT 'fi',
     capacity smallint DEFAULT 0,
     x decimal(9, 6),
     y decimal(9, 6),
     FOREIGN KEY (operator_id) REFERENCES operators (opid) ON DELETE SET NULL ON UPDATE CASCADE
 );
+ALTER SEQUENCE stations_sid_seq OWNED BY stations.sid;
 
 
 /* The view of station names. 
  */
 CREATE TABLE IF NOT EXISTS station_names (
-    station_id smallint NOT NULL DEFAULT get_next_station_id (),
+    station_id smallint NOT NULL,
     lang varchar(20) NOT NULL DEFAULT 'fi',
     name varchar(80) NOT NULL,
     PRIMARY KEY (station_id, lang),
@@ -415,82 +383,40 @@ CREATE OR REPLACE TRIGGER update_station_info_view INSTEAD OF INSERT
     OR UPDATE
     OR DELETE ON station_info FOR EACH ROW EXECUTE FUNCTION alter_station_info_view ();
 
--- Adding the journeys table.
-DROP TABLE journeys CASCADE; 
-CREATE TABLE journeys (
-    departure_time timestamp NOT NULL,
-    arrival_time timestamp DEFAULT NULL,
-    jid serial PRIMARY KEY NOT NULL,
-    departure_station_id smallint NOT NULL,
-    arrival_station_id smallint,
-    duration smallint,
-    distance smallint,
-    constraint valid_departure_station_id 
-	FOREIGN KEY (departure_station_id) REFERENCES stations (sid) ON UPDATE CASCADE ON DELETE CASCADE,
-    constraint valid_arrival_station_id 
-	FOREIGN KEY (arrival_station_id) REFERENCES stations (sid) ON UPDATE CASCADE ON DELETE CASCADE
-);
+-- The journeys tables are created by create_journeys.postgresql.sql after the station tables. 
 
--- The function to deal with updats on the view names_of_operators updates.
-CREATE OR REPLACE FUNCTION alter_journeys_info_view ()
-    RETURNS TRIGGER
-    AS $BODY$
-DECLARE
-    data_row RECORD; 
-	station_name VARCHAR; 
+-- The data set version increased whenever journeys or stations change. 
+-- The clients derive the cache validators of the served data from the version. 
+-- - The version is the last value of a sequence, thus the concurrent altering transactions do not wait for each other.
+CREATE SEQUENCE IF NOT EXISTS dataset_version_sequence AS bigint;
+
+-- Replacing the version row of the earlier databases with the sequence.
+DO $$
 BEGIN
-    IF T_OP = 'INSERT' OR T_OP = 'UPDATE' THEN
-        -- Insertting a new record or altering an existing record.
-        IF NEW.departure_station_name IS NULL THEN 
-            -- Seeking the station name from station names. 
-            SELECT station_name, lang INTO STRICT data_row 
-            FROM station_info
-            WHERE station_info.station_id = NEW.departure_station_id;
-            IF FOUND  THEN 
-				-- The station has no name
-				INSERT INTO station_names (name, lang, station_id) VALUES (data_row.station_name, data_row.lang, NEW.departure_station_id)
-                RETURNING name INTO station_name; 
-				IF NOT FOUND THEN 
-					RAISE EXCEPTION 'Could not add new departure station name';
-				END IF; 
-			END IF;
-        ELSE
-            -- Testing validity of the station name. 
-            IF NOT EXISTS (
-                SELECT name   
-                FROM station_names
-                WHERE 
-                    station_id = NEW.departure_station_id AND station_name = NEW.departure_station_name) THEN  
-                -- Invalid station name. 
-                return NULL; 
-            END IF; 
-        END IF; 
-        -- The alteration is accepted. 
-    ELSE
-        -- Deleting record - no constrait checks are performed as the fields are always correct
-    END IF;
-    -- Returning default result.
-    IF T_OP = 'INSERT' OR T_OP = 'ALTER' THEN
-        RETURN NEW;
-    ELSE
-        RETURN OLD;
+    IF to_regclass('dataset_version') IS NOT NULL THEN
+        PERFORM setval('dataset_version_sequence', version + 1) FROM dataset_version WHERE id = 1;
+        DROP TABLE dataset_version;
     END IF;
 END;
-$BODY$
-LANGUAGE plpgsql;
+$$;
 
--- Creating journeys view with descending order of time and row id. 
-CREATE OR REPLACE VIEW journeys_info AS 
-SELECT departure_time, arrival_time, departure_station_id, arrival_station_id, ROW_NUMBER () OVER (ORDER BY departure_time DESC, journeys.jid ASC) AS row_id, 
-departure.station_name as departure_station_name, arrival.station_name as arrival_station_name, distance, 
-EXTRACT(EPOCH FROM (arrival_time - departure_time)) AS duration
-FROM journeys 
-LEFT JOIN station_info AS departure ON journeys.departure_station_id=departure.sid
-LEFT JOIN station_info AS arrival ON journeys.arrival_station_id=arrival.sid; 
+-- The function increasing the data set version once per altering statement.
+CREATE OR REPLACE FUNCTION bump_dataset_version ()
+    RETURNS TRIGGER
+    AS $$
+BEGIN
+    PERFORM nextval('dataset_version_sequence');
+    RETURN NULL;
+END;
+$$
+LANGUAGE plpgsql;
 
+CREATE OR REPLACE TRIGGER stations_dataset_version AFTER INSERT
+    OR UPDATE
+    OR DELETE
+    OR TRUNCATE ON stations FOR EACH STATEMENT EXECUTE FUNCTION bump_dataset_version ();
 
--- Adding the trigger updating the localized_operator_names table accordingly after the operators table has been updated.
--- - This trigger is called before the operator counts are updated.
-CREATE OR REPLACE TRIGGER journeys_info_altering_trigger INSTEAD OF INSERT
+CREATE OR REPLACE TRIGGER station_names_dataset_version AFTER INSERT
     OR UPDATE
-    OR DELETE ON journeys_info FOR EACH ROW EXECUTE FUNCTION alter_journeys_info_view ();;
+    OR DELETE
+    OR TRUNCATE ON station_names FOR EACH STATEMENT EXECUTE FUNCTION bump_dataset_version ();
@@ -0,0 +1,144 @@
+-- -*- mode: sql; sql-product: derby; -*-
+-- The journeys tables of the embedded Derby database. The station tables of create_db.derby.sql
+-- have to exist. The embedded journeys are not partitioned, and the journeys are loaded directly
+-- into the journeys table.
+
+-- The journeys.
+CREATE TABLE journeys (
+    departure_time timestamp NOT NULL,
+    arrival_time timestamp DEFAULT NULL,
+    jid integer GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    departure_station_id smallint NOT NULL,
+    arrival_station_id smallint,
+    duration integer,
+    distance integer,
+    CONSTRAINT valid_departure_station_id
+        FOREIGN KEY (departure_station_id) REFERENCES stations (sid) ON DELETE CASCADE,
+    CONSTRAINT valid_arrival_station_id
+        FOREIGN KEY (arrival_station_id) REFERENCES stations (sid) ON DELETE CASCADE
+);
+-- The foreign keys index the station identifiers.
+CREATE INDEX journeys_departure_time_jid_idx ON journeys (departure_time, jid);
+
+-- The names of the stations in the default language of the station and in the languages of the
+-- journey listing.
+CREATE VIEW station_listing_names AS
+SELECT stations.sid AS sid,
+    MAX(CASE WHEN station_names.lang = stations.lang THEN station_names.name END) AS station_name,
+    MAX(CASE WHEN station_names.lang = 'fi' THEN station_names.name END) AS name_fi,
+    MAX(CASE WHEN station_names.lang = 'sv' THEN station_names.name END) AS name_sv,
+    MAX(CASE WHEN station_names.lang = 'en' THEN station_names.name END) AS name_en
+FROM stations
+LEFT JOIN station_names ON station_names.station_id = stations.sid
+GROUP BY stations.sid;
+
+-- The journey listing rows computed from the journeys and the station names.
+CREATE VIEW journey_listing_source AS
+SELECT journeys.jid AS jid, departure_time, arrival_time, departure_station_id, arrival_station_id,
+departure.station_name AS departure_station_name, arrival.station_name AS arrival_station_name,
+departure.name_fi AS departure_station_name_fi, arrival.name_fi AS arrival_station_name_fi,
+departure.name_sv AS departure_station_name_sv, arrival.name_sv AS arrival_station_name_sv,
+departure.name_en AS departure_station_name_en, arrival.name_en AS arrival_station_name_en,
+distance, {fn TIMESTAMPDIFF(SQL_TSI_SECOND, departure_time, arrival_time)} AS duration
+FROM journeys
+LEFT JOIN station_listing_names AS departure ON journeys.departure_station_id = departure.sid
+LEFT JOIN station_listing_names AS arrival ON journeys.arrival_station_id = arrival.sid;
+
+-- The denormalized journey listing read by the journey queries.
+CREATE TABLE journey_listing (
+    jid integer PRIMARY KEY,
+    departure_time timestamp NOT NULL,
+    arrival_time timestamp,
+    departure_station_id smallint NOT NULL,
+    arrival_station_id smallint,
+    departure_station_name varchar(80),
+    arrival_station_name varchar(80),
+    departure_station_name_fi varchar(80),
+    arrival_station_name_fi varchar(80),
+    departure_station_name_sv varchar(80),
+    arrival_station_name_sv varchar(80),
+    departure_station_name_en varchar(80),
+    arrival_station_name_en varchar(80),
+    distance integer,
+    duration integer
+);
+-- The default order of the journeys.
+CREATE INDEX journey_listing_order_idx ON journey_listing (departure_time DESC, jid ASC);
+CREATE INDEX journey_listing_departure_station_idx ON journey_listing (departure_station_id);
+CREATE INDEX journey_listing_arrival_station_idx ON journey_listing (arrival_station_id);
+
+-- The triggers maintaining the journey listing once per statement.
+-- - The triggers of the same event are fired in the order of their creation.
+CREATE TRIGGER journeys_listing_inserted_trigger AFTER INSERT ON journeys
+    REFERENCING NEW_TABLE AS new_journeys FOR EACH STATEMENT
+    INSERT INTO journey_listing SELECT * FROM journey_listing_source
+    WHERE jid IN (SELECT jid FROM new_journeys);
+CREATE TRIGGER journeys_listing_updated_trigger AFTER UPDATE ON journeys
+    REFERENCING OLD_TABLE AS old_journeys FOR EACH STATEMENT
+    DELETE FROM journey_listing WHERE jid IN (SELECT jid FROM old_journeys);
+CREATE TRIGGER journeys_listing_reinserted_trigger AFTER UPDATE ON journeys
+    REFERENCING NEW_TABLE AS new_journeys FOR EACH STATEMENT
+    INSERT INTO journey_listing SELECT * FROM journey_listing_source
+    WHERE jid IN (SELECT jid FROM new_journeys);
+CREATE TRIGGER journeys_listing_deleted_trigger AFTER DELETE ON journeys
+    REFERENCING OLD_TABLE AS old_journeys FOR EACH STATEMENT
+    DELETE FROM journey_listing WHERE jid IN (SELECT jid FROM old_journeys);
+
+-- The triggers updating the station names of the journey listing after a station name has
+-- been altered.
+CREATE TRIGGER station_names_departure_inserted_trigger AFTER INSERT ON station_names
+    REFERENCING NEW AS altered FOR EACH ROW
+    UPDATE journey_listing SET
+        departure_station_name = (SELECT station_name FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_fi = (SELECT name_fi FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_sv = (SELECT name_sv FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_en = (SELECT name_en FROM station_listing_names WHERE sid = altered.station_id)
+    WHERE departure_station_id = altered.station_id;
+CREATE TRIGGER station_names_arrival_inserted_trigger AFTER INSERT ON station_names
+    REFERENCING NEW AS altered FOR EACH ROW
+    UPDATE journey_listing SET
+        arrival_station_name = (SELECT station_name FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_fi = (SELECT name_fi FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_sv = (SELECT name_sv FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_en = (SELECT name_en FROM station_listing_names WHERE sid = altered.station_id)
+    WHERE arrival_station_id = altered.station_id;
+CREATE TRIGGER station_names_departure_updated_trigger AFTER UPDATE ON station_names
+    REFERENCING NEW AS altered FOR EACH ROW
+    UPDATE journey_listing SET
+        departure_station_name = (SELECT station_name FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_fi = (SELECT name_fi FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_sv = (SELECT name_sv FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_en = (SELECT name_en FROM station_listing_names WHERE sid = altered.station_id)
+    WHERE departure_station_id = altered.station_id;
+CREATE TRIGGER station_names_arrival_updated_trigger AFTER UPDATE ON station_names
+    REFERENCING NEW AS altered FOR EACH ROW
+    UPDATE journey_listing SET
+        arrival_station_name = (SELECT station_name FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_fi = (SELECT name_fi FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_sv = (SELECT name_sv FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_en = (SELECT name_en FROM station_listing_names WHERE sid = altered.station_id)
+    WHERE arrival_station_id = altered.station_id;
+CREATE TRIGGER station_names_departure_deleted_trigger AFTER DELETE ON station_names
+    REFERENCING OLD AS altered FOR EACH ROW
+    UPDATE journey_listing SET
+        departure_station_name = (SELECT station_name FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_fi = (SELECT name_fi FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_sv = (SELECT name_sv FROM station_listing_names WHERE sid = altered.station_id),
+        departure_station_name_en = (SELECT name_en FROM station_listing_names WHERE sid = altered.station_id)
+    WHERE departure_station_id = altered.station_id;
+CREATE TRIGGER station_names_arrival_deleted_trigger AFTER DELETE ON station_names
+    REFERENCING OLD AS altered FOR EACH ROW
+    UPDATE journey_listing SET
+        arrival_station_name = (SELECT station_name FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_fi = (SELECT name_fi FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_sv = (SELECT name_sv FROM station_listing_names WHERE sid = altered.station_id),
+        arrival_station_name_en = (SELECT name_en FROM station_listing_names WHERE sid = altered.station_id)
+    WHERE arrival_station_id = altered.station_id;
+
+-- The triggers increasing the data set version once per altering statement.
+CREATE TRIGGER journeys_inserted_version AFTER INSERT ON journeys
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER journeys_updated_version AFTER UPDATE ON journeys
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
+CREATE TRIGGER journeys_deleted_version AFTER DELETE ON journeys
+    FOR EACH STATEMENT VALUES NEXT VALUE FOR dataset_version_sequence;
@@ -0,0 +1,278 @@
+-- -*- mode: sql; sql-product: postres; sqlind-minor-mode; -*-
+/* The journeys tables. The station tables of create_db.postgresql.sql have to exist. 
+ */
+
+-- Adding the journeys table.
+DROP TABLE IF EXISTS journeys CASCADE; 
+
+/* The journeys partitioned by the month of the departure. 
+ * Each monthly import is loaded into a separate staging table, which is indexed and attached as 
+ * the partition of its month, thus the loads do not contend with the readers, and the queries 
+ * filtering by the departure time scan only the partitions of the requested months. 
+ * The partition key is part of the primary key as required by the partitioning. 
+ */
+CREATE TABLE journeys (
+    departure_time timestamp NOT NULL,
+    arrival_time timestamp DEFAULT NULL,
+    jid serial NOT NULL,
+    departure_station_id smallint NOT NULL,
+    arrival_station_id smallint,
+    duration integer,
+    distance integer,
+    PRIMARY KEY (jid, departure_time), 
+    constraint valid_departure_station_id 
+	FOREIGN KEY (departure_station_id) REFERENCES stations (sid) ON UPDATE CASCADE ON DELETE CASCADE,
+    constraint valid_arrival_station_id 
+	FOREIGN KEY (arrival_station_id) REFERENCES stations (sid) ON UPDATE CASCADE ON DELETE CASCADE
+) PARTITION BY RANGE (departure_time);
+
+-- The journeys of the months without partition. 
+CREATE TABLE journeys_default PARTITION OF journeys DEFAULT;
+
+-- The function creating the partition of a month, if it does not exist. 
+CREATE OR REPLACE FUNCTION create_journeys_partition (month date)
+    RETURNS text
+    AS $$
+DECLARE
+    partition_name text := format('journeys_%s', to_char(month, 'YYYY_MM'));
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF journeys FOR VALUES FROM (%L) TO (%L)', 
+        partition_name, date_trunc('month', month::timestamp), date_trunc('month', month::timestamp) + interval '1 month');
+    RETURN partition_name;
+END;
+$$
+LANGUAGE plpgsql;
+
+-- The function to deal with updats on the view names_of_operators updates.
+CREATE OR REPLACE FUNCTION alter_journeys_info_view ()
+    RETURNS TRIGGER
+    AS $BODY$
+DECLARE
+    data_row RECORD; 
+	station_name VARCHAR; 
+BEGIN
+    IF T_OP = 'INSERT' OR T_OP = 'UPDATE' THEN
+        -- Insertting a new record or altering an existing record.
+        IF NEW.departure_station_name IS NULL THEN 
+            -- Seeking the station name from station names. 
+            SELECT station_name, lang INTO STRICT data_row 
+            FROM station_info
+            WHERE station_info.station_id = NEW.departure_station_id;
+            IF FOUND  THEN 
+				-- The station has no name
+				INSERT INTO station_names (name, lang, station_id) VALUES (data_row.station_name, data_row.lang, NEW.departure_station_id)
+                RETURNING name INTO station_name; 
+				IF NOT FOUND THEN 
+					RAISE EXCEPTION 'Could not add new departure station name';
+				END IF; 
+			END IF;
+        ELSE
+            -- Testing validity of the station name. 
+            IF NOT EXISTS (
+                SELECT name   
+                FROM station_names
+                WHERE 
+                    station_id = NEW.departure_station_id AND station_name = NEW.departure_station_name) THEN  
+                -- Invalid station name. 
+                return NULL; 
+            END IF; 
+        END IF; 
+        -- The alteration is accepted. 
+    ELSE
+        -- Deleting record - no constrait checks are performed as the fields are always correct
+    END IF;
+    -- Returning default result.
+    IF T_OP = 'INSERT' OR T_OP = 'ALTER' THEN
+        RETURN NEW;
+    ELSE
+        RETURN OLD;
+    END IF;
+END;
+$BODY$
+LANGUAGE plpgsql;
+
+-- Creating journeys view with descending order of time and row id. 
+CREATE OR REPLACE VIEW journeys_info AS 
+SELECT journeys.jid AS jid, departure_time, arrival_time, departure_station_id, arrival_station_id, ROW_NUMBER () OVER (ORDER BY departure_time DESC, journeys.jid ASC) AS row_id, 
+departure.station_name as departure_station_name, arrival.station_name as arrival_station_name, distance, 
+EXTRACT(EPOCH FROM (arrival_time - departure_time)) AS duration
+FROM journeys 
+LEFT JOIN station_info AS departure ON journeys.departure_station_id=departure.sid
+LEFT JOIN station_info AS arrival ON journeys.arrival_station_id=arrival.sid; 
+
+/* The names of the stations in the default language of the station and in the languages of the 
+ * journey listing. 
+ */
+CREATE OR REPLACE VIEW station_listing_names AS 
+SELECT stations.sid AS sid, 
+    max(station_names.name) FILTER (WHERE station_names.lang = stations.lang) AS station_name, 
+    max(station_names.name) FILTER (WHERE station_names.lang = 'fi') AS name_fi, 
+    max(station_names.name) FILTER (WHERE station_names.lang = 'sv') AS name_sv, 
+    max(station_names.name) FILTER (WHERE station_names.lang = 'en') AS name_en
+FROM stations 
+LEFT JOIN station_names ON station_names.station_id = stations.sid
+GROUP BY stations.sid, stations.lang; 
+
+/* The journey listing rows computed from the journeys and the station names. 
+ */
+CREATE OR REPLACE VIEW journey_listing_source AS 
+SELECT journeys.jid AS jid, departure_time, arrival_time, departure_station_id, arrival_station_id, 
+departure.station_name AS departure_station_name, arrival.station_name AS arrival_station_name, 
+departure.name_fi AS departure_station_name_fi, arrival.name_fi AS arrival_station_name_fi, 
+departure.name_sv AS departure_station_name_sv, arrival.name_sv AS arrival_station_name_sv, 
+departure.name_en AS departure_station_name_en, arrival.name_en AS arrival_station_name_en, 
+distance, EXTRACT(EPOCH FROM (arrival_time - departure_time))::integer AS duration
+FROM journeys 
+LEFT JOIN station_listing_names AS departure ON journeys.departure_station_id = departure.sid
+LEFT JOIN station_listing_names AS arrival ON journeys.arrival_station_id = arrival.sid; 
+
+/* The denormalized journey listing read by the journey queries. 
+ * The listing carries the station names and the duration of the journeys, thus the list 
+ * queries scan a single table without joins. The listing is maintained by the triggers of the 
+ * journeys and the station names, and by the attaching of the monthly journey partitions. 
+ */
+DROP TABLE IF EXISTS journey_listing CASCADE; 
+CREATE TABLE journey_listing (
+    jid integer PRIMARY KEY,
+    departure_time timestamp NOT NULL,
+    arrival_time timestamp,
+    departure_station_id smallint NOT NULL,
+    arrival_station_id smallint,
+    departure_station_name varchar(80),
+    arrival_station_name varchar(80),
+    departure_station_name_fi varchar(80),
+    arrival_station_name_fi varchar(80),
+    departure_station_name_sv varchar(80),
+    arrival_station_name_sv varchar(80),
+    departure_station_name_en varchar(80),
+    arrival_station_name_en varchar(80),
+    distance integer,
+    duration integer
+);
+-- The default order of the journeys. 
+CREATE INDEX journey_listing_order_idx ON journey_listing (departure_time DESC, jid ASC); 
+CREATE INDEX journey_listing_departure_station_idx ON journey_listing (departure_station_id); 
+CREATE INDEX journey_listing_arrival_station_idx ON journey_listing (arrival_station_id); 
+
+-- The function replacing the listing of the journeys departed within the given time range. 
+CREATE OR REPLACE FUNCTION refresh_journey_listing (from_time timestamp, to_time timestamp)
+    RETURNS bigint
+    AS $$
+DECLARE
+    row_count bigint; 
+BEGIN
+    DELETE FROM journey_listing WHERE departure_time >= from_time AND departure_time < to_time; 
+    INSERT INTO journey_listing 
+        SELECT * FROM journey_listing_source 
+        WHERE departure_time >= from_time AND departure_time < to_time; 
+    GET DIAGNOSTICS row_count = ROW_COUNT; 
+    RETURN row_count; 
+END;
+$$
+LANGUAGE plpgsql;
+
+-- The function updating the journey listing with the altered journeys once per statement. 
+CREATE OR REPLACE FUNCTION journeys_listing_trigger ()
+    RETURNS TRIGGER
+    AS $$
+BEGIN
+    IF TG_OP = 'TRUNCATE' THEN 
+        TRUNCATE journey_listing; 
+        RETURN NULL; 
+    END IF; 
+    IF TG_OP = 'UPDATE' OR TG_OP = 'DELETE' THEN 
+        DELETE FROM journey_listing WHERE jid IN (SELECT jid FROM old_journeys); 
+    END IF; 
+    IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN 
+        INSERT INTO journey_listing 
+            SELECT * FROM journey_listing_source 
+            WHERE (jid, departure_time) IN (SELECT jid, departure_time FROM new_journeys); 
+    END IF; 
+    RETURN NULL;
+END;
+$$
+LANGUAGE plpgsql;
+
+-- The triggers maintaining the journey listing. 
+-- - The transition tables allow only one event per trigger.
+CREATE OR REPLACE TRIGGER journeys_listing_inserted_trigger AFTER INSERT ON journeys 
+    REFERENCING NEW TABLE AS new_journeys
+    FOR EACH STATEMENT EXECUTE FUNCTION journeys_listing_trigger ();
+CREATE OR REPLACE TRIGGER journeys_listing_updated_trigger AFTER UPDATE ON journeys 
+    REFERENCING OLD TABLE AS old_journeys NEW TABLE AS new_journeys
+    FOR EACH STATEMENT EXECUTE FUNCTION journeys_listing_trigger ();
+CREATE OR REPLACE TRIGGER journeys_listing_deleted_trigger AFTER DELETE ON journeys 
+    REFERENCING OLD TABLE AS old_journeys
+    FOR EACH STATEMENT EXECUTE FUNCTION journeys_listing_trigger ();
+CREATE OR REPLACE TRIGGER journeys_listing_truncated_trigger AFTER TRUNCATE ON journeys 
+    FOR EACH STATEMENT EXECUTE FUNCTION journeys_listing_trigger ();
+
+-- The function updating the station names of the journey listing of the given stations. 
+CREATE OR REPLACE FUNCTION refresh_journey_listing_stations (station_ids smallint[])
+    RETURNS void
+    AS $$
+BEGIN
+    UPDATE journey_listing SET 
+        departure_station_name = names.station_name, departure_station_name_fi = names.name_fi, 
+        departure_station_name_sv = names.name_sv, departure_station_name_en = names.name_en
+    FROM station_listing_names AS names 
+    WHERE journey_listing.departure_station_id = names.sid AND names.sid = ANY (station_ids); 
+    UPDATE journey_listing SET 
+        arrival_station_name = names.station_name, arrival_station_name_fi = names.name_fi, 
+        arrival_station_name_sv = names.name_sv, arrival_station_name_en = names.name_en
+    FROM station_listing_names AS names 
+    WHERE journey_listing.arrival_station_id = names.sid AND names.sid = ANY (station_ids); 
+END;
+$$
+LANGUAGE plpgsql;
+
+-- The function updating the journey listing after the station names have been altered. 
+CREATE OR REPLACE FUNCTION station_names_listing_trigger ()
+    RETURNS TRIGGER
+    AS $$
+BEGIN
+    PERFORM refresh_journey_listing_stations(ARRAY(SELECT DISTINCT station_id FROM altered_station_names)); 
+    RETURN NULL;
+END;
+$$
+LANGUAGE plpgsql;
+
+-- The function updating the journey listing after the default languages of the stations have been altered. 
+CREATE OR REPLACE FUNCTION stations_listing_trigger ()
+    RETURNS TRIGGER
+    AS $$
+BEGIN
+    PERFORM refresh_journey_listing_stations(ARRAY(
+        SELECT new_stations.sid FROM new_stations JOIN old_stations ON old_stations.id = new_stations.id 
+        WHERE new_stations.lang IS DISTINCT FROM old_stations.lang)); 
+    RETURN NULL;
+END;
+$$
+LANGUAGE plpgsql;
+
+-- The triggers maintaining the station names of the journey listing. 
+CREATE OR REPLACE TRIGGER station_names_listing_inserted_trigger AFTER INSERT ON station_names 
+    REFERENCING NEW TABLE AS altered_station_names
+    FOR EACH STATEMENT EXECUTE FUNCTION station_names_listing_trigger ();
+CREATE OR REPLACE TRIGGER station_names_listing_updated_trigger AFTER UPDATE ON station_names 
+    REFERENCING NEW TABLE AS altered_station_names
+    FOR EACH STATEMENT EXECUTE FUNCTION station_names_listing_trigger ();
+CREATE OR REPLACE TRIGGER station_names_listing_deleted_trigger AFTER DELETE ON station_names 
+    REFERENCING OLD TABLE AS altered_station_names
+    FOR EACH STATEMENT EXECUTE FUNCTION station_names_listing_trigger ();
+CREATE OR REPLACE TRIGGER stations_listing_updated_trigger AFTER UPDATE ON stations 
+    REFERENCING OLD TABLE AS old_stations NEW TABLE AS new_stations
+    FOR EACH STATEMENT EXECUTE FUNCTION stations_listing_trigger ();
+
+
+-- Adding the trigger updating the localized_operator_names table accordingly after the operators table has been updated.
+-- - This trigger is called before the operator counts are updated.
+CREATE OR REPLACE TRIGGER journeys_info_altering_trigger INSTEAD OF INSERT
+    OR UPDATE
+    OR DELETE ON journeys_info FOR EACH ROW EXECUTE FUNCTION alter_journeys_info_view ();;
+
+-- Increasing the data set version once per altering statement. 
+CREATE OR REPLACE TRIGGER journeys_dataset_version AFTER INSERT
+    OR UPDATE
+    OR DELETE
+    OR TRUNCATE ON journeys FOR EACH STATEMENT EXECUTE FUNCTION bump_dataset_version ();
@@ -16,13 +16,17 @@ import java.util.function.Function;
 import java.util.function.IntConsumer;
 import java.util.function.IntFunction;
 import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import i18n.Logging;
+import i18n.RateLimit;
 import solita.helsinkicitybikeapp.model.CSVDocument;
 import solita.helsinkicitybikeapp.model.CSVException;
 import solita.helsinkicitybikeapp.model.SimpleCSVDocument;
+import solita.helsinkicitybikeapp.metrics.Counter;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
 
 /**
  * Class reading CSV files.
@@ -32,6 +36,18 @@ import solita.helsinkicitybikeapp.model.SimpleCSVDocument;
  */
 public class CSVReader {
 
+	/**
+	 * The counter of the rows read.
+	 */
+	private static final Counter ROWS = MetricsRegistry.getDefault().counter("csv_rows_total",
+			"The number of CSV rows read", "parser", "chars");
+
+	/**
+	 * The counter of the rows failing to parse.
+	 */
+	private static final Counter PARSE_ERRORS = MetricsRegistry.getDefault().counter("csv_parse_errors_total",
+			"The number of CSV rows failing to parse", "parser", "chars");
+
 	private Scanner lineScanner;
 
 	/**
@@ -149,8 +165,17 @@ public class CSVReader {
 			this.logger = logger;
 		}
 
+		/**
+		 * The rate limit of the reported errors.
+		 */
+		private final RateLimit rateLimit = new RateLimit();
+
 		public <E extends Exception> void handleException(E exception) throws E {
-			logger.severe("Exception {0}: {1}", exception.getClass().getName(), exception.getMessage());
+			if (logger != null) {
+				// Lenient reading may report an error for every row.
+				logger.log(rateLimit, Level.SEVERE, "Exception {0}: {1}", exception.getClass().getName(),
+						exception.getMessage());
+			}
 		}
 	}
 
@@ -861,6 +886,27 @@ public class CSVReader {
 		return result;
 	}
 
+	/**
+	 * Reads next row updating the row and parse error metrics.
+	 * 
+	 * @return The list of fields of the next row. Undefined (<code>null</code>)
+	 *         value, if the source has no more rows.
+	 * @throws IOException              The reading failed due I/O exception.
+	 * @throws java.text.ParseException The reading failed due invalid format.
+	 */
+	private List<CharSequence> countedReadRow() throws IOException, java.text.ParseException {
+		try {
+			List<CharSequence> result = readRow();
+			if (result != null) {
+				ROWS.increment();
+			}
+			return result;
+		} catch (ParseException pe) {
+			PARSE_ERRORS.increment();
+			throw pe;
+		}
+	}
+
 	/**
 	 * Test validity of read row.
 	 * 
@@ -1024,7 +1070,7 @@ public class CSVReader {
 	 *                               row.
 	 */
 	public List<String> readHeaderRow() throws IOException, ParseException, IllegalStateException {
-		List<CharSequence> result = readRow();
+		List<CharSequence> result = countedReadRow();
 		if (result == null)
 			return null; // There is no header to read.
 
@@ -1034,6 +1080,7 @@ public class CSVReader {
 			return result.stream().map((CharSequence element) -> (element.toString())).toList();
 		} else {
 			// Determining the error position.
+			PARSE_ERRORS.increment();
 			checkHeaderRow(result);
 
 			// The check header row should always throw exception.
@@ -1054,7 +1101,7 @@ public class CSVReader {
 	 *                               row.
 	 */
 	public List<String> readDataRow() throws IOException, ParseException {
-		List<CharSequence> result = readRow();
+		List<CharSequence> result = countedReadRow();
 
 		// Checking validity of the header row.
 		if (validDataRow(result)) {
@@ -1062,6 +1109,7 @@ public class CSVReader {
 			return result.stream().map((CharSequence element) -> (element.toString())).toList();
 		} else {
 			// Determining the error position.
+			PARSE_ERRORS.increment();
 			checkDataRow(result);
 
 			// The check header row should always throw exception.
@@ -1,7 +1,9 @@
 package solita.helsinki.citybikeapp.controller;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.Connection;
@@ -13,12 +15,16 @@ import java.util.regex.Pattern;
 
 import i18n.Logging;
 import solita.helsinki.citybikeapp.controller.CSVReader.CSVHandler;
+import solita.helsinkicitybikeapp.metrics.Counter;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
 import solita.helsinkicitybikeapp.model.CSVException;
 import solita.helsinkicitybikeapp.model.CSVException.RowType;
 import solita.helsinkicitybikeapp.model.CSVJourneys;
+import solita.helsinkicitybikeapp.model.ColumnarJourneys;
 import solita.helsinkicitybikeapp.model.Config;
 import solita.helsinkicitybikeapp.model.Journeys;
 import solita.helsinkicitybikeapp.model.Journeys.Journey;
+import solita.helsinkicitybikeapp.model.OffHeapJourneys;
 import solita.helsinkicitybikeapp.model.db.DatabaseJourneys;
 
 /**
@@ -39,7 +45,135 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 	 * 
 	 */
 	public static final Pattern CSV_HEADER_PATTERN = Pattern
-			.compile("^(?:\\u000d\\u00bb\\u00bf)?" + CSVReader.CSV_SIMPLE_DATA_ROW.toString());
+			.compile("^(?:\\ufeff)?" + CSVReader.CSV_SIMPLE_DATA_ROW.toString());
+
+	/**
+	 * The counter of the accepted journey rows. 
+	 */
+	private static final Counter ACCEPTED_ROWS = MetricsRegistry.getDefault().counter("journeys_loader_rows_total", 
+			"The number of journey rows handled by the loader", "result", "accepted"); 
+	
+	/**
+	 * The counter of the rejected journey rows. 
+	 */
+	private static final Counter REJECTED_ROWS = MetricsRegistry.getDefault().counter("journeys_loader_rows_total", 
+			"The number of journey rows handled by the loader", "result", "rejected"); 
+	
+	/**
+	 * The counter of the rows of the byte parser failing to parse. 
+	 */
+	private static final Counter PARSE_ERRORS = MetricsRegistry.getDefault().counter("csv_parse_errors_total", 
+			"The number of CSV rows failing to parse", "parser", "bytes"); 
+	
+	/**
+	 * The journey properties of the columns of the Journeys CSV files. The files
+	 * may also have the journey identifier as the first column. 
+	 */
+	public static final List<String> CSV_COLUMN_PROPERTIES = java.util.Collections.unmodifiableList(
+			java.util.Arrays.asList(Journeys.START_TIME_PROPERTY, Journeys.END_TIME_PROPERTY,
+					Journeys.START_LOCATION_ID_PROPERTY, Journeys.START_LOCATION_NAME_PROPERTY,
+					Journeys.END_LOCATION_ID_PROPERTY, Journeys.END_LOCATION_NAME_PROPERTY,
+					Journeys.DISTANCE_PROPERTY, Journeys.DURATION_PROPERTY));
+
+	/**
+	 * The journey properties of the columns of a CSV file with the given number of fields. 
+	 * @param fieldCount The number of fields of the rows. 
+	 * @return The list of the properties of the columns, or undefined value, if the field
+	 *  count does not match a Journeys CSV file. 
+	 */
+	public static List<String> getColumnProperties(int fieldCount) {
+		if (fieldCount == CSV_COLUMN_PROPERTIES.size()) {
+			return CSV_COLUMN_PROPERTIES; 
+		} else if (fieldCount == CSV_COLUMN_PROPERTIES.size() + 1) {
+			List<String> result = new java.util.ArrayList<>(fieldCount); 
+			result.add(Journeys.ID_PROPERTY); 
+			result.addAll(CSV_COLUMN_PROPERTIES); 
+			return java.util.Collections.unmodifiableList(result); 
+		} else {
+			return null; 
+		}
+	}
+	
+	/**
+	 * The source stream of the CSV content. 
+	 */
+	private InputStream source; 
+	
+	/**
+	 * Does the loader parse the UTF-8 bytes directly. 
+	 */
+	private boolean byteParsing = true; 
+	
+	/**
+	 * The journey properties of the CSV columns. 
+	 */
+	private List<String> columnProperties = null; 
+	
+	/**
+	 * The number of rows rejected due invalid content. 
+	 */
+	private long rejectedCount = 0; 
+	
+	/**
+	 * The quarantine of the rejected rows. 
+	 */
+	private Quarantine quarantine = new Quarantine(); 
+	
+	/**
+	 * The size of the ring buffer between the decompression and the parsing. 
+	 */
+	private int bufferSize = RingBufferInputStream.DEFAULT_CAPACITY; 
+	
+	/**
+	 * The compression of the CSV sources. 
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static enum Compression {
+		/**
+		 * The uncompressed CSV content. 
+		 */
+		NONE, 
+		/**
+		 * The gzip compressed CSV content. 
+		 */
+		GZIP, 
+		/**
+		 * The zip archive containing CSV entries. 
+		 */
+		ZIP; 
+		
+		/**
+		 * Detects the compression of the stream from its first bytes. 
+		 * @param in The stream supporting mark. The position of the stream is not changed. 
+		 * @return The compression of the stream content. 
+		 * @throws IOException The reading failed. 
+		 * @throws IllegalArgumentException The stream does not support mark. 
+		 */
+		public static Compression detect(InputStream in) throws IOException, IllegalArgumentException {
+			if (!in.markSupported()) {
+				throw new IllegalArgumentException("Stream without mark support"); 
+			}
+			byte[] magic = new byte[4]; 
+			int length = 0, read; 
+			in.mark(magic.length); 
+			try {
+				while (length < magic.length && (read = in.read(magic, length, magic.length - length)) >= 0) {
+					length += read; 
+				}
+			} finally {
+				in.reset(); 
+			}
+			if (length >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+				return GZIP; 
+			} else if (length == 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+				return ZIP; 
+			} else {
+				return NONE; 
+			}
+		}
+	}
 
 	
 	/**
@@ -74,7 +208,12 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 			int index = 0;
 			String fieldString; 
 			CharSequence fieldValue; 
-			for (String property: JourneysLoader.this.getJourneys().getPropertyNames()) {
+			List<String> properties = (columnProperties == null ? getColumnProperties(rowFields.size()) : columnProperties); 
+			if (properties == null || properties.size() != rowFields.size()) {
+				throw new CSVException.InvalidRowException(RowType.DATA, CSVException.Reason.FIELD_COUNT, -1, 
+						"Invalid field count", rowFields, null); 
+			}
+			for (String property: properties) {
 				try {
 					// Assigning the property value
 					fieldValue = rowFields.get(index); 
@@ -82,12 +221,36 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 					entry.setProperty(property, entry.propertyFormatter(property).parseObject(fieldString)); 
 				} catch(IllegalArgumentException | java.text.ParseException pe) {
 					// The value was invalid. 
-					throw new CSVException.InvalidRowException(RowType.DATA, 
-							format("Invalid field value at index {0}", index), rowFields); 
+					throw new CSVException.InvalidRowException(RowType.DATA, CSVException.Reason.INVALID_VALUE, index, 
+							CSVException.Reason.INVALID_VALUE.getMessage(), rowFields, null); 
 				}
 				index++; 
 			}
-			JourneysLoader.this.getJourneys().addJourney(entry); 
+			try {
+				if (JourneysLoader.this.getJourneys().addJourney(entry)) {
+					fireJourneyLoaded(entry); 
+				}
+			} catch (IllegalArgumentException iae) {
+				throw new CSVException.InvalidRowException(RowType.DATA, CSVException.Reason.INVALID_JOURNEY, -1, 
+						iae.getMessage(), rowFields, null); 
+			}
+		}
+		
+		/**
+		 * The invalid data rows are quarantined, and the other exceptions are thrown. 
+		 */
+		@Override
+		public <E extends Exception> void handleException(E exception) throws E {
+			if (exception instanceof CSVException.InvalidRowException invalid && invalid.rowType == RowType.DATA 
+					&& invalid.row != null) {
+				try {
+					reject(reader.getLineNumber(), invalid.column, invalid.reason, toCSVBytes(invalid.row)); 
+				} catch (IOException ioe) {
+					throw new CSVException(severe("Writing quarantine failed: {0}", ioe.getMessage()), ioe); 
+				}
+			} else {
+				throw exception; 
+			}
 		}
 
 		/**
@@ -102,14 +265,12 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 				throw new CSVException.DuplicateHeaderException(headerFields);
 			}
 			Journeys data = getJourneys(); 
-			if (data.getJourneyPropertyNames().size() != headerFields.size()) {
+			List<String> propertyNames = getColumnProperties(headerFields.size()); 
+			if (propertyNames == null) {
 				throw new CSVException.InvalidRowException(CSVException.RowType.HEADER, "Invalid field count", headerFields);
 			} 
-			// TODO: Add journey caption support to the Journeys
-			String fieldString; 
-			CharSequence fieldValue; 
 			propertyCaptions = headerFields.stream().map(VALUE_TO_STRING).toList();
-			List<String> propertyNames = data.getJourneyPropertyNames(); 
+			columnProperties = propertyNames; 
 			for (int i=0, len=propertyNames.size(); i < len; i++) {
 				data.setPropertyCaption(propertyNames.get(i), propertyCaptions.get(i)); 
 			}
@@ -133,8 +294,7 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 	 * @throws java.sql.SQLException The database connection failed. 
 	 */
 	public JourneysLoader(java.io.InputStream source, java.sql.Connection db) throws IOException, java.sql.SQLException {
-		reader = new CSVReader(getCSVHandler(), CSV_HEADER_PATTERN);
-		reader.open(source);
+		open(source); 
 		data = db == null?new CSVJourneys():new DatabaseJourneys(db); 
 	}
 	
@@ -146,9 +306,7 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 	 * @throws java.sql.SQLException The database connection failed. 
 	 */
 	public JourneysLoader(URL source, java.sql.Connection db) throws IOException, java.sql.SQLException {
-		reader = new CSVReader(getCSVHandler(), CSV_HEADER_PATTERN);
-		reader.open(source);
-		data = db == null?new CSVJourneys():new DatabaseJourneys(db); 
+		this(source.openStream(), db); 
 	}
 
 	/**
@@ -159,16 +317,186 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 	 * @throws java.sql.SQLException The database connection failed. 
 	 */
 	public JourneysLoader(File source, java.sql.Connection db) throws IOException, java.sql.SQLException {
+		this(new FileInputStream(source), db); 
+	}
+	
+	/**
+	 * Create Journeys CSV file loader adding the journeys into the given journeys.
+	 * @param source The source URL. 
+	 * @param target The journeys into which the read journeys are added. 
+	 * @throws IOException The opening of the source content failed. 
+	 */
+	public JourneysLoader(URL source, Journeys target) throws IOException {
+		this(source.openStream(), target); 
+	}
+	
+	/**
+	 * Create Journeys CSV file loader adding the journeys into the given journeys.
+	 * @param source The source stream of CSV. 
+	 * @param target The journeys into which the read journeys are added. 
+	 * @throws IOException The opening of the source content failed. 
+	 */
+	public JourneysLoader(InputStream source, Journeys target) throws IOException {
+		open(source); 
+		data = java.util.Objects.requireNonNull(target, "Undefined target journeys"); 
+	}
+	
+	/**
+	 * Opens the source stream for reading. 
+	 * @param source The source stream of CSV. 
+	 * @throws IOException The opening of the source failed. 
+	 */
+	private void open(InputStream source) throws IOException {
+		this.source = source.markSupported() ? source : new java.io.BufferedInputStream(source); 
 		reader = new CSVReader(getCSVHandler(), CSV_HEADER_PATTERN);
-		reader.open(source);
-		data = db == null?new CSVJourneys():new DatabaseJourneys(db); 
+		reader.open(this.source);
+	}
+	
+	/**
+	 * The size of the ring buffer between the decompression and the parsing of 
+	 * compressed sources. 
+	 * @return The buffer size in bytes. 
+	 */
+	public int getBufferSize() {
+		return bufferSize; 
+	}
+	
+	/**
+	 * Sets the size of the ring buffer between the decompression and the parsing of 
+	 * compressed sources. 
+	 * @param bufferSize The buffer size in bytes. 
+	 * @throws IllegalArgumentException The size was not positive. 
+	 */
+	public void setBufferSize(int bufferSize) throws IllegalArgumentException {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size must be positive"); 
+		}
+		this.bufferSize = bufferSize; 
+	}
+	
+	/**
+	 * Does the loader parse the UTF-8 bytes of the source directly instead of 
+	 * reading it through the character based CSV reader. 
+	 * @return True, if and only if the byte parsing is used. 
+	 */
+	public boolean isByteParsing() {
+		return byteParsing; 
+	}
+	
+	/**
+	 * Sets the parsing mode of the loader. 
+	 * @param byteParsing Does the loader parse the UTF-8 bytes directly. 
+	 */
+	public void setByteParsing(boolean byteParsing) {
+		this.byteParsing = byteParsing; 
+	}
+	
+	/**
+	 * The number of data rows rejected by the last read. 
+	 * @return The number of rejected rows. 
+	 */
+	public long getRejectedCount() {
+		return rejectedCount; 
+	}
+	
+	/**
+	 * The quarantine of the rejected rows. 
+	 * @return The quarantine recording the rejected rows. 
+	 */
+	public Quarantine getQuarantine() {
+		return quarantine; 
+	}
+	
+	/**
+	 * Sets the quarantine of the rejected rows. 
+	 * 
+	 * The quarantine may be shared by several loaders. 
+	 * @param quarantine The quarantine. An undefined quarantine only counts the rejected rows. 
+	 */
+	public void setQuarantine(Quarantine quarantine) {
+		this.quarantine = (quarantine == null ? new Quarantine() : quarantine); 
+	}
+	
+	/**
+	 * Rejects a data row. 
+	 * @param line The line number of the row. 
+	 * @param column The index of the invalid column, or -1, if the whole row is invalid. 
+	 * @param reason The reason of the rejection. 
+	 * @param row The raw bytes of the row. 
+	 * @throws IOException The writing of the quarantine failed. 
+	 */
+	protected void reject(long line, int column, CSVException.Reason reason, byte[] row) throws IOException {
+		rejectedCount++; 
+		quarantine.reject(line, column, reason, row); 
+	}
+	
+	/**
+	 * Encodes the fields as a CSV row. 
+	 * @param fields The fields. 
+	 * @return The UTF-8 bytes of the CSV row. 
+	 */
+	private static byte[] toCSVBytes(List<? extends CharSequence> fields) {
+		StringBuilder result = new StringBuilder(); 
+		for (CharSequence field: fields) {
+			if (result.length() > 0) {
+				result.append(','); 
+			}
+			result.append('"').append(field.toString().replace("\"", "\"\"")).append('"'); 
+		}
+		return result.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8); 
 	}
 	
 	/**
 	 * Reads all journeys from the journey reader. 
+	 * 
+	 * The gzip compressed sources and zip archives are decompressed on a dedicated
+	 * thread while the content is parsed. Every CSV entry of a zip archive is read. 
 	 * @return True, if and only if the reading succeeded. 
 	 */
 	public boolean readAll() {
+		rejectedCount = 0; 
+		Compression compression; 
+		try {
+			compression = Compression.detect(source); 
+		} catch (IOException ioe) {
+			severe("Reading journeys failed: {0}", ioe.getMessage()); 
+			return false; 
+		}
+		if (isByteParsing()) {
+			try {
+				switch (compression) {
+				case GZIP:
+					try (Utf8CSVParser parser = new Utf8CSVParser(new RingBufferInputStream(
+							new java.util.zip.GZIPInputStream(source, 65536), bufferSize, true))) {
+						return readAll(parser); 
+					}
+				case ZIP:
+					return readZipEntries(new java.util.zip.ZipInputStream(source)); 
+				default:
+					try (Utf8CSVParser parser = new Utf8CSVParser(source)) {
+						return readAll(parser); 
+					}
+				}
+			} catch (CSVException | IOException e) {
+				severe("Reading journeys failed: {0}", e.getMessage()); 
+				return false; 
+			}
+		}
+		try {
+			switch (compression) {
+			case GZIP:
+				reader.open(new java.util.zip.GZIPInputStream(source, 65536)); 
+				break; 
+			case ZIP:
+				severe("Reading zip archives requires byte parsing"); 
+				return false; 
+			default:
+				// The reader reads the source as is. 
+			}
+		} catch (IOException ioe) {
+			severe("Reading journeys failed: {0}", ioe.getMessage()); 
+			return false; 
+		}
 		try {
 			// Reading all rows of the read file. 
 			return reader.readAll();
@@ -177,4 +505,312 @@ public class JourneysLoader implements i18n.Logging.LocalizedMessageLogging {
 			return false; 
 		} 
 	}
+	
+	/**
+	 * The listener of the loaded journeys. 
+	 * 
+	 * The listeners see the journeys in the order they are loaded on the loading thread. 
+	 * The undefined values are {@link ColumnarJourneys#UNDEFINED_TIME} and 
+	 * {@link ColumnarJourneys#UNDEFINED_INT}. 
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	public static interface JourneyListener {
+		
+		/**
+		 * Handles a loaded journey. 
+		 * @param startTime      The departure time in milliseconds since epoch.
+		 * @param endTime        The return time in milliseconds since epoch.
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @param distance       The covered distance.
+		 * @param duration       The duration.
+		 */
+		void journeyLoaded(long startTime, long endTime, int startStationId, int endStationId, int distance, 
+				int duration); 
+	}
+	
+	/**
+	 * The listeners of the loaded journeys. 
+	 */
+	private final List<JourneyListener> listeners = new java.util.concurrent.CopyOnWriteArrayList<>(); 
+	
+	/**
+	 * Adds a listener of the loaded journeys. 
+	 * @param listener The added listener. 
+	 * @throws NullPointerException The listener was undefined. 
+	 */
+	public void addJourneyListener(JourneyListener listener) throws NullPointerException {
+		listeners.add(java.util.Objects.requireNonNull(listener, "Undefined journey listener")); 
+	}
+	
+	/**
+	 * Removes a listener of the loaded journeys. 
+	 * @param listener The removed listener. 
+	 */
+	public void removeJourneyListener(JourneyListener listener) {
+		listeners.remove(listener); 
+	}
+	
+	/**
+	 * Informs the listeners of a loaded journey. 
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 */
+	protected void fireJourneyLoaded(long startTime, long endTime, int startStationId, int endStationId, 
+			int distance, int duration) {
+		for (JourneyListener listener: listeners) {
+			listener.journeyLoaded(startTime, endTime, startStationId, endStationId, distance, duration); 
+		}
+	}
+	
+	/**
+	 * Informs the listeners of a loaded journey. 
+	 * @param journey The loaded journey. 
+	 */
+	protected void fireJourneyLoaded(Journey journey) {
+		if (listeners.isEmpty()) {
+			return; 
+		}
+		Object startTime = journey.getProperty(Journeys.START_TIME_PROPERTY), 
+				endTime = journey.getProperty(Journeys.END_TIME_PROPERTY), 
+				startId = journey.getProperty(Journeys.START_LOCATION_ID_PROPERTY), 
+				endId = journey.getProperty(Journeys.END_LOCATION_ID_PROPERTY), 
+				distance = journey.getProperty(Journeys.DISTANCE_PROPERTY), 
+				duration = journey.getProperty(Journeys.DURATION_PROPERTY); 
+		fireJourneyLoaded(
+				startTime instanceof java.util.Date date ? date.getTime() : ColumnarJourneys.UNDEFINED_TIME, 
+				endTime instanceof java.util.Date date ? date.getTime() : ColumnarJourneys.UNDEFINED_TIME, 
+				startId instanceof Integer value ? value : ColumnarJourneys.UNDEFINED_INT, 
+				endId instanceof Integer value ? value : ColumnarJourneys.UNDEFINED_INT, 
+				distance instanceof Integer value ? value : ColumnarJourneys.UNDEFINED_INT, 
+				duration instanceof Integer value ? value : ColumnarJourneys.UNDEFINED_INT); 
+	}
+	
+	/**
+	 * The typed journey consumer of the byte parsing. 
+	 */
+	@FunctionalInterface
+	protected static interface TypedJourneyConsumer {
+		
+		/**
+		 * Adds a journey from its typed property values. 
+		 * @param id             The journey identifier. 
+		 * @param startTime      The departure time in milliseconds since epoch.
+		 * @param endTime        The return time in milliseconds since epoch.
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @param startName      The departure station name.
+		 * @param endName        The return station name.
+		 * @param distance       The covered distance.
+		 * @param duration       The duration.
+		 * @return True, if and only if the journey was added.
+		 * @throws IllegalArgumentException The journey was invalid.
+		 */
+		boolean addJourney(int id, long startTime, long endTime, int startStationId, int endStationId,
+				String startName, String endName, int distance, int duration) throws IllegalArgumentException; 
+	}
+	
+	/**
+	 * The typed journey consumer of the journeys. 
+	 * @return The consumer adding typed journeys to the current journeys, or undefined value, if 
+	 *  the journeys are added as journey objects. 
+	 */
+	protected TypedJourneyConsumer getTypedJourneyConsumer() {
+		Journeys journeys = getJourneys(); 
+		if (journeys instanceof ColumnarJourneys columnar) {
+			return columnar::addJourney; 
+		} else if (journeys instanceof OffHeapJourneys offHeap) {
+			return offHeap::addJourney; 
+		} else {
+			return null; 
+		}
+	}
+	
+	/**
+	 * Is the integer value defined and negative. 
+	 * @param value The tested value. 
+	 * @return True, if and only if the value is negative other than the undefined value. 
+	 */
+	private static boolean isNegative(int value) {
+		return value < 0 && value != ColumnarJourneys.UNDEFINED_INT; 
+	}
+	
+	/**
+	 * Reads all journeys with the byte parser. 
+	 * 
+	 * The invalid data rows are skipped and counted as rejected rows. The journeys of 
+	 * database journeys targeting a staging table are inserted in batches. 
+	 * @param parser The parser of the source. 
+	 * @return True, if and only if the reading succeeded. 
+	 * @throws IOException The reading failed. 
+	 * @throws CSVException The header row was missing or invalid. 
+	 */
+	protected boolean readAll(Utf8CSVParser parser) throws IOException, CSVException {
+		if (!parser.nextRecord()) {
+			throw new CSVException.EmptyRowException(CSVException.RowType.HEADER, "Empty header row", null);
+		}
+		if (columnProperties == null) {
+			getCSVHandler().handleHeaders(parser.getStrings()); 
+		} else {
+			// The header of a following CSV file has only to match a Journeys CSV file. 
+			List<String> header = parser.getStrings(); 
+			if (getColumnProperties(header.size()) == null) {
+				throw new CSVException.InvalidRowException(CSVException.RowType.HEADER, "Invalid field count", header);
+			}
+			columnProperties = getColumnProperties(header.size()); 
+		}
+		List<String> properties = columnProperties; 
+		int fieldCount = properties.size(); 
+		int id = properties.indexOf(Journeys.ID_PROPERTY), 
+				startTime = properties.indexOf(Journeys.START_TIME_PROPERTY), 
+				endTime = properties.indexOf(Journeys.END_TIME_PROPERTY), 
+				startId = properties.indexOf(Journeys.START_LOCATION_ID_PROPERTY), 
+				endId = properties.indexOf(Journeys.END_LOCATION_ID_PROPERTY), 
+				startName = properties.indexOf(Journeys.START_LOCATION_NAME_PROPERTY), 
+				endName = properties.indexOf(Journeys.END_LOCATION_NAME_PROPERTY), 
+				distance = properties.indexOf(Journeys.DISTANCE_PROPERTY), 
+				duration = properties.indexOf(Journeys.DURATION_PROPERTY);  
+		TypedJourneyConsumer consumer = getTypedJourneyConsumer(); 
+		Journeys journeys = getJourneys(); 
+		DatabaseJourneys.StagedJourneyWriter staged = null; 
+		if (consumer == null && journeys instanceof DatabaseJourneys database && database.isStaging()) {
+			// The staged journeys are inserted in batches. 
+			try {
+				staged = database.openStagedJourneyWriter(); 
+			} catch (java.sql.SQLException sqle) {
+				throw new IOException(severe("Staging journeys failed: {0}", sqle.getMessage()), sqle); 
+			}
+			consumer = staged::addJourney; 
+		}
+		Journey journey; 
+		long accepted = 0, rejected = rejectedCount, parseErrors = 0; 
+		long start, end; 
+		int distanceValue, durationValue, startIdValue, endIdValue; 
+		try {
+			while (parser.nextRecord()) {
+				if (parser.getFieldCount() != fieldCount) {
+					reject(parser.getLineNumber(), -1, CSVException.Reason.FIELD_COUNT, parser.getRecordBytes()); 
+					parseErrors++; 
+					continue; 
+				}
+				try {
+					start = parser.parseTime(startTime, ColumnarJourneys.UNDEFINED_TIME); 
+					end = parser.parseTime(endTime, ColumnarJourneys.UNDEFINED_TIME); 
+					distanceValue = parser.parseInt(distance, ColumnarJourneys.UNDEFINED_INT); 
+					durationValue = parser.parseInt(duration, ColumnarJourneys.UNDEFINED_INT); 
+					// The invalid journeys are rejected without exceptions by every consumer. 
+					if (isNegative(distanceValue) || isNegative(durationValue)) {
+						reject(parser.getLineNumber(), isNegative(distanceValue) ? distance : duration, 
+								CSVException.Reason.NEGATIVE_VALUE, parser.getRecordBytes()); 
+						continue; 
+					} else if (start != ColumnarJourneys.UNDEFINED_TIME && end != ColumnarJourneys.UNDEFINED_TIME 
+							&& end < start) {
+						reject(parser.getLineNumber(), endTime, CSVException.Reason.INVALID_INTERVAL, 
+								parser.getRecordBytes()); 
+						continue; 
+					}
+					if (consumer != null) {
+						startIdValue = parser.parseInt(startId, ColumnarJourneys.UNDEFINED_INT); 
+						endIdValue = parser.parseInt(endId, ColumnarJourneys.UNDEFINED_INT); 
+						if (consumer.addJourney(id < 0 ? ColumnarJourneys.UNDEFINED_INT : parser.parseInt(id, ColumnarJourneys.UNDEFINED_INT), 
+								start, end, startIdValue, endIdValue, 
+								parser.isEmpty(startName) ? null : parser.getSharedString(startName), 
+								parser.isEmpty(endName) ? null : parser.getSharedString(endName), 
+								distanceValue, durationValue)) {
+							fireJourneyLoaded(start, end, startIdValue, endIdValue, distanceValue, durationValue); 
+						}
+					} else {
+						journey = journeys.new Journey(); 
+						for (int i = 0; i < fieldCount; i++) {
+							if (!parser.isEmpty(i)) {
+								if (journey.isDateProperty(properties.get(i))) {
+									journey.setProperty(properties.get(i), new java.util.Date(parser.parseTime(i, 0L))); 
+								} else if (journey.isIntegerProperty(properties.get(i))) {
+									journey.setProperty(properties.get(i), parser.parseInt(i, 0)); 
+								} else {
+									journey.setProperty(properties.get(i), parser.getSharedString(i)); 
+								}
+							}
+						}
+						if (journeys.addJourney(journey)) {
+							fireJourneyLoaded(journey); 
+						}
+					}
+					accepted++; 
+				} catch (CSVException.FieldException fe) {
+					// The row with unparseable field is skipped. 
+					reject(parser.getLineNumber(), fe.field, fe.reason, parser.getRecordBytes()); 
+					parseErrors++; 
+				} catch (RuntimeException re) {
+					if (staged != null && re instanceof IllegalStateException 
+							&& re.getCause() instanceof java.sql.SQLException) {
+						// The failed batch is not an error of the row. 
+						throw re; 
+					}
+					// The invalid row is skipped. 
+					fine("Row {0} rejected due {1}", parser.getLineNumber(), re); 
+					reject(parser.getLineNumber(), -1, CSVException.Reason.INVALID_JOURNEY, parser.getRecordBytes()); 
+				}
+			}
+		} catch (IllegalStateException ise) {
+			if (staged == null || !(ise.getCause() instanceof java.sql.SQLException)) {
+				throw ise; 
+			}
+			// The failed batch fails the whole source. 
+			throw new IOException(ise.getMessage(), ise.getCause()); 
+		} finally {
+			if (staged != null) {
+				try {
+					staged.close(); 
+				} catch (java.sql.SQLException sqle) {
+					throw new IOException(severe("Staging journeys failed: {0}", sqle.getMessage()), sqle); 
+				}
+			}
+		}
+		ACCEPTED_ROWS.add(accepted); 
+		REJECTED_ROWS.add(rejectedCount - rejected); 
+		PARSE_ERRORS.add(parseErrors); 
+		if (rejectedCount > 0) {
+			info("Skipped {0} invalid rows of {1} data rows", rejectedCount, parser.getRecordCount() - 1); 
+		}
+		return true; 
+	}
+	
+	/**
+	 * Reads every CSV entry of a zip archive. 
+	 * 
+	 * Each entry is decompressed on a dedicated thread while it is parsed. 
+	 * @param zip The zip archive stream. 
+	 * @return True, if and only if every CSV entry was read. 
+	 * @throws IOException The reading of the archive failed. 
+	 * @throws CSVException The header row of an entry was missing or invalid. 
+	 */
+	protected boolean readZipEntries(java.util.zip.ZipInputStream zip) throws IOException, CSVException {
+		java.util.zip.ZipEntry entry; 
+		int entries = 0; 
+		try (zip) {
+			while ((entry = zip.getNextEntry()) != null) {
+				if (entry.isDirectory() || !entry.getName().toLowerCase(java.util.Locale.ROOT).endsWith(".csv")) {
+					continue; 
+				}
+				info("Reading archive entry {0}", entry.getName()); 
+				quarantine.setSource(entry.getName()); 
+				try (Utf8CSVParser parser = new Utf8CSVParser(new RingBufferInputStream(zip, bufferSize, false))) {
+					readAll(parser); 
+				}
+				entries++; 
+			}
+		}
+		if (entries == 0) {
+			severe("The archive contains no CSV entries"); 
+		}
+		return entries > 0; 
+	}
 }
@@ -0,0 +1,303 @@
+package solita.helsinki.citybikeapp.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.model.CSVException;
+
+/**
+ * The quarantine of the rejected CSV rows.
+ *
+ * The rejected rows are recorded with their source, line number, column and
+ * reason, and the raw bytes of the row into a bounded buffer. The buffer is
+ * written into the quarantine CSV file, whenever it becomes full, and when the
+ * quarantine is closed. Without a quarantine file, the rejected rows are only
+ * counted by their reasons.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class Quarantine implements Closeable, Logging.MessageLogging {
+
+	/**
+	 * The default number of buffered rows.
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	/**
+	 * The maximum number of buffered row bytes.
+	 */
+	public static final int MAX_BUFFERED_BYTES = 1 << 20;
+
+	/**
+	 * The header row of the quarantine file.
+	 */
+	public static final String HEADER = "source,line,column,reason,row\n";
+
+	/**
+	 * The quarantine file, or undefined value, if the rows are only counted.
+	 */
+	private final Path target;
+
+	/**
+	 * The maximum number of buffered rows.
+	 */
+	private final int capacity;
+
+	/**
+	 * The output of the quarantine file.
+	 */
+	private OutputStream out = null;
+
+	/**
+	 * Has the quarantine file been created.
+	 */
+	private boolean created = false;
+
+	/**
+	 * The name of the current source.
+	 */
+	private String source = "";
+
+	/**
+	 * The sources of the buffered rows.
+	 */
+	private final String[] sources;
+
+	/**
+	 * The line numbers of the buffered rows.
+	 */
+	private final long[] lines;
+
+	/**
+	 * The columns of the buffered rows.
+	 */
+	private final int[] columns;
+
+	/**
+	 * The reasons of the buffered rows.
+	 */
+	private final CSVException.Reason[] reasons;
+
+	/**
+	 * The end offsets of the buffered rows in the row bytes.
+	 */
+	private final int[] rowEnds;
+
+	/**
+	 * The bytes of the buffered rows.
+	 */
+	private byte[] rowBytes = new byte[8192];
+
+	/**
+	 * The number of buffered rows.
+	 */
+	private int size = 0;
+
+	/**
+	 * The number of rejected rows by their reasons.
+	 */
+	private final long[] counts = new long[CSVException.Reason.values().length];
+
+	/**
+	 * Creates a quarantine counting the rejected rows without writing them.
+	 */
+	public Quarantine() {
+		this(null, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new quarantine.
+	 *
+	 * @param target   The quarantine file, which is replaced, when the first
+	 *                 rejected row is written. An undefined target only counts
+	 *                 the rejected rows.
+	 * @param capacity The maximum number of buffered rows.
+	 * @throws IllegalArgumentException The capacity was not positive.
+	 */
+	public Quarantine(Path target, int capacity) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.target = target;
+		this.capacity = (target == null ? 0 : capacity);
+		this.sources = new String[this.capacity];
+		this.lines = new long[this.capacity];
+		this.columns = new int[this.capacity];
+		this.reasons = new CSVException.Reason[this.capacity];
+		this.rowEnds = new int[this.capacity];
+	}
+
+	/**
+	 * The quarantine file.
+	 *
+	 * @return The quarantine file, or undefined value, if the rows are only
+	 *         counted.
+	 */
+	public Path getTarget() {
+		return target;
+	}
+
+	/**
+	 * Sets the name of the source of the following rejected rows.
+	 *
+	 * @param source The name of the source.
+	 */
+	public synchronized void setSource(String source) {
+		this.source = (source == null ? "" : source);
+	}
+
+	/**
+	 * Rejects a row.
+	 *
+	 * @param line   The line number of the row.
+	 * @param column The index of the invalid column, or -1, if the whole row is
+	 *               invalid.
+	 * @param reason The reason of the rejection.
+	 * @param row    The raw UTF-8 bytes of the row.
+	 * @throws IOException The writing of the full buffer failed.
+	 */
+	public synchronized void reject(long line, int column, CSVException.Reason reason, byte[] row)
+			throws IOException {
+		counts[reason.ordinal()]++;
+		if (target == null) {
+			return;
+		}
+		int start = (size == 0 ? 0 : rowEnds[size - 1]);
+		if (size == capacity || (size > 0 && start + row.length > MAX_BUFFERED_BYTES)) {
+			flush();
+			start = 0;
+		}
+		if (start + row.length > rowBytes.length) {
+			rowBytes = Arrays.copyOf(rowBytes, Math.max(rowBytes.length * 2, start + row.length));
+		}
+		System.arraycopy(row, 0, rowBytes, start, row.length);
+		sources[size] = source;
+		lines[size] = line;
+		columns[size] = column;
+		reasons[size] = reason;
+		rowEnds[size] = start + row.length;
+		size++;
+	}
+
+	/**
+	 * Writes a field quoting it.
+	 *
+	 * @param bytes  The bytes of the field.
+	 * @param offset The start of the field.
+	 * @param end    The end of the field.
+	 * @throws IOException The writing failed.
+	 */
+	private void writeQuoted(byte[] bytes, int offset, int end) throws IOException {
+		out.write('"');
+		int from = offset;
+		for (int i = offset; i < end; i++) {
+			if (bytes[i] == '"') {
+				out.write(bytes, from, i + 1 - from);
+				out.write('"');
+				from = i + 1;
+			}
+		}
+		out.write(bytes, from, end - from);
+		out.write('"');
+	}
+
+	/**
+	 * Writes the buffered rows into the quarantine file.
+	 *
+	 * @throws IOException The writing failed.
+	 */
+	public synchronized void flush() throws IOException {
+		if (size == 0) {
+			return;
+		}
+		if (out == null) {
+			// The file closed earlier is appended.
+			out = new java.io.BufferedOutputStream(created ? Files.newOutputStream(target, StandardOpenOption.APPEND)
+					: Files.newOutputStream(target), 65536);
+			if (!created) {
+				out.write(HEADER.getBytes(StandardCharsets.US_ASCII));
+				created = true;
+			}
+		}
+		byte[] name;
+		int start = 0;
+		for (int i = 0; i < size; i++) {
+			name = sources[i].getBytes(StandardCharsets.UTF_8);
+			writeQuoted(name, 0, name.length);
+			out.write((',' + Long.toString(lines[i]) + ',' + (columns[i] < 0 ? "" : Integer.toString(columns[i] + 1))
+					+ ',' + reasons[i].name() + ',').getBytes(StandardCharsets.US_ASCII));
+			writeQuoted(rowBytes, start, rowEnds[i]);
+			out.write('\n');
+			start = rowEnds[i];
+			sources[i] = null;
+		}
+		size = 0;
+		out.flush();
+	}
+
+	/**
+	 * The number of rejected rows.
+	 *
+	 * @return The total number of the rejected rows.
+	 */
+	public synchronized long getRejectedCount() {
+		long result = 0;
+		for (long count : counts) {
+			result += count;
+		}
+		return result;
+	}
+
+	/**
+	 * The number of rejected rows by their reasons.
+	 *
+	 * @return The map from the reasons to the number of rows rejected for the
+	 *         reason. Only the reasons with rejected rows are included.
+	 */
+	public synchronized Map<CSVException.Reason, Long> getSummary() {
+		Map<CSVException.Reason, Long> result = new EnumMap<>(CSVException.Reason.class);
+		for (CSVException.Reason reason : CSVException.Reason.values()) {
+			if (counts[reason.ordinal()] > 0) {
+				result.put(reason, counts[reason.ordinal()]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Logs the number of rejected rows by their reasons.
+	 */
+	public void logSummary() {
+		for (Map.Entry<CSVException.Reason, Long> entry : getSummary().entrySet()) {
+			info("Rejected {0} rows: {1}", entry.getKey().getMessage(), entry.getValue());
+		}
+		if (target != null && getRejectedCount() > 0) {
+			info("Rejected rows written to {0}", target);
+		}
+	}
+
+	/**
+	 * Writes the buffered rows, and closes the quarantine file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (out != null) {
+				out.close();
+				out = null;
+			}
+		}
+	}
+}
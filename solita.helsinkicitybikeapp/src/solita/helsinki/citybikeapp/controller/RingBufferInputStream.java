@@ -0,0 +1,285 @@
+package solita.helsinki.citybikeapp.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The input stream reading its source on a dedicated thread through a ring
+ * buffer.
+ *
+ * The producer thread reads the source, for example a decompressing stream, as
+ * long as the ring buffer has free space, thus the reading of the source
+ * overlaps the processing of the read bytes. The failure of the producer is
+ * thrown to the reader once the bytes read before the failure are consumed.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class RingBufferInputStream extends InputStream {
+
+	/**
+	 * The default capacity of the ring buffer.
+	 */
+	public static final int DEFAULT_CAPACITY = 8 * 1024 * 1024;
+
+	/**
+	 * The source stream.
+	 */
+	private final InputStream source;
+
+	/**
+	 * Is the source closed when the stream is closed.
+	 */
+	private final boolean closeSource;
+
+	/**
+	 * The ring buffer.
+	 */
+	private final byte[] ring;
+
+	/**
+	 * The lock guarding the state of the ring buffer.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The condition signaled when bytes are written into the ring buffer.
+	 */
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * The condition signaled when bytes are consumed from the ring buffer.
+	 */
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * The total number of bytes written into the ring buffer.
+	 */
+	private long written = 0;
+
+	/**
+	 * The total number of bytes consumed from the ring buffer.
+	 */
+	private long consumed = 0;
+
+	/**
+	 * Has the producer reached the end of the source.
+	 */
+	private boolean finished = false;
+
+	/**
+	 * Is the stream closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The failure of the producer.
+	 */
+	private IOException failure = null;
+
+	/**
+	 * The producer thread.
+	 */
+	private final Thread producer;
+
+	/**
+	 * Creates a new ring buffer stream with the default capacity closing the
+	 * source with the stream.
+	 *
+	 * @param source The source stream.
+	 */
+	public RingBufferInputStream(InputStream source) {
+		this(source, DEFAULT_CAPACITY, true);
+	}
+
+	/**
+	 * Creates a new ring buffer stream, and starts reading the source.
+	 *
+	 * @param source      The source stream.
+	 * @param capacity    The capacity of the ring buffer in bytes.
+	 * @param closeSource Is the source closed, when the stream is closed. The
+	 *                    source which is not closed can be used after this stream
+	 *                    has reached the end of the source.
+	 * @throws IllegalArgumentException The capacity was not positive.
+	 * @throws NullPointerException     The source was undefined.
+	 */
+	public RingBufferInputStream(InputStream source, int capacity, boolean closeSource)
+			throws IllegalArgumentException, NullPointerException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		this.source = java.util.Objects.requireNonNull(source, "Undefined source");
+		this.closeSource = closeSource;
+		this.ring = new byte[capacity];
+		this.producer = new Thread(this::produce, "ring-buffer-reader");
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	/**
+	 * Reads the source into the ring buffer until the end of the source, the
+	 * failure, or the closing of the stream.
+	 */
+	private void produce() {
+		int offset, length, read;
+		try {
+			while (true) {
+				lock.lock();
+				try {
+					while (!closed && written - consumed == ring.length) {
+						notFull.await();
+					}
+					if (closed) {
+						return;
+					}
+					offset = (int) (written % ring.length);
+					length = (int) Math.min(ring.length - (written - consumed), ring.length - offset);
+				} finally {
+					lock.unlock();
+				}
+				// The free region is not accessed by the consumer.
+				read = source.read(ring, offset, length);
+				lock.lock();
+				try {
+					if (read < 0) {
+						finished = true;
+					} else {
+						written += read;
+					}
+					notEmpty.signalAll();
+				} finally {
+					lock.unlock();
+				}
+				if (read < 0) {
+					return;
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			lock.lock();
+			try {
+				failure = (e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e));
+				finished = true;
+				notEmpty.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		} catch (InterruptedException ie) {
+			// The stream was closed.
+		}
+	}
+
+	/**
+	 * Waits until the ring buffer has bytes, or the producer has finished.
+	 *
+	 * @return The number of available bytes.
+	 * @throws IOException The producer failed, the stream was closed, or the
+	 *                     waiting was interrupted.
+	 */
+	private long awaitAvailable() throws IOException {
+		try {
+			while (!closed && written == consumed && !finished) {
+				notEmpty.await();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the source");
+		}
+		if (closed) {
+			throw new IOException("Stream closed");
+		} else if (written == consumed && failure != null) {
+			throw failure;
+		}
+		return written - consumed;
+	}
+
+	@Override
+	public int read() throws IOException {
+		lock.lock();
+		try {
+			if (awaitAvailable() == 0) {
+				return -1;
+			}
+			int result = ring[(int) (consumed % ring.length)] & 0xFF;
+			consumed++;
+			notFull.signal();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int read(byte[] target, int offset, int length) throws IOException {
+		java.util.Objects.checkFromIndexSize(offset, length, target.length);
+		if (length == 0) {
+			return 0;
+		}
+		lock.lock();
+		try {
+			long available = awaitAvailable();
+			if (available == 0) {
+				return -1;
+			}
+			int result = 0, start, chunk;
+			while (result < length && available > 0) {
+				start = (int) (consumed % ring.length);
+				chunk = (int) Math.min(Math.min(length - result, available), ring.length - start);
+				System.arraycopy(ring, start, target, offset + result, chunk);
+				result += chunk;
+				consumed += chunk;
+				available -= chunk;
+			}
+			notFull.signal();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int available() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IOException("Stream closed");
+			}
+			return (int) Math.min(Integer.MAX_VALUE, written - consumed);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the stream stopping the producer.
+	 *
+	 * The source is closed only if the stream owns the source.
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notFull.signalAll();
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (closeSource) {
+			producer.interrupt();
+			source.close();
+		} else {
+			// The source is used after the stream, thus the producer must not be reading it.
+			try {
+				producer.join();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,796 @@
+package solita.helsinki.citybikeapp.controller;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import solita.helsinkicitybikeapp.metrics.Counter;
+import solita.helsinkicitybikeapp.model.CSVException;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
+
+/**
+ * The CSV parser operating directly on the UTF-8 bytes of the source.
+ *
+ * The parser reads the source into a byte buffer, and locates the field
+ * delimiters, quotes and line breaks eight bytes at the time. The fields of the
+ * current record are byte ranges of the buffer: the numeric and time fields are
+ * parsed from the bytes, and a field is decoded into a string only when it is
+ * requested. The repeating string values can be shared through a small cache
+ * keyed by their bytes.
+ *
+ * The fields are separated with commas, the quoted fields may contain escaped
+ * quotes (<code>""</code>) and line breaks, and the records end with either LF
+ * or CRLF. The UTF-8 byte order mark at the start of the source is skipped, and
+ * the whitespace surrounding unquoted fields is ignored. Empty lines are
+ * skipped.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class Utf8CSVParser implements Closeable {
+
+	/**
+	 * The default size of the read buffer.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The number of slots of the shared string cache.
+	 */
+	private static final int STRING_CACHE_SIZE = 4096;
+
+	/**
+	 * The maximum length of a cached shared string in bytes.
+	 */
+	private static final int MAX_CACHED_STRING_LENGTH = 128;
+
+	/**
+	 * The view of the buffer as little-endian words.
+	 */
+	private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class,
+			ByteOrder.LITTLE_ENDIAN);
+
+	/**
+	 * The word with every byte set to one.
+	 */
+	private static final long ONES = 0x0101010101010101L;
+
+	/**
+	 * The word with the highest bit of every byte set.
+	 */
+	private static final long HIGH_BITS = 0x8080808080808080L;
+
+	/**
+	 * The word of field delimiters.
+	 */
+	private static final long COMMAS = ONES * ',';
+
+	/**
+	 * The word of quotes.
+	 */
+	private static final long QUOTES = ONES * '"';
+
+	/**
+	 * The word of line feeds.
+	 */
+	private static final long LINE_FEEDS = ONES * '\n';
+
+	/**
+	 * The counter of the records read.
+	 */
+	private static final Counter ROWS = MetricsRegistry.getDefault().counter("csv_rows_total",
+			"The number of CSV rows read", "parser", "bytes");
+
+	/**
+	 * The counter of the bytes read.
+	 */
+	private static final Counter BYTES = MetricsRegistry.getDefault().counter("csv_bytes_total",
+			"The number of CSV bytes read", "parser", "bytes");
+
+	/**
+	 * The marker of an incomplete record.
+	 */
+	private static final int INCOMPLETE = -1;
+
+	/**
+	 * The marker of the end of the source.
+	 */
+	private static final int END_OF_SOURCE = -2;
+
+	/**
+	 * The source of the bytes.
+	 */
+	private final InputStream in;
+
+	/**
+	 * The read buffer.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * The start of the unparsed bytes of the buffer.
+	 */
+	private int position = 0;
+
+	/**
+	 * The end of the read bytes of the buffer.
+	 */
+	private int limit = 0;
+
+	/**
+	 * Has the end of the source been reached.
+	 */
+	private boolean endOfSource = false;
+
+	/**
+	 * Has the byte order mark been tested.
+	 */
+	private boolean started = false;
+
+	/**
+	 * Did the source start with the byte order mark.
+	 */
+	private boolean byteOrderMark = false;
+
+	/**
+	 * The start offsets of the fields of the current record.
+	 */
+	private int[] fieldStarts = new int[16];
+
+	/**
+	 * The end offsets of the fields of the current record.
+	 */
+	private int[] fieldEnds = new int[16];
+
+	/**
+	 * Does the field of the current record contain escaped quotes.
+	 */
+	private boolean[] fieldEscapes = new boolean[16];
+
+	/**
+	 * The number of fields of the current record.
+	 */
+	private int fieldCount = 0;
+
+	/**
+	 * Did the current record contain a quoted field.
+	 */
+	private boolean recordQuoted = false;
+
+	/**
+	 * The number of records read.
+	 */
+	private long recordCount = 0;
+
+	/**
+	 * The start offset of the current record in the buffer.
+	 */
+	private int recordStart = 0;
+
+	/**
+	 * The end offset of the current record in the buffer.
+	 */
+	private int recordEnd = 0;
+
+	/**
+	 * The line number of the start of the current record.
+	 */
+	private long lineNumber = 0;
+
+	/**
+	 * The line number of the unparsed bytes.
+	 */
+	private long nextLineNumber = 1;
+
+	/**
+	 * The number of records added to the row counter.
+	 */
+	private long publishedCount = 0;
+
+	/**
+	 * The rules of the time zone of the times.
+	 */
+	private final ZoneRules zoneRules;
+
+	/**
+	 * The local hour of the cached offset in hours since epoch.
+	 */
+	private long cachedHour = Long.MIN_VALUE;
+
+	/**
+	 * The zone offset of the cached hour in seconds.
+	 */
+	private int cachedOffset = 0;
+
+	/**
+	 * The bytes of the cached shared strings.
+	 */
+	private final byte[][] cachedBytes = new byte[STRING_CACHE_SIZE][];
+
+	/**
+	 * The cached shared strings.
+	 */
+	private final String[] cachedStrings = new String[STRING_CACHE_SIZE];
+
+	/**
+	 * Creates a parser reading the given source with the default buffer size and
+	 * the default time zone.
+	 *
+	 * @param in The source stream.
+	 */
+	public Utf8CSVParser(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Creates a parser reading the given source.
+	 *
+	 * @param in         The source stream.
+	 * @param bufferSize The initial size of the read buffer. The buffer grows, if
+	 *                   a record does not fit into it.
+	 * @param zone       The time zone of the parsed local times.
+	 * @throws IllegalArgumentException The buffer size was not positive.
+	 * @throws NullPointerException     The source or the zone was undefined.
+	 */
+	public Utf8CSVParser(InputStream in, int bufferSize, ZoneId zone)
+			throws IllegalArgumentException, NullPointerException {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.in = java.util.Objects.requireNonNull(in, "Undefined source");
+		this.buffer = new byte[Math.max(bufferSize, Long.BYTES)];
+		this.zoneRules = zone.getRules();
+	}
+
+	/**
+	 * Reads more bytes into the buffer moving the unparsed bytes to the start of
+	 * the buffer.
+	 *
+	 * @throws IOException The reading failed.
+	 */
+	private void fill() throws IOException {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		if (limit == buffer.length) {
+			// The record does not fit into the buffer.
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			endOfSource = true;
+		} else {
+			limit += read;
+			BYTES.add(read);
+		}
+		publishRecordCount();
+	}
+
+	/**
+	 * Adds the records read since the last call to the row counter.
+	 * 
+	 * The counter is updated once per buffer fill instead of every record.
+	 */
+	private void publishRecordCount() {
+		ROWS.add(recordCount - publishedCount);
+		publishedCount = recordCount;
+	}
+
+	/**
+	 * Did the source start with the UTF-8 byte order mark.
+	 *
+	 * @return True, if and only if the byte order mark was skipped.
+	 */
+	public boolean hasByteOrderMark() {
+		return byteOrderMark;
+	}
+
+	/**
+	 * Moves to the next record.
+	 *
+	 * @return True, if and only if the next record was read. False, if the source
+	 *         has no more records.
+	 * @throws IOException The reading failed.
+	 */
+	public boolean nextRecord() throws IOException {
+		if (!started) {
+			started = true;
+			while (limit < 3 && !endOfSource) {
+				fill();
+			}
+			if (limit >= 3 && buffer[0] == (byte) 0xEF && buffer[1] == (byte) 0xBB && buffer[2] == (byte) 0xBF) {
+				byteOrderMark = true;
+				position = 3;
+			}
+		}
+		int end;
+		while (true) {
+			end = parseRecord(position);
+			if (end == END_OF_SOURCE) {
+				fieldCount = 0;
+				return false;
+			} else if (end == INCOMPLETE) {
+				fill();
+			} else {
+				recordStart = position;
+				recordEnd = end;
+				position = end;
+				lineNumber = nextLineNumber;
+				if (recordQuoted) {
+					// The quoted fields may contain line breaks.
+					for (int i = recordStart; i < end; i++) {
+						if (buffer[i] == '\n') {
+							nextLineNumber++;
+						}
+					}
+				} else if (end > recordStart && buffer[end - 1] == '\n') {
+					nextLineNumber++;
+				}
+				if (fieldCount > 1 || recordQuoted || fieldStarts[0] != fieldEnds[0]) {
+					recordCount++;
+					return true;
+				}
+				// Skipping the empty line.
+			}
+		}
+	}
+
+	/**
+	 * Parses the record starting at the given offset.
+	 *
+	 * @param from The offset of the record.
+	 * @return The offset following the record, {@link #INCOMPLETE}, if the buffer
+	 *         does not contain the whole record, or {@link #END_OF_SOURCE}, if
+	 *         there is no more records.
+	 */
+	private int parseRecord(int from) {
+		int index = from;
+		fieldCount = 0;
+		recordQuoted = false;
+		while (true) {
+			if (index >= limit) {
+				if (!endOfSource) {
+					return INCOMPLETE;
+				} else if (index == from && fieldCount == 0) {
+					return END_OF_SOURCE;
+				}
+				// The last field is empty.
+				addField(index, index, false);
+				return limit;
+			}
+			if (buffer[index] == '"') {
+				int content = index + 1, scan = content, end, quote;
+				boolean escaped = false;
+				recordQuoted = true;
+				while (true) {
+					quote = indexOf(QUOTES, (byte) '"', scan, limit);
+					if (quote < 0 || quote + 1 == limit) {
+						if (!endOfSource) {
+							return INCOMPLETE;
+						} else if (quote < 0) {
+							// Unterminated quote ends at the end of the source.
+							end = limit;
+							index = limit;
+							break;
+						}
+					}
+					if (quote + 1 < limit && buffer[quote + 1] == '"') {
+						escaped = true;
+						scan = quote + 2;
+					} else {
+						end = quote;
+						index = quote + 1;
+						break;
+					}
+				}
+				addField(content, end, escaped);
+				while (index < limit && buffer[index] != ',' && buffer[index] != '\n') {
+					// Ignoring anything between the closing quote and the delimiter.
+					index++;
+				}
+				if (index >= limit && !endOfSource) {
+					return INCOMPLETE;
+				}
+			} else {
+				int delimiter = indexOfDelimiter(index, limit);
+				if (delimiter < 0) {
+					if (!endOfSource) {
+						return INCOMPLETE;
+					}
+					delimiter = limit;
+				}
+				addTrimmedField(index, delimiter);
+				index = delimiter;
+			}
+			if (index >= limit) {
+				return limit;
+			} else if (buffer[index] == '\n') {
+				return index + 1;
+			}
+			// Skipping the field delimiter.
+			index++;
+		}
+	}
+
+	/**
+	 * Adds a field to the current record.
+	 *
+	 * @param start   The start offset of the field.
+	 * @param end     The end offset of the field.
+	 * @param escaped Does the field contain escaped quotes.
+	 */
+	private void addField(int start, int end, boolean escaped) {
+		if (fieldCount == fieldStarts.length) {
+			fieldStarts = Arrays.copyOf(fieldStarts, fieldCount * 2);
+			fieldEnds = Arrays.copyOf(fieldEnds, fieldCount * 2);
+			fieldEscapes = Arrays.copyOf(fieldEscapes, fieldCount * 2);
+		}
+		fieldStarts[fieldCount] = start;
+		fieldEnds[fieldCount] = end;
+		fieldEscapes[fieldCount] = escaped;
+		fieldCount++;
+	}
+
+	/**
+	 * Adds an unquoted field without its surrounding whitespace.
+	 *
+	 * @param start The start offset of the field.
+	 * @param end   The end offset of the field.
+	 */
+	private void addTrimmedField(int start, int end) {
+		while (start < end && isWhitespace(buffer[start])) {
+			start++;
+		}
+		while (end > start && isWhitespace(buffer[end - 1])) {
+			end--;
+		}
+		addField(start, end, false);
+	}
+
+	/**
+	 * Is the byte a whitespace ignored around unquoted fields.
+	 *
+	 * @param value The tested byte.
+	 * @return True, if and only if the byte is space, tab or carriage return.
+	 */
+	private static boolean isWhitespace(byte value) {
+		return value == ' ' || value == '\t' || value == '\r';
+	}
+
+	/**
+	 * The word with the highest bit set in every zero byte of the given word.
+	 *
+	 * The lowest set bit is always exact, the bits above a zero byte may be set
+	 * falsely due the borrow.
+	 *
+	 * @param word The tested word.
+	 * @return The word having the highest bits of the zero bytes set.
+	 */
+	private static long zeroBytes(long word) {
+		return (word - ONES) & ~word & HIGH_BITS;
+	}
+
+	/**
+	 * The first offset of the given byte.
+	 *
+	 * @param pattern The word filled with the searched byte.
+	 * @param value   The searched byte.
+	 * @param from    The first searched offset.
+	 * @param to      The end of the searched range.
+	 * @return The offset of the first occurrence of the byte, or -1, if the range
+	 *         does not contain the byte.
+	 */
+	private int indexOf(long pattern, byte value, int from, int to) {
+		int index = from;
+		long match;
+		for (; index + Long.BYTES <= to; index += Long.BYTES) {
+			match = zeroBytes((long) WORDS.get(buffer, index) ^ pattern);
+			if (match != 0) {
+				return index + (Long.numberOfTrailingZeros(match) >>> 3);
+			}
+		}
+		for (; index < to; index++) {
+			if (buffer[index] == value) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The first offset of a field delimiter or a line feed.
+	 *
+	 * @param from The first searched offset.
+	 * @param to   The end of the searched range.
+	 * @return The offset of the first delimiter or line feed, or -1, if the range
+	 *         does not contain either.
+	 */
+	private int indexOfDelimiter(int from, int to) {
+		int index = from;
+		long word, match;
+		for (; index + Long.BYTES <= to; index += Long.BYTES) {
+			word = (long) WORDS.get(buffer, index);
+			match = zeroBytes(word ^ COMMAS) | zeroBytes(word ^ LINE_FEEDS);
+			if (match != 0) {
+				return index + (Long.numberOfTrailingZeros(match) >>> 3);
+			}
+		}
+		for (; index < to; index++) {
+			if (buffer[index] == ',' || buffer[index] == '\n') {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The number of records read.
+	 *
+	 * @return The number of the current record starting from 1.
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * The line number of the current record.
+	 *
+	 * @return The line number of the first line of the current record starting
+	 *         from 1.
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * The raw bytes of the current record without the line break.
+	 *
+	 * @return The copy of the bytes of the current record.
+	 */
+	public byte[] getRecordBytes() {
+		int end = recordEnd;
+		if (end > recordStart && buffer[end - 1] == '\n') {
+			end--;
+		}
+		if (end > recordStart && buffer[end - 1] == '\r') {
+			end--;
+		}
+		return Arrays.copyOfRange(buffer, recordStart, end);
+	}
+
+	/**
+	 * The number of fields of the current record.
+	 *
+	 * @return The number of fields.
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * Is the field empty.
+	 *
+	 * @param field The field index.
+	 * @return True, if and only if the field has no content.
+	 * @throws IndexOutOfBoundsException The field does not exist.
+	 */
+	public boolean isEmpty(int field) throws IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(field, fieldCount);
+		return fieldStarts[field] == fieldEnds[field];
+	}
+
+	/**
+	 * The value of a field.
+	 *
+	 * @param field The field index.
+	 * @return The decoded value of the field.
+	 * @throws IndexOutOfBoundsException The field does not exist.
+	 */
+	public String getString(int field) throws IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(field, fieldCount);
+		int start = fieldStarts[field], end = fieldEnds[field];
+		if (!fieldEscapes[field]) {
+			return new String(buffer, start, end - start, StandardCharsets.UTF_8);
+		}
+		byte[] result = new byte[end - start];
+		int length = 0;
+		for (int i = start; i < end; i++) {
+			result[length++] = buffer[i];
+			if (buffer[i] == '"') {
+				// Skipping the escaping quote.
+				i++;
+			}
+		}
+		return new String(result, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The value of a field shared with the earlier equal values.
+	 *
+	 * The repeating values like station names are decoded only once as long as
+	 * they stay in the cache.
+	 *
+	 * @param field The field index.
+	 * @return The decoded value of the field.
+	 * @throws IndexOutOfBoundsException The field does not exist.
+	 */
+	public String getSharedString(int field) throws IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(field, fieldCount);
+		int start = fieldStarts[field], end = fieldEnds[field];
+		if (fieldEscapes[field] || end - start > MAX_CACHED_STRING_LENGTH) {
+			return getString(field);
+		}
+		int hash = 1;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (STRING_CACHE_SIZE - 1);
+		byte[] cached = cachedBytes[slot];
+		if (cached != null && Arrays.equals(cached, 0, cached.length, buffer, start, end)) {
+			return cachedStrings[slot];
+		}
+		String result = getString(field);
+		cachedBytes[slot] = Arrays.copyOfRange(buffer, start, end);
+		cachedStrings[slot] = result;
+		return result;
+	}
+
+	/**
+	 * The values of all fields of the current record.
+	 *
+	 * @return The list of the decoded field values.
+	 */
+	public List<String> getStrings() {
+		List<String> result = new ArrayList<>(fieldCount);
+		for (int i = 0; i < fieldCount; i++) {
+			result.add(getString(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Parses an integer field.
+	 *
+	 * A fractional part of the value is truncated.
+	 *
+	 * @param field          The field index.
+	 * @param undefinedValue The value of an empty field.
+	 * @return The integer value of the field.
+	 * @throws CSVException.FieldException The field was not an integer.
+	 * @throws IndexOutOfBoundsException   The field does not exist.
+	 */
+	public int parseInt(int field, int undefinedValue) throws CSVException.FieldException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(field, fieldCount);
+		int index = fieldStarts[field], end = fieldEnds[field];
+		if (index == end) {
+			return undefinedValue;
+		}
+		boolean negative = buffer[index] == '-';
+		if (negative || buffer[index] == '+') {
+			index++;
+		}
+		int digitsStart = index;
+		long value = 0;
+		byte digit;
+		for (; index < end && (digit = (byte) (buffer[index] - '0')) >= 0 && digit <= 9; index++) {
+			value = value * 10 + digit;
+			if (value > Integer.MAX_VALUE + 1L) {
+				throw new CSVException.FieldException(CSVException.Reason.INTEGER_OVERFLOW, field);
+			}
+		}
+		if (index == digitsStart) {
+			throw new CSVException.FieldException(CSVException.Reason.INVALID_INTEGER, field);
+		}
+		if (index < end && buffer[index] == '.') {
+			// Truncating the fraction.
+			for (index++; index < end && buffer[index] >= '0' && buffer[index] <= '9'; index++) {
+				// Skipping the fraction digits.
+			}
+		}
+		if (index != end || (!negative && value > Integer.MAX_VALUE)) {
+			throw new CSVException.FieldException(CSVException.Reason.INVALID_INTEGER, field);
+		}
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Parses the given number of digits.
+	 *
+	 * @param index  The offset of the first digit.
+	 * @param digits The number of digits.
+	 * @return The value of the digits, or -1, if the bytes were not digits.
+	 */
+	private int parseDigits(int index, int digits) {
+		int value = 0, digit;
+		for (int end = index + digits; index < end; index++) {
+			digit = buffer[index] - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a local time field of format <code>yyyy-MM-ddTHH:mm:ss</code> with
+	 * an optional fraction of seconds.
+	 *
+	 * @param field          The field index.
+	 * @param undefinedValue The value of an empty field.
+	 * @return The time in milliseconds since epoch.
+	 * @throws CSVException.FieldException The field was not a valid time.
+	 * @throws IndexOutOfBoundsException   The field does not exist.
+	 */
+	public long parseTime(int field, long undefinedValue) throws CSVException.FieldException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(field, fieldCount);
+		int index = fieldStarts[field], end = fieldEnds[field];
+		if (index == end) {
+			return undefinedValue;
+		} else if (end - index < 19 || buffer[index + 4] != '-' || buffer[index + 7] != '-'
+				|| (buffer[index + 10] != 'T' && buffer[index + 10] != ' ') || buffer[index + 13] != ':'
+				|| buffer[index + 16] != ':') {
+			throw new CSVException.FieldException(CSVException.Reason.INVALID_TIME, field);
+		}
+		int year = parseDigits(index, 4), month = parseDigits(index + 5, 2), day = parseDigits(index + 8, 2);
+		int hour = parseDigits(index + 11, 2), minute = parseDigits(index + 14, 2),
+				second = parseDigits(index + 17, 2);
+		int millis = 0;
+		index += 19;
+		if (index < end && buffer[index] == '.') {
+			int scale = 100;
+			for (index++; index < end && buffer[index] >= '0' && buffer[index] <= '9'; index++, scale /= 10) {
+				millis += (buffer[index] - '0') * scale;
+			}
+		}
+		// The invalid digits are negative.
+		if (index != end || year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+				|| minute < 0 || minute > 59 || second < 0 || second > 59) {
+			throw new CSVException.FieldException(CSVException.Reason.INVALID_TIME, field);
+		}
+		long localSeconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second;
+		long localHour = Math.floorDiv(localSeconds, 3600);
+		if (localHour != cachedHour) {
+			cachedOffset = zoneRules
+					.getOffset(LocalDateTime.ofEpochSecond(localHour * 3600, 0, ZoneOffset.UTC)).getTotalSeconds();
+			cachedHour = localHour;
+		}
+		return (localSeconds - cachedOffset) * 1000 + millis;
+	}
+
+	/**
+	 * The number of days since epoch of a date.
+	 *
+	 * @param year  The year.
+	 * @param month The month from 1 to 12.
+	 * @param day   The day of month.
+	 * @return The number of days since 1970-01-01.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097L + dayOfEra - 719468;
+	}
+
+	@Override
+	public void close() throws IOException {
+		publishRecordCount();
+		in.close();
+	}
+}
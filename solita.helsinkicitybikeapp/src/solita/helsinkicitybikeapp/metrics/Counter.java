@@ -0,0 +1,70 @@
+package solita.helsinkicitybikeapp.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The monotonically increasing counter.
+ * 
+ * The counter is striped, thus concurrent increments do not contend on a
+ * single memory location.
+ * 
+ * @author Antti Kautiainen
+ *
+ */
+public class Counter implements Metric {
+
+	/**
+	 * The striped count.
+	 */
+	private final LongAdder count = new LongAdder();
+
+	/**
+	 * Creates a new counter with zero count.
+	 */
+	public Counter() {
+	}
+
+	/**
+	 * Increments the count by one.
+	 */
+	public void increment() {
+		count.increment();
+	}
+
+	/**
+	 * Adds to the count.
+	 * 
+	 * @param amount The added amount.
+	 * @throws IllegalArgumentException The amount was negative.
+	 */
+	public void add(long amount) throws IllegalArgumentException {
+		if (amount < 0) {
+			throw new IllegalArgumentException("Counter cannot decrease");
+		}
+		count.add(amount);
+	}
+
+	/**
+	 * The current count.
+	 * 
+	 * @return The sum of the increments.
+	 */
+	public long get() {
+		return count.sum();
+	}
+
+	@Override
+	public String getType() {
+		return "counter";
+	}
+
+	@Override
+	public void writeSamples(Appendable out, String name, String labels) throws IOException {
+		out.append(name);
+		if (!labels.isEmpty()) {
+			out.append('{').append(labels).append('}');
+		}
+		out.append(' ').append(Long.toString(get())).append('\n');
+	}
+}
@@ -0,0 +1,219 @@
+package solita.helsinkicitybikeapp.metrics;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The histogram of non-negative values with logarithmic buckets.
+ *
+ * Every power of two is divided into {@value #SUB_BUCKETS} linear buckets, thus
+ * the quantiles have relative error of at most 1/{@value #SUB_BUCKETS}. The
+ * recording is lock-free and does not allocate. The histogram is exported as a
+ * Prometheus summary with the quantiles {@link #QUANTILES}.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class Histogram implements Metric {
+
+	/**
+	 * The number of bits of the linear sub-bucket index.
+	 */
+	private static final int SUB_BUCKET_BITS = 4;
+
+	/**
+	 * The number of linear buckets of a power of two.
+	 */
+	public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * The number of buckets covering all non-negative long values.
+	 */
+	private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/**
+	 * The exported quantiles.
+	 */
+	public static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * The scale converting recorded values into exported values, for example
+	 * from nanoseconds to seconds.
+	 */
+	private final double scale;
+
+	/**
+	 * The counts of the buckets.
+	 */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+	/**
+	 * The number of recorded values.
+	 */
+	private final LongAdder count = new LongAdder();
+
+	/**
+	 * The sum of recorded values.
+	 */
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * The maximum recorded value.
+	 */
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * Creates a new histogram exporting the recorded values as is.
+	 */
+	public Histogram() {
+		this(1.0);
+	}
+
+	/**
+	 * Creates a new histogram.
+	 *
+	 * @param scale The scale of the exported values. Use 1e-9 for durations
+	 *              recorded in nanoseconds and exported in seconds.
+	 * @throws IllegalArgumentException The scale was not positive.
+	 */
+	public Histogram(double scale) throws IllegalArgumentException {
+		if (!(scale > 0)) {
+			throw new IllegalArgumentException("Scale must be positive");
+		}
+		this.scale = scale;
+	}
+
+	/**
+	 * The bucket of a value.
+	 *
+	 * @param value The non-negative value.
+	 * @return The index of the bucket containing the value.
+	 */
+	static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+	}
+
+	/**
+	 * The highest value of a bucket.
+	 *
+	 * @param index The bucket index.
+	 * @return The highest value belonging to the bucket.
+	 */
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+		long sub = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value The recorded value. Negative values are recorded as zero.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketIndex(value));
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * Records the nanoseconds elapsed since the given start.
+	 *
+	 * @param startNanos The start time from {@link System#nanoTime()}.
+	 */
+	public void recordNanosSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * The number of recorded values.
+	 *
+	 * @return The count of the values.
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * The sum of the recorded values.
+	 *
+	 * @return The sum of the values.
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * The maximum recorded value.
+	 *
+	 * @return The maximum value, or zero, if no value has been recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * The value at the given quantile.
+	 *
+	 * @param quantile The quantile between 0 and 1.
+	 * @return The upper bound of the bucket containing the quantile, or zero, if
+	 *         no value has been recorded.
+	 * @throws IllegalArgumentException The quantile was not between 0 and 1.
+	 */
+	public long getQuantile(double quantile) throws IllegalArgumentException {
+		if (!(quantile >= 0 && quantile <= 1)) {
+			throw new IllegalArgumentException("Invalid quantile");
+		}
+		long total = 0;
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total)), seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(bucketUpperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public String getType() {
+		return "summary";
+	}
+
+	@Override
+	public void writeSamples(Appendable out, String name, String labels) throws IOException {
+		String separator = labels.isEmpty() ? "" : ",";
+		for (double quantile : QUANTILES) {
+			out.append(name).append('{').append(labels).append(separator).append("quantile=\"")
+					.append(Double.toString(quantile)).append("\"} ")
+					.append(Double.toString(getQuantile(quantile) * scale)).append('\n');
+		}
+		String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+		out.append(name).append("_sum").append(braces).append(' ').append(Double.toString(getSum() * scale))
+				.append('\n');
+		out.append(name).append("_count").append(braces).append(' ').append(Long.toString(getCount()))
+				.append('\n');
+	}
+}
@@ -0,0 +1,30 @@
+package solita.helsinkicitybikeapp.metrics;
+
+import java.io.IOException;
+
+/**
+ * A metric of the metrics registry.
+ * 
+ * @author Antti Kautiainen
+ *
+ */
+public interface Metric {
+
+	/**
+	 * The Prometheus type of the metric.
+	 * 
+	 * @return The type name used in the TYPE line of the text format.
+	 */
+	public String getType();
+
+	/**
+	 * Writes the samples of the metric in Prometheus text format.
+	 * 
+	 * @param out    The output.
+	 * @param name   The metric name.
+	 * @param labels The rendered labels of the metric without braces. An empty
+	 *               string, if the metric has no labels.
+	 * @throws IOException The writing failed.
+	 */
+	public void writeSamples(Appendable out, String name, String labels) throws IOException;
+}
@@ -0,0 +1,242 @@
+package solita.helsinkicitybikeapp.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * The registry of the metrics of the application.
+ *
+ * The metrics are grouped into families by their names, and the metrics of a
+ * family are distinguished by their labels. The registry writes the metrics in
+ * the Prometheus text exposition format.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class MetricsRegistry {
+
+	/**
+	 * The pattern of valid metric and label names.
+	 */
+	private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+	/**
+	 * The content type of the Prometheus text format.
+	 */
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * The default registry.
+	 */
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+	/**
+	 * The default registry of the application.
+	 *
+	 * @return The default registry.
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * The family of metrics sharing a name.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static class Family {
+
+		/**
+		 * The description of the family.
+		 */
+		private final String help;
+
+		/**
+		 * The type of the family.
+		 */
+		private final String type;
+
+		/**
+		 * The metrics of the family by their rendered labels.
+		 */
+		private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+		/**
+		 * Creates a new family.
+		 *
+		 * @param help The description.
+		 * @param type The type.
+		 */
+		private Family(String help, String type) {
+			this.help = help;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * The families by their names.
+	 */
+	private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Creates a new empty registry.
+	 */
+	public MetricsRegistry() {
+	}
+
+	/**
+	 * Renders the labels.
+	 *
+	 * @param labels The label names and values in pairs.
+	 * @return The rendered labels without braces.
+	 * @throws IllegalArgumentException The labels were invalid.
+	 */
+	private static String renderLabels(String... labels) throws IllegalArgumentException {
+		if (labels.length % 2 != 0) {
+			throw new IllegalArgumentException("Labels must be name and value pairs");
+		}
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (labels[i] == null || !NAME_PATTERN.matcher(labels[i]).matches()) {
+				throw new IllegalArgumentException("Invalid label name");
+			}
+			if (i > 0) {
+				result.append(',');
+			}
+			result.append(labels[i]).append("=\"");
+			String value = labels[i + 1] == null ? "" : labels[i + 1];
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"') {
+					result.append('\\').append(c);
+				} else if (c == '\n') {
+					result.append("\\n");
+				} else {
+					result.append(c);
+				}
+			}
+			result.append('"');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Gets or creates a metric.
+	 *
+	 * @param <M>     The type of the metric.
+	 * @param name    The metric name.
+	 * @param help    The description of the metric family.
+	 * @param type    The class of the metric.
+	 * @param factory The factory creating a new metric.
+	 * @param labels  The label names and values in pairs.
+	 * @return The registered metric.
+	 * @throws IllegalArgumentException The name or labels were invalid, or the
+	 *                                  name is registered with another type.
+	 */
+	private <M extends Metric> M register(String name, String help, Class<M> type, Supplier<M> factory,
+			String... labels) throws IllegalArgumentException {
+		if (name == null || !NAME_PATTERN.matcher(name).matches()) {
+			throw new IllegalArgumentException("Invalid metric name");
+		}
+		String rendered = renderLabels(labels);
+		Family family = families.get(name);
+		if (family == null) {
+			M metric = factory.get();
+			Family created = new Family(help, metric.getType());
+			family = families.putIfAbsent(name, created);
+			if (family == null) {
+				family = created;
+			}
+		}
+		Metric result = family.metrics.computeIfAbsent(rendered, (String key) -> factory.get());
+		if (!type.isInstance(result)) {
+			throw new IllegalArgumentException("Metric " + name + " is registered with another type");
+		}
+		return type.cast(result);
+	}
+
+	/**
+	 * Gets or creates a counter.
+	 *
+	 * @param name   The metric name.
+	 * @param help   The description of the metric.
+	 * @param labels The label names and values in pairs.
+	 * @return The counter of the name and labels.
+	 * @throws IllegalArgumentException The name or labels were invalid, or the
+	 *                                  name is registered with another type.
+	 */
+	public Counter counter(String name, String help, String... labels) throws IllegalArgumentException {
+		return register(name, help, Counter.class, Counter::new, labels);
+	}
+
+	/**
+	 * Gets or creates a histogram of durations recorded in nanoseconds and
+	 * exported in seconds.
+	 *
+	 * @param name   The metric name.
+	 * @param help   The description of the metric.
+	 * @param labels The label names and values in pairs.
+	 * @return The histogram of the name and labels.
+	 * @throws IllegalArgumentException The name or labels were invalid, or the
+	 *                                  name is registered with another type.
+	 */
+	public Histogram timer(String name, String help, String... labels) throws IllegalArgumentException {
+		return histogram(name, help, 1e-9, labels);
+	}
+
+	/**
+	 * Gets or creates a histogram.
+	 *
+	 * @param name   The metric name.
+	 * @param help   The description of the metric.
+	 * @param scale  The scale of the exported values of a created histogram.
+	 * @param labels The label names and values in pairs.
+	 * @return The histogram of the name and labels.
+	 * @throws IllegalArgumentException The name or labels were invalid, or the
+	 *                                  name is registered with another type.
+	 */
+	public Histogram histogram(String name, String help, double scale, String... labels)
+			throws IllegalArgumentException {
+		return register(name, help, Histogram.class, () -> new Histogram(scale), labels);
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format.
+	 *
+	 * @param out The output.
+	 * @throws IOException The writing failed.
+	 */
+	public void writePrometheus(Appendable out) throws IOException {
+		Family family;
+		for (Map.Entry<String, Family> entry : families.entrySet()) {
+			family = entry.getValue();
+			if (family.help != null) {
+				out.append("# HELP ").append(entry.getKey()).append(' ')
+						.append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+			}
+			out.append("# TYPE ").append(entry.getKey()).append(' ').append(family.type).append('\n');
+			for (Map.Entry<String, Metric> metric : family.metrics.entrySet()) {
+				metric.getValue().writeSamples(out, entry.getKey(), metric.getKey());
+			}
+		}
+	}
+
+	/**
+	 * The metrics in the Prometheus text format.
+	 *
+	 * @return The text of the metrics.
+	 */
+	public String toPrometheusText() {
+		StringBuilder result = new StringBuilder();
+		try {
+			writePrometheus(result);
+		} catch (IOException ioe) {
+			// String builder does not throw exceptions.
+		}
+		return result.toString();
+	}
+}
@@ -5,6 +5,9 @@ import java.util.List;
 /**
  * The exception class handling CSV related exceptions.
  * 
+ * The exceptions caused by invalid content do not record stack traces, as a
+ * lenient reading of an invalid file may create one for every row. 
+ * 
  * @author Antti Kautiainen
  *
  */
@@ -186,6 +189,78 @@ public class CSVException extends RuntimeException {
 		}
 	}
 
+	/**
+	 * The reasons of rejecting a row. 
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static enum Reason {
+		FIELD_COUNT("Invalid field count"), INVALID_INTEGER("Invalid integer"), 
+		INTEGER_OVERFLOW("Integer overflow"), INVALID_TIME("Invalid time"), 
+		INVALID_VALUE("Invalid field value"), NEGATIVE_VALUE("Negative distance or duration"), 
+		INVALID_INTERVAL("Journey returns before its departure"), INVALID_JOURNEY("Invalid journey"); 
+		
+		/**
+		 * The message of the reason. 
+		 */
+		private final String message; 
+		
+		/**
+		 * Creates a new reason. 
+		 * @param message The message of the reason. 
+		 */
+		private Reason(String message) {
+			this.message = message; 
+		}
+		
+		/**
+		 * The message of the reason. 
+		 * @return The message describing the reason. 
+		 */
+		public String getMessage() {
+			return message; 
+		}
+	}
+	
+	/**
+	 * The exception indicating that a field value is invalid. 
+	 * 
+	 * The exception is thrown by the parsers on the hot path, and it does not 
+	 * record the stack trace or copy the row. 
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static class FieldException extends CSVException {
+
+		/**
+		 * The serialization version of the field exception.
+		 */
+		private static final long serialVersionUID = 3862719474326125608L;
+		
+		/**
+		 * The reason of the failure. 
+		 */
+		public final Reason reason; 
+		
+		/**
+		 * The index of the invalid field. 
+		 */
+		public final int field; 
+		
+		/**
+		 * Creates a new field exception. 
+		 * @param reason The reason of the failure. 
+		 * @param field The index of the invalid field. 
+		 */
+		public FieldException(Reason reason, int field) {
+			super(reason.getMessage(), null, false);
+			this.reason = reason; 
+			this.field = field; 
+		}
+	}
+
 	/**
 	 * The enumeration for row type.
 	 * 
@@ -211,8 +286,24 @@ public class CSVException extends RuntimeException {
 		 * @param cause The cause of the exception. 
 		 */
 		public InvalidRowException(CSVException.RowType type, String message, List<? extends CharSequence> row, Throwable cause) {
-			super(message, cause);
+			this(type, Reason.INVALID_VALUE, -1, message, row, cause);
+		}
+
+		/**
+		 * Creates a new invalid row exception with the rejection reason. 
+		 * @param type The type of the erroneous row. 
+		 * @param reason The reason of the rejection. 
+		 * @param column The index of the invalid column, or -1, if the whole row is invalid. 
+		 * @param message The message of the exception. 
+		 * @param row The invalid row causing the exception. 
+		 * @param cause The cause of the exception. 
+		 */
+		public InvalidRowException(CSVException.RowType type, Reason reason, int column, String message, 
+				List<? extends CharSequence> row, Throwable cause) {
+			super(message, cause, false);
 			this.rowType = type;
+			this.reason = reason; 
+			this.column = column; 
 			this.row = row;
 		}
 
@@ -232,6 +323,16 @@ public class CSVException extends RuntimeException {
 		 */
 		public final CSVException.RowType rowType;
 
+		/**
+		 * The reason of the rejection of the row. 
+		 */
+		public final Reason reason; 
+
+		/**
+		 * The index of the invalid column, or -1, if the whole row is invalid. 
+		 */
+		public final int column; 
+
 		/**
 		 * The row causing the problem. Changes on this row will change the invalid row. 
 		 */
@@ -249,4 +350,15 @@ public class CSVException extends RuntimeException {
 		super(message, cause);
 	}
 
+	/**
+	 * Creates a new CSV exception with or without stack trace. 
+	 * 
+	 * @param message The message of the exception.
+	 * @param cause   The cause of the exception.
+	 * @param writableStackTrace Does the exception record its stack trace. 
+	 */
+	protected CSVException(String message, Throwable cause, boolean writableStackTrace) {
+		super(message, cause, false, writableStackTrace);
+	}
+
 }
\ No newline at end of file
@@ -33,10 +33,17 @@ public class CSVJourneys extends Journeys implements Logging.MessageLogging {
 			return false;
 		}
 		try {
-			return journeysCSV.addDataRow(journey == null ? (List<String>) null
+			if (journeysCSV.addDataRow(journey == null ? (List<String>) null
 					: (getJourneyPropertyNames().stream().map((String property) -> {
-						return String.valueOf(journey.getProperty(property));
-					})).toList());
+						Object value = journey.getProperty(property);
+						java.text.Format format = journey.propertyFormatter(property);
+						return value == null ? null : (format == null ? value.toString() : format.format(value));
+					})).toList())) {
+				journeysChanged();
+				return true;
+			} else {
+				return false;
+			}
 		} catch (CSVException e) {
 			// This happen if the row is null
 			severe("CSV Error {0} which should never happen", e);
@@ -44,6 +51,11 @@ public class CSVJourneys extends Journeys implements Logging.MessageLogging {
 		}
 	}
 
+	@Override
+	public int getJourneyCount() {
+		return journeysCSV.size();
+	}
+
 	@Override
 	public Journey getJourney(int index) {
 		CSVDataRow data = journeysCSV.getDataRow(index);
@@ -51,7 +63,20 @@ public class CSVJourneys extends Journeys implements Logging.MessageLogging {
 			return null;
 		} else {
 			Journey result = new Journey();
-
+			List<String> properties = getJourneyPropertyNames();
+			String value;
+			java.text.Format format;
+			for (int i = 0, len = Math.min(properties.size(), data.size()); i < len; i++) {
+				value = data.get(i);
+				if (value != null) {
+					format = result.propertyFormatter(properties.get(i));
+					try {
+						result.properties().put(properties.get(i), format == null ? value : format.parseObject(value));
+					} catch (java.text.ParseException pe) {
+						severe("Invalid stored value of property {0}: {1}", properties.get(i), value);
+					}
+				}
+			}
 			return result;
 		}
 	}
@@ -0,0 +1,586 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import i18n.Logging;
+
+/**
+ * The in-memory journeys storing the journey properties in typed columns.
+ *
+ * Each journey property is stored in a primitive array indexed by the journey
+ * index. The times are stored as milliseconds since epoch, and the station
+ * names as codes of the station name dictionary shared by both departure and
+ * return stations.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class ColumnarJourneys extends Journeys implements JourneyColumns, Logging.MessageLogging {
+
+	/**
+	 * The value of an undefined integer property.
+	 */
+	public static final int UNDEFINED_INT = Integer.MIN_VALUE;
+
+	/**
+	 * The value of an undefined time property.
+	 */
+	public static final long UNDEFINED_TIME = Long.MIN_VALUE;
+
+	/**
+	 * The default initial capacity of the columns.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	/**
+	 * The number of journeys fetched at once when copying other journeys.
+	 */
+	private static final int COPY_PAGE_SIZE = 10000;
+
+	/**
+	 * The number of journeys.
+	 */
+	private int size = 0;
+
+	/**
+	 * The journey identifiers.
+	 */
+	private int[] ids;
+
+	/**
+	 * The departure times.
+	 */
+	private long[] startTimes;
+
+	/**
+	 * The return times.
+	 */
+	private long[] endTimes;
+
+	/**
+	 * The departure station identifiers.
+	 */
+	private int[] startStationIds;
+
+	/**
+	 * The return station identifiers.
+	 */
+	private int[] endStationIds;
+
+	/**
+	 * The departure station name codes.
+	 */
+	private int[] startNames;
+
+	/**
+	 * The return station name codes.
+	 */
+	private int[] endNames;
+
+	/**
+	 * The covered distances.
+	 */
+	private int[] distances;
+
+	/**
+	 * The durations.
+	 */
+	private int[] durations;
+
+	/**
+	 * The dictionary of the station names.
+	 */
+	private final StringDictionary stationNames;
+
+	/**
+	 * Creates a new empty columnar journeys with default capacity.
+	 */
+	public ColumnarJourneys() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a new empty columnar journeys with given initial capacity.
+	 *
+	 * @param capacity The initial number of journeys the columns can hold.
+	 * @throws IllegalArgumentException The capacity was negative.
+	 */
+	public ColumnarJourneys(int capacity) throws IllegalArgumentException {
+		this(capacity, new StringDictionary());
+	}
+
+	/**
+	 * Creates a new empty columnar journeys with given initial capacity and
+	 * station name dictionary.
+	 *
+	 * @param capacity     The initial number of journeys the columns can hold.
+	 * @param stationNames The dictionary of the station names.
+	 * @throws IllegalArgumentException The capacity was negative, or the
+	 *                                  dictionary was undefined.
+	 */
+	public ColumnarJourneys(int capacity, StringDictionary stationNames) throws IllegalArgumentException {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Negative capacity");
+		} else if (stationNames == null) {
+			throw new IllegalArgumentException("Undefined station name dictionary");
+		}
+		this.stationNames = stationNames;
+		ids = new int[capacity];
+		startTimes = new long[capacity];
+		endTimes = new long[capacity];
+		startStationIds = new int[capacity];
+		endStationIds = new int[capacity];
+		startNames = new int[capacity];
+		endNames = new int[capacity];
+		distances = new int[capacity];
+		durations = new int[capacity];
+	}
+
+	/**
+	 * Ensures the columns can hold given number of journeys.
+	 *
+	 * @param capacity The required capacity.
+	 */
+	protected void ensureCapacity(int capacity) {
+		if (capacity > ids.length) {
+			int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1) + 16);
+			ids = Arrays.copyOf(ids, newCapacity);
+			startTimes = Arrays.copyOf(startTimes, newCapacity);
+			endTimes = Arrays.copyOf(endTimes, newCapacity);
+			startStationIds = Arrays.copyOf(startStationIds, newCapacity);
+			endStationIds = Arrays.copyOf(endStationIds, newCapacity);
+			startNames = Arrays.copyOf(startNames, newCapacity);
+			endNames = Arrays.copyOf(endNames, newCapacity);
+			distances = Arrays.copyOf(distances, newCapacity);
+			durations = Arrays.copyOf(durations, newCapacity);
+		}
+	}
+
+	/**
+	 * The dictionary of the station names.
+	 *
+	 * @return The dictionary containing the station names of the journeys.
+	 */
+	public StringDictionary getStationNames() {
+		return this.stationNames;
+	}
+
+	@Override
+	public synchronized int getJourneyCount() {
+		return size;
+	}
+
+	/**
+	 * The integer value of a property value.
+	 *
+	 * @param value The property value.
+	 * @return The integer value, or {@link #UNDEFINED_INT} for an undefined value.
+	 * @throws ClassCastException The value was not an integer.
+	 */
+	static int intValue(Object value) throws ClassCastException {
+		return value == null ? UNDEFINED_INT : (Integer) value;
+	}
+
+	/**
+	 * The time value of a property value.
+	 *
+	 * @param value The property value.
+	 * @return The time value, or {@link #UNDEFINED_TIME} for an undefined value.
+	 * @throws ClassCastException The value was not a date.
+	 */
+	static long timeValue(Object value) throws ClassCastException {
+		return value == null ? UNDEFINED_TIME : ((Date) value).getTime();
+	}
+
+	/**
+	 * The adder of a journey from its typed property values.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	static interface TypedJourneyAdder {
+
+		/**
+		 * Adds a journey from its typed property values.
+		 *
+		 * @param id             The journey identifier.
+		 * @param startTime      The departure time in milliseconds since epoch.
+		 * @param endTime        The return time in milliseconds since epoch.
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @param startName      The departure station name.
+		 * @param endName        The return station name.
+		 * @param distance       The covered distance.
+		 * @param duration       The duration.
+		 * @return True, if and only if the journey was added.
+		 * @throws IllegalArgumentException The journey was invalid.
+		 */
+		public boolean add(int id, long startTime, long endTime, int startStationId, int endStationId,
+				String startName, String endName, int distance, int duration) throws IllegalArgumentException;
+	}
+
+	/**
+	 * Adds a journey with the typed adder.
+	 *
+	 * @param journey The added journey.
+	 * @param adder   The adder of the typed property values of the journey.
+	 * @return True, if and only if the journey was added.
+	 * @throws IllegalArgumentException The journey was invalid.
+	 */
+	static boolean addTypedJourney(Journey journey, TypedJourneyAdder adder) throws IllegalArgumentException {
+		if (journey == null) {
+			// Undefined journey cannot be added to journeys.
+			return false;
+		}
+		try {
+			return adder.add(intValue(journey.getProperty(ID_PROPERTY)),
+					timeValue(journey.getProperty(START_TIME_PROPERTY)),
+					timeValue(journey.getProperty(END_TIME_PROPERTY)),
+					intValue(journey.getProperty(START_LOCATION_ID_PROPERTY)),
+					intValue(journey.getProperty(END_LOCATION_ID_PROPERTY)),
+					(String) journey.getProperty(START_LOCATION_NAME_PROPERTY),
+					(String) journey.getProperty(END_LOCATION_NAME_PROPERTY),
+					intValue(journey.getProperty(DISTANCE_PROPERTY)),
+					intValue(journey.getProperty(DURATION_PROPERTY)));
+		} catch (ClassCastException cce) {
+			throw new IllegalArgumentException("Invalid journey property type", cce);
+		}
+	}
+
+	/**
+	 * Validates the typed property values of a journey.
+	 *
+	 * @param startTime The departure time in milliseconds since epoch.
+	 * @param endTime   The return time in milliseconds since epoch.
+	 * @param distance  The covered distance.
+	 * @param duration  The duration.
+	 * @throws IllegalArgumentException The values were invalid.
+	 */
+	static void validateJourney(long startTime, long endTime, int distance, int duration)
+			throws IllegalArgumentException {
+		if ((distance != UNDEFINED_INT && distance < 0) || (duration != UNDEFINED_INT && duration < 0)) {
+			throw new IllegalArgumentException("Negative distance or duration");
+		} else if (startTime != UNDEFINED_TIME && endTime != UNDEFINED_TIME && endTime < startTime) {
+			throw new IllegalArgumentException("Journey returns before its departure");
+		}
+	}
+
+	@Override
+	public boolean addJourney(Journey journey) throws IllegalArgumentException {
+		return addTypedJourney(journey, this::addJourney);
+	}
+
+	/**
+	 * Add a new journey from its typed property values.
+	 *
+	 * @param id             The journey identifier. If undefined, the journey gets
+	 *                       identifier of its index plus one.
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param startName      The departure station name.
+	 * @param endName        The return station name.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 * @return True, if and only if the journey was added.
+	 * @throws IllegalArgumentException The journey was invalid.
+	 */
+	public boolean addJourney(int id, long startTime, long endTime, int startStationId, int endStationId,
+			String startName, String endName, int distance, int duration) throws IllegalArgumentException {
+		return addEncodedJourney(id, startTime, endTime, startStationId, endStationId,
+				stationNames.encode(startName), stationNames.encode(endName), distance, duration);
+	}
+
+	/**
+	 * Add a new journey from its typed property values with already encoded
+	 * station names.
+	 *
+	 * @param id             The journey identifier. If undefined, the journey gets
+	 *                       identifier of its index plus one.
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param startName      The departure station name code of the station name
+	 *                       dictionary.
+	 * @param endName        The return station name code of the station name
+	 *                       dictionary.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 * @return True, if and only if the journey was added.
+	 * @throws IllegalArgumentException The journey was invalid.
+	 */
+	public synchronized boolean addEncodedJourney(int id, long startTime, long endTime, int startStationId,
+			int endStationId, int startName, int endName, int distance, int duration)
+			throws IllegalArgumentException {
+		validateJourney(startTime, endTime, distance, duration);
+		ensureCapacity(size + 1);
+		ids[size] = (id == UNDEFINED_INT ? size + 1 : id);
+		startTimes[size] = startTime;
+		endTimes[size] = endTime;
+		startStationIds[size] = startStationId;
+		endStationIds[size] = endStationId;
+		startNames[size] = startName;
+		endNames[size] = endName;
+		distances[size] = distance;
+		durations[size] = duration;
+		size++;
+		journeysChanged();
+		return true;
+	}
+
+	@Override
+	public synchronized Journey getJourney(int index) {
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		Journey result = new Journey();
+		putJourney(result.properties(), stationNames, ids[index], startTimes[index], endTimes[index],
+				startStationIds[index], endStationIds[index], startNames[index], endNames[index], distances[index],
+				durations[index]);
+		return result;
+	}
+
+	/**
+	 * Stores the defined typed property values of a journey.
+	 *
+	 * @param properties     The property map of the journey.
+	 * @param stationNames   The dictionary of the station name codes.
+	 * @param id             The journey identifier.
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param startName      The departure station name code.
+	 * @param endName        The return station name code.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 */
+	static void putJourney(java.util.Map<String, Object> properties, StringDictionary stationNames, int id,
+			long startTime, long endTime, int startStationId, int endStationId, int startName, int endName,
+			int distance, int duration) {
+		putInt(properties, ID_PROPERTY, id);
+		putTime(properties, START_TIME_PROPERTY, startTime);
+		putTime(properties, END_TIME_PROPERTY, endTime);
+		putInt(properties, START_LOCATION_ID_PROPERTY, startStationId);
+		putInt(properties, END_LOCATION_ID_PROPERTY, endStationId);
+		if (startName != StringDictionary.UNDEFINED_CODE) {
+			properties.put(START_LOCATION_NAME_PROPERTY, stationNames.decode(startName));
+		}
+		if (endName != StringDictionary.UNDEFINED_CODE) {
+			properties.put(END_LOCATION_NAME_PROPERTY, stationNames.decode(endName));
+		}
+		putInt(properties, DISTANCE_PROPERTY, distance);
+		putInt(properties, DURATION_PROPERTY, duration);
+	}
+
+	/**
+	 * Stores a defined integer property value.
+	 *
+	 * @param properties The property map.
+	 * @param property   The property name.
+	 * @param value      The property value.
+	 */
+	private static void putInt(java.util.Map<String, Object> properties, String property, int value) {
+		if (value != UNDEFINED_INT) {
+			properties.put(property, value);
+		}
+	}
+
+	/**
+	 * Stores a defined time property value.
+	 *
+	 * @param properties The property map.
+	 * @param property   The property name.
+	 * @param value      The property value.
+	 */
+	private static void putTime(java.util.Map<String, Object> properties, String property, long value) {
+		if (value != UNDEFINED_TIME) {
+			properties.put(property, new Date(value));
+		}
+	}
+
+	/**
+	 * The integer column of the given property.
+	 *
+	 * @param property The integer property.
+	 * @return The column array of the property. The array may be longer than the
+	 *         number of journeys.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 */
+	private int[] intColumn(String property) throws IllegalArgumentException {
+		switch (property == null ? "" : property) {
+		case ID_PROPERTY:
+			return ids;
+		case START_LOCATION_ID_PROPERTY:
+			return startStationIds;
+		case END_LOCATION_ID_PROPERTY:
+			return endStationIds;
+		case DISTANCE_PROPERTY:
+			return distances;
+		case DURATION_PROPERTY:
+			return durations;
+		case START_LOCATION_NAME_PROPERTY:
+			return startNames;
+		case END_LOCATION_NAME_PROPERTY:
+			return endNames;
+		default:
+			throw new IllegalArgumentException("Not an integer or name property");
+		}
+	}
+
+	/**
+	 * The time column of the given property.
+	 *
+	 * @param property The time property.
+	 * @return The column array of the property. The array may be longer than the
+	 *         number of journeys.
+	 * @throws IllegalArgumentException The property is not a time property.
+	 */
+	private long[] timeColumn(String property) throws IllegalArgumentException {
+		switch (property == null ? "" : property) {
+		case START_TIME_PROPERTY:
+			return startTimes;
+		case END_TIME_PROPERTY:
+			return endTimes;
+		default:
+			throw new IllegalArgumentException("Not a time property");
+		}
+	}
+
+	/**
+	 * The integer value of an integer property.
+	 *
+	 * For station name properties the value is the station name code.
+	 *
+	 * @param property The integer or station name property.
+	 * @param index    The journey index.
+	 * @return The value of the property, or {@link #UNDEFINED_INT} if the value is
+	 *         undefined.
+	 * @throws IllegalArgumentException  The property is not an integer property.
+	 * @throws IndexOutOfBoundsException The index is not an index of a journey.
+	 */
+	public synchronized int getIntValue(String property, int index)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(index, size);
+		return intColumn(property)[index];
+	}
+
+	/**
+	 * The time value of a date property.
+	 *
+	 * @param property The date property.
+	 * @param index    The journey index.
+	 * @return The value of the property in milliseconds since epoch, or
+	 *         {@link #UNDEFINED_TIME} if the value is undefined.
+	 * @throws IllegalArgumentException  The property is not a date property.
+	 * @throws IndexOutOfBoundsException The index is not an index of a journey.
+	 */
+	public synchronized long getTimeValue(String property, int index)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(index, size);
+		return timeColumn(property)[index];
+	}
+
+	/**
+	 * A copy of the integer column of the given property.
+	 *
+	 * For station name properties the column contains station name codes.
+	 *
+	 * @param property The integer or station name property.
+	 * @return The array containing the property value of every journey.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 */
+	public synchronized int[] copyIntColumn(String property) throws IllegalArgumentException {
+		return Arrays.copyOf(intColumn(property), size);
+	}
+
+	/**
+	 * A copy of the time column of the given property.
+	 *
+	 * @param property The date property.
+	 * @return The array containing the property value of every journey.
+	 * @throws IllegalArgumentException The property is not a date property.
+	 */
+	public synchronized long[] copyTimeColumn(String property) throws IllegalArgumentException {
+		return Arrays.copyOf(timeColumn(property), size);
+	}
+
+	@Override
+	public synchronized JourneyColumns.IntColumn getIntColumn(String property) throws IllegalArgumentException {
+		// The appended journeys do not alter the values of the view.
+		int[] values = intColumn(property);
+		int count = size;
+		return (int index) -> values[java.util.Objects.checkIndex(index, count)];
+	}
+
+	@Override
+	public synchronized JourneyColumns.TimeColumn getTimeColumn(String property) throws IllegalArgumentException {
+		long[] values = timeColumn(property);
+		int count = size;
+		return (int index) -> values[java.util.Objects.checkIndex(index, count)];
+	}
+
+	/**
+	 * Creates columnar copy of the given journeys.
+	 *
+	 * @param source The copied journeys.
+	 * @return The columnar journeys containing all journeys of the source in the
+	 *         same order.
+	 * @throws IllegalArgumentException A journey of the source was invalid.
+	 */
+	public static ColumnarJourneys copyOf(Journeys source) throws IllegalArgumentException {
+		if (source instanceof ColumnarJourneys) {
+			ColumnarJourneys other = (ColumnarJourneys) source;
+			synchronized (other) {
+				ColumnarJourneys result = new ColumnarJourneys(other.size, other.stationNames);
+				result.size = other.size;
+				System.arraycopy(other.ids, 0, result.ids, 0, other.size);
+				System.arraycopy(other.startTimes, 0, result.startTimes, 0, other.size);
+				System.arraycopy(other.endTimes, 0, result.endTimes, 0, other.size);
+				System.arraycopy(other.startStationIds, 0, result.startStationIds, 0, other.size);
+				System.arraycopy(other.endStationIds, 0, result.endStationIds, 0, other.size);
+				System.arraycopy(other.startNames, 0, result.startNames, 0, other.size);
+				System.arraycopy(other.endNames, 0, result.endNames, 0, other.size);
+				System.arraycopy(other.distances, 0, result.distances, 0, other.size);
+				System.arraycopy(other.durations, 0, result.durations, 0, other.size);
+				return result;
+			}
+		} else if (source instanceof JourneyColumns) {
+			JourneyColumns other = (JourneyColumns) source;
+			ColumnarJourneys result = new ColumnarJourneys(0, other.getStationNames());
+			result.ids = other.copyIntColumn(ID_PROPERTY);
+			result.startTimes = other.copyTimeColumn(START_TIME_PROPERTY);
+			result.endTimes = other.copyTimeColumn(END_TIME_PROPERTY);
+			result.startStationIds = other.copyIntColumn(START_LOCATION_ID_PROPERTY);
+			result.endStationIds = other.copyIntColumn(END_LOCATION_ID_PROPERTY);
+			result.startNames = other.copyIntColumn(START_LOCATION_NAME_PROPERTY);
+			result.endNames = other.copyIntColumn(END_LOCATION_NAME_PROPERTY);
+			result.distances = other.copyIntColumn(DISTANCE_PROPERTY);
+			result.durations = other.copyIntColumn(DURATION_PROPERTY);
+			result.size = result.ids.length;
+			return result;
+		} else {
+			int count = source.getJourneyCount();
+			ColumnarJourneys result = new ColumnarJourneys(count);
+			List<Journey> page;
+			for (int start = 0; start < count; start += COPY_PAGE_SIZE) {
+				// The journeys are fetched in pages to avoid a query per journey.
+				page = source.getJourneys(start, Math.min(count, start + COPY_PAGE_SIZE));
+				if (page == null) {
+					break;
+				}
+				for (Journey journey : page) {
+					if (journey != null) {
+						result.addJourney(journey);
+					}
+				}
+			}
+			return result;
+		}
+	}
+}
@@ -12,6 +12,8 @@ import java.util.Map;
 import java.util.Properties;
 
 import i18n.Logging;
+import solita.helsinkicitybikeapp.model.db.AsyncJourneys;
+import solita.helsinkicitybikeapp.model.db.ReplicaRouter;
 
 /**
  * The configuration of the Journeys application.
@@ -90,6 +92,144 @@ public class Config extends Properties implements Logging.LocalizedLogging {
 	 */
 	public static final String DATABASE_USER_SECRET_PROPERTY_NAME = "journeys.db.user.secret";
 
+	/**
+	 * The property name of the property containing the minimum number of pooled
+	 * database connections.
+	 */
+	public static final String DATABASE_POOL_MIN_SIZE_PROPERTY_NAME = "journeys.db.pool.min";
+
+	/**
+	 * The property name of the property containing the maximum number of pooled
+	 * database connections.
+	 */
+	public static final String DATABASE_POOL_MAX_SIZE_PROPERTY_NAME = "journeys.db.pool.max";
+
+	/**
+	 * The property name of the property containing the time in milliseconds an
+	 * idle pooled connection is kept open.
+	 */
+	public static final String DATABASE_POOL_IDLE_TIMEOUT_PROPERTY_NAME = "journeys.db.pool.idle.timeout";
+
+	/**
+	 * The property name of the property containing the maximum time in
+	 * milliseconds waited for a pooled connection.
+	 */
+	public static final String DATABASE_POOL_BORROW_TIMEOUT_PROPERTY_NAME = "journeys.db.pool.borrow.timeout";
+
+	/**
+	 * The property name of the property containing the timeout in seconds of the
+	 * validation of a pooled connection.
+	 */
+	public static final String DATABASE_POOL_VALIDATION_TIMEOUT_PROPERTY_NAME = "journeys.db.pool.validation.timeout";
+
+	/**
+	 * The property name of the property containing the time in milliseconds a
+	 * connection may be borrowed before it is reported as leaked.
+	 */
+	public static final String DATABASE_POOL_LEAK_THRESHOLD_PROPERTY_NAME = "journeys.db.pool.leak.threshold";
+
+	/**
+	 * The property name of the property containing the number of cached prepared
+	 * statements of a pooled connection.
+	 */
+	public static final String DATABASE_POOL_STATEMENT_CACHE_PROPERTY_NAME = "journeys.db.pool.statement.cache";
+
+	/**
+	 * The property name of the property containing the timeout of the
+	 * asynchronous journey queries in milliseconds.
+	 */
+	public static final String DATABASE_QUERY_TIMEOUT_PROPERTY_NAME = "journeys.db.query.timeout";
+
+	/**
+	 * The property name of the property containing the comma separated list of
+	 * the read replicas of the database. A replica is given as
+	 * host[:port][/database], and the missing port and database are those of
+	 * the primary database.
+	 */
+	public static final String DATABASE_REPLICAS_PROPERTY_NAME = "journeys.db.replicas";
+
+	/**
+	 * The property name of the property containing the maximum replication lag
+	 * in milliseconds of a replica used for reading.
+	 */
+	public static final String DATABASE_REPLICA_MAX_LAG_PROPERTY_NAME = "journeys.db.replica.max.lag";
+
+	/**
+	 * The property name of the property containing the interval in milliseconds
+	 * of the health checks of the replicas.
+	 */
+	public static final String DATABASE_REPLICA_CHECK_INTERVAL_PROPERTY_NAME = "journeys.db.replica.check.interval";
+
+	/**
+	 * The prefix of the database pool properties.
+	 */
+	private static final String DATABASE_POOL_PREFIX = "journeys.db.";
+
+	/**
+	 * The property name of the property containing the maximum size of the
+	 * journey query cache in bytes.
+	 */
+	public static final String QUERY_CACHE_SIZE_PROPERTY_NAME = "journeys.cache.size";
+
+	/**
+	 * The property name of the property containing the maximum size of the
+	 * cache of compressed HTTP responses in bytes.
+	 */
+	public static final String HTTP_CACHE_SIZE_PROPERTY_NAME = "journeys.http.cache.size";
+
+	/**
+	 * The default maximum size of the cache of compressed HTTP responses.
+	 */
+	public static final long DEFAULT_HTTP_CACHE_SIZE = 16L * 1024 * 1024;
+
+	/**
+	 * The property name of the property containing the number of the latest
+	 * departure months served from memory. The journeys are served from the
+	 * database alone, if the number is not positive.
+	 */
+	public static final String TIERED_MONTHS_PROPERTY_NAME = "journeys.tiered.months";
+
+	/**
+	 * The property name of the property containing the memory budget in bytes
+	 * of the journeys served from memory.
+	 */
+	public static final String TIERED_MEMORY_PROPERTY_NAME = "journeys.tiered.memory";
+
+	/**
+	 * The property name of the property containing the size of the ring buffer
+	 * between the decompression and the parsing of compressed imports.
+	 */
+	public static final String IMPORT_BUFFER_SIZE_PROPERTY_NAME = "journeys.import.buffer.size";
+
+	/**
+	 * The default size of the import ring buffer.
+	 */
+	public static final int DEFAULT_IMPORT_BUFFER_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * The property name of the property telling whether the import drops the
+	 * secondary indexes and the foreign keys of the journeys during the import.
+	 */
+	public static final String IMPORT_BULK_PROPERTY_NAME = "journeys.import.bulk";
+
+	/**
+	 * The property name of the property containing the path of the quarantine
+	 * file of the rejected import rows.
+	 */
+	public static final String QUARANTINE_FILE_PROPERTY_NAME = "journeys.import.quarantine.file";
+
+	/**
+	 * The property name of the property containing the path of the journey
+	 * snapshot file.
+	 */
+	public static final String SNAPSHOT_FILE_PROPERTY_NAME = "journeys.snapshot.file";
+
+	/**
+	 * The property name of the property containing the path of the journey
+	 * sketch file.
+	 */
+	public static final String SKETCH_FILE_PROPERTY_NAME = "journeys.sketch.file";
+
 	/**
 	 * The default name of the configuration file.
 	 */
@@ -145,8 +285,8 @@ public class Config extends Properties implements Logging.LocalizedLogging {
 		String property = this.getProperty(this.DATABASE_PROTOCOL_PROPERTY_NAME);
 		if (property != null) {
 			// WE do have database system.
-			if (property.equals("postgresql") || property.equals("psql")) {
-				// We have "postgresql" database using either "psql" or "postgresql".
+			if (property.equals("postgresql") || property.equals("psql") || property.equals("postgres")) {
+				// We have "postgresql" database using either "psql", "postgres" or "postgresql".
 				result.setProperty("dbms", "postgresql");
 			} else {
 				// Unknown database.
@@ -158,6 +298,16 @@ public class Config extends Properties implements Logging.LocalizedLogging {
 			result.setProperty("port", getProperty(this.DATABASE_PORT_PORPERTY_NAME));
 			result.setProperty("user", getProperty(this.DATABASE_USER_PROPERTY_NAME));
 			result.setProperty("password", getProperty(this.DATABASE_USER_SECRET_PROPERTY_NAME));
+			for (String poolProperty : java.util.Arrays.asList(DATABASE_POOL_MIN_SIZE_PROPERTY_NAME,
+					DATABASE_POOL_MAX_SIZE_PROPERTY_NAME, DATABASE_POOL_IDLE_TIMEOUT_PROPERTY_NAME,
+					DATABASE_POOL_BORROW_TIMEOUT_PROPERTY_NAME, DATABASE_POOL_VALIDATION_TIMEOUT_PROPERTY_NAME,
+					DATABASE_POOL_LEAK_THRESHOLD_PROPERTY_NAME, DATABASE_POOL_STATEMENT_CACHE_PROPERTY_NAME)) {
+				// The pool settings are passed without the journeys database prefix.
+				if (getProperty(poolProperty) != null) {
+					result.setProperty(poolProperty.substring(DATABASE_POOL_PREFIX.length()),
+							getProperty(poolProperty));
+				}
+			}
 
 		} else {
 			// We do not have database system.
@@ -165,6 +315,214 @@ public class Config extends Properties implements Logging.LocalizedLogging {
 		return result;
 	}
 
+	/**
+	 * Generates the database properties of the read replicas.
+	 * 
+	 * The replicas share the protocol, the user, and the pool settings of the
+	 * primary database. The replica pools wait a connection only a short while
+	 * to fall back to the primary database.
+	 * 
+	 * @return The properties of the replica connections by the replica names.
+	 *         Without a database system or replicas, the map is empty.
+	 */
+	public Map<String, Properties> getReplicaDatabaseProperties() {
+		Map<String, Properties> result = new java.util.LinkedHashMap<>();
+		Properties primary = getDatabaseProperties();
+		String replicas = this.getProperty(DATABASE_REPLICAS_PROPERTY_NAME);
+		if (primary.getProperty("dbms") != null && replicas != null) {
+			for (String replica : replicas.split(",")) {
+				replica = replica.trim();
+				if (replica.isEmpty()) {
+					continue;
+				}
+				Properties properties = new Properties();
+				properties.putAll(primary);
+				String host = replica;
+				int index = host.indexOf('/');
+				if (index >= 0) {
+					properties.setProperty("db", host.substring(index + 1));
+					host = host.substring(0, index);
+				}
+				index = host.lastIndexOf(':');
+				if (index >= 0) {
+					properties.setProperty("port", host.substring(index + 1));
+					host = host.substring(0, index);
+				}
+				properties.setProperty("host", host);
+				properties.setProperty(
+						DATABASE_POOL_BORROW_TIMEOUT_PROPERTY_NAME.substring(DATABASE_POOL_PREFIX.length()),
+						Long.toString(ReplicaRouter.REPLICA_BORROW_TIMEOUT));
+				result.put(replica, properties);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The maximum replication lag of a replica used for reading.
+	 * 
+	 * @return The maximum lag in milliseconds.
+	 */
+	public long getReplicaMaxLag() {
+		return Math.max(0, getLongProperty(DATABASE_REPLICA_MAX_LAG_PROPERTY_NAME, ReplicaRouter.DEFAULT_MAX_LAG));
+	}
+
+	/**
+	 * The interval of the health checks of the replicas.
+	 * 
+	 * @return The check interval in milliseconds.
+	 */
+	public long getReplicaCheckInterval() {
+		return Math.max(1, getLongProperty(DATABASE_REPLICA_CHECK_INTERVAL_PROPERTY_NAME,
+				ReplicaRouter.DEFAULT_CHECK_INTERVAL));
+	}
+
+	/**
+	 * The long integer value of a property.
+	 * 
+	 * @param propertyName The property name.
+	 * @param defaultValue The value used, if the property is missing or invalid.
+	 * @return The long integer value of the property.
+	 */
+	public long getLongProperty(String propertyName, long defaultValue) {
+		String property = this.getProperty(propertyName);
+		if (property == null || property.isBlank()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(property.trim());
+		} catch (NumberFormatException nfe) {
+			LOGGER.severe("Invalid integer value \"{1}\" of property \"{0}\"", propertyName, property);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * The maximum size of the journey query cache.
+	 * 
+	 * @return The maximum total size of cached query results in bytes.
+	 */
+	public long getQueryCacheSize() {
+		return getLongProperty(QUERY_CACHE_SIZE_PROPERTY_NAME, JourneyQueryCache.DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * The maximum size of the cache of compressed HTTP responses.
+	 * 
+	 * @return The maximum total size of cached compressed responses in bytes.
+	 */
+	public long getHttpCacheSize() {
+		return getLongProperty(HTTP_CACHE_SIZE_PROPERTY_NAME, DEFAULT_HTTP_CACHE_SIZE);
+	}
+
+	/**
+	 * The timeout of the asynchronous journey queries.
+	 * 
+	 * @return The query timeout in milliseconds.
+	 */
+	public long getQueryTimeout() {
+		return getLongProperty(DATABASE_QUERY_TIMEOUT_PROPERTY_NAME, AsyncJourneys.DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * The number of the latest departure months served from memory.
+	 * 
+	 * @return The number of the recent months, or zero, if the journeys are
+	 *         served from the database alone.
+	 */
+	public int getTieredMonths() {
+		return (int) Math.max(0, Math.min(Integer.MAX_VALUE, getLongProperty(TIERED_MONTHS_PROPERTY_NAME, 0)));
+	}
+
+	/**
+	 * The memory budget of the journeys served from memory.
+	 * 
+	 * @return The memory budget in bytes.
+	 */
+	public long getTieredMemory() {
+		long result = getLongProperty(TIERED_MEMORY_PROPERTY_NAME, TieredJourneys.DEFAULT_MEMORY_BUDGET);
+		return (result > 0 ? result : TieredJourneys.DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * The size of the ring buffer between the decompression and the parsing of
+	 * compressed imports.
+	 * 
+	 * @return The import buffer size in bytes.
+	 */
+	public int getImportBufferSize() {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8,
+				getLongProperty(IMPORT_BUFFER_SIZE_PROPERTY_NAME, DEFAULT_IMPORT_BUFFER_SIZE)));
+	}
+
+	/**
+	 * Does the import drop the secondary indexes and the foreign keys of the
+	 * journeys, and rebuild them after the import. The readers of the journeys
+	 * lack the indexes during the import.
+	 * 
+	 * @return True, if and only if the import is performed in bulk mode.
+	 */
+	public boolean isBulkImport() {
+		return Boolean.parseBoolean(getProperty(IMPORT_BULK_PROPERTY_NAME, "false").trim());
+	}
+
+	/**
+	 * The journey snapshot file.
+	 * 
+	 * The starting tilde (~) of the path is substituted with the user home
+	 * directory.
+	 * 
+	 * @return The path of the journey snapshot file, or undefined value, if no
+	 *         snapshot is configured.
+	 */
+	public java.nio.file.Path getSnapshotFile() {
+		return getPathProperty(SNAPSHOT_FILE_PROPERTY_NAME);
+	}
+
+	/**
+	 * The journey sketch file of the approximate analytics.
+	 * 
+	 * The starting tilde (~) of the path is substituted with the user home
+	 * directory.
+	 * 
+	 * @return The path of the sketch file, or undefined value, if no sketches
+	 *         are maintained.
+	 */
+	public java.nio.file.Path getSketchFile() {
+		return getPathProperty(SKETCH_FILE_PROPERTY_NAME);
+	}
+
+	/**
+	 * The quarantine file of the rejected import rows.
+	 * 
+	 * The starting tilde (~) of the path is substituted with the user home
+	 * directory.
+	 * 
+	 * @return The path of the quarantine file, or undefined value, if the
+	 *         rejected rows are only counted.
+	 */
+	public java.nio.file.Path getQuarantineFile() {
+		return getPathProperty(QUARANTINE_FILE_PROPERTY_NAME);
+	}
+
+	/**
+	 * The path value of a property.
+	 * 
+	 * @param propertyName The name of the property.
+	 * @return The path with the starting tilde (~) substituted with the user home
+	 *         directory, or undefined value, if the property is empty.
+	 */
+	protected java.nio.file.Path getPathProperty(String propertyName) {
+		String property = this.getProperty(propertyName);
+		if (property == null || property.isBlank()) {
+			return null;
+		} else if (property.startsWith("~")) {
+			return java.nio.file.Paths.get(System.getProperty("user.home") + property.trim().substring(1));
+		} else {
+			return java.nio.file.Paths.get(property.trim());
+		}
+	}
+
 	/**
 	 * The logger used for the static methods of this class.
 	 * 
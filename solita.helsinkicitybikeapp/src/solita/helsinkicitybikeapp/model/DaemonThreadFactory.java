@@ -0,0 +1,57 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The factory of the numbered daemon threads of the background computations.
+ *
+ * The daemon threads never keep the program running after its main threads
+ * have ended.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+final class DaemonThreadFactory implements ThreadFactory {
+
+	/**
+	 * The prefix of the thread names.
+	 */
+	private final String name;
+
+	/**
+	 * The number of the created threads.
+	 */
+	private final AtomicInteger threadCount = new AtomicInteger();
+
+	/**
+	 * Creates a new daemon thread factory.
+	 *
+	 * @param name The prefix of the thread names, which are followed by the
+	 *             thread number.
+	 */
+	DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable task) {
+		Thread result = new Thread(task, name + "-" + threadCount.incrementAndGet());
+		result.setDaemon(true);
+		return result;
+	}
+
+	/**
+	 * Creates a fixed thread pool of daemon threads.
+	 *
+	 * @param name    The prefix of the thread names.
+	 * @param threads The number of the threads.
+	 * @return The executor running the tasks with the daemon threads.
+	 * @throws IllegalArgumentException The number of threads was not positive.
+	 */
+	static ExecutorService newThreadPool(String name, int threads) throws IllegalArgumentException {
+		return Executors.newFixedThreadPool(threads, new DaemonThreadFactory(name));
+	}
+}
@@ -0,0 +1,619 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import i18n.Logging;
+
+/**
+ * The demand of the stations by the weekday and the hour of day.
+ *
+ * The cube counts the departures and the arrivals of each station in each hour
+ * of the week, and sums the distances and the durations of the departures.
+ * The cells are primitive counters in dense arrays indexed by the station
+ * identifier, the weekday from Monday, and the hour of day. Thus every lookup
+ * takes constant time. The departures are counted by the departure station
+ * and time, and the arrivals by the return station and time.
+ *
+ * The cube is built in one pass from a journey stream, or in parallel from
+ * journey columns by merging the partial cubes of the threads. The cube file
+ * starts with the magic {@value #MAGIC}, the format version, the number of
+ * stations, the data set version, and the time zone, followed by the cells and
+ * the CRC-32 of the preceding content.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class DemandCube implements Logging.MessageLogging {
+
+	/**
+	 * The magic identifying the cube files.
+	 */
+	public static final String MAGIC = "HCBJCUBE";
+
+	/**
+	 * The current format version.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The number of days of a week.
+	 */
+	public static final int WEEKDAYS = 7;
+
+	/**
+	 * The number of hours of a day.
+	 */
+	public static final int HOURS = 24;
+
+	/**
+	 * The number of cells of a station.
+	 */
+	public static final int STATION_CELLS = WEEKDAYS * HOURS;
+
+	/**
+	 * The number of journeys of a partial cube of a parallel build.
+	 */
+	private static final int PARTITION_SIZE = 1 << 18;
+
+	/**
+	 * The time zone of the weekdays and the hours.
+	 */
+	private final ZoneId zone;
+
+	/**
+	 * The number of stations the cells can hold.
+	 */
+	private int stationCount = 0;
+
+	/**
+	 * The departure counts.
+	 */
+	private int[] departures = new int[0];
+
+	/**
+	 * The arrival counts.
+	 */
+	private int[] arrivals = new int[0];
+
+	/**
+	 * The sums of the departure distances.
+	 */
+	private long[] distances = new long[0];
+
+	/**
+	 * The sums of the departure durations.
+	 */
+	private long[] durations = new long[0];
+
+	/**
+	 * The data set version of the counted journeys.
+	 */
+	private long version = 0;
+
+	/**
+	 * The start of the hour of the last resolved time in milliseconds since
+	 * epoch.
+	 */
+	private long hourStart = Long.MAX_VALUE;
+
+	/**
+	 * The end of the hour of the last resolved time in milliseconds since epoch.
+	 */
+	private long hourEnd = Long.MIN_VALUE;
+
+	/**
+	 * The cell of the hour of the last resolved time within a station.
+	 */
+	private int hourCell = 0;
+
+	/**
+	 * Creates a new empty cube of the system default time zone.
+	 */
+	public DemandCube() {
+		this(ZoneId.systemDefault());
+	}
+
+	/**
+	 * Creates a new empty cube.
+	 *
+	 * @param zone The time zone of the weekdays and the hours.
+	 * @throws IllegalArgumentException The zone was undefined.
+	 */
+	public DemandCube(ZoneId zone) throws IllegalArgumentException {
+		if (zone == null) {
+			throw new IllegalArgumentException("Undefined time zone");
+		}
+		this.zone = zone;
+	}
+
+	/**
+	 * The time zone of the cube.
+	 *
+	 * @return The time zone of the weekdays and the hours.
+	 */
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	/**
+	 * The number of stations the cells can hold.
+	 *
+	 * @return The number of stations, which is greater than the greatest
+	 *         counted station identifier.
+	 */
+	public synchronized int getStationCount() {
+		return stationCount;
+	}
+
+	/**
+	 * The data set version of the counted journeys.
+	 *
+	 * @return The data set version the cube was built from.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets the data set version of the counted journeys.
+	 *
+	 * @param version The data set version the cube was built from.
+	 */
+	public synchronized void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Ensures the cells can hold the given station.
+	 *
+	 * @param station The station identifier.
+	 */
+	protected void ensureStation(int station) {
+		if (station >= stationCount) {
+			int count = Math.max(station + 1, stationCount + (stationCount >> 1) + 16);
+			departures = Arrays.copyOf(departures, count * STATION_CELLS);
+			arrivals = Arrays.copyOf(arrivals, count * STATION_CELLS);
+			distances = Arrays.copyOf(distances, count * STATION_CELLS);
+			durations = Arrays.copyOf(durations, count * STATION_CELLS);
+			stationCount = count;
+		}
+	}
+
+	/**
+	 * The cell of a time within a station.
+	 *
+	 * The hour of the previous time is remembered, as the times of a journey
+	 * stream are mostly ordered.
+	 *
+	 * @param time The time in milliseconds since epoch.
+	 * @return The index of the weekday and the hour of the time within the cells
+	 *         of a station.
+	 */
+	protected int cellOf(long time) {
+		if (time < hourStart || time >= hourEnd) {
+			ZonedDateTime hour = Instant.ofEpochMilli(time).atZone(zone).truncatedTo(ChronoUnit.HOURS);
+			hourStart = hour.toInstant().toEpochMilli();
+			hourEnd = hour.plusHours(1).toInstant().toEpochMilli();
+			hourCell = (hour.getDayOfWeek().getValue() - 1) * HOURS + hour.getHour();
+		}
+		return hourCell;
+	}
+
+	/**
+	 * Counts a journey.
+	 *
+	 * The undefined values are {@link ColumnarJourneys#UNDEFINED_TIME} and
+	 * {@link ColumnarJourneys#UNDEFINED_INT}. The departure is counted only with
+	 * the departure station and time, and the arrival only with the return
+	 * station and time.
+	 *
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 */
+	public synchronized void add(long startTime, long endTime, int startStationId, int endStationId, int distance,
+			int duration) {
+		int cell;
+		if (startStationId >= 0 && startTime != ColumnarJourneys.UNDEFINED_TIME) {
+			ensureStation(startStationId);
+			cell = startStationId * STATION_CELLS + cellOf(startTime);
+			departures[cell]++;
+			if (distance != ColumnarJourneys.UNDEFINED_INT) {
+				distances[cell] += distance;
+			}
+			if (duration != ColumnarJourneys.UNDEFINED_INT) {
+				durations[cell] += duration;
+			}
+		}
+		if (endStationId >= 0 && endTime != ColumnarJourneys.UNDEFINED_TIME) {
+			ensureStation(endStationId);
+			arrivals[endStationId * STATION_CELLS + cellOf(endTime)]++;
+		}
+	}
+
+	/**
+	 * Counts a journey.
+	 *
+	 * @param journey The counted journey.
+	 */
+	public void add(Journeys.Journey journey) {
+		Object startStation = journey.getProperty(Journeys.START_LOCATION_ID_PROPERTY),
+				endStation = journey.getProperty(Journeys.END_LOCATION_ID_PROPERTY);
+		add(ColumnarJourneys.timeValue(journey.getProperty(Journeys.START_TIME_PROPERTY)),
+				ColumnarJourneys.timeValue(journey.getProperty(Journeys.END_TIME_PROPERTY)),
+				startStation == null ? -1 : (Integer) startStation, endStation == null ? -1 : (Integer) endStation,
+				ColumnarJourneys.intValue(journey.getProperty(Journeys.DISTANCE_PROPERTY)),
+				ColumnarJourneys.intValue(journey.getProperty(Journeys.DURATION_PROPERTY)));
+	}
+
+	/**
+	 * Adds the counts of another cube to this cube.
+	 *
+	 * @param other The added cube of the same time zone.
+	 * @return This cube.
+	 * @throws IllegalArgumentException The time zones differ.
+	 */
+	public DemandCube merge(DemandCube other) throws IllegalArgumentException {
+		if (!zone.equals(other.zone)) {
+			throw new IllegalArgumentException("Merged cubes of different time zones");
+		}
+		int[] otherDepartures, otherArrivals;
+		long[] otherDistances, otherDurations;
+		synchronized (other) {
+			otherDepartures = other.departures.clone();
+			otherArrivals = other.arrivals.clone();
+			otherDistances = other.distances.clone();
+			otherDurations = other.durations.clone();
+		}
+		synchronized (this) {
+			if (otherDepartures.length > 0) {
+				ensureStation(otherDepartures.length / STATION_CELLS - 1);
+			}
+			for (int i = 0; i < otherDepartures.length; i++) {
+				departures[i] += otherDepartures[i];
+				arrivals[i] += otherArrivals[i];
+				distances[i] += otherDistances[i];
+				durations[i] += otherDurations[i];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * The index of a cell.
+	 *
+	 * @param station The station identifier.
+	 * @param weekday The weekday.
+	 * @param hour    The hour of day.
+	 * @return The index of the cell, or -1, if the station has no cells.
+	 * @throws IllegalArgumentException The hour was not an hour of day.
+	 */
+	protected int indexOf(int station, DayOfWeek weekday, int hour) throws IllegalArgumentException {
+		if (hour < 0 || hour >= HOURS) {
+			throw new IllegalArgumentException("Invalid hour of day");
+		}
+		return (station < 0 || station >= stationCount ? -1
+				: station * STATION_CELLS + (weekday.getValue() - 1) * HOURS + hour);
+	}
+
+	/**
+	 * The number of departures.
+	 *
+	 * @param station The station identifier.
+	 * @param weekday The weekday.
+	 * @param hour    The hour of day.
+	 * @return The number of the departures from the station in the hour.
+	 * @throws IllegalArgumentException The hour was not an hour of day.
+	 */
+	public synchronized int getDepartures(int station, DayOfWeek weekday, int hour) throws IllegalArgumentException {
+		int index = indexOf(station, weekday, hour);
+		return (index < 0 ? 0 : departures[index]);
+	}
+
+	/**
+	 * The number of arrivals.
+	 *
+	 * @param station The station identifier.
+	 * @param weekday The weekday.
+	 * @param hour    The hour of day.
+	 * @return The number of the arrivals to the station in the hour.
+	 * @throws IllegalArgumentException The hour was not an hour of day.
+	 */
+	public synchronized int getArrivals(int station, DayOfWeek weekday, int hour) throws IllegalArgumentException {
+		int index = indexOf(station, weekday, hour);
+		return (index < 0 ? 0 : arrivals[index]);
+	}
+
+	/**
+	 * The sum of the departure distances.
+	 *
+	 * @param station The station identifier.
+	 * @param weekday The weekday.
+	 * @param hour    The hour of day.
+	 * @return The total distance of the departures from the station in the hour.
+	 * @throws IllegalArgumentException The hour was not an hour of day.
+	 */
+	public synchronized long getDistanceSum(int station, DayOfWeek weekday, int hour)
+			throws IllegalArgumentException {
+		int index = indexOf(station, weekday, hour);
+		return (index < 0 ? 0 : distances[index]);
+	}
+
+	/**
+	 * The sum of the departure durations.
+	 *
+	 * @param station The station identifier.
+	 * @param weekday The weekday.
+	 * @param hour    The hour of day.
+	 * @return The total duration of the departures from the station in the hour.
+	 * @throws IllegalArgumentException The hour was not an hour of day.
+	 */
+	public synchronized long getDurationSum(int station, DayOfWeek weekday, int hour)
+			throws IllegalArgumentException {
+		int index = indexOf(station, weekday, hour);
+		return (index < 0 ? 0 : durations[index]);
+	}
+
+	/**
+	 * The cells of a station.
+	 *
+	 * @param cells   The cells.
+	 * @param station The station identifier.
+	 * @return The {@value #STATION_CELLS} cells of the station from Monday
+	 *         midnight.
+	 */
+	private int[] profileOf(int[] cells, int station) {
+		return (station < 0 || station >= stationCount ? new int[STATION_CELLS]
+				: Arrays.copyOfRange(cells, station * STATION_CELLS, (station + 1) * STATION_CELLS));
+	}
+
+	/**
+	 * The cells of a station.
+	 *
+	 * @param cells   The cells.
+	 * @param station The station identifier.
+	 * @return The {@value #STATION_CELLS} cells of the station from Monday
+	 *         midnight.
+	 */
+	private long[] profileOf(long[] cells, int station) {
+		return (station < 0 || station >= stationCount ? new long[STATION_CELLS]
+				: Arrays.copyOfRange(cells, station * STATION_CELLS, (station + 1) * STATION_CELLS));
+	}
+
+	/**
+	 * The hourly departures of a station.
+	 *
+	 * @param station The station identifier.
+	 * @return The departure counts of the hours of the week from Monday midnight.
+	 */
+	public synchronized int[] getDepartureProfile(int station) {
+		return profileOf(departures, station);
+	}
+
+	/**
+	 * The hourly arrivals of a station.
+	 *
+	 * @param station The station identifier.
+	 * @return The arrival counts of the hours of the week from Monday midnight.
+	 */
+	public synchronized int[] getArrivalProfile(int station) {
+		return profileOf(arrivals, station);
+	}
+
+	/**
+	 * The hourly departure distance sums of a station.
+	 *
+	 * @param station The station identifier.
+	 * @return The distance sums of the hours of the week from Monday midnight.
+	 */
+	public synchronized long[] getDistanceProfile(int station) {
+		return profileOf(distances, station);
+	}
+
+	/**
+	 * The hourly departure duration sums of a station.
+	 *
+	 * @param station The station identifier.
+	 * @return The duration sums of the hours of the week from Monday midnight.
+	 */
+	public synchronized long[] getDurationProfile(int station) {
+		return profileOf(durations, station);
+	}
+
+	/**
+	 * Builds the cube of journey columns.
+	 *
+	 * The journeys are split into partitions counted into partial cubes by
+	 * parallel threads, and the partial cubes are merged.
+	 *
+	 * @param source  The journey columns.
+	 * @param zone    The time zone of the weekdays and the hours.
+	 * @param threads The number of the counting threads.
+	 * @return The cube of the journeys with the data set version of the columns.
+	 * @throws IllegalArgumentException The number of threads was not positive.
+	 */
+	public static DemandCube build(JourneyColumns source, ZoneId zone, int threads) throws IllegalArgumentException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Non-positive number of threads");
+		}
+		long version = source.getVersion();
+		long[] startTimes = source.copyTimeColumn(Journeys.START_TIME_PROPERTY);
+		long[] endTimes = source.copyTimeColumn(Journeys.END_TIME_PROPERTY);
+		int[] startStations = source.copyIntColumn(Journeys.START_LOCATION_ID_PROPERTY);
+		int[] endStations = source.copyIntColumn(Journeys.END_LOCATION_ID_PROPERTY);
+		int[] distances = source.copyIntColumn(Journeys.DISTANCE_PROPERTY);
+		int[] durations = source.copyIntColumn(Journeys.DURATION_PROPERTY);
+		int count = Math.min(startTimes.length, Math.min(endTimes.length, startStations.length));
+		ExecutorService executor = DaemonThreadFactory.newThreadPool("demand-cube", threads);
+		DemandCube result = new DemandCube(zone);
+		try {
+			List<Future<DemandCube>> partials = new ArrayList<>();
+			for (int start = 0; start < count; start += PARTITION_SIZE) {
+				int first = start, end = Math.min(count, start + PARTITION_SIZE);
+				partials.add(executor.submit(() -> {
+					DemandCube partial = new DemandCube(zone);
+					for (int i = first; i < end; i++) {
+						partial.add(startTimes[i], endTimes[i], startStations[i] == ColumnarJourneys.UNDEFINED_INT ? -1
+								: startStations[i], endStations[i] == ColumnarJourneys.UNDEFINED_INT ? -1
+										: endStations[i],
+								distances[i], durations[i]);
+					}
+					return partial;
+				}));
+			}
+			for (Future<DemandCube> partial : partials) {
+				result.merge(partial.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Building demand cube was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Building demand cube failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		result.setVersion(version);
+		return result;
+	}
+
+	/**
+	 * Builds the cube of journeys.
+	 *
+	 * @param source The journeys.
+	 * @param zone   The time zone of the weekdays and the hours.
+	 * @return The cube of the journeys with the data set version of the journeys.
+	 */
+	public static DemandCube build(Journeys source, ZoneId zone) {
+		long version = source.getVersion();
+		DemandCube result = build(source instanceof JourneyColumns ? (JourneyColumns) source
+				: ColumnarJourneys.copyOf(source), zone, Runtime.getRuntime().availableProcessors());
+		result.setVersion(version);
+		return result;
+	}
+
+	/**
+	 * The cube file persisted with a journey snapshot.
+	 *
+	 * @param snapshot The path of the snapshot file.
+	 * @return The path of the cube file of the snapshot.
+	 */
+	public static Path cubeFileOf(Path snapshot) {
+		return snapshot.resolveSibling(snapshot.getFileName() + ".cube");
+	}
+
+	/**
+	 * Writes the cube.
+	 *
+	 * The cube is written into a temporary file, which replaces the target only
+	 * after it has been completely written.
+	 *
+	 * @param target The path of the cube file.
+	 * @throws IOException The writing failed.
+	 */
+	public synchronized void write(Path target) throws IOException {
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		CRC32 checksum = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporary)), checksum))) {
+			out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(stationCount);
+			out.writeLong(version);
+			out.writeUTF(zone.getId());
+			for (int i = 0, len = stationCount * STATION_CELLS; i < len; i++) {
+				out.writeInt(departures[i]);
+				out.writeInt(arrivals[i]);
+				out.writeLong(distances[i]);
+				out.writeLong(durations[i]);
+			}
+			out.flush();
+			// The checksum covers the content before it.
+			out.writeLong(checksum.getValue());
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (java.nio.file.AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		info("Wrote demand cube of {0} stations to {1}", stationCount, target);
+	}
+
+	/**
+	 * Reads a cube.
+	 *
+	 * @param source The path of the cube file.
+	 * @return The read cube.
+	 * @throws IOException The cube could not be read, or it was corrupted.
+	 */
+	public static DemandCube read(Path source) throws IOException {
+		CRC32 checksum = new CRC32();
+		try (DataInputStream in = new DataInputStream(
+				new CheckedInputStream(new BufferedInputStream(Files.newInputStream(source)), checksum))) {
+			byte[] magic = new byte[MAGIC.length()];
+			in.readFully(magic);
+			if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+				throw new IOException("Not a demand cube");
+			}
+			int formatVersion = in.readInt();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IOException("Unsupported demand cube format version " + formatVersion);
+			}
+			int stations = in.readInt();
+			if (stations < 0 || stations > Short.MAX_VALUE + 1) {
+				throw new IOException("Corrupted demand cube header");
+			}
+			long version = in.readLong();
+			DemandCube result;
+			try {
+				result = new DemandCube(ZoneId.of(in.readUTF()));
+			} catch (java.time.DateTimeException e) {
+				throw new IOException("Invalid demand cube time zone", e);
+			}
+			if (stations > 0) {
+				result.ensureStation(stations - 1);
+			}
+			for (int i = 0, len = stations * STATION_CELLS; i < len; i++) {
+				result.departures[i] = in.readInt();
+				result.arrivals[i] = in.readInt();
+				result.distances[i] = in.readLong();
+				result.durations[i] = in.readLong();
+			}
+			long expected = checksum.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("Corrupted demand cube");
+			}
+			result.setVersion(version);
+			return result;
+		}
+	}
+}
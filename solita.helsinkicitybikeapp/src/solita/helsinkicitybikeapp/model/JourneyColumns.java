@@ -0,0 +1,167 @@
+package solita.helsinkicitybikeapp.model;
+
+/**
+ * The journeys whose properties are accessible as typed columns.
+ *
+ * The times are milliseconds since epoch, and the station names are codes of
+ * the station name dictionary. The undefined values are
+ * {@link ColumnarJourneys#UNDEFINED_TIME}, {@link ColumnarJourneys#UNDEFINED_INT}
+ * and {@link StringDictionary#UNDEFINED_CODE}.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public interface JourneyColumns {
+
+	/**
+	 * The read-only view of an integer column.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	public static interface IntColumn {
+
+		/**
+		 * The value of a journey.
+		 *
+		 * @param index The journey index.
+		 * @return The value of the journey.
+		 * @throws IndexOutOfBoundsException The index is not an index of a journey.
+		 */
+		public int get(int index) throws IndexOutOfBoundsException;
+	}
+
+	/**
+	 * The read-only view of a time column.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	public static interface TimeColumn {
+
+		/**
+		 * The value of a journey.
+		 *
+		 * @param index The journey index.
+		 * @return The value of the journey in milliseconds since epoch.
+		 * @throws IndexOutOfBoundsException The index is not an index of a journey.
+		 */
+		public long get(int index) throws IndexOutOfBoundsException;
+	}
+
+	/**
+	 * The number of journeys.
+	 *
+	 * @return The number of journeys in the columns.
+	 */
+	public int getJourneyCount();
+
+	/**
+	 * The data set version of the journeys.
+	 *
+	 * @return The current data set version.
+	 */
+	public long getVersion();
+
+	/**
+	 * The journey of the given index.
+	 *
+	 * @param index The journey index.
+	 * @return The journey built from the column values, or undefined value, if
+	 *         there is no journey with the index.
+	 */
+	public Journeys.Journey getJourney(int index);
+
+	/**
+	 * The dictionary of the station names.
+	 *
+	 * @return The dictionary containing the station names of the journeys.
+	 */
+	public StringDictionary getStationNames();
+
+	/**
+	 * The integer value of an integer property.
+	 *
+	 * For station name properties the value is the station name code.
+	 *
+	 * @param property The integer or station name property.
+	 * @param index    The journey index.
+	 * @return The value of the property.
+	 * @throws IllegalArgumentException  The property is not an integer property.
+	 * @throws IndexOutOfBoundsException The index is not an index of a journey.
+	 */
+	public int getIntValue(String property, int index) throws IllegalArgumentException, IndexOutOfBoundsException;
+
+	/**
+	 * The time value of a date property.
+	 *
+	 * @param property The date property.
+	 * @param index    The journey index.
+	 * @return The value of the property in milliseconds since epoch.
+	 * @throws IllegalArgumentException  The property is not a date property.
+	 * @throws IndexOutOfBoundsException The index is not an index of a journey.
+	 */
+	public long getTimeValue(String property, int index) throws IllegalArgumentException, IndexOutOfBoundsException;
+
+	/**
+	 * A copy of the integer column of the given property.
+	 *
+	 * @param property The integer or station name property.
+	 * @return The array containing the property value of every journey.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 */
+	public int[] copyIntColumn(String property) throws IllegalArgumentException;
+
+	/**
+	 * A copy of the time column of the given property.
+	 *
+	 * @param property The date property.
+	 * @return The array containing the property value of every journey.
+	 * @throws IllegalArgumentException The property is not a date property.
+	 */
+	public long[] copyTimeColumn(String property) throws IllegalArgumentException;
+
+	/**
+	 * The view of the integer column of the given property.
+	 *
+	 * The view covers the journeys of the columns when the view was created. The
+	 * default implementation is backed by a copy of the column.
+	 *
+	 * @param property The integer or station name property.
+	 * @return The view reading the property values of the journeys.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 */
+	public default IntColumn getIntColumn(String property) throws IllegalArgumentException {
+		int[] values = copyIntColumn(property);
+		return (int index) -> values[index];
+	}
+
+	/**
+	 * The view of the time column of the given property.
+	 *
+	 * The view covers the journeys of the columns when the view was created. The
+	 * default implementation is backed by a copy of the column.
+	 *
+	 * @param property The date property.
+	 * @return The view reading the property values of the journeys.
+	 * @throws IllegalArgumentException The property is not a date property.
+	 */
+	public default TimeColumn getTimeColumn(String property) throws IllegalArgumentException {
+		long[] values = copyTimeColumn(property);
+		return (int index) -> values[index];
+	}
+
+	/**
+	 * Are the columns stored outside the heap.
+	 *
+	 * The users of the off-heap columns read the values through the column views
+	 * instead of keeping copies of the columns in the heap.
+	 *
+	 * @return True, if and only if the column values are outside the heap.
+	 */
+	public default boolean isOffHeap() {
+		return false;
+	}
+}
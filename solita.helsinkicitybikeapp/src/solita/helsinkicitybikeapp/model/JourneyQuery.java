@@ -0,0 +1,405 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import solita.helsinkicitybikeapp.model.JourneySorter.SortKey;
+
+/**
+ * The query listing a page of journeys.
+ *
+ * The query consists of the filters the listed journeys has to pass, the sort
+ * keys ordering the journeys, and the page of the ordered journeys. An empty
+ * list of sort keys means the natural order of the journeys.
+ *
+ * The queries are normalised: the filters are kept in canonical order without
+ * duplicates, and the sort keys do not contain the same property twice. Thus
+ * two queries listing the same journeys are equal, and the queries can be used
+ * as cache keys.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public final class JourneyQuery {
+
+	/**
+	 * The comparison operator of a filter.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static enum Operator {
+		EQ("="), NE("<>"), LT("<"), LE("<="), GT(">"), GE(">=");
+
+		/**
+		 * The symbol of the operator.
+		 */
+		private final String symbol;
+
+		/**
+		 * Creates a new operator.
+		 *
+		 * @param symbol The symbol of the operator.
+		 */
+		private Operator(String symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * The symbol of the operator. The symbol is also the SQL operator.
+		 *
+		 * @return The symbol of the operator.
+		 */
+		public String getSymbol() {
+			return this.symbol;
+		}
+
+		/**
+		 * Does the comparison result pass the operator.
+		 *
+		 * @param comparison The comparison of the tested value to the filter value.
+		 * @return True, if and only if the comparison passes the operator.
+		 */
+		public boolean test(int comparison) {
+			switch (this) {
+			case EQ:
+				return comparison == 0;
+			case NE:
+				return comparison != 0;
+			case LT:
+				return comparison < 0;
+			case LE:
+				return comparison <= 0;
+			case GT:
+				return comparison > 0;
+			case GE:
+				return comparison >= 0;
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * The operator of the given symbol.
+		 *
+		 * @param symbol The operator symbol.
+		 * @return The operator with the given symbol.
+		 * @throws IllegalArgumentException The symbol was not an operator symbol.
+		 */
+		public static Operator ofSymbol(String symbol) throws IllegalArgumentException {
+			for (Operator operator : values()) {
+				if (operator.symbol.equals(symbol)) {
+					return operator;
+				}
+			}
+			throw new IllegalArgumentException("Unknown operator");
+		}
+	}
+
+	/**
+	 * The filter comparing a journey property to a value.
+	 *
+	 * A journey without the property value does not pass any filter of the
+	 * property.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static final class Filter {
+
+		/**
+		 * The filtered property.
+		 */
+		private final String property;
+
+		/**
+		 * The comparison operator.
+		 */
+		private final Operator operator;
+
+		/**
+		 * The compared value.
+		 */
+		private final Comparable<?> value;
+
+		/**
+		 * Creates a new filter.
+		 *
+		 * @param property The filtered property.
+		 * @param operator The operator.
+		 * @param value    The compared value. The value has to be a date, an integer,
+		 *                 or a string.
+		 * @throws NullPointerException     Any argument was undefined.
+		 * @throws IllegalArgumentException The value was of invalid type.
+		 */
+		public Filter(String property, Operator operator, Object value)
+				throws NullPointerException, IllegalArgumentException {
+			this.property = Objects.requireNonNull(property, "Undefined filter property");
+			this.operator = Objects.requireNonNull(operator, "Undefined filter operator");
+			Objects.requireNonNull(value, "Undefined filter value");
+			if (value instanceof Date) {
+				// Dates are mutable.
+				this.value = new Date(((Date) value).getTime());
+			} else if (value instanceof Integer || value instanceof String) {
+				this.value = (Comparable<?>) value;
+			} else {
+				throw new IllegalArgumentException("Invalid filter value type");
+			}
+		}
+
+		/**
+		 * The filtered property.
+		 *
+		 * @return The name of the filtered property.
+		 */
+		public String getProperty() {
+			return property;
+		}
+
+		/**
+		 * The operator.
+		 *
+		 * @return The operator comparing property value to the filter value.
+		 */
+		public Operator getOperator() {
+			return operator;
+		}
+
+		/**
+		 * The filter value.
+		 *
+		 * @return The value the property is compared with. Dates are returned as
+		 *         copies.
+		 */
+		public Object getValue() {
+			return (value instanceof Date) ? new Date(((Date) value).getTime()) : value;
+		}
+
+		/**
+		 * Test a property value.
+		 *
+		 * @param propertyValue The tested property value.
+		 * @return True, if and only if the value passes the filter.
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public boolean test(Object propertyValue) {
+			if (propertyValue == null || propertyValue.getClass() != value.getClass()) {
+				return false;
+			}
+			return operator.test(((Comparable) propertyValue).compareTo(value));
+		}
+
+		/**
+		 * Test a journey.
+		 *
+		 * @param journey The tested journey.
+		 * @return True, if and only if the journey passes the filter.
+		 */
+		public boolean test(Journeys.Journey journey) {
+			return journey != null && test(journey.getProperty(property));
+		}
+
+		/**
+		 * The canonical string of the value.
+		 *
+		 * @return The string uniquely identifying the value and its type.
+		 */
+		private String valueString() {
+			if (value instanceof Date) {
+				return "d" + ((Date) value).getTime();
+			} else if (value instanceof Integer) {
+				return "i" + value;
+			} else {
+				return "s" + value;
+			}
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			} else if (other instanceof Filter) {
+				Filter filter = (Filter) other;
+				return property.equals(filter.property) && operator == filter.operator && value.equals(filter.value);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(property, operator, value);
+		}
+
+		@Override
+		public String toString() {
+			return property + operator.getSymbol() + valueString();
+		}
+	}
+
+	/**
+	 * The canonical order of the filters.
+	 */
+	private static final Comparator<Filter> FILTER_ORDER = Comparator.comparing(Filter::getProperty)
+			.thenComparing(Filter::getOperator).thenComparing(Filter::valueString);
+
+	/**
+	 * The normalised filters.
+	 */
+	private final List<Filter> filters;
+
+	/**
+	 * The normalised sort keys.
+	 */
+	private final List<SortKey> sortKeys;
+
+	/**
+	 * The index of the first listed journey.
+	 */
+	private final int startIndex;
+
+	/**
+	 * The first index after the listed journeys.
+	 */
+	private final int endIndex;
+
+	/**
+	 * Creates a new query listing a page of journeys in natural order.
+	 *
+	 * @param startIndex The index of the first listed journey.
+	 * @param endIndex   The first index after the listed journeys.
+	 * @throws IllegalArgumentException The page was invalid.
+	 */
+	public JourneyQuery(int startIndex, int endIndex) throws IllegalArgumentException {
+		this(null, null, startIndex, endIndex);
+	}
+
+	/**
+	 * Creates a new query.
+	 *
+	 * @param filters    The filters. Undefined value means no filters.
+	 * @param sortKeys   The sort keys with the most significant first. Undefined
+	 *                   value means the natural order.
+	 * @param startIndex The index of the first listed journey.
+	 * @param endIndex   The first index after the listed journeys.
+	 * @throws IllegalArgumentException The page was invalid.
+	 */
+	public JourneyQuery(List<Filter> filters, List<SortKey> sortKeys, int startIndex, int endIndex)
+			throws IllegalArgumentException {
+		if (startIndex < 0 || endIndex < startIndex) {
+			throw new IllegalArgumentException("Invalid page");
+		}
+		List<Filter> filterList = new ArrayList<>();
+		if (filters != null) {
+			filters.stream().filter(Objects::nonNull).distinct().sorted(FILTER_ORDER).forEachOrdered(filterList::add);
+		}
+		List<SortKey> keyList = new ArrayList<>();
+		if (sortKeys != null) {
+			java.util.Set<String> properties = new java.util.HashSet<>();
+			for (SortKey key : sortKeys) {
+				// Later keys of the same property never affect the order.
+				if (key != null && properties.add(key.getProperty())) {
+					keyList.add(key);
+				}
+			}
+		}
+		this.filters = Collections.unmodifiableList(filterList);
+		this.sortKeys = Collections.unmodifiableList(keyList);
+		this.startIndex = startIndex;
+		this.endIndex = endIndex;
+	}
+
+	/**
+	 * The filters.
+	 *
+	 * @return The unmodifiable list of the filters in canonical order.
+	 */
+	public List<Filter> getFilters() {
+		return filters;
+	}
+
+	/**
+	 * The sort keys.
+	 *
+	 * @return The unmodifiable list of the sort keys with the most significant
+	 *         first.
+	 */
+	public List<SortKey> getSortKeys() {
+		return sortKeys;
+	}
+
+	/**
+	 * The index of the first listed journey.
+	 *
+	 * @return The start index of the page.
+	 */
+	public int getStartIndex() {
+		return startIndex;
+	}
+
+	/**
+	 * The first index after the listed journeys.
+	 *
+	 * @return The end index of the page.
+	 */
+	public int getEndIndex() {
+		return endIndex;
+	}
+
+	/**
+	 * The query with same filters and sort keys for another page.
+	 *
+	 * @param startIndex The index of the first listed journey.
+	 * @param endIndex   The first index after the listed journeys.
+	 * @return The query listing the given page.
+	 * @throws IllegalArgumentException The page was invalid.
+	 */
+	public JourneyQuery withPage(int startIndex, int endIndex) throws IllegalArgumentException {
+		return new JourneyQuery(filters, sortKeys, startIndex, endIndex);
+	}
+
+	/**
+	 * Does the journey pass all filters.
+	 *
+	 * @param journey The tested journey.
+	 * @return True, if and only if the journey passes every filter.
+	 */
+	public boolean matches(Journeys.Journey journey) {
+		return filters.stream().allMatch((Filter filter) -> (filter.test(journey)));
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		} else if (other instanceof JourneyQuery) {
+			JourneyQuery query = (JourneyQuery) other;
+			return startIndex == query.startIndex && endIndex == query.endIndex && filters.equals(query.filters)
+					&& sortKeys.equals(query.sortKeys);
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(filters, sortKeys, startIndex, endIndex);
+	}
+
+	/**
+	 * The canonical string representation of the query.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("filter=");
+		result.append(String.join("&", filters.stream().map(Filter::toString).toList()));
+		result.append(";sort=");
+		result.append(String.join(",", sortKeys.stream().map(SortKey::toString).toList()));
+		result.append(";page=").append(startIndex).append('-').append(endIndex);
+		return result.toString();
+	}
+}
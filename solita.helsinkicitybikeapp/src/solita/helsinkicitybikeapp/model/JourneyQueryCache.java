@@ -0,0 +1,379 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import i18n.Logging;
+
+/**
+ * The cache of the journey query results.
+ *
+ * The cache stores the results of the journey queries of the cached journeys
+ * keyed by the normalised query. The total estimated size of the cached
+ * results is bounded, and the least recently used results are evicted first.
+ * All cached results are dropped when the data set version of the journeys
+ * changes. The results are cached as immutable snapshots of the journeys, so
+ * that no caller can alter the results shared with the other callers.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class JourneyQueryCache implements Logging.MessageLogging {
+
+	/**
+	 * The default maximum size of the cache in bytes.
+	 */
+	public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * The estimated size of a journey without its property values.
+	 */
+	private static final int JOURNEY_OVERHEAD = 96;
+
+	/**
+	 * The estimated size of a property value entry without the value.
+	 */
+	private static final int PROPERTY_OVERHEAD = 40;
+
+	/**
+	 * The estimated size of a cache entry without the journeys.
+	 */
+	private static final int ENTRY_OVERHEAD = 128;
+
+	/**
+	 * The cached result.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class Entry {
+
+		/**
+		 * The cached journeys.
+		 */
+		private final List<Journeys.Journey> journeys;
+
+		/**
+		 * The estimated size of the entry.
+		 */
+		private final long size;
+
+		/**
+		 * Creates a new cache entry.
+		 *
+		 * @param journeys The cached journeys.
+		 * @param size     The estimated size of the entry.
+		 */
+		private Entry(List<Journeys.Journey> journeys, long size) {
+			this.journeys = journeys;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The journeys whose query results are cached.
+	 */
+	private final Journeys journeys;
+
+	/**
+	 * The loader of the results missing from the cache.
+	 */
+	private final Function<JourneyQuery, List<Journeys.Journey>> loader;
+
+	/**
+	 * The maximum total size of the cached results.
+	 */
+	private final long maxSize;
+
+	/**
+	 * The cached results in the least recently used order.
+	 */
+	private final LinkedHashMap<JourneyQuery, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The total estimated size of the cached results.
+	 */
+	private long size = 0;
+
+	/**
+	 * The data set version of the cached results.
+	 */
+	private long cachedVersion;
+
+	/**
+	 * The number of queries answered from the cache.
+	 */
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * The number of queries passed to the journeys.
+	 */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * The number of evicted results.
+	 */
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * The number of times the cache was invalidated by data set change.
+	 */
+	private final LongAdder invalidations = new LongAdder();
+
+	/**
+	 * Creates a new cache with default maximum size.
+	 *
+	 * @param journeys The journeys whose query results are cached.
+	 * @throws NullPointerException The journeys was undefined.
+	 */
+	public JourneyQueryCache(Journeys journeys) throws NullPointerException {
+		this(journeys, DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param journeys The journeys whose query results are cached.
+	 * @param maxSize  The maximum total size of the cached results in bytes.
+	 * @throws NullPointerException     The journeys was undefined.
+	 * @throws IllegalArgumentException The maximum size was negative.
+	 */
+	public JourneyQueryCache(Journeys journeys, long maxSize) throws NullPointerException, IllegalArgumentException {
+		this(journeys, maxSize, journeys::getJourneys);
+	}
+
+	/**
+	 * Creates a new cache loading the missing results with the given loader.
+	 *
+	 * @param journeys The journeys whose query results are cached.
+	 * @param maxSize  The maximum total size of the cached results in bytes.
+	 * @param loader   The loader of the query results of the journeys.
+	 * @throws NullPointerException     The journeys or the loader was undefined.
+	 * @throws IllegalArgumentException The maximum size was negative.
+	 */
+	public JourneyQueryCache(Journeys journeys, long maxSize, Function<JourneyQuery, List<Journeys.Journey>> loader)
+			throws NullPointerException, IllegalArgumentException {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Negative cache size");
+		}
+		this.journeys = java.util.Objects.requireNonNull(journeys, "Undefined journeys");
+		this.loader = java.util.Objects.requireNonNull(loader, "Undefined loader");
+		this.maxSize = maxSize;
+		this.cachedVersion = journeys.getVersion();
+	}
+
+	/**
+	 * The cached journeys.
+	 *
+	 * @return The journeys whose query results are cached.
+	 */
+	public Journeys getJourneys() {
+		return this.journeys;
+	}
+
+	/**
+	 * Get the journeys listed by the query.
+	 *
+	 * @param query The query.
+	 * @return The unmodifiable list of immutable journeys on the page of the
+	 *         query.
+	 * @throws IllegalArgumentException The query was invalid for the journeys.
+	 */
+	public List<Journeys.Journey> getJourneys(JourneyQuery query) throws IllegalArgumentException {
+		long version;
+		synchronized (this) {
+			version = validate();
+			Entry entry = entries.get(query);
+			if (entry != null) {
+				hits.increment();
+				return entry.journeys;
+			}
+		}
+		misses.increment();
+		List<Journeys.Journey> result = snapshotOf(loader.apply(query));
+		long entrySize = ENTRY_OVERHEAD + estimateSize(result);
+		synchronized (this) {
+			if (version == journeys.getVersion() && version == cachedVersion && entrySize <= maxSize) {
+				// The result is still current.
+				Entry old = entries.put(query, new Entry(result, entrySize));
+				if (old != null) {
+					size -= old.size;
+				}
+				size += entrySize;
+				evict();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The immutable snapshot of the loaded journeys.
+	 *
+	 * @param loaded The loaded journeys.
+	 * @return The unmodifiable list of the immutable snapshots of the journeys.
+	 */
+	private List<Journeys.Journey> snapshotOf(List<Journeys.Journey> loaded) {
+		List<Journeys.Journey> result = new ArrayList<>(loaded.size());
+		for (Journeys.Journey journey : loaded) {
+			result.add(journey instanceof Journeys.ImmutableJourney ? journey
+					: journeys.new ImmutableJourney(journey));
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Get the journeys of the given index range in natural order.
+	 *
+	 * @param startIndex The index of the first journey.
+	 * @param endIndex   The first index not belonging to the returned journeys.
+	 * @return The unmodifiable list of immutable journeys within given bounds.
+	 */
+	public List<Journeys.Journey> getJourneys(int startIndex, int endIndex) {
+		return getJourneys(new JourneyQuery(Math.max(0, startIndex), Math.max(Math.max(0, startIndex), endIndex)));
+	}
+
+	/**
+	 * Drops all cached results, if the data set version of the journeys has
+	 * changed.
+	 *
+	 * @return The current data set version.
+	 */
+	protected synchronized long validate() {
+		long version = journeys.getVersion();
+		if (version != cachedVersion) {
+			if (!entries.isEmpty()) {
+				invalidations.increment();
+			}
+			entries.clear();
+			size = 0;
+			cachedVersion = version;
+		}
+		return version;
+	}
+
+	/**
+	 * Evicts least recently used results until the cache fits into its maximum
+	 * size.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<JourneyQuery, Entry>> iter = entries.entrySet().iterator();
+		while (size > maxSize && iter.hasNext()) {
+			size -= iter.next().getValue().size;
+			iter.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Drops all cached results.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+	/**
+	 * Estimates the memory size of the journeys.
+	 *
+	 * @param journeys The journeys.
+	 * @return The estimated size of the journeys in bytes.
+	 */
+	public static long estimateSize(List<Journeys.Journey> journeys) {
+		long result = 16 + 8L * journeys.size();
+		Object value;
+		for (Journeys.Journey journey : journeys) {
+			result += JOURNEY_OVERHEAD;
+			for (String property : journey.getPropertyNames()) {
+				value = journey.getProperty(property);
+				if (value != null) {
+					result += PROPERTY_OVERHEAD;
+					if (value instanceof String) {
+						result += 40 + ((String) value).length();
+					} else if (value instanceof Date) {
+						result += 24;
+					} else {
+						result += 16;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The maximum size of the cache.
+	 *
+	 * @return The maximum total size of the cached results in bytes.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * The current size of the cache.
+	 *
+	 * @return The total estimated size of the cached results in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * The number of cached results.
+	 *
+	 * @return The number of cached query results.
+	 */
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	/**
+	 * The number of cache hits.
+	 *
+	 * @return The number of queries answered from the cache.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * The number of cache misses.
+	 *
+	 * @return The number of queries passed to the journeys.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * The number of evictions.
+	 *
+	 * @return The number of results evicted to keep the size within bounds.
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * The number of invalidations.
+	 *
+	 * @return The number of times cached results were dropped due data set
+	 *         change.
+	 */
+	public long getInvalidationCount() {
+		return invalidations.sum();
+	}
+
+	@Override
+	public String toString() {
+		return format("JourneyQueryCache[entries={0}, size={1}/{2}, hits={3}, misses={4}, evictions={5}]",
+				getEntryCount(), getSize(), getMaxSize(), getHitCount(), getMissCount(), getEvictionCount());
+	}
+}
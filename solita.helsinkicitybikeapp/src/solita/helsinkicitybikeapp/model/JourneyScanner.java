@@ -0,0 +1,49 @@
+package solita.helsinkicitybikeapp.model;
+
+/**
+ * The journeys scanned in a single pass without materializing them.
+ *
+ * The scanners stream the journeys of large stores, such as databases, whose
+ * journeys are not kept in memory.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public interface JourneyScanner {
+
+	/**
+	 * The handler of the scanned journeys.
+	 *
+	 * The undefined values are {@link ColumnarJourneys#UNDEFINED_TIME} and
+	 * {@link ColumnarJourneys#UNDEFINED_INT}, and the undefined station
+	 * identifiers are negative.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	public static interface JourneyHandler {
+
+		/**
+		 * Handles a scanned journey.
+		 *
+		 * @param startTime      The departure time in milliseconds since epoch.
+		 * @param endTime        The return time in milliseconds since epoch.
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @param distance       The covered distance.
+		 * @param duration       The duration.
+		 */
+		public void handle(long startTime, long endTime, int startStationId, int endStationId, int distance,
+				int duration);
+	}
+
+	/**
+	 * Scans all journeys.
+	 *
+	 * @param handler The handler of the journeys.
+	 * @return The data set version of the scanned journeys.
+	 * @throws java.sql.SQLException The scanning of the journeys failed.
+	 */
+	public long scanJourneys(JourneyHandler handler) throws java.sql.SQLException;
+}
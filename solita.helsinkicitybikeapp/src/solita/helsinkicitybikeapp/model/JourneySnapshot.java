@@ -0,0 +1,472 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import i18n.Logging;
+
+/**
+ * The binary snapshot of journeys.
+ *
+ * The snapshot stores the journey columns as little-endian primitive blocks
+ * followed by the stations and the station name dictionary. The file starts
+ * with a header of {@value #HEADER_SIZE} bytes:
+ * <table>
+ * <tr><th>Offset</th><th>Type</th><th>Content</th></tr>
+ * <tr><td>0</td><td>byte[8]</td><td>The magic {@value #MAGIC}</td></tr>
+ * <tr><td>8</td><td>int</td><td>The format version</td></tr>
+ * <tr><td>12</td><td>int</td><td>The number of journeys</td></tr>
+ * <tr><td>16</td><td>int</td><td>The number of stations</td></tr>
+ * <tr><td>20</td><td>int</td><td>The number of station names</td></tr>
+ * <tr><td>24</td><td>long</td><td>The data set version of the journeys</td></tr>
+ * <tr><td>32</td><td>long</td><td>The length of the encoded station names</td></tr>
+ * <tr><td>40</td><td>long</td><td>The CRC-32 of the content after the header</td></tr>
+ * <tr><td>48</td><td>long</td><td>The creation time in milliseconds since epoch</td></tr>
+ * </table>
+ * The header is followed by the blocks of {@link #TIME_COLUMNS} as longs, the
+ * blocks of {@link #INT_COLUMNS} as ints, the station identifiers, the station
+ * name codes of the stations, the offsets of the station names, and the UTF-8
+ * encoded station names. Every block starts at offset divisible by eight.
+ *
+ * The snapshot is written into a temporary file, which replaces the target
+ * only after it has been completely written.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public final class JourneySnapshot {
+
+	/**
+	 * The magic identifying the snapshot files.
+	 */
+	public static final String MAGIC = "HCBJSNAP";
+
+	/**
+	 * The current format version.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The size of the header.
+	 */
+	public static final int HEADER_SIZE = 64;
+
+	/**
+	 * The time columns in the order of their blocks.
+	 */
+	public static final List<String> TIME_COLUMNS = List.of(Journeys.START_TIME_PROPERTY, Journeys.END_TIME_PROPERTY);
+
+	/**
+	 * The integer columns in the order of their blocks.
+	 */
+	public static final List<String> INT_COLUMNS = List.of(Journeys.ID_PROPERTY, Journeys.START_LOCATION_ID_PROPERTY,
+			Journeys.END_LOCATION_ID_PROPERTY, Journeys.START_LOCATION_NAME_PROPERTY,
+			Journeys.END_LOCATION_NAME_PROPERTY, Journeys.DISTANCE_PROPERTY, Journeys.DURATION_PROPERTY);
+
+	/**
+	 * The size of the write buffer.
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * The logger of the snapshot operations.
+	 */
+	static final Logging LOGGER = new Logging.MessageLogging() {
+	};
+
+	/**
+	 * The snapshot is a utility class.
+	 */
+	private JourneySnapshot() {
+	}
+
+	/**
+	 * The header of a snapshot.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static final class Header {
+
+		/**
+		 * The format version.
+		 */
+		public final int formatVersion;
+
+		/**
+		 * The number of journeys.
+		 */
+		public final int journeyCount;
+
+		/**
+		 * The number of stations.
+		 */
+		public final int stationCount;
+
+		/**
+		 * The number of station names.
+		 */
+		public final int nameCount;
+
+		/**
+		 * The data set version of the journeys.
+		 */
+		public final long datasetVersion;
+
+		/**
+		 * The length of the encoded station names.
+		 */
+		public final long nameBytes;
+
+		/**
+		 * The checksum of the content.
+		 */
+		public final long checksum;
+
+		/**
+		 * The creation time.
+		 */
+		public final long created;
+
+		/**
+		 * Creates a new header.
+		 *
+		 * @param formatVersion  The format version.
+		 * @param journeyCount   The number of journeys.
+		 * @param stationCount   The number of stations.
+		 * @param nameCount      The number of station names.
+		 * @param datasetVersion The data set version.
+		 * @param nameBytes      The length of the encoded names.
+		 * @param checksum       The checksum of the content.
+		 * @param created        The creation time.
+		 */
+		Header(int formatVersion, int journeyCount, int stationCount, int nameCount, long datasetVersion,
+				long nameBytes, long checksum, long created) {
+			this.formatVersion = formatVersion;
+			this.journeyCount = journeyCount;
+			this.stationCount = stationCount;
+			this.nameCount = nameCount;
+			this.datasetVersion = datasetVersion;
+			this.nameBytes = nameBytes;
+			this.checksum = checksum;
+			this.created = created;
+		}
+
+		/**
+		 * Reads the header from the buffer.
+		 *
+		 * @param buffer The little-endian buffer positioned at the start of the
+		 *               header.
+		 * @return The read header.
+		 * @throws IOException The buffer did not contain a supported header.
+		 */
+		static Header read(ByteBuffer buffer) throws IOException {
+			byte[] magic = new byte[MAGIC.length()];
+			buffer.get(magic);
+			if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+				throw new IOException("Not a journey snapshot");
+			}
+			int version = buffer.getInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException(LOGGER.format("Unsupported snapshot format version {0}", version));
+			}
+			Header result = new Header(version, buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(),
+					buffer.getLong(), buffer.getLong(), buffer.getLong());
+			if (result.journeyCount < 0 || result.stationCount < 0 || result.nameCount < 0 || result.nameBytes < 0) {
+				throw new IOException("Corrupted snapshot header");
+			}
+			return result;
+		}
+
+		/**
+		 * Writes the header into the buffer.
+		 *
+		 * @param buffer The little-endian buffer.
+		 */
+		void write(ByteBuffer buffer) {
+			buffer.put(MAGIC.getBytes(StandardCharsets.US_ASCII));
+			buffer.putInt(formatVersion).putInt(journeyCount).putInt(stationCount).putInt(nameCount);
+			buffer.putLong(datasetVersion).putLong(nameBytes).putLong(checksum).putLong(created);
+			while (buffer.position() < HEADER_SIZE) {
+				buffer.put((byte) 0);
+			}
+		}
+
+		/**
+		 * The offsets of the content blocks.
+		 *
+		 * @return The offsets of the time columns, integer columns, station
+		 *         identifiers, station name codes, name offsets and name bytes
+		 *         followed by the end of file.
+		 */
+		public long[] getBlockOffsets() {
+			long[] result = new long[TIME_COLUMNS.size() + INT_COLUMNS.size() + 5];
+			long offset = HEADER_SIZE;
+			int block = 0;
+			for (int i = 0; i < TIME_COLUMNS.size(); i++) {
+				result[block++] = offset;
+				offset = align(offset + 8L * journeyCount);
+			}
+			for (int i = 0; i < INT_COLUMNS.size(); i++) {
+				result[block++] = offset;
+				offset = align(offset + 4L * journeyCount);
+			}
+			result[block++] = offset;
+			offset = align(offset + 4L * stationCount);
+			result[block++] = offset;
+			offset = align(offset + 4L * stationCount);
+			result[block++] = offset;
+			offset = align(offset + 4L * (nameCount + 1L));
+			result[block++] = offset;
+			offset = align(offset + nameBytes);
+			result[block] = offset;
+			return result;
+		}
+	}
+
+	/**
+	 * Aligns the offset to the next multiple of eight.
+	 *
+	 * @param offset The offset.
+	 * @return The smallest multiple of eight not less than the offset.
+	 */
+	static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * The stations of the journeys.
+	 *
+	 * @param source The journey columns.
+	 * @return The mapping from station identifiers to the first station name code
+	 *         of the station.
+	 */
+	static Map<Integer, Integer> collectStations(JourneyColumns source) {
+		Map<Integer, Integer> result = new TreeMap<>();
+		String[][] pairs = { { Journeys.START_LOCATION_ID_PROPERTY, Journeys.START_LOCATION_NAME_PROPERTY },
+				{ Journeys.END_LOCATION_ID_PROPERTY, Journeys.END_LOCATION_NAME_PROPERTY } };
+		for (String[] pair : pairs) {
+			int[] ids = source.copyIntColumn(pair[0]);
+			int[] names = source.copyIntColumn(pair[1]);
+			Integer known;
+			for (int i = 0; i < ids.length; i++) {
+				if (ids[i] == ColumnarJourneys.UNDEFINED_INT) {
+					continue;
+				}
+				known = result.get(ids[i]);
+				if (known == null || (known == StringDictionary.UNDEFINED_CODE && names[i] != known)) {
+					// A named occurrence replaces an unnamed one.
+					result.put(ids[i], names[i]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The writer of the snapshot content.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class BlockWriter {
+
+		/**
+		 * The written channel.
+		 */
+		private final FileChannel channel;
+
+		/**
+		 * The write buffer.
+		 */
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+		/**
+		 * The checksum of the written content.
+		 */
+		private final CRC32 checksum = new CRC32();
+
+		/**
+		 * The number of written bytes.
+		 */
+		private long written = 0;
+
+		/**
+		 * Creates a new block writer.
+		 *
+		 * @param channel The written channel positioned after the header.
+		 */
+		private BlockWriter(FileChannel channel) {
+			this.channel = channel;
+			this.written = HEADER_SIZE;
+		}
+
+		/**
+		 * Makes room for the given number of bytes.
+		 *
+		 * @param length The number of bytes.
+		 * @throws IOException The writing failed.
+		 */
+		private void require(int length) throws IOException {
+			if (buffer.remaining() < length) {
+				flush();
+			}
+		}
+
+		/**
+		 * Writes the buffered content.
+		 *
+		 * @throws IOException The writing failed.
+		 */
+		private void flush() throws IOException {
+			buffer.flip();
+			ByteBuffer checked = buffer.duplicate();
+			checksum.update(checked);
+			while (buffer.hasRemaining()) {
+				written += channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		/**
+		 * Pads the content to the next multiple of eight.
+		 *
+		 * @throws IOException The writing failed.
+		 */
+		private void align() throws IOException {
+			require(8);
+			while ((written + buffer.position()) % 8 != 0) {
+				buffer.put((byte) 0);
+			}
+		}
+
+		/**
+		 * Writes a block of longs.
+		 *
+		 * @param values The written values.
+		 * @throws IOException The writing failed.
+		 */
+		private void write(long[] values) throws IOException {
+			for (long value : values) {
+				require(8);
+				buffer.putLong(value);
+			}
+			align();
+		}
+
+		/**
+		 * Writes a block of ints.
+		 *
+		 * @param values The written values.
+		 * @throws IOException The writing failed.
+		 */
+		private void write(int[] values) throws IOException {
+			for (int value : values) {
+				require(4);
+				buffer.putInt(value);
+			}
+			align();
+		}
+
+		/**
+		 * Writes a block of bytes.
+		 *
+		 * @param values The written values.
+		 * @throws IOException The writing failed.
+		 */
+		private void write(byte[] values) throws IOException {
+			int offset = 0, count;
+			while (offset < values.length) {
+				require(1);
+				count = Math.min(buffer.remaining(), values.length - offset);
+				buffer.put(values, offset, count);
+				offset += count;
+			}
+			align();
+		}
+	}
+
+	/**
+	 * Writes the snapshot of the journey columns.
+	 *
+	 * @param source The journey columns.
+	 * @param target The path of the snapshot file.
+	 * @return The header of the written snapshot.
+	 * @throws IOException The writing failed.
+	 */
+	public static Header write(JourneyColumns source, Path target) throws IOException {
+		int count = source.getJourneyCount();
+		Map<Integer, Integer> stations = collectStations(source);
+		List<String> names = source.getStationNames().getValues();
+		java.io.ByteArrayOutputStream nameBytes = new java.io.ByteArrayOutputStream();
+		int[] nameOffsets = new int[names.size() + 1];
+		for (int i = 0; i < names.size(); i++) {
+			nameBytes.write(names.get(i).getBytes(StandardCharsets.UTF_8));
+			nameOffsets[i + 1] = nameBytes.size();
+		}
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		Header header;
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			channel.position(HEADER_SIZE);
+			BlockWriter writer = new BlockWriter(channel);
+			for (String property : TIME_COLUMNS) {
+				writer.write(source.copyTimeColumn(property));
+			}
+			for (String property : INT_COLUMNS) {
+				writer.write(source.copyIntColumn(property));
+			}
+			writer.write(stations.keySet().stream().mapToInt(Integer::intValue).toArray());
+			writer.write(stations.values().stream().mapToInt(Integer::intValue).toArray());
+			writer.write(nameOffsets);
+			writer.write(nameBytes.toByteArray());
+			writer.flush();
+			header = new Header(FORMAT_VERSION, count, stations.size(), names.size(), source.getVersion(),
+					nameBytes.size(), writer.checksum.getValue(), System.currentTimeMillis());
+			if (header.getBlockOffsets()[header.getBlockOffsets().length - 1] != writer.written) {
+				throw new IOException("Journey columns changed during snapshot writing");
+			}
+			ByteBuffer headerBuffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.write(headerBuffer);
+			headerBuffer.flip();
+			channel.position(0);
+			while (headerBuffer.hasRemaining()) {
+				channel.write(headerBuffer);
+			}
+			channel.force(true);
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (java.nio.file.AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		LOGGER.info("Wrote snapshot of {0} journeys and {1} stations to {2}", count, stations.size(), target);
+		return header;
+	}
+
+	/**
+	 * Opens the snapshot as memory mapped journeys.
+	 *
+	 * @param source The path of the snapshot file.
+	 * @param verify Is the checksum of the content verified.
+	 * @return The read-only journeys of the snapshot.
+	 * @throws IOException The snapshot could not be read, or it was corrupted.
+	 */
+	public static MappedJourneys open(Path source, boolean verify) throws IOException {
+		return new MappedJourneys(source, verify);
+	}
+}
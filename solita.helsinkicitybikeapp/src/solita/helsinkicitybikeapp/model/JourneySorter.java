@@ -0,0 +1,738 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import i18n.Logging;
+
+/**
+ * The sorter ordering journeys by their properties.
+ *
+ * The sorter does not reorder the journeys, but builds permutations of journey
+ * indexes. The permutations are built with stable radix sort on the typed
+ * columns of {@link JourneyColumns}. Other journeys are copied into columnar
+ * form before sorting. Station names are sorted by their rank under the
+ * collation of the sort key locale.
+ *
+ * The built permutations are cached per sort keys until the data set version
+ * of the journeys changes. The sort values of the keys are cached in the heap,
+ * unless the columns are stored outside the heap. The sort values of the
+ * off-heap columns are read from the columns, when they are needed.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class JourneySorter implements Logging.MessageLogging {
+
+	/**
+	 * The sort key defining the sorted property and the direction of the sort.
+	 *
+	 * Undefined property values are greater than any defined value.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static final class SortKey {
+
+		/**
+		 * The sorted property.
+		 */
+		private final String property;
+
+		/**
+		 * Is the sort descending.
+		 */
+		private final boolean descending;
+
+		/**
+		 * The locale of the string collation.
+		 */
+		private final Locale locale;
+
+		/**
+		 * Creates a new ascending sort key with root locale.
+		 *
+		 * @param property The sorted property.
+		 * @throws NullPointerException The property was undefined.
+		 */
+		public SortKey(String property) throws NullPointerException {
+			this(property, false, null);
+		}
+
+		/**
+		 * Creates a new sort key.
+		 *
+		 * @param property   The sorted property.
+		 * @param descending Is the sort descending.
+		 * @param locale     The locale of string collation. Undefined value means
+		 *                   root locale.
+		 * @throws NullPointerException The property was undefined.
+		 */
+		public SortKey(String property, boolean descending, Locale locale) throws NullPointerException {
+			this.property = Objects.requireNonNull(property, "Undefined sort property");
+			this.descending = descending;
+			this.locale = (locale == null ? Locale.ROOT : locale);
+		}
+
+		/**
+		 * Parses a sort key.
+		 *
+		 * The sort key is the property name optionally prefixed with "+" for
+		 * ascending or "-" for descending sort, and optionally suffixed with "@" and
+		 * the language tag of the collation locale. For example "-start.time" or
+		 * "+start.location.name@sv".
+		 *
+		 * @param sortKey The sort key string.
+		 * @return The sort key.
+		 * @throws IllegalArgumentException The sort key was invalid.
+		 */
+		public static SortKey parse(String sortKey) throws IllegalArgumentException {
+			if (sortKey == null || sortKey.isBlank()) {
+				throw new IllegalArgumentException("Empty sort key");
+			}
+			String key = sortKey.trim();
+			boolean descending = key.startsWith("-");
+			if (descending || key.startsWith("+")) {
+				key = key.substring(1);
+			}
+			Locale locale = null;
+			int localeIndex = key.indexOf('@');
+			if (localeIndex >= 0) {
+				locale = Locale.forLanguageTag(key.substring(localeIndex + 1));
+				key = key.substring(0, localeIndex);
+			}
+			if (key.isEmpty()) {
+				throw new IllegalArgumentException("Missing sort property");
+			}
+			return new SortKey(key, descending, locale);
+		}
+
+		/**
+		 * The sorted property.
+		 *
+		 * @return The name of the sorted property.
+		 */
+		public String getProperty() {
+			return property;
+		}
+
+		/**
+		 * Is the sort descending.
+		 *
+		 * @return True, if and only if the sort is descending.
+		 */
+		public boolean isDescending() {
+			return descending;
+		}
+
+		/**
+		 * The collation locale.
+		 *
+		 * @return The locale used to collate string properties.
+		 */
+		public Locale getLocale() {
+			return locale;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other) {
+				return true;
+			} else if (other instanceof SortKey) {
+				SortKey key = (SortKey) other;
+				return descending == key.descending && property.equals(key.property) && locale.equals(key.locale);
+			} else {
+				return false;
+			}
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(property, descending, locale);
+		}
+
+		/**
+		 * The string representation of the sort key parseable with
+		 * {@link #parse(String)}.
+		 */
+		@Override
+		public String toString() {
+			return (descending ? "-" : "+") + property
+					+ (Locale.ROOT.equals(locale) ? "" : "@" + locale.toLanguageTag());
+		}
+	}
+
+	/**
+	 * The sorted journeys.
+	 */
+	private final Journeys journeys;
+
+	/**
+	 * The data set version of the cached structures.
+	 */
+	private long cachedVersion = -1;
+
+	/**
+	 * The columnar journeys of the cached version.
+	 */
+	private JourneyColumns columns = null;
+
+	/**
+	 * The sort values of the journeys.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	protected static interface SortValues {
+
+		/**
+		 * The sort value of a journey.
+		 *
+		 * @param index The journey index.
+		 * @return The order preserving sort value of the journey.
+		 */
+		public long get(int index);
+	}
+
+	/**
+	 * The sort values cached in the heap.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class CachedSortValues implements SortValues {
+
+		/**
+		 * The sort values indexed by the journey index.
+		 */
+		private final long[] values;
+
+		/**
+		 * Creates new cached sort values.
+		 *
+		 * @param values The sort values indexed by the journey index.
+		 */
+		private CachedSortValues(long[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public long get(int index) {
+			return values[index];
+		}
+	}
+
+	/**
+	 * The cached sort key values.
+	 */
+	private final Map<SortKey, SortValues> keyCache = new HashMap<>();
+
+	/**
+	 * The cached permutations.
+	 */
+	private final Map<List<SortKey>, int[]> permutationCache = new HashMap<>();
+
+	/**
+	 * The cached station name ranks of collation locales.
+	 */
+	private final Map<Locale, int[]> rankCache = new HashMap<>();
+
+	/**
+	 * The number of full sorts performed.
+	 */
+	private long sortCount = 0;
+
+	/**
+	 * Creates a new sorter for the given journeys.
+	 *
+	 * @param journeys The sorted journeys.
+	 * @throws NullPointerException The journeys was undefined.
+	 */
+	public JourneySorter(Journeys journeys) throws NullPointerException {
+		this.journeys = Objects.requireNonNull(journeys, "Undefined journeys");
+	}
+
+	/**
+	 * The sorted journeys.
+	 *
+	 * @return The journeys whose permutations the sorter builds.
+	 */
+	public Journeys getJourneys() {
+		return this.journeys;
+	}
+
+	/**
+	 * The number of full sorts the sorter has performed.
+	 *
+	 * @return The number of permutations built by sorting all journeys.
+	 */
+	public synchronized long getSortCount() {
+		return sortCount;
+	}
+
+	/**
+	 * Forgets all cached structures, if the journeys have changed since they were
+	 * built.
+	 */
+	protected synchronized void validateCache() {
+		long version = journeys.getVersion();
+		if (version != cachedVersion || columns == null) {
+			keyCache.clear();
+			permutationCache.clear();
+			rankCache.clear();
+			columns = (journeys instanceof JourneyColumns) ? (JourneyColumns) journeys
+					: ColumnarJourneys.copyOf(journeys);
+			cachedVersion = version;
+		}
+	}
+
+	/**
+	 * The number of sorted journeys.
+	 *
+	 * @return The number of journeys of the current data set version.
+	 */
+	public synchronized int size() {
+		validateCache();
+		return columns.getJourneyCount();
+	}
+
+	/**
+	 * The station name ranks of the given locale.
+	 *
+	 * @param locale The collation locale.
+	 * @return The rank of each station name code.
+	 */
+	protected synchronized int[] getRanks(Locale locale) {
+		int[] result = rankCache.get(locale);
+		if (result == null || result.length != columns.getStationNames().size()) {
+			Collator collator = Collator.getInstance(locale);
+			result = columns.getStationNames().getRanks(collator);
+			rankCache.put(locale, result);
+		}
+		return result;
+	}
+
+	/**
+	 * The order preserving sort values of a sort key.
+	 *
+	 * The undefined values are mapped to the greatest value before applying the
+	 * direction of the sort.
+	 *
+	 * @param key The sort key.
+	 * @return The sort values of the journeys.
+	 * @throws IllegalArgumentException The sort key property is not sortable.
+	 */
+	protected synchronized SortValues getSortValues(SortKey key) throws IllegalArgumentException {
+		validateCache();
+		SortValues result = keyCache.get(key);
+		if (result != null) {
+			return result;
+		}
+		String property = key.getProperty();
+		long direction = (key.isDescending() ? -1L : 0L);
+		int n = columns.getJourneyCount();
+		if (journeys.isDateProperty(property)) {
+			JourneyColumns.TimeColumn times = columns.getTimeColumn(property);
+			result = (int index) -> {
+				long time = times.get(index);
+				return (time == ColumnarJourneys.UNDEFINED_TIME ? Long.MAX_VALUE : time) ^ direction;
+			};
+		} else if (journeys.isStringProperty(property)) {
+			JourneyColumns.IntColumn codes = columns.getIntColumn(property);
+			int[] ranks = getRanks(key.getLocale());
+			result = (int index) -> {
+				int code = codes.get(index);
+				return (code == StringDictionary.UNDEFINED_CODE ? Long.MAX_VALUE : ranks[code]) ^ direction;
+			};
+		} else if (journeys.getJourneyIntegerProperties().contains(property)) {
+			JourneyColumns.IntColumn values = columns.getIntColumn(property);
+			result = (int index) -> {
+				int value = values.get(index);
+				return (value == ColumnarJourneys.UNDEFINED_INT ? Long.MAX_VALUE : value) ^ direction;
+			};
+		} else {
+			throw new IllegalArgumentException(format("Property {0} is not sortable", property));
+		}
+		if (!columns.isOffHeap()) {
+			// The heap columns are sorted faster from the cached values.
+			long[] values = new long[n];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = result.get(i);
+			}
+			result = new CachedSortValues(values);
+		}
+		keyCache.put(key, result);
+		return result;
+	}
+
+	/**
+	 * Sorts the given permutation stably with least significant digit radix sort.
+	 *
+	 * @param permutation The sorted permutation. The array is not altered.
+	 * @param values      The sort values of the permutation entries.
+	 * @return The permutation ordered by the sort values.
+	 */
+	protected static int[] radixSort(int[] permutation, SortValues values) {
+		final int n = permutation.length;
+		final int digits = Long.BYTES;
+		int[][] counts = new int[digits][257];
+		long value;
+		for (int i = 0; i < n; i++) {
+			value = values.get(permutation[i]) ^ Long.MIN_VALUE;
+			for (int digit = 0; digit < digits; digit++) {
+				counts[digit][(int) ((value >>> (digit << 3)) & 0xFF) + 1]++;
+			}
+		}
+		int[] source = permutation.clone(), target = new int[n], swap;
+		int[] count;
+		for (int digit = 0; digit < digits; digit++) {
+			count = counts[digit];
+			boolean trivial = false;
+			for (int bucket = 1; bucket < count.length && !trivial; bucket++) {
+				trivial = (count[bucket] == n);
+			}
+			if (trivial) {
+				// Every value has the same digit.
+				continue;
+			}
+			for (int bucket = 1; bucket < count.length; bucket++) {
+				count[bucket] += count[bucket - 1];
+			}
+			int shift = digit << 3, entry;
+			for (int i = 0; i < n; i++) {
+				entry = source[i];
+				target[count[(int) (((values.get(entry) ^ Long.MIN_VALUE) >>> shift) & 0xFF)]++] = entry;
+			}
+			swap = source;
+			source = target;
+			target = swap;
+		}
+		return source;
+	}
+
+	/**
+	 * The permutation sorting the journeys with given sort keys.
+	 *
+	 * The first sort key is the most significant. Journeys with equal sort values
+	 * keep their index order.
+	 *
+	 * @param sortKeys The sort keys.
+	 * @return The permutation of journey indexes in the sorted order. The returned
+	 *         array is shared with the cache, and must not be modified.
+	 * @throws IllegalArgumentException A sort key was not sortable.
+	 */
+	protected synchronized int[] getPermutation(List<SortKey> sortKeys) throws IllegalArgumentException {
+		validateCache();
+		List<SortKey> keys = Collections.unmodifiableList(new ArrayList<>(sortKeys));
+		int[] result = permutationCache.get(keys);
+		if (result == null) {
+			int n = columns.getJourneyCount();
+			result = new int[n];
+			for (int i = 0; i < n; i++) {
+				result[i] = i;
+			}
+			for (int i = keys.size() - 1; i >= 0; i--) {
+				result = radixSort(result, getSortValues(keys.get(i)));
+			}
+			sortCount++;
+			permutationCache.put(keys, result);
+		}
+		return result;
+	}
+
+	/**
+	 * The permutation sorting the journeys with given sort keys.
+	 *
+	 * @param sortKeys The sort keys with the most significant first.
+	 * @return The copy of the permutation of journey indexes in the sorted order.
+	 * @throws IllegalArgumentException A sort key was not sortable.
+	 */
+	public int[] sort(List<SortKey> sortKeys) throws IllegalArgumentException {
+		return getPermutation(sortKeys).clone();
+	}
+
+	/**
+	 * The permutation sorting the journeys with given sort keys.
+	 *
+	 * @param sortKeys The sort keys with the most significant first.
+	 * @return The copy of the permutation of journey indexes in the sorted order.
+	 * @throws IllegalArgumentException A sort key was not sortable.
+	 */
+	public int[] sort(SortKey... sortKeys) throws IllegalArgumentException {
+		return sort(Arrays.asList(sortKeys));
+	}
+
+	/**
+	 * Compares two journeys with sort values.
+	 *
+	 * @param values The sort values of the sort keys from most significant.
+	 * @param a      The first journey index.
+	 * @param b      The second journey index.
+	 * @return Negative, if the first journey is before the second, positive, if
+	 *         the first journey is after the second. Zero only for the same index.
+	 */
+	private static int compare(SortValues[] values, int a, int b) {
+		int result;
+		for (SortValues column : values) {
+			result = Long.compare(column.get(a), column.get(b));
+			if (result != 0) {
+				return result;
+			}
+		}
+		return Integer.compare(a, b);
+	}
+
+	/**
+	 * Restores the heap order downwards from the given heap position.
+	 *
+	 * The heap is a max heap keeping the last of the selected journeys at root.
+	 *
+	 * @param heap   The heap.
+	 * @param size   The heap size.
+	 * @param index  The heap position.
+	 * @param values The sort values.
+	 */
+	private static void siftDown(int[] heap, int size, int index, SortValues[] values) {
+		int entry = heap[index], child;
+		while ((child = (index << 1) + 1) < size) {
+			if (child + 1 < size && compare(values, heap[child + 1], heap[child]) > 0) {
+				child++;
+			}
+			if (compare(values, heap[child], entry) <= 0) {
+				break;
+			}
+			heap[index] = heap[child];
+			index = child;
+		}
+		heap[index] = entry;
+	}
+
+	/**
+	 * Selects the first journeys of the sorted order without sorting all
+	 * journeys.
+	 *
+	 * If the full permutation is already cached, its prefix is returned.
+	 * Otherwise the first journeys are selected with a bounded heap in time
+	 * proportional to the number of journeys times the logarithm of the count.
+	 *
+	 * @param sortKeys The sort keys with the most significant first.
+	 * @param count    The number of selected journeys.
+	 * @return The indexes of the first journeys in the sorted order.
+	 * @throws IllegalArgumentException A sort key was not sortable, or the count
+	 *                                  was negative.
+	 */
+	public synchronized int[] top(List<SortKey> sortKeys, int count) throws IllegalArgumentException {
+		if (count < 0) {
+			throw new IllegalArgumentException("Negative count");
+		}
+		validateCache();
+		int n = columns.getJourneyCount();
+		int k = Math.min(count, n);
+		int[] cached = permutationCache.get(sortKeys);
+		if (cached != null) {
+			return Arrays.copyOf(cached, k);
+		}
+		SortValues[] values = new SortValues[sortKeys.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = getSortValues(sortKeys.get(i));
+		}
+		int[] heap = new int[k];
+		if (k == 0) {
+			return heap;
+		}
+		for (int i = 0; i < k; i++) {
+			heap[i] = i;
+		}
+		for (int i = (k >> 1) - 1; i >= 0; i--) {
+			siftDown(heap, k, i, values);
+		}
+		for (int i = k; i < n; i++) {
+			if (compare(values, i, heap[0]) < 0) {
+				// The journey belongs to the selected journeys.
+				heap[0] = i;
+				siftDown(heap, k, 0, values);
+			}
+		}
+		// Sorting the heap in place: the last of the selected moves to the end.
+		for (int size = k - 1; size > 0; size--) {
+			int last = heap[0];
+			heap[0] = heap[size];
+			heap[size] = last;
+			siftDown(heap, size, 0, values);
+		}
+		return heap;
+	}
+
+	/**
+	 * The indexes of a page of sorted journeys.
+	 *
+	 * Pages near the start of the sorted order are selected without sorting all
+	 * journeys. Other pages are taken from the full cached permutation.
+	 *
+	 * @param sortKeys   The sort keys with the most significant first.
+	 * @param startIndex The index of the first journey of the page in sorted
+	 *                   order.
+	 * @param endIndex   The first index after the page in sorted order.
+	 * @return The journey indexes of the page.
+	 * @throws IllegalArgumentException A sort key was not sortable, or the page
+	 *                                  was invalid.
+	 */
+	public synchronized int[] page(List<SortKey> sortKeys, int startIndex, int endIndex)
+			throws IllegalArgumentException {
+		if (startIndex < 0 || endIndex < startIndex) {
+			throw new IllegalArgumentException("Invalid page");
+		}
+		validateCache();
+		int n = columns.getJourneyCount();
+		int end = Math.min(endIndex, n), start = Math.min(startIndex, end);
+		if (!permutationCache.containsKey(sortKeys) && end <= (n >> 4)) {
+			// Selecting the first journeys is cheaper than sorting everything.
+			return Arrays.copyOfRange(top(sortKeys, end), start, end);
+		} else {
+			return Arrays.copyOfRange(getPermutation(sortKeys), start, end);
+		}
+	}
+
+	/**
+	 * Selects the journeys passing all given filters.
+	 *
+	 * The filters are evaluated on the typed columns without creating journeys.
+	 *
+	 * @param filters The filters.
+	 * @return The indexes of the journeys passing every filter in ascending
+	 *         order.
+	 */
+	public synchronized int[] select(List<JourneyQuery.Filter> filters) {
+		validateCache();
+		int n = columns.getJourneyCount();
+		boolean[] rejected = new boolean[n];
+		for (JourneyQuery.Filter filter : filters) {
+			String property = filter.getProperty();
+			JourneyQuery.Operator operator = filter.getOperator();
+			Object value = filter.getValue();
+			if (journeys.isDateProperty(property) && value instanceof java.util.Date) {
+				JourneyColumns.TimeColumn times = columns.getTimeColumn(property);
+				long time = ((java.util.Date) value).getTime(), current;
+				for (int i = 0; i < n; i++) {
+					if (!rejected[i]) {
+						current = times.get(i);
+						rejected[i] = (current == ColumnarJourneys.UNDEFINED_TIME
+								|| !operator.test(Long.compare(current, time)));
+					}
+				}
+			} else if (journeys.isStringProperty(property) && value instanceof String) {
+				JourneyColumns.IntColumn codes = columns.getIntColumn(property);
+				StringDictionary names = columns.getStationNames();
+				int current;
+				if (operator == JourneyQuery.Operator.EQ || operator == JourneyQuery.Operator.NE) {
+					// Equality is decided by the codes.
+					int code = names.getCode((String) value);
+					for (int i = 0; i < n; i++) {
+						if (!rejected[i]) {
+							current = codes.get(i);
+							rejected[i] = (current == StringDictionary.UNDEFINED_CODE
+									|| !operator.test(current == code ? 0 : 1));
+						}
+					}
+				} else {
+					for (int i = 0; i < n; i++) {
+						if (!rejected[i]) {
+							current = codes.get(i);
+							rejected[i] = (current == StringDictionary.UNDEFINED_CODE
+									|| !filter.test(names.decode(current)));
+						}
+					}
+				}
+			} else if (journeys.getJourneyIntegerProperties().contains(property) && value instanceof Integer) {
+				JourneyColumns.IntColumn values = columns.getIntColumn(property);
+				int compared = (Integer) value, current;
+				for (int i = 0; i < n; i++) {
+					if (!rejected[i]) {
+						current = values.get(i);
+						rejected[i] = (current == ColumnarJourneys.UNDEFINED_INT
+								|| !operator.test(Integer.compare(current, compared)));
+					}
+				}
+			} else {
+				// The filter cannot pass any journey.
+				Arrays.fill(rejected, true);
+			}
+		}
+		int count = 0;
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (!rejected[i]) {
+				result[count++] = i;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * The journeys listed by the given query.
+	 *
+	 * @param query The query.
+	 * @return The list of the journeys on the page of the query.
+	 * @throws IllegalArgumentException A sort key was not sortable.
+	 */
+	public synchronized List<Journeys.Journey> getJourneys(JourneyQuery query) throws IllegalArgumentException {
+		int[] indexes = indexesOf(query);
+		List<Journeys.Journey> result = new ArrayList<>(indexes.length);
+		for (int index : indexes) {
+			result.add(columns.getJourney(index));
+		}
+		return result;
+	}
+
+	/**
+	 * The indexes of the journeys listed by the given query.
+	 *
+	 * The indexes refer to the sorted journeys, if they are columnar, and to
+	 * their columnar copy otherwise.
+	 *
+	 * @param query The query.
+	 * @return The journey indexes of the page of the query in the listed order.
+	 * @throws IllegalArgumentException A sort key was not sortable.
+	 */
+	public synchronized int[] indexesOf(JourneyQuery query) throws IllegalArgumentException {
+		if (query.getFilters().isEmpty()) {
+			return page(query.getSortKeys(), query.getStartIndex(), query.getEndIndex());
+		}
+		int[] indexes = select(query.getFilters());
+		List<SortKey> sortKeys = query.getSortKeys();
+		for (int i = sortKeys.size() - 1; i >= 0; i--) {
+			indexes = radixSort(indexes, getSortValues(sortKeys.get(i)));
+		}
+		int end = Math.min(query.getEndIndex(), indexes.length), start = Math.min(query.getStartIndex(), end);
+		return Arrays.copyOfRange(indexes, start, end);
+	}
+
+	/**
+	 * The journeys of a page of sorted journeys.
+	 *
+	 * @param sortKeys   The sort keys with the most significant first.
+	 * @param startIndex The index of the first journey of the page in sorted
+	 *                   order.
+	 * @param endIndex   The first index after the page in sorted order.
+	 * @return The list of the journeys on the page in the sorted order.
+	 * @throws IllegalArgumentException A sort key was not sortable, or the page
+	 *                                  was invalid.
+	 */
+	public synchronized List<Journeys.Journey> getJourneys(List<SortKey> sortKeys, int startIndex, int endIndex)
+			throws IllegalArgumentException {
+		int[] indexes = page(sortKeys, startIndex, endIndex);
+		List<Journeys.Journey> result = new ArrayList<>(indexes.length);
+		for (int index : indexes) {
+			result.add(columns.getJourney(index));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,731 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.model.sketch.StreamingHistogram;
+
+/**
+ * The quantile statistics of the distances and the durations of the journeys
+ * grouped by the stations.
+ *
+ * The statistics of the journeys in memory are exact: the values of the groups
+ * are collected into a primitive array with a counting sort, and the
+ * quantiles of the groups are selected in parallel without sorting. The
+ * statistics of the journeys of a {@link JourneyScanner} are computed in a
+ * single pass into a {@link StreamingHistogram} of each group. The statistics
+ * of a grouping are computed on the first request, and kept until the data set
+ * version of the journeys changes.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class JourneyStatistics implements Logging.MessageLogging {
+
+	/**
+	 * The default quantile levels of the median and the 90th percentile.
+	 */
+	public static final double[] DEFAULT_LEVELS = { 0.5, 0.9 };
+
+	/**
+	 * The number of values of a selection task.
+	 */
+	private static final int TASK_SIZE = 1 << 16;
+
+	/**
+	 * The grouping of the journeys.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static enum Grouping {
+
+		/**
+		 * The journeys are grouped by the departure station.
+		 */
+		DEPARTURE_STATION,
+
+		/**
+		 * The journeys are grouped by the return station.
+		 */
+		RETURN_STATION,
+
+		/**
+		 * The journeys are grouped by the departure and the return station.
+		 */
+		STATION_PAIR;
+
+		/**
+		 * The group key of a journey.
+		 *
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @return The non-negative group key of the journey, or -1, if the journey
+		 *         lacks the grouping stations.
+		 */
+		public int keyOf(int startStationId, int endStationId) {
+			switch (this) {
+			case DEPARTURE_STATION:
+				return (startStationId >= 0 ? startStationId : -1);
+			case RETURN_STATION:
+				return (endStationId >= 0 ? endStationId : -1);
+			default:
+				return (startStationId >= 0 && endStationId >= 0 ? pairKey(startStationId, endStationId) : -1);
+			}
+		}
+	}
+
+	/**
+	 * The measured values of the journeys.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static enum Measure {
+
+		/**
+		 * The covered distance.
+		 */
+		DISTANCE(Journeys.DISTANCE_PROPERTY),
+
+		/**
+		 * The duration.
+		 */
+		DURATION(Journeys.DURATION_PROPERTY);
+
+		/**
+		 * The journey property of the measure.
+		 */
+		private final String property;
+
+		/**
+		 * Creates a new measure.
+		 *
+		 * @param property The journey property of the measure.
+		 */
+		private Measure(String property) {
+			this.property = property;
+		}
+
+		/**
+		 * The journey property of the measure.
+		 *
+		 * @return The name of the measured property.
+		 */
+		public String getProperty() {
+			return property;
+		}
+	}
+
+	/**
+	 * The statistics of the values of a group.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static final class Summary {
+
+		/**
+		 * The number of values.
+		 */
+		private final long count;
+
+		/**
+		 * The mean value.
+		 */
+		private final double mean;
+
+		/**
+		 * The minimum value.
+		 */
+		private final double min;
+
+		/**
+		 * The maximum value.
+		 */
+		private final double max;
+
+		/**
+		 * The quantile levels.
+		 */
+		private final double[] levels;
+
+		/**
+		 * The values of the quantiles.
+		 */
+		private final double[] quantiles;
+
+		/**
+		 * Is the summary exact.
+		 */
+		private final boolean exact;
+
+		/**
+		 * Creates a new summary.
+		 *
+		 * @param count     The number of values.
+		 * @param mean      The mean value.
+		 * @param min       The minimum value.
+		 * @param max       The maximum value.
+		 * @param levels    The quantile levels.
+		 * @param quantiles The values of the quantiles.
+		 * @param exact     Are the quantiles exact.
+		 */
+		private Summary(long count, double mean, double min, double max, double[] levels, double[] quantiles,
+				boolean exact) {
+			this.count = count;
+			this.mean = mean;
+			this.min = min;
+			this.max = max;
+			this.levels = levels;
+			this.quantiles = quantiles;
+			this.exact = exact;
+		}
+
+		/**
+		 * The number of values.
+		 *
+		 * @return The number of the journeys with the value.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * The mean value.
+		 *
+		 * @return The mean of the values.
+		 */
+		public double getMean() {
+			return mean;
+		}
+
+		/**
+		 * The minimum value.
+		 *
+		 * @return The least value.
+		 */
+		public double getMin() {
+			return min;
+		}
+
+		/**
+		 * The maximum value.
+		 *
+		 * @return The greatest value.
+		 */
+		public double getMax() {
+			return max;
+		}
+
+		/**
+		 * The quantile levels.
+		 *
+		 * @return The levels of the quantiles in ascending order.
+		 */
+		public double[] getLevels() {
+			return levels.clone();
+		}
+
+		/**
+		 * The value of a quantile.
+		 *
+		 * @param level The quantile level.
+		 * @return The value of the quantile.
+		 * @throws IllegalArgumentException The level was not computed.
+		 */
+		public double getQuantile(double level) throws IllegalArgumentException {
+			int index = Arrays.binarySearch(levels, level);
+			if (index < 0) {
+				throw new IllegalArgumentException("Quantile " + level + " was not computed");
+			}
+			return quantiles[index];
+		}
+
+		/**
+		 * Are the quantiles exact.
+		 *
+		 * @return True, if and only if the quantiles are exact. Otherwise the
+		 *         quantiles are within one percent of the values.
+		 */
+		public boolean isExact() {
+			return exact;
+		}
+
+		@Override
+		public String toString() {
+			return "count=" + count + ", mean=" + mean + ", quantiles=" + Arrays.toString(quantiles);
+		}
+	}
+
+	/**
+	 * The statistics of a grouping.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class GroupStatistics {
+
+		/**
+		 * The data set version of the statistics.
+		 */
+		private final long version;
+
+		/**
+		 * The summaries of the measures by the group keys.
+		 */
+		private final Map<Measure, Map<Integer, Summary>> summaries;
+
+		/**
+		 * Creates new statistics of a grouping.
+		 *
+		 * @param version   The data set version.
+		 * @param summaries The summaries of the measures.
+		 */
+		private GroupStatistics(long version, Map<Measure, Map<Integer, Summary>> summaries) {
+			this.version = version;
+			this.summaries = summaries;
+		}
+	}
+
+	/**
+	 * The computation of the statistics of a grouping for a data set version.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class PendingStatistics extends FutureTask<GroupStatistics> {
+
+		/**
+		 * The data set version of the computed statistics.
+		 */
+		private final long version;
+
+		/**
+		 * Creates a new computation.
+		 *
+		 * @param computation The computation of the statistics.
+		 * @param version     The data set version.
+		 */
+		private PendingStatistics(java.util.concurrent.Callable<GroupStatistics> computation, long version) {
+			super(computation);
+			this.version = version;
+		}
+	}
+
+	/**
+	 * The journeys.
+	 */
+	private final Journeys journeys;
+
+	/**
+	 * The quantile levels in ascending order.
+	 */
+	private final double[] levels;
+
+	/**
+	 * The number of the selecting threads.
+	 */
+	private final int threads;
+
+	/**
+	 * The latest computations of the statistics of the groupings.
+	 */
+	private final ConcurrentMap<Grouping, PendingStatistics> statistics = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates new statistics of the median and the 90th percentile.
+	 *
+	 * @param journeys The journeys.
+	 */
+	public JourneyStatistics(Journeys journeys) {
+		this(journeys, DEFAULT_LEVELS, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates new statistics.
+	 *
+	 * @param journeys The journeys. The scanned journeys of
+	 *                 {@link TieredJourneys} are those of its history.
+	 * @param levels   The quantile levels.
+	 * @param threads  The number of the selecting threads.
+	 * @throws IllegalArgumentException Any level was not between 0 and 1, or the
+	 *                                  number of threads was not positive.
+	 */
+	public JourneyStatistics(Journeys journeys, double[] levels, int threads) throws IllegalArgumentException {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Non-positive number of threads");
+		}
+		double[] sorted = levels.clone();
+		Arrays.sort(sorted);
+		for (double level : sorted) {
+			if (!(level >= 0 && level <= 1)) {
+				throw new IllegalArgumentException("Invalid quantile " + level);
+			}
+		}
+		this.journeys = journeys;
+		this.levels = sorted;
+		this.threads = threads;
+	}
+
+	/**
+	 * The key of a station pair.
+	 *
+	 * The pairs of the station identifiers above {@value Short#MAX_VALUE} have
+	 * negative keys, and they are not grouped.
+	 *
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @return The group key of the pair.
+	 */
+	public static int pairKey(int startStationId, int endStationId) {
+		return (startStationId << Short.SIZE) | (endStationId & 0xFFFF);
+	}
+
+	/**
+	 * The statistics of a group.
+	 *
+	 * @param grouping The grouping.
+	 * @param measure  The measure.
+	 * @param key      The group key, which is the station identifier, or the
+	 *                 {@link #pairKey(int, int)} of the station pair.
+	 * @return The statistics of the group, or undefined value, if the group has no
+	 *         values.
+	 * @throws java.sql.SQLException The scanning of the journeys failed.
+	 */
+	public Summary getSummary(Grouping grouping, Measure measure, int key) throws java.sql.SQLException {
+		return getSummaries(grouping, measure).get(key);
+	}
+
+	/**
+	 * The statistics of the groups.
+	 *
+	 * @param grouping The grouping.
+	 * @param measure  The measure.
+	 * @return The statistics of the groups by their keys.
+	 * @throws java.sql.SQLException The scanning of the journeys failed.
+	 */
+	public Map<Integer, Summary> getSummaries(Grouping grouping, Measure measure) throws java.sql.SQLException {
+		long version = journeys.getVersion();
+		PendingStatistics pending = statistics.get(grouping), created;
+		while (pending == null || pending.version < version) {
+			// The statistics are computed by the first caller of the version, and the
+			// other callers of the grouping wait for them without blocking the other
+			// groupings.
+			created = new PendingStatistics(() -> {
+				long start = System.nanoTime();
+				GroupStatistics result = compute(grouping, version);
+				fine("Computed statistics of {0} groups by {1} in {2} ms",
+						result.summaries.get(Measure.DISTANCE).size(), grouping, (System.nanoTime() - start) / 1000000);
+				return result;
+			}, version);
+			if (pending == null ? statistics.putIfAbsent(grouping, created) == null
+					: statistics.replace(grouping, pending, created)) {
+				pending = created;
+				created.run();
+			} else {
+				pending = statistics.get(grouping);
+			}
+		}
+		try {
+			return pending.get().summaries.get(measure);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Computing statistics was interrupted", e);
+		} catch (ExecutionException e) {
+			// The failed computation is retried by the next request.
+			statistics.remove(grouping, pending);
+			if (e.getCause() instanceof java.sql.SQLException) {
+				throw (java.sql.SQLException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Computing statistics failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Computes the statistics of a grouping.
+	 *
+	 * @param grouping The grouping.
+	 * @param version  The data set version.
+	 * @return The computed statistics.
+	 * @throws java.sql.SQLException The scanning of the journeys failed.
+	 */
+	private GroupStatistics compute(Grouping grouping, long version) throws java.sql.SQLException {
+		Journeys source = journeys;
+		if (source instanceof TieredJourneys) {
+			// The history contains all journeys.
+			source = ((TieredJourneys) source).getHistory();
+		}
+		Map<Measure, Map<Integer, Summary>> result = new EnumMap<>(Measure.class);
+		if (source instanceof JourneyScanner && !(source instanceof JourneyColumns)) {
+			Map<Measure, Map<Integer, StreamingHistogram>> histograms = new EnumMap<>(Measure.class);
+			for (Measure measure : Measure.values()) {
+				histograms.put(measure, new HashMap<>());
+			}
+			Map<Integer, StreamingHistogram> distances = histograms.get(Measure.DISTANCE),
+					durations = histograms.get(Measure.DURATION);
+			((JourneyScanner) source).scanJourneys((long startTime, long endTime, int startStationId,
+					int endStationId, int distance, int duration) -> {
+				int key = grouping.keyOf(startStationId, endStationId);
+				if (key >= 0) {
+					if (distance != ColumnarJourneys.UNDEFINED_INT) {
+						distances.computeIfAbsent(key, (Integer group) -> new StreamingHistogram()).add(distance);
+					}
+					if (duration != ColumnarJourneys.UNDEFINED_INT) {
+						durations.computeIfAbsent(key, (Integer group) -> new StreamingHistogram()).add(duration);
+					}
+				}
+			});
+			for (Measure measure : Measure.values()) {
+				Map<Integer, Summary> summaries = new HashMap<>();
+				histograms.get(measure).forEach((Integer key, StreamingHistogram histogram) -> summaries.put(key,
+						new Summary(histogram.getCount(), histogram.getMean(), histogram.getMin(), histogram.getMax(),
+								levels, histogram.quantiles(levels), histogram.isExact())));
+				result.put(measure, Collections.unmodifiableMap(summaries));
+			}
+		} else {
+			JourneyColumns columns = (source instanceof JourneyColumns ? (JourneyColumns) source
+					: ColumnarJourneys.copyOf(source));
+			int[] starts = columns.copyIntColumn(Journeys.START_LOCATION_ID_PROPERTY);
+			int[] ends = columns.copyIntColumn(Journeys.END_LOCATION_ID_PROPERTY);
+			int[] keys = new int[Math.min(starts.length, ends.length)];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = grouping.keyOf(starts[i] == ColumnarJourneys.UNDEFINED_INT ? -1 : starts[i],
+						ends[i] == ColumnarJourneys.UNDEFINED_INT ? -1 : ends[i]);
+			}
+			for (Measure measure : Measure.values()) {
+				result.put(measure, Collections.unmodifiableMap(
+						computeExact(keys, columns.copyIntColumn(measure.getProperty()), levels, threads)));
+			}
+		}
+		return new GroupStatistics(version, result);
+	}
+
+	/**
+	 * Computes the exact statistics of grouped values.
+	 *
+	 * The values are collected group by group into a primitive array, and the
+	 * quantiles of the groups are selected in parallel.
+	 *
+	 * @param keys    The group keys of the values. The values with negative key
+	 *                are ignored.
+	 * @param values  The values. The undefined values are ignored.
+	 * @param levels  The quantile levels in ascending order.
+	 * @param threads The number of the selecting threads.
+	 * @return The statistics by the group keys.
+	 */
+	public static Map<Integer, Summary> computeExact(int[] keys, int[] values, double[] levels, int threads) {
+		int count = Math.min(keys.length, values.length);
+		// The groups are numbered in the order of their first values with an open
+		// addressing table of the keys.
+		int[] tableKeys = new int[16], tableGroups = new int[16];
+		Arrays.fill(tableKeys, -1);
+		int[] groupKeys = new int[16], sizes = new int[16];
+		int[] groups = new int[count];
+		int groupCount = 0, slot;
+		for (int i = 0; i < count; i++) {
+			if (keys[i] < 0 || values[i] == ColumnarJourneys.UNDEFINED_INT) {
+				groups[i] = -1;
+				continue;
+			}
+			slot = slotOf(tableKeys, keys[i]);
+			if (tableKeys[slot] < 0) {
+				if (groupCount == groupKeys.length) {
+					groupKeys = Arrays.copyOf(groupKeys, groupCount * 2);
+					sizes = Arrays.copyOf(sizes, groupCount * 2);
+				}
+				tableKeys[slot] = keys[i];
+				tableGroups[slot] = groupCount;
+				groupKeys[groupCount++] = keys[i];
+				if (2 * groupCount > tableKeys.length) {
+					// The table is kept at most half full.
+					int[] oldKeys = tableKeys, oldGroups = tableGroups;
+					tableKeys = new int[oldKeys.length * 2];
+					tableGroups = new int[oldKeys.length * 2];
+					Arrays.fill(tableKeys, -1);
+					for (int j = 0; j < oldKeys.length; j++) {
+						if (oldKeys[j] >= 0) {
+							slot = slotOf(tableKeys, oldKeys[j]);
+							tableKeys[slot] = oldKeys[j];
+							tableGroups[slot] = oldGroups[j];
+						}
+					}
+					slot = slotOf(tableKeys, keys[i]);
+				}
+			}
+			groups[i] = tableGroups[slot];
+			sizes[groups[i]]++;
+		}
+		int[] offsets = new int[groupCount + 1];
+		for (int g = 0; g < groupCount; g++) {
+			offsets[g + 1] = offsets[g] + sizes[g];
+		}
+		int[] grouped = new int[offsets[groupCount]];
+		int[] next = Arrays.copyOf(offsets, groupCount);
+		for (int i = 0; i < count; i++) {
+			if (groups[i] >= 0) {
+				grouped[next[groups[i]]++] = values[i];
+			}
+		}
+
+		Summary[] summaries = new Summary[groupCount];
+		ExecutorService executor = DaemonThreadFactory.newThreadPool("journey-statistics", threads);
+		try {
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int first = 0; first < groupCount;) {
+				// A task selects the quantiles of consecutive groups.
+				int start = first, end = first + 1;
+				while (end < groupCount && offsets[end] - offsets[start] < TASK_SIZE) {
+					end++;
+				}
+				int last = end;
+				tasks.add(executor.submit(() -> {
+					for (int g = start; g < last; g++) {
+						summaries[g] = summarize(grouped, offsets[g], offsets[g + 1], levels);
+					}
+				}));
+				first = end;
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Computing statistics was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Computing statistics failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		Map<Integer, Summary> result = new HashMap<>();
+		for (int g = 0; g < groupCount; g++) {
+			result.put(groupKeys[g], summaries[g]);
+		}
+		return result;
+	}
+
+	/**
+	 * The slot of a key in an open addressing table.
+	 *
+	 * @param table The keys of the table with -1 in the free slots.
+	 * @param key   The non-negative key.
+	 * @return The slot of the key, or the free slot of the key.
+	 */
+	private static int slotOf(int[] table, int key) {
+		int mask = table.length - 1, slot = (key * 0x9E3779B9) >>> 1 & mask;
+		while (table[slot] >= 0 && table[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Summarizes the values of a group.
+	 *
+	 * The quantiles are interpolated linearly between the closest ranks. The
+	 * values of the group are reordered.
+	 *
+	 * @param values The values.
+	 * @param from   The index of the first value of the group.
+	 * @param to     The index after the last value of the group.
+	 * @param levels The quantile levels in ascending order.
+	 * @return The statistics of the group.
+	 */
+	protected static Summary summarize(int[] values, int from, int to, double[] levels) {
+		int n = to - from, min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		long sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += values[i];
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+		}
+		double[] quantiles = new double[levels.length];
+		double position;
+		int rank, lower, upper, selectFrom = from;
+		for (int i = 0; i < levels.length; i++) {
+			position = (n - 1) * levels[i];
+			rank = (int) position;
+			// The ascending levels select from the values after the previous rank.
+			select(values, selectFrom, to, from + rank);
+			selectFrom = from + rank;
+			lower = values[from + rank];
+			upper = lower;
+			if (position > rank) {
+				upper = Integer.MAX_VALUE;
+				for (int j = from + rank + 1; j < to; j++) {
+					upper = Math.min(upper, values[j]);
+				}
+			}
+			quantiles[i] = lower + (position - rank) * ((double) upper - lower);
+		}
+		return new Summary(n, (double) sum / n, min, max, levels, quantiles, true);
+	}
+
+	/**
+	 * Selects the value of a rank.
+	 *
+	 * After the selection the value of the rank is at its index, the values
+	 * before it are not greater, and the values after it are not less. The
+	 * three-way partitioning keeps the selection linear with many equal values.
+	 *
+	 * @param values The values.
+	 * @param from   The index of the first value.
+	 * @param to     The index after the last value.
+	 * @param index  The index of the selected rank.
+	 */
+	protected static void select(int[] values, int from, int to, int index) {
+		int low = from, high = to - 1, pivot, less, greater, i, swap;
+		while (high > low) {
+			pivot = medianOf(values[low], values[(low + high) >>> 1], values[high]);
+			less = low;
+			greater = high;
+			i = low;
+			while (i <= greater) {
+				if (values[i] < pivot) {
+					swap = values[i];
+					values[i++] = values[less];
+					values[less++] = swap;
+				} else if (values[i] > pivot) {
+					swap = values[i];
+					values[i] = values[greater];
+					values[greater--] = swap;
+				} else {
+					i++;
+				}
+			}
+			if (index < less) {
+				high = less - 1;
+			} else if (index > greater) {
+				low = greater + 1;
+			} else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The median of three values.
+	 *
+	 * @param a The first value.
+	 * @param b The second value.
+	 * @param c The third value.
+	 * @return The median of the values.
+	 */
+	private static int medianOf(int a, int b, int c) {
+		return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+	}
+}
@@ -92,7 +92,7 @@ public abstract class Journeys implements Logging.MessageLogging {
 		 * 
 		 */
 		public JourneyDateFormat() {
-			super("yyyy-MM-ddTHH:mm:ss");
+			super("yyyy-MM-dd'T'HH:mm:ss");
 		}
 
 	}
@@ -114,20 +114,18 @@ public abstract class Journeys implements Logging.MessageLogging {
 
 		@Override
 		public StringBuffer format(double number, StringBuffer toAppendTo, FieldPosition pos) {
-			// TODO Auto-generated method stub
-			return null;
+			return toAppendTo.append((long) number);
 		}
 
 		@Override
 		public StringBuffer format(long number, StringBuffer toAppendTo, FieldPosition pos) {
-			// TODO Auto-generated method stub
-			return null;
+			return toAppendTo.append(number);
 		}
 
 		@Override
 		public Number parse(String source, ParsePosition parsePosition) {
 			int index = parsePosition.getIndex(), end = index;
-			for (int len = source.length(); end < len && Character.isDigit(source.charAt(end)); index++) {
+			for (int len = source.length(); end < len && Character.isDigit(source.charAt(end)); end++) {
 
 			}
 			if (end == index) {
@@ -161,7 +159,7 @@ public abstract class Journeys implements Logging.MessageLogging {
 		 * @return The list of properties of the journeys.
 		 */
 		public List<String> getPropertyNames() {
-			return Journeys.this.getPropertyNames();
+			return Journeys.this.getJourneyPropertyNames();
 		}
 
 		/**
@@ -263,7 +261,7 @@ public abstract class Journeys implements Logging.MessageLogging {
 				return new JourneyDateFormat();
 			} else if (this.isIntegerProperty(property)) {
 				return new PositiveIntegerFormat();
-			} else if (this.isIntegerProperty(property)) {
+			} else if (this.isStringProperty(property)) {
 				/**
 				 * The format parsing strings.
 				 */
@@ -370,16 +368,17 @@ public abstract class Journeys implements Logging.MessageLogging {
 				return false;
 			}
 			switch (property) {
-			case "duration":
+			case Journeys.DURATION_PROPERTY:
 			case Journeys.DISTANCE_PROPERTY:
-				if ((Integer) value < 0) {
+				if (value != null && (Integer) value < 0) {
 					// Negative duration or distance.
 					return false;
 				}
-			case "end.date":
+				break;
+			case Journeys.END_TIME_PROPERTY:
 				if (value == null)
 					return true;
-				Date startDate = (Date) this.getProperty("start.date");
+				Date startDate = (Date) this.getProperty(Journeys.START_TIME_PROPERTY);
 				try {
 					if (startDate == null || startDate.compareTo((Date) value) > 0) {
 						// End requires start time exists, and no time travel happens.
@@ -394,6 +393,63 @@ public abstract class Journeys implements Logging.MessageLogging {
 		}
 	}
 
+	/**
+	 * An immutable snapshot of a journey.
+	 * 
+	 * The snapshot copies the property values of the journey, and refuses all
+	 * changes. The date values are returned as copies, as the dates are mutable.
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public class ImmutableJourney extends Journey {
+
+		/**
+		 * The unmodifiable property values of the snapshot.
+		 */
+		private final java.util.Map<String, Object> values;
+
+		/**
+		 * Creates a new snapshot of a journey.
+		 * 
+		 * @param journey The journey whose current property values are copied.
+		 */
+		public ImmutableJourney(Journey journey) {
+			java.util.Map<String, Object> copy = new java.util.TreeMap<>();
+			Object value;
+			for (String property : journey.getPropertyNames()) {
+				value = journey.getProperty(property);
+				if (value instanceof Date) {
+					copy.put(property, new Date(((Date) value).getTime()));
+				} else if (value != null) {
+					copy.put(property, value);
+				}
+			}
+			this.values = java.util.Collections.unmodifiableMap(copy);
+		}
+
+		@Override
+		protected java.util.Map<String, Object> properties() {
+			return this.values;
+		}
+
+		@Override
+		public Object getProperty(String property) {
+			Object result = super.getProperty(property);
+			return (result instanceof Date ? new Date(((Date) result).getTime()) : result);
+		}
+
+		/**
+		 * The snapshot cannot be altered.
+		 * 
+		 * @throws UnsupportedOperationException Always.
+		 */
+		@Override
+		public Object setProperty(String property, Object value) throws UnsupportedOperationException {
+			throw new UnsupportedOperationException("Immutable journey");
+		}
+	}
+
 	/**
 	 * The property names of the journeys.
 	 * 
@@ -418,6 +474,40 @@ public abstract class Journeys implements Logging.MessageLogging {
 	public Journeys() {
 	}
 
+	/**
+	 * The data set version of the journeys.
+	 */
+	private final java.util.concurrent.atomic.AtomicLong version = new java.util.concurrent.atomic.AtomicLong();
+
+	/**
+	 * The data set version of the journeys.
+	 * 
+	 * The version increases whenever the journeys change. Any structure derived
+	 * from the journeys is valid as long as the version it was derived from is the
+	 * current version.
+	 * 
+	 * @return The current data set version.
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Marks the journeys data set changed.
+	 * 
+	 * @return The new data set version.
+	 */
+	protected long journeysChanged() {
+		return version.incrementAndGet();
+	}
+
+	/**
+	 * The number of journeys.
+	 * 
+	 * @return The number of journeys the journeys collection contains.
+	 */
+	public abstract int getJourneyCount();
+
 	/**
 	 * The property names of the journeys.
 	 * 
@@ -456,7 +546,7 @@ public abstract class Journeys implements Logging.MessageLogging {
 	 * @return The list of properties with date value.
 	 */
 	public List<String> getJourneyStringProperties() {
-		return Arrays.asList(Journeys.START_LOCATION_ID_PROPERTY, Journeys.END_LOCATION_ID_PROPERTY);
+		return Arrays.asList(Journeys.START_LOCATION_NAME_PROPERTY, Journeys.END_LOCATION_NAME_PROPERTY);
 	}
 
 	/**
@@ -509,6 +599,129 @@ public abstract class Journeys implements Logging.MessageLogging {
 	 */
 	public abstract Journey getJourney(int index);
 
+	/**
+	 * Get the journeys of the given index range.
+	 * 
+	 * @param startIndex The index of the first journey.
+	 * @param endIndex   The first index not belonging to the returned journeys.
+	 * @return The list containing all journeys within given bounds.
+	 */
+	public List<Journey> getJourneys(int startIndex, int endIndex) {
+		List<Journey> result = new java.util.ArrayList<>();
+		Journey journey;
+		for (int index = Math.max(0, startIndex), end = Math.min(endIndex, getJourneyCount()); index < end; index++) {
+			journey = getJourney(index);
+			if (journey != null) {
+				result.add(journey);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The sorter of the journeys.
+	 */
+	private JourneySorter sorter = null;
+
+	/**
+	 * The sorter sorting the journeys.
+	 * 
+	 * @return The sorter of the journeys.
+	 */
+	public synchronized JourneySorter getSorter() {
+		if (sorter == null) {
+			sorter = new JourneySorter(this);
+		}
+		return sorter;
+	}
+
+	/**
+	 * Get the journeys listed by the query.
+	 * 
+	 * The default implementation filters and sorts the journeys in memory.
+	 * 
+	 * @param query The query.
+	 * @return The list of journeys on the page of the query.
+	 * @throws IllegalArgumentException The query was invalid for the journeys.
+	 */
+	public List<Journey> getJourneys(JourneyQuery query) throws IllegalArgumentException {
+		return getSorter().getJourneys(query);
+	}
+
+	/**
+	 * Get the journeys listed by the query after a journey.
+	 * 
+	 * The page of the query is counted from the first journey listed after the
+	 * given journey, thus the consecutive pages are listed by carrying the last
+	 * journey of the previous page instead of skipping the journeys before the
+	 * page. The journeys are listed in the order of {@link #orderOf(List)}, or in
+	 * the natural order, if the query has no sort keys.
+	 * 
+	 * The default implementation skips the journeys in memory.
+	 * 
+	 * @param query The query.
+	 * @param last  The journey before the page, or undefined value, if the page is
+	 *              counted from the first journey.
+	 * @return The list of journeys on the page of the query after the journey.
+	 * @throws IllegalArgumentException The query was invalid for the journeys.
+	 */
+	public List<Journey> getJourneysAfter(JourneyQuery query, Journey last) throws IllegalArgumentException {
+		if (last == null) {
+			return getJourneys(query);
+		}
+		List<Journey> listed = getJourneys(query.withPage(0, Integer.MAX_VALUE));
+		int low = 0;
+		if (query.getSortKeys().isEmpty()) {
+			// The natural order is known only by the journeys.
+			Object id = last.getProperty(ID_PROPERTY);
+			while (low < listed.size() && !java.util.Objects.equals(id, listed.get(low).getProperty(ID_PROPERTY))) {
+				low++;
+			}
+			low = (low < listed.size() ? low + 1 : 0);
+		} else {
+			java.util.Comparator<Journey> order = orderOf(query.getSortKeys());
+			int high = listed.size(), middle;
+			while (low < high) {
+				middle = (low + high) >>> 1;
+				if (order.compare(listed.get(middle), last) <= 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+		}
+		int end = (int) Math.min(listed.size(), (long) low + query.getEndIndex());
+		return new java.util.ArrayList<>(listed.subList((int) Math.min(end, (long) low + query.getStartIndex()), end));
+	}
+
+	/**
+	 * The order of the journeys sorted by the sort keys.
+	 * 
+	 * The undefined values are last in ascending order and first in descending
+	 * order. The equal journeys are ordered by the journey identifier. The station
+	 * names are compared in their natural order.
+	 * 
+	 * @param sortKeys The sort keys.
+	 * @return The comparator ordering the journeys.
+	 */
+	public static java.util.Comparator<Journey> orderOf(List<JourneySorter.SortKey> sortKeys) {
+		List<JourneySorter.SortKey> keys = new java.util.ArrayList<>(sortKeys);
+		keys.add(new JourneySorter.SortKey(ID_PROPERTY));
+		java.util.Comparator<Journey> result = null;
+		java.util.Comparator<Journey> keyOrder;
+		for (JourneySorter.SortKey key : new JourneyQuery(null, keys, 0, 0).getSortKeys()) {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			java.util.Comparator<Object> values = (java.util.Comparator) (Object) java.util.Comparator.naturalOrder();
+			keyOrder = java.util.Comparator.comparing((Journey journey) -> journey.getProperty(key.getProperty()),
+					java.util.Comparator.nullsLast(values));
+			if (key.isDescending()) {
+				keyOrder = keyOrder.reversed();
+			}
+			result = (result == null ? keyOrder : result.thenComparing(keyOrder));
+		}
+		return result;
+	}
+
 
 	/**
 	 * Generic property search condition. 
@@ -638,7 +851,7 @@ public abstract class Journeys implements Logging.MessageLogging {
 	 */
 	public void setPropertyCaption(String propertyName, String caption)
 			throws NullPointerException, IllegalArgumentException {
-		if (getPropertyNames().contains(propertyName)) {
+		if (getPropertyNames().contains(propertyName) || getJourneyPropertyNames().contains(propertyName)) {
 			this.propertyCaptions.put(propertyName, caption);
 		} else {
 			throw new IllegalArgumentException(format("Unknown property name"));
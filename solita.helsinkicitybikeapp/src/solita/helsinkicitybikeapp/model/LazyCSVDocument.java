@@ -0,0 +1,499 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import i18n.Logging;
+
+/**
+ * The read-only CSV document decoding its rows lazily from the source file.
+ *
+ * Opening the document performs a single sequential scan of the file recording
+ * the start offset of every {@value #INDEX_STRIDE}th record. The scan
+ * recognizes quoted fields, thus a line break within quotes does not end a
+ * record. The rows are decoded on demand one indexed block at the time, and the
+ * most recently used blocks are kept in a small cache.
+ *
+ * The fields are separated with commas, the quoted fields may contain escaped
+ * quotes (<code>""</code>), and the records end with either LF or CRLF. An
+ * UTF-8 byte order mark at the start of the file is skipped.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class LazyCSVDocument implements CSVDocument, Closeable, Logging.MessageLogging {
+
+	/**
+	 * The number of records of an indexed block.
+	 */
+	public static final int INDEX_STRIDE = 16;
+
+	/**
+	 * The default number of decoded blocks kept in the cache.
+	 */
+	public static final int DEFAULT_CACHED_BLOCKS = 64;
+
+	/**
+	 * The size of the buffer used to scan the file.
+	 */
+	private static final int SCAN_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * The UTF-8 byte order mark.
+	 */
+	private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+	/**
+	 * The path of the source file.
+	 */
+	private final Path source;
+
+	/**
+	 * The channel of the source file.
+	 */
+	private final FileChannel channel;
+
+	/**
+	 * The header fields, or undefined value, if the document has no header.
+	 */
+	private final List<String> headers;
+
+	/**
+	 * The start offsets of the indexed blocks followed by the end offset of the
+	 * data.
+	 */
+	private long[] blockOffsets;
+
+	/**
+	 * The number of data rows.
+	 */
+	private final int rowCount;
+
+	/**
+	 * The maximum number of cached blocks.
+	 */
+	private final int cachedBlocks;
+
+	/**
+	 * The decoded blocks in the access order.
+	 */
+	private final LinkedHashMap<Integer, List<CSVDataRow>> cache = new LinkedHashMap<>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, List<CSVDataRow>> eldest) {
+			return size() > cachedBlocks;
+		}
+	};
+
+	/**
+	 * The number of rows served from the cache.
+	 */
+	private long cacheHits = 0;
+
+	/**
+	 * The number of blocks decoded from the source file.
+	 */
+	private long blockReads = 0;
+
+	/**
+	 * Opens a CSV file with the default cache size.
+	 *
+	 * @param source        The path of the CSV file.
+	 * @param requireHeader Is the first record of the file the header row.
+	 * @throws IOException The file could not be read.
+	 */
+	public LazyCSVDocument(Path source, boolean requireHeader) throws IOException {
+		this(source, requireHeader, DEFAULT_CACHED_BLOCKS);
+	}
+
+	/**
+	 * Opens a CSV file.
+	 *
+	 * @param source        The path of the CSV file.
+	 * @param requireHeader Is the first record of the file the header row.
+	 * @param cachedBlocks  The maximum number of decoded blocks of
+	 *                      {@value #INDEX_STRIDE} rows kept in memory.
+	 * @throws IOException              The file could not be read.
+	 * @throws IllegalArgumentException The cache size was not positive.
+	 */
+	public LazyCSVDocument(Path source, boolean requireHeader, int cachedBlocks)
+			throws IOException, IllegalArgumentException {
+		if (cachedBlocks <= 0) {
+			throw new IllegalArgumentException("Cache size must be positive");
+		}
+		this.source = source;
+		this.cachedBlocks = cachedBlocks;
+		this.channel = FileChannel.open(source, StandardOpenOption.READ);
+		try {
+			long start = skipByteOrderMark();
+			long dataStart = start;
+			if (requireHeader) {
+				dataStart = scan(start, 1, null);
+				List<String> header = dataStart > start ? decodeRecords(readRange(start, dataStart), 1).get(0) : null;
+				if (header == null) {
+					throw new IOException(severe("Missing header row in {0}", source));
+				}
+				this.headers = Collections.unmodifiableList(header);
+			} else {
+				this.headers = null;
+			}
+			this.blockOffsets = new long[256];
+			this.rowCount = (int) Math.min(Integer.MAX_VALUE, scanIndex(dataStart));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Skips the UTF-8 byte order mark at the start of the file.
+	 *
+	 * @return The offset of the first record.
+	 * @throws IOException The reading failed.
+	 */
+	private long skipByteOrderMark() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(UTF8_BOM.length);
+		while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0) {
+			// Reading the possible mark.
+		}
+		return (buffer.position() == UTF8_BOM.length && Arrays.equals(buffer.array(), UTF8_BOM)) ? UTF8_BOM.length
+				: 0;
+	}
+
+	/**
+	 * Scans the records of the file.
+	 *
+	 * @param start    The offset of the first scanned record.
+	 * @param maxCount The maximum number of scanned records.
+	 * @param starts   The consumer of the record start offsets, or undefined
+	 *                 value, if the offsets are not needed.
+	 * @return The offset following the last scanned record.
+	 * @throws IOException The reading failed.
+	 */
+	private long scan(long start, long maxCount, java.util.function.LongConsumer starts) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		byte[] bytes = buffer.array();
+		long position = start, recordStart = start, count = 0;
+		boolean quoted = false, empty = true;
+		int length;
+		while (count < maxCount && (length = channel.read(buffer.clear(), position)) > 0) {
+			for (int i = 0; i < length; i++) {
+				switch (bytes[i]) {
+				case '"':
+					quoted = !quoted;
+					empty = false;
+					break;
+				case '\n':
+					if (!quoted) {
+						if (!empty) {
+							if (starts != null) {
+								starts.accept(recordStart);
+							}
+							if (++count == maxCount) {
+								return position + i + 1;
+							}
+						}
+						recordStart = position + i + 1;
+						empty = true;
+					}
+					break;
+				case '\r':
+					break;
+				default:
+					empty = false;
+				}
+			}
+			position += length;
+		}
+		if (!empty && count < maxCount) {
+			// The last record without line break.
+			if (quoted) {
+				info("Unterminated quoted field at the end of {0}", source);
+			}
+			if (starts != null) {
+				starts.accept(recordStart);
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Scans the data records building the block index.
+	 *
+	 * @param dataStart The offset of the first data record.
+	 * @return The number of data records.
+	 * @throws IOException The reading failed.
+	 */
+	private long scanIndex(long dataStart) throws IOException {
+		long[] count = { 0 };
+		long end = scan(dataStart, Long.MAX_VALUE, (long offset) -> {
+			if (count[0] % INDEX_STRIDE == 0) {
+				int block = (int) (count[0] / INDEX_STRIDE);
+				if (block + 1 >= blockOffsets.length) {
+					blockOffsets = Arrays.copyOf(blockOffsets, blockOffsets.length * 2);
+				}
+				blockOffsets[block] = offset;
+			}
+			count[0]++;
+		});
+		int blocks = (int) ((count[0] + INDEX_STRIDE - 1) / INDEX_STRIDE);
+		blockOffsets = Arrays.copyOf(blockOffsets, blocks + 1);
+		blockOffsets[blocks] = end;
+		return count[0];
+	}
+
+	/**
+	 * Reads a byte range of the source file.
+	 *
+	 * @param start The start offset.
+	 * @param end   The end offset.
+	 * @return The bytes of the range.
+	 * @throws IOException The reading failed.
+	 */
+	private byte[] readRange(long start, long end) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+		int read;
+		while (buffer.hasRemaining() && (read = channel.read(buffer, start + buffer.position())) >= 0) {
+			if (read == 0 && buffer.position() == 0) {
+				break;
+			}
+		}
+		if (buffer.hasRemaining()) {
+			throw new IOException(severe("Source {0} was truncated", source));
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Decodes records from bytes.
+	 *
+	 * @param bytes    The UTF-8 bytes of the records.
+	 * @param maxCount The maximum number of decoded records.
+	 * @return The list of the field lists of the records.
+	 */
+	private static List<List<String>> decodeRecords(byte[] bytes, int maxCount) {
+		List<List<String>> result = new ArrayList<>(maxCount);
+		List<String> fields = new ArrayList<>();
+		int index = 0, end = bytes.length;
+		while (index < end && result.size() < maxCount) {
+			int fieldStart = index;
+			String field;
+			boolean quoted = bytes[index] == '"';
+			if (quoted) {
+				// Quoted field.
+				java.io.ByteArrayOutputStream value = new java.io.ByteArrayOutputStream();
+				int segment = ++index;
+				while (index < end) {
+					if (bytes[index] == '"') {
+						value.write(bytes, segment, index - segment);
+						if (index + 1 < end && bytes[index + 1] == '"') {
+							// Escaped quote.
+							segment = index + 1;
+							index += 2;
+						} else {
+							segment = ++index;
+							break;
+						}
+					} else {
+						index++;
+					}
+				}
+				field = value.toString(StandardCharsets.UTF_8);
+				while (index < end && bytes[index] != ',' && bytes[index] != '\n') {
+					// Ignoring the trailing whitespace of the quoted value.
+					index++;
+				}
+			} else {
+				while (index < end && bytes[index] != ',' && bytes[index] != '\n') {
+					index++;
+				}
+				int fieldEnd = index;
+				if (fieldEnd > fieldStart && bytes[fieldEnd - 1] == '\r' && (index == end || bytes[index] == '\n')) {
+					fieldEnd--;
+				}
+				field = new String(bytes, fieldStart, fieldEnd - fieldStart, StandardCharsets.UTF_8);
+			}
+			fields.add(field);
+			if (index >= end || bytes[index] == '\n') {
+				// The end of the record.
+				index++;
+				if (quoted || !(fields.size() == 1 && field.isEmpty())) {
+					result.add(fields);
+				}
+				fields = new ArrayList<>();
+			} else {
+				// The field delimiter.
+				index++;
+				if (index == end) {
+					fields.add("");
+					result.add(fields);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The read-only data row of the document.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private class LazyDataRow extends AbstractList<String> implements CSVDataRow {
+
+		/**
+		 * The field values.
+		 */
+		private final String[] values;
+
+		/**
+		 * Creates a new data row.
+		 *
+		 * @param values The field values.
+		 */
+		private LazyDataRow(List<String> values) {
+			this.values = values.toArray(new String[values.size()]);
+		}
+
+		@Override
+		public String get(int index) throws IndexOutOfBoundsException {
+			return values[index];
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public List<String> fieldNames() {
+			return headers;
+		}
+
+		@Override
+		public String set(int index, String value) throws IndexOutOfBoundsException, IllegalArgumentException {
+			throw new UnsupportedOperationException("Read-only data row");
+		}
+	}
+
+	/**
+	 * The decoded rows of a block.
+	 *
+	 * @param block The block index.
+	 * @return The rows of the block.
+	 * @throws IOException The reading failed.
+	 */
+	private synchronized List<CSVDataRow> getBlock(int block) throws IOException {
+		List<CSVDataRow> result = cache.get(block);
+		if (result == null) {
+			blockReads++;
+			List<List<String>> records = decodeRecords(readRange(blockOffsets[block], blockOffsets[block + 1]),
+					INDEX_STRIDE);
+			result = new ArrayList<>(records.size());
+			for (List<String> record : records) {
+				result.add(new LazyDataRow(record));
+			}
+			cache.put(block, result);
+		} else {
+			cacheHits++;
+		}
+		return result;
+	}
+
+	@Override
+	public boolean requireHeaderRow() {
+		return headers != null;
+	}
+
+	@Override
+	public List<String> getHeaderFields() {
+		return headers;
+	}
+
+	/**
+	 * The document is read-only.
+	 *
+	 * @throws IllegalStateException Always, as the header is read from the source.
+	 */
+	@Override
+	public boolean setFields(List<? extends CharSequence> headerFields) throws IllegalStateException {
+		throw new IllegalStateException("Read-only document");
+	}
+
+	/**
+	 * The data row of the given index.
+	 *
+	 * @param index The index.
+	 * @return The data row of the given index.
+	 * @throws IndexOutOfBoundsException The index was invalid.
+	 * @throws IllegalStateException     The reading of the source failed.
+	 */
+	@Override
+	public CSVDataRow getDataRow(int index) throws IndexOutOfBoundsException, IllegalStateException {
+		java.util.Objects.checkIndex(index, rowCount);
+		try {
+			List<CSVDataRow> rows = getBlock(index / INDEX_STRIDE);
+			int offset = index % INDEX_STRIDE;
+			if (offset >= rows.size()) {
+				throw new IllegalStateException(severe("Source {0} has changed", source));
+			}
+			return rows.get(offset);
+		} catch (IOException ioe) {
+			throw new IllegalStateException(severe("Reading of {0} failed: {1}", source, ioe.getMessage()), ioe);
+		}
+	}
+
+	@Override
+	public int size() {
+		return rowCount;
+	}
+
+	/**
+	 * The path of the source file.
+	 *
+	 * @return The path of the CSV file.
+	 */
+	public Path getSource() {
+		return source;
+	}
+
+	/**
+	 * The number of row requests answered from the decoded block cache.
+	 *
+	 * @return The number of cache hits.
+	 */
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * The number of blocks decoded from the source file.
+	 *
+	 * @return The number of block reads.
+	 */
+	public synchronized long getBlockReads() {
+		return blockReads;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			cache.clear();
+		}
+		channel.close();
+	}
+}
@@ -0,0 +1,337 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import i18n.Logging;
+
+/**
+ * The read-only journeys of a memory mapped journey snapshot.
+ *
+ * The journey columns are mapped from the snapshot file, and they are paged in
+ * by the operating system on demand. Only the station names are read into the
+ * heap when the snapshot is opened.
+ *
+ * @author Antti Kautiainen
+ *
+ * @see JourneySnapshot
+ */
+public class MappedJourneys extends Journeys implements JourneyColumns, Logging.MessageLogging {
+
+	/**
+	 * The path of the snapshot.
+	 */
+	private final Path source;
+
+	/**
+	 * The header of the snapshot.
+	 */
+	private final JourneySnapshot.Header header;
+
+	/**
+	 * The time columns in the order of {@link JourneySnapshot#TIME_COLUMNS}.
+	 */
+	private final LongBuffer[] timeColumns;
+
+	/**
+	 * The integer columns in the order of {@link JourneySnapshot#INT_COLUMNS}.
+	 */
+	private final IntBuffer[] intColumns;
+
+	/**
+	 * The station identifiers in ascending order.
+	 */
+	private final int[] stationIds;
+
+	/**
+	 * The station name codes of the stations.
+	 */
+	private final int[] stationNameCodes;
+
+	/**
+	 * The dictionary of the station names.
+	 */
+	private final StringDictionary stationNames;
+
+	/**
+	 * Opens the snapshot.
+	 *
+	 * @param source The path of the snapshot file.
+	 * @param verify Is the checksum of the content verified.
+	 * @throws IOException The snapshot could not be read, or it was corrupted.
+	 */
+	public MappedJourneys(Path source, boolean verify) throws IOException {
+		this.source = source;
+		try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+			ByteBuffer headerBuffer = ByteBuffer.allocate(JourneySnapshot.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			while (headerBuffer.hasRemaining() && channel.read(headerBuffer) >= 0) {
+				// Reading the whole header.
+			}
+			headerBuffer.flip();
+			if (headerBuffer.remaining() < JourneySnapshot.HEADER_SIZE) {
+				throw new IOException("Truncated snapshot header");
+			}
+			this.header = JourneySnapshot.Header.read(headerBuffer);
+			long[] offsets = header.getBlockOffsets();
+			if (channel.size() < offsets[offsets.length - 1]) {
+				throw new IOException("Truncated snapshot");
+			}
+			if (verify) {
+				verify(channel, offsets[offsets.length - 1]);
+			}
+			int block = 0;
+			timeColumns = new LongBuffer[JourneySnapshot.TIME_COLUMNS.size()];
+			for (int i = 0; i < timeColumns.length; i++, block++) {
+				timeColumns[i] = map(channel, offsets[block], 8L * header.journeyCount).asLongBuffer();
+			}
+			intColumns = new IntBuffer[JourneySnapshot.INT_COLUMNS.size()];
+			for (int i = 0; i < intColumns.length; i++, block++) {
+				intColumns[i] = map(channel, offsets[block], 4L * header.journeyCount).asIntBuffer();
+			}
+			stationIds = new int[header.stationCount];
+			map(channel, offsets[block++], 4L * header.stationCount).asIntBuffer().get(stationIds);
+			stationNameCodes = new int[header.stationCount];
+			map(channel, offsets[block++], 4L * header.stationCount).asIntBuffer().get(stationNameCodes);
+			int[] nameOffsets = new int[header.nameCount + 1];
+			map(channel, offsets[block++], 4L * nameOffsets.length).asIntBuffer().get(nameOffsets);
+			byte[] nameBytes = new byte[(int) header.nameBytes];
+			map(channel, offsets[block], header.nameBytes).get(nameBytes);
+			List<String> names = new ArrayList<>(header.nameCount);
+			for (int i = 0; i < header.nameCount; i++) {
+				if (nameOffsets[i] > nameOffsets[i + 1] || nameOffsets[i + 1] > nameBytes.length) {
+					throw new IOException("Corrupted snapshot station names");
+				}
+				names.add(new String(nameBytes, nameOffsets[i], nameOffsets[i + 1] - nameOffsets[i],
+						StandardCharsets.UTF_8));
+			}
+			stationNames = new StringDictionary(names);
+		}
+	}
+
+	/**
+	 * Maps a block of the snapshot.
+	 *
+	 * @param channel The snapshot channel.
+	 * @param offset  The offset of the block.
+	 * @param length  The length of the block.
+	 * @return The little-endian read-only buffer of the block.
+	 * @throws IOException The mapping failed.
+	 */
+	private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("Snapshot block too large");
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Verifies the checksum of the snapshot content.
+	 *
+	 * @param channel The snapshot channel.
+	 * @param end     The end of the content.
+	 * @throws IOException The checksum did not match.
+	 */
+	private void verify(FileChannel channel, long end) throws IOException {
+		java.util.zip.CRC32 checksum = new java.util.zip.CRC32();
+		long length;
+		for (long offset = JourneySnapshot.HEADER_SIZE; offset < end; offset += length) {
+			length = Math.min(end - offset, 1L << 30);
+			checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+		}
+		if (checksum.getValue() != header.checksum) {
+			throw new IOException(severe("Checksum mismatch of snapshot {0}", source));
+		}
+	}
+
+	/**
+	 * The path of the snapshot.
+	 *
+	 * @return The path of the mapped snapshot file.
+	 */
+	public Path getSource() {
+		return source;
+	}
+
+	/**
+	 * The header of the snapshot.
+	 *
+	 * @return The header of the mapped snapshot.
+	 */
+	public JourneySnapshot.Header getHeader() {
+		return header;
+	}
+
+	/**
+	 * The data set version of the journeys the snapshot was written from.
+	 *
+	 * @return The data set version stored in the snapshot.
+	 */
+	public long getSnapshotVersion() {
+		return header.datasetVersion;
+	}
+
+	@Override
+	public int getJourneyCount() {
+		return header.journeyCount;
+	}
+
+	@Override
+	public StringDictionary getStationNames() {
+		return stationNames;
+	}
+
+	/**
+	 * The station identifiers.
+	 *
+	 * @return The array of the identifiers of the stations of the journeys in
+	 *         ascending order.
+	 */
+	public int[] getStationIds() {
+		return stationIds.clone();
+	}
+
+	/**
+	 * The name of a station.
+	 *
+	 * @param stationId The station identifier.
+	 * @return The name of the station, or undefined value, if the station or its
+	 *         name is unknown.
+	 */
+	public String getStationName(int stationId) {
+		int index = Arrays.binarySearch(stationIds, stationId);
+		if (index < 0 || stationNameCodes[index] == StringDictionary.UNDEFINED_CODE) {
+			return null;
+		}
+		return stationNames.decode(stationNameCodes[index]);
+	}
+
+	/**
+	 * The mapped integer column of the given property.
+	 *
+	 * @param property The integer or station name property.
+	 * @return The mapped column.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 */
+	private IntBuffer intColumn(String property) throws IllegalArgumentException {
+		int index = JourneySnapshot.INT_COLUMNS.indexOf(property);
+		if (index < 0) {
+			throw new IllegalArgumentException("Not an integer or name property");
+		}
+		return intColumns[index];
+	}
+
+	/**
+	 * The mapped time column of the given property.
+	 *
+	 * @param property The time property.
+	 * @return The mapped column.
+	 * @throws IllegalArgumentException The property is not a time property.
+	 */
+	private LongBuffer timeColumn(String property) throws IllegalArgumentException {
+		int index = JourneySnapshot.TIME_COLUMNS.indexOf(property);
+		if (index < 0) {
+			throw new IllegalArgumentException("Not a time property");
+		}
+		return timeColumns[index];
+	}
+
+	@Override
+	public int getIntValue(String property, int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(index, header.journeyCount);
+		return intColumn(property).get(index);
+	}
+
+	@Override
+	public long getTimeValue(String property, int index) throws IllegalArgumentException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(index, header.journeyCount);
+		return timeColumn(property).get(index);
+	}
+
+	@Override
+	public int[] copyIntColumn(String property) throws IllegalArgumentException {
+		int[] result = new int[header.journeyCount];
+		intColumn(property).duplicate().get(result);
+		return result;
+	}
+
+	@Override
+	public long[] copyTimeColumn(String property) throws IllegalArgumentException {
+		long[] result = new long[header.journeyCount];
+		timeColumn(property).duplicate().get(result);
+		return result;
+	}
+
+	@Override
+	public JourneyColumns.IntColumn getIntColumn(String property) throws IllegalArgumentException {
+		IntBuffer column = intColumn(property);
+		int count = header.journeyCount;
+		return (int index) -> column.get(java.util.Objects.checkIndex(index, count));
+	}
+
+	@Override
+	public JourneyColumns.TimeColumn getTimeColumn(String property) throws IllegalArgumentException {
+		LongBuffer column = timeColumn(property);
+		int count = header.journeyCount;
+		return (int index) -> column.get(java.util.Objects.checkIndex(index, count));
+	}
+
+	/**
+	 * The columns are mapped from the snapshot file.
+	 *
+	 * @return Always true.
+	 */
+	@Override
+	public boolean isOffHeap() {
+		return true;
+	}
+
+	/**
+	 * The snapshot journeys are read-only.
+	 *
+	 * @return Always false.
+	 */
+	@Override
+	public boolean addJourney(Journey journey) throws IllegalArgumentException {
+		severe("Cannot add journey to read-only snapshot {0}", source);
+		return false;
+	}
+
+	@Override
+	public Journey getJourney(int index) {
+		if (index < 0 || index >= header.journeyCount) {
+			return null;
+		}
+		Journey result = new Journey();
+		java.util.Map<String, Object> properties = result.properties();
+		int value;
+		for (int i = 0; i < intColumns.length; i++) {
+			value = intColumns[i].get(index);
+			if (isStringProperty(JourneySnapshot.INT_COLUMNS.get(i))) {
+				if (value != StringDictionary.UNDEFINED_CODE) {
+					properties.put(JourneySnapshot.INT_COLUMNS.get(i), stationNames.decode(value));
+				}
+			} else if (value != ColumnarJourneys.UNDEFINED_INT) {
+				properties.put(JourneySnapshot.INT_COLUMNS.get(i), value);
+			}
+		}
+		long time;
+		for (int i = 0; i < timeColumns.length; i++) {
+			time = timeColumns[i].get(index);
+			if (time != ColumnarJourneys.UNDEFINED_TIME) {
+				properties.put(JourneySnapshot.TIME_COLUMNS.get(i), new Date(time));
+			}
+		}
+		return result;
+	}
+}
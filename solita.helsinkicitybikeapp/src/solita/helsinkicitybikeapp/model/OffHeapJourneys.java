@@ -0,0 +1,426 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import i18n.Logging;
+
+/**
+ * The journeys storing fixed width journey records outside the heap.
+ *
+ * The records are stored in direct buffers allocated in chunks of fixed number
+ * of records. The heap footprint of the journeys is the array of the chunk
+ * references and the station name dictionary, which are independent of the
+ * number of journeys. The direct memory limit of the JVM has to be large
+ * enough for all chunks, e.g. <code>-XX:MaxDirectMemorySize=6g</code> for 100
+ * million journeys.
+ *
+ * The journeys have to be closed after use. Closing releases the chunks and
+ * empties the journeys, and adding journeys to closed journeys fails. The
+ * memory of the released chunks is returned, when the garbage collector
+ * collects the chunk buffers.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class OffHeapJourneys extends Journeys implements JourneyColumns, AutoCloseable, Logging.MessageLogging {
+
+	/**
+	 * The size of a journey record in bytes.
+	 */
+	public static final int RECORD_SIZE = 48;
+
+	/**
+	 * The default number of records in a chunk.
+	 */
+	public static final int DEFAULT_CHUNK_RECORDS = 1 << 20;
+
+	/**
+	 * The offset of the departure time in a record.
+	 */
+	private static final int START_TIME_OFFSET = 0;
+
+	/**
+	 * The offset of the return time in a record.
+	 */
+	private static final int END_TIME_OFFSET = 8;
+
+	/**
+	 * The offset of the journey identifier in a record.
+	 */
+	private static final int ID_OFFSET = 16;
+
+	/**
+	 * The offset of the departure station identifier in a record.
+	 */
+	private static final int START_STATION_OFFSET = 20;
+
+	/**
+	 * The offset of the return station identifier in a record.
+	 */
+	private static final int END_STATION_OFFSET = 24;
+
+	/**
+	 * The offset of the departure station name code in a record.
+	 */
+	private static final int START_NAME_OFFSET = 28;
+
+	/**
+	 * The offset of the return station name code in a record.
+	 */
+	private static final int END_NAME_OFFSET = 32;
+
+	/**
+	 * The offset of the distance in a record.
+	 */
+	private static final int DISTANCE_OFFSET = 36;
+
+	/**
+	 * The offset of the duration in a record.
+	 */
+	private static final int DURATION_OFFSET = 40;
+
+	/**
+	 * The number of records in a chunk.
+	 */
+	private final int chunkRecords;
+
+	/**
+	 * The chunks of records. Undefined value means the journeys are closed.
+	 */
+	private ByteBuffer[] chunks = new ByteBuffer[0];
+
+	/**
+	 * The number of journeys.
+	 */
+	private int size = 0;
+
+	/**
+	 * The dictionary of the station names.
+	 */
+	private final StringDictionary stationNames;
+
+	/**
+	 * Creates a new empty off-heap journeys with the default chunk size.
+	 */
+	public OffHeapJourneys() {
+		this(DEFAULT_CHUNK_RECORDS, new StringDictionary());
+	}
+
+	/**
+	 * Creates a new empty off-heap journeys.
+	 *
+	 * @param chunkRecords The number of records in a chunk.
+	 * @param stationNames The dictionary of the station names.
+	 * @throws IllegalArgumentException The chunk size was not positive, the chunk
+	 *                                  did not fit into a direct buffer, or the
+	 *                                  dictionary was undefined.
+	 */
+	public OffHeapJourneys(int chunkRecords, StringDictionary stationNames) throws IllegalArgumentException {
+		if (chunkRecords <= 0 || (long) chunkRecords * RECORD_SIZE > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid chunk size");
+		} else if (stationNames == null) {
+			throw new IllegalArgumentException("Undefined station name dictionary");
+		}
+		this.chunkRecords = chunkRecords;
+		this.stationNames = stationNames;
+	}
+
+	/**
+	 * The chunks of the journeys.
+	 *
+	 * @return The chunks of the records.
+	 * @throws IllegalStateException The journeys are closed.
+	 */
+	private ByteBuffer[] chunks() throws IllegalStateException {
+		if (chunks == null) {
+			throw new IllegalStateException("Closed journeys");
+		}
+		return chunks;
+	}
+
+	/**
+	 * The chunk of a record.
+	 *
+	 * @param index The record index.
+	 * @return The chunk containing the record.
+	 */
+	private ByteBuffer chunk(int index) {
+		return chunks()[index / chunkRecords];
+	}
+
+	/**
+	 * The offset of a record within its chunk.
+	 *
+	 * @param index The record index.
+	 * @return The byte offset of the record in its chunk.
+	 */
+	private int offset(int index) {
+		return (index % chunkRecords) * RECORD_SIZE;
+	}
+
+	/**
+	 * Is the journeys closed.
+	 *
+	 * @return True, if and only if the journeys has been closed.
+	 */
+	public synchronized boolean isClosed() {
+		return chunks == null;
+	}
+
+	/**
+	 * Releases the chunks of the journeys.
+	 */
+	@Override
+	public synchronized void close() {
+		if (chunks != null) {
+			chunks = null;
+			size = 0;
+			journeysChanged();
+		}
+	}
+
+	/**
+	 * The size of the allocated off-heap memory.
+	 *
+	 * @return The number of bytes allocated for the records.
+	 */
+	public synchronized long getAllocatedSize() {
+		return chunks == null ? 0 : (long) chunks.length * chunkRecords * RECORD_SIZE;
+	}
+
+	@Override
+	public StringDictionary getStationNames() {
+		return this.stationNames;
+	}
+
+	@Override
+	public synchronized int getJourneyCount() {
+		return size;
+	}
+
+	@Override
+	public boolean addJourney(Journey journey) throws IllegalArgumentException {
+		return ColumnarJourneys.addTypedJourney(journey, this::addJourney);
+	}
+
+	/**
+	 * Add a new journey from its typed property values.
+	 *
+	 * @param id             The journey identifier. If undefined, the journey gets
+	 *                       identifier of its index plus one.
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param startName      The departure station name.
+	 * @param endName        The return station name.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 * @return True, if and only if the journey was added.
+	 * @throws IllegalArgumentException The journey was invalid.
+	 * @throws IllegalStateException    The journeys are closed.
+	 */
+	public boolean addJourney(int id, long startTime, long endTime, int startStationId, int endStationId,
+			String startName, String endName, int distance, int duration)
+			throws IllegalArgumentException, IllegalStateException {
+		return addEncodedJourney(id, startTime, endTime, startStationId, endStationId,
+				stationNames.encode(startName), stationNames.encode(endName), distance, duration);
+	}
+
+	/**
+	 * Add a new journey from its typed property values with already encoded
+	 * station names.
+	 *
+	 * @param id             The journey identifier. If undefined, the journey gets
+	 *                       identifier of its index plus one.
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param startName      The departure station name code.
+	 * @param endName        The return station name code.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 * @return True, if and only if the journey was added.
+	 * @throws IllegalArgumentException The journey was invalid.
+	 * @throws IllegalStateException    The journeys are closed.
+	 */
+	public synchronized boolean addEncodedJourney(int id, long startTime, long endTime, int startStationId,
+			int endStationId, int startName, int endName, int distance, int duration)
+			throws IllegalArgumentException, IllegalStateException {
+		ColumnarJourneys.validateJourney(startTime, endTime, distance, duration);
+		if (size == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Journeys full");
+		}
+		if (size / chunkRecords >= chunks().length) {
+			// Allocating a new chunk.
+			chunks = Arrays.copyOf(chunks, chunks.length + 1);
+			chunks[chunks.length - 1] = ByteBuffer.allocateDirect(chunkRecords * RECORD_SIZE)
+					.order(ByteOrder.nativeOrder());
+		}
+		ByteBuffer chunk = chunk(size);
+		int offset = offset(size);
+		chunk.putLong(offset + START_TIME_OFFSET, startTime);
+		chunk.putLong(offset + END_TIME_OFFSET, endTime);
+		chunk.putInt(offset + ID_OFFSET, id == ColumnarJourneys.UNDEFINED_INT ? size + 1 : id);
+		chunk.putInt(offset + START_STATION_OFFSET, startStationId);
+		chunk.putInt(offset + END_STATION_OFFSET, endStationId);
+		chunk.putInt(offset + START_NAME_OFFSET, startName);
+		chunk.putInt(offset + END_NAME_OFFSET, endName);
+		chunk.putInt(offset + DISTANCE_OFFSET, distance);
+		chunk.putInt(offset + DURATION_OFFSET, duration);
+		size++;
+		journeysChanged();
+		return true;
+	}
+
+	/**
+	 * The record offset of an integer property.
+	 *
+	 * @param property The integer or station name property.
+	 * @return The offset of the property within a record.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 */
+	private static int intOffset(String property) throws IllegalArgumentException {
+		switch (property == null ? "" : property) {
+		case ID_PROPERTY:
+			return ID_OFFSET;
+		case START_LOCATION_ID_PROPERTY:
+			return START_STATION_OFFSET;
+		case END_LOCATION_ID_PROPERTY:
+			return END_STATION_OFFSET;
+		case START_LOCATION_NAME_PROPERTY:
+			return START_NAME_OFFSET;
+		case END_LOCATION_NAME_PROPERTY:
+			return END_NAME_OFFSET;
+		case DISTANCE_PROPERTY:
+			return DISTANCE_OFFSET;
+		case DURATION_PROPERTY:
+			return DURATION_OFFSET;
+		default:
+			throw new IllegalArgumentException("Not an integer or name property");
+		}
+	}
+
+	/**
+	 * The record offset of a time property.
+	 *
+	 * @param property The time property.
+	 * @return The offset of the property within a record.
+	 * @throws IllegalArgumentException The property is not a time property.
+	 */
+	private static int timeOffset(String property) throws IllegalArgumentException {
+		switch (property == null ? "" : property) {
+		case START_TIME_PROPERTY:
+			return START_TIME_OFFSET;
+		case END_TIME_PROPERTY:
+			return END_TIME_OFFSET;
+		default:
+			throw new IllegalArgumentException("Not a time property");
+		}
+	}
+
+	@Override
+	public synchronized int getIntValue(String property, int index)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(index, size);
+		return chunk(index).getInt(offset(index) + intOffset(property));
+	}
+
+	@Override
+	public synchronized long getTimeValue(String property, int index)
+			throws IllegalArgumentException, IndexOutOfBoundsException {
+		java.util.Objects.checkIndex(index, size);
+		return chunk(index).getLong(offset(index) + timeOffset(property));
+	}
+
+	@Override
+	public synchronized int[] copyIntColumn(String property) throws IllegalArgumentException {
+		int fieldOffset = intOffset(property);
+		int[] result = new int[size];
+		ByteBuffer chunk = null;
+		for (int i = 0; i < size; i++) {
+			if (i % chunkRecords == 0) {
+				chunk = chunk(i);
+			}
+			result[i] = chunk.getInt(offset(i) + fieldOffset);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized long[] copyTimeColumn(String property) throws IllegalArgumentException {
+		int fieldOffset = timeOffset(property);
+		long[] result = new long[size];
+		ByteBuffer chunk = null;
+		for (int i = 0; i < size; i++) {
+			if (i % chunkRecords == 0) {
+				chunk = chunk(i);
+			}
+			result[i] = chunk.getLong(offset(i) + fieldOffset);
+		}
+		return result;
+	}
+
+	/**
+	 * The view of the integer column reading the values from the chunks.
+	 *
+	 * @param property The integer or station name property.
+	 * @return The view of the column reading the records of the current journeys.
+	 * @throws IllegalArgumentException The property is not an integer property.
+	 * @throws IllegalStateException    The journeys are closed.
+	 */
+	@Override
+	public synchronized JourneyColumns.IntColumn getIntColumn(String property)
+			throws IllegalArgumentException, IllegalStateException {
+		int fieldOffset = intOffset(property), count = size, records = chunkRecords;
+		ByteBuffer[] viewed = chunks().clone();
+		return (int index) -> viewed[java.util.Objects.checkIndex(index, count) / records]
+				.getInt((index % records) * RECORD_SIZE + fieldOffset);
+	}
+
+	/**
+	 * The view of the time column reading the values from the chunks.
+	 *
+	 * @param property The time property.
+	 * @return The view of the column reading the records of the current journeys.
+	 * @throws IllegalArgumentException The property is not a time property.
+	 * @throws IllegalStateException    The journeys are closed.
+	 */
+	@Override
+	public synchronized JourneyColumns.TimeColumn getTimeColumn(String property)
+			throws IllegalArgumentException, IllegalStateException {
+		int fieldOffset = timeOffset(property), count = size, records = chunkRecords;
+		ByteBuffer[] viewed = chunks().clone();
+		return (int index) -> viewed[java.util.Objects.checkIndex(index, count) / records]
+				.getLong((index % records) * RECORD_SIZE + fieldOffset);
+	}
+
+	/**
+	 * The records are stored in direct buffers.
+	 *
+	 * @return Always true.
+	 */
+	@Override
+	public boolean isOffHeap() {
+		return true;
+	}
+
+	@Override
+	public synchronized Journey getJourney(int index) {
+		if (index < 0 || index >= size) {
+			return null;
+		}
+		ByteBuffer chunk = chunk(index);
+		int offset = offset(index);
+		Journey result = new Journey();
+		ColumnarJourneys.putJourney(result.properties(), stationNames, chunk.getInt(offset + ID_OFFSET),
+				chunk.getLong(offset + START_TIME_OFFSET), chunk.getLong(offset + END_TIME_OFFSET),
+				chunk.getInt(offset + START_STATION_OFFSET), chunk.getInt(offset + END_STATION_OFFSET),
+				chunk.getInt(offset + START_NAME_OFFSET), chunk.getInt(offset + END_NAME_OFFSET),
+				chunk.getInt(offset + DISTANCE_OFFSET), chunk.getInt(offset + DURATION_OFFSET));
+		return result;
+	}
+}
@@ -22,16 +22,72 @@ public class SimpleCSVDocument implements CSVDocument {
 	private boolean requireHeader;
 
 	/**
-	 * Creates a simple CSV document.
+	 * The default maximum number of distinct values of a dictionary encoded
+	 * column.
+	 */
+	public static final int DEFAULT_MAX_DICTIONARY_SIZE = 4096;
+
+	/**
+	 * The number of rows after which the distinct value ratio of a dictionary
+	 * encoded column is tested.
+	 */
+	public static final int DICTIONARY_SAMPLE_ROWS = 1024;
+
+	/**
+	 * The maximum ratio of distinct values to rows of a dictionary encoded
+	 * column.
+	 */
+	public static final double MAX_DICTIONARY_RATIO = 0.5;
+
+	/**
+	 * Are the added rows dictionary encoded.
+	 */
+	private boolean dictionaryEncoding;
+
+	/**
+	 * The maximum number of distinct values of a dictionary encoded column.
+	 */
+	private int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+
+	/**
+	 * The dictionaries of the columns.
+	 */
+	private final ArrayList<ColumnDictionary> columnDictionaries = new ArrayList<>();
+
+	/**
+	 * Creates a simple CSV document with dictionary encoding.
+	 * 
+	 * The encoding detects the cardinality of each column, and keeps encoding
+	 * only the columns with few distinct values, such as the station names of
+	 * the journey and station files.
 	 * 
 	 * @param requireHeader Does the document require header.
 	 */
 	public SimpleCSVDocument(boolean requireHeader) {
+		this(requireHeader, true);
+	}
+
+	/**
+	 * Creates a simple CSV document.
+	 * 
+	 * With dictionary encoding the values of each column are stored as codes of
+	 * the column dictionary as long as the column has few distinct values. A
+	 * column exceeding the maximum dictionary size, or having more distinct
+	 * values than {@value #MAX_DICTIONARY_RATIO} times the rows after
+	 * {@value #DICTIONARY_SAMPLE_ROWS} rows, stores the values of the later rows
+	 * as strings.
+	 * 
+	 * @param requireHeader      Does the document require header.
+	 * @param dictionaryEncoding Are the rows dictionary encoded.
+	 */
+	public SimpleCSVDocument(boolean requireHeader, boolean dictionaryEncoding) {
 		this.requireHeader = requireHeader;
+		this.dictionaryEncoding = dictionaryEncoding;
 	}
 
 	/**
-	 * Creates a simple CSV document, which does not require header.
+	 * Creates a simple CSV document with dictionary encoding, which does not
+	 * require header.
 	 */
 	public SimpleCSVDocument() {
 		this(false);
@@ -187,6 +243,199 @@ public class SimpleCSVDocument implements CSVDocument {
 		}
 	}
 
+	/**
+	 * The dictionary of a column.
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	protected static class ColumnDictionary {
+
+		/**
+		 * The dictionary of the column values.
+		 */
+		private final StringDictionary dictionary = new StringDictionary();
+
+		/**
+		 * Are the new values of the column encoded.
+		 */
+		private boolean enabled = true;
+
+		/**
+		 * The number of encoded rows.
+		 */
+		private long rows = 0;
+	}
+
+	/**
+	 * The data row storing the values of dictionary encoded columns as codes.
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public class EncodedDataRow extends AbstractList<String> implements CSVDataRow {
+
+		/**
+		 * The codes of the field values. The fields without code are stored as
+		 * strings.
+		 */
+		private final int[] codes;
+
+		/**
+		 * The values of the fields not encoded. Undefined, if all fields are
+		 * encoded.
+		 */
+		private String[] plainValues = null;
+
+		/**
+		 * Creates a new encoded data row from the field values.
+		 * 
+		 * @param values The field values.
+		 */
+		protected EncodedDataRow(List<String> values) {
+			codes = new int[values.size()];
+			ColumnDictionary column;
+			String value;
+			for (int i = 0; i < codes.length; i++) {
+				value = values.get(i);
+				column = getColumnDictionary(i);
+				if (column.enabled) {
+					codes[i] = column.dictionary.encode(value);
+					column.rows++;
+					if (column.dictionary.size() > maxDictionarySize || (column.rows >= DICTIONARY_SAMPLE_ROWS
+							&& column.dictionary.size() > column.rows * MAX_DICTIONARY_RATIO)) {
+						// The column has too many distinct values.
+						column.enabled = false;
+					}
+				} else {
+					codes[i] = StringDictionary.UNDEFINED_CODE;
+					if (value != null) {
+						if (plainValues == null) {
+							plainValues = new String[codes.length];
+						}
+						plainValues[i] = value;
+					}
+				}
+			}
+		}
+
+		@Override
+		public String get(int index) throws IndexOutOfBoundsException {
+			java.util.Objects.checkIndex(index, codes.length);
+			if (codes[index] != StringDictionary.UNDEFINED_CODE) {
+				return columnDictionaries.get(index).dictionary.decode(codes[index]);
+			} else {
+				return plainValues == null ? null : plainValues[index];
+			}
+		}
+
+		@Override
+		public int size() {
+			return codes.length;
+		}
+	}
+
+	/**
+	 * The dictionary of the given column.
+	 * 
+	 * @param column The column index.
+	 * @return The dictionary of the column.
+	 */
+	protected ColumnDictionary getColumnDictionary(int column) {
+		while (columnDictionaries.size() <= column) {
+			columnDictionaries.add(new ColumnDictionary());
+		}
+		return columnDictionaries.get(column);
+	}
+
+	/**
+	 * Are the added rows dictionary encoded.
+	 * 
+	 * @return True, if and only if the rows added to the document are dictionary
+	 *         encoded.
+	 */
+	public boolean isDictionaryEncoding() {
+		return dictionaryEncoding;
+	}
+
+	/**
+	 * Sets the dictionary encoding of the rows added after the call.
+	 * 
+	 * @param dictionaryEncoding Are the added rows dictionary encoded.
+	 */
+	public void setDictionaryEncoding(boolean dictionaryEncoding) {
+		this.dictionaryEncoding = dictionaryEncoding;
+	}
+
+	/**
+	 * The maximum number of distinct values of a dictionary encoded column.
+	 * 
+	 * @return The maximum dictionary size.
+	 */
+	public int getMaxDictionarySize() {
+		return maxDictionarySize;
+	}
+
+	/**
+	 * Sets the maximum number of distinct values of a dictionary encoded column.
+	 * 
+	 * @param maxDictionarySize The maximum dictionary size.
+	 * @throws IllegalArgumentException The size was negative.
+	 */
+	public void setMaxDictionarySize(int maxDictionarySize) throws IllegalArgumentException {
+		if (maxDictionarySize < 0) {
+			throw new IllegalArgumentException("Negative dictionary size");
+		}
+		this.maxDictionarySize = maxDictionarySize;
+	}
+
+	/**
+	 * Are the new values of the column dictionary encoded.
+	 * 
+	 * @param column The column index.
+	 * @return True, if and only if the document is dictionary encoded, and the
+	 *         column has not exceeded its dictionary limits.
+	 */
+	public boolean isDictionaryEncoded(int column) {
+		return dictionaryEncoding && (column >= columnDictionaries.size() || columnDictionaries.get(column).enabled);
+	}
+
+	/**
+	 * The dictionary size of the column.
+	 * 
+	 * @param column The column index.
+	 * @return The number of distinct values in the dictionary of the column.
+	 */
+	public int getDictionarySize(int column) {
+		return column < columnDictionaries.size() ? columnDictionaries.get(column).dictionary.size() : 0;
+	}
+
+	/**
+	 * The dictionary hit ratio of the column.
+	 * 
+	 * @param column The column index.
+	 * @return The ratio of encoded values which were already in the dictionary.
+	 */
+	public double getDictionaryHitRatio(int column) {
+		return column < columnDictionaries.size() ? columnDictionaries.get(column).dictionary.getHitRatio() : 0.0;
+	}
+
+	/**
+	 * The dictionary statistics of the columns.
+	 * 
+	 * @return The list of the statistics lines of the columns.
+	 */
+	public List<String> getDictionaryStatistics() {
+		List<String> result = new ArrayList<>(columnDictionaries.size());
+		List<String> headers = getHeaderFields() == null ? java.util.Collections.emptyList() : getHeaderFields();
+		for (int i = 0; i < columnDictionaries.size(); i++) {
+			result.add(java.text.MessageFormat.format("{0}: {1} values, hit ratio {2,number,percent}, {3}",
+					i < headers.size() ? headers.get(i) : Integer.toString(i), getDictionarySize(i),
+					getDictionaryHitRatio(i), isDictionaryEncoded(i) ? "encoded" : "not encoded"));
+		}
+		return result;
+	}
+
 	/**
 	 * Test validity of a data row.
 	 * 
@@ -204,7 +453,7 @@ public class SimpleCSVDocument implements CSVDocument {
 	 * The header field names.
 	 * 
 	 */
-	private java.util.ArrayList<String> headers = new ArrayList<>();
+	private java.util.ArrayList<String> headers = null;
 
 	/**
 	 * The data rows.
@@ -240,6 +489,7 @@ public class SimpleCSVDocument implements CSVDocument {
 	public boolean setFields(List<? extends CharSequence> headerFields) throws IllegalStateException, CSVException {
 		if (!CSVDocument.super.setFields(headerFields)) {
 			// The header was not set by the parent, but it did not cause exception.
+			this.headers = new ArrayList<>(headerFields.size());
 			this.headers.addAll(headerFields.stream().map((CharSequence val)->(val instanceof String?(String)val:val.toString())).toList());
 			this.fieldCount = headerFields.size();
 		}
@@ -254,7 +504,8 @@ public class SimpleCSVDocument implements CSVDocument {
 	@Override
 	public boolean addDataRow(List<? extends CharSequence> fieldData) throws CSVException {
 		try {
-			if (this.dataRows.add(this.new DataRow(fieldData))) {
+			DataRow row = this.new DataRow(fieldData);
+			if (this.dataRows.add(dictionaryEncoding ? this.new EncodedDataRow(row) : row)) {
 				if (getFieldCount() == null) {
 					// Setting field count from first data row.
 					this.fieldCount = fieldData.size();
@@ -0,0 +1,188 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dictionary encoding strings with dense integer codes.
+ *
+ * The codes are assigned in the order the strings are first encoded starting
+ * from 0. An undefined string is encoded as {@link #UNDEFINED_CODE}. Codes are
+ * never reassigned, thus a code stays valid for the lifetime of the dictionary.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class StringDictionary {
+
+	/**
+	 * The code of an undefined value.
+	 */
+	public static final int UNDEFINED_CODE = -1;
+
+	/**
+	 * The mapping from strings to their codes.
+	 */
+	private final Map<String, Integer> codes = new HashMap<>();
+
+	/**
+	 * The strings of the codes.
+	 */
+	private final ArrayList<String> values = new ArrayList<>();
+
+	/**
+	 * The number of lookups answered with an existing code.
+	 */
+	private long hits = 0;
+
+	/**
+	 * The number of lookups which added a new code.
+	 */
+	private long misses = 0;
+
+	/**
+	 * Creates a new empty dictionary.
+	 */
+	public StringDictionary() {
+
+	}
+
+	/**
+	 * Creates a new dictionary containing the given strings with codes of their
+	 * list indexes.
+	 *
+	 * @param values The strings of the dictionary in code order.
+	 * @throws IllegalArgumentException The values contained an undefined or
+	 *                                  duplicate value.
+	 */
+	public StringDictionary(List<String> values) throws IllegalArgumentException {
+		for (String value : values) {
+			if (value == null || codes.containsKey(value)) {
+				throw new IllegalArgumentException("Invalid dictionary value");
+			}
+			codes.put(value, this.values.size());
+			this.values.add(value);
+		}
+	}
+
+	/**
+	 * Encodes the given string adding it to the dictionary, if necessary.
+	 *
+	 * @param value The encoded string.
+	 * @return The code of the given string.
+	 */
+	public synchronized int encode(String value) {
+		if (value == null) {
+			return UNDEFINED_CODE;
+		}
+		Integer code = codes.get(value);
+		if (code == null) {
+			misses++;
+			code = values.size();
+			codes.put(value, code);
+			values.add(value);
+		} else {
+			hits++;
+		}
+		return code;
+	}
+
+	/**
+	 * The code of the given string without adding it to the dictionary.
+	 *
+	 * @param value The string.
+	 * @return The code of the string, or {@link #UNDEFINED_CODE}, if the string is
+	 *         not in the dictionary.
+	 */
+	public synchronized int getCode(String value) {
+		Integer code = (value == null ? null : codes.get(value));
+		return code == null ? UNDEFINED_CODE : code;
+	}
+
+	/**
+	 * The string of the given code.
+	 *
+	 * @param code The code.
+	 * @return The string of the code, or an undefined value, if the code is
+	 *         {@link #UNDEFINED_CODE}.
+	 * @throws IndexOutOfBoundsException The code is not a code of the dictionary.
+	 */
+	public synchronized String decode(int code) throws IndexOutOfBoundsException {
+		return code == UNDEFINED_CODE ? null : values.get(code);
+	}
+
+	/**
+	 * The number of strings in the dictionary.
+	 *
+	 * @return The number of codes assigned.
+	 */
+	public synchronized int size() {
+		return values.size();
+	}
+
+	/**
+	 * The strings of the dictionary.
+	 *
+	 * @return An unmodifiable snapshot of the strings in code order.
+	 */
+	public synchronized List<String> getValues() {
+		return java.util.Collections.unmodifiableList(new ArrayList<>(values));
+	}
+
+	/**
+	 * The number of encodings which found an existing code.
+	 *
+	 * @return The number of dictionary hits.
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * The number of encodings which added a new code.
+	 *
+	 * @return The number of dictionary misses.
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * The ratio of encodings which found an existing code.
+	 *
+	 * @return The hit ratio between 0 and 1. An unused dictionary has ratio 0.
+	 */
+	public synchronized double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	/**
+	 * The ranks of the codes in the given order.
+	 *
+	 * Equal strings under the given order have equal rank.
+	 *
+	 * @param order The order of the strings.
+	 * @return The array containing rank of each code at the index of the code.
+	 */
+	public int[] getRanks(Comparator<? super String> order) {
+		List<String> strings = getValues();
+		Integer[] sorted = new Integer[strings.size()];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = i;
+		}
+		java.util.Arrays.sort(sorted, (Integer a, Integer b) -> (order.compare(strings.get(a), strings.get(b))));
+		int[] result = new int[sorted.length];
+		int rank = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i > 0 && order.compare(strings.get(sorted[i - 1]), strings.get(sorted[i])) != 0) {
+				rank = i;
+			}
+			result[sorted[i]] = rank;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,918 @@
+package solita.helsinkicitybikeapp.model;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.model.JourneySorter.SortKey;
+
+/**
+ * The journeys serving the recent months from memory and the history from
+ * other journeys, typically the database journeys.
+ *
+ * The journeys are written through: every added journey is added to the
+ * history, and the journeys departing at or after the cutoff of the recent
+ * tier are also kept in memory by the departure month. Thus the history
+ * contains all journeys, and demoting a month to the history only drops it
+ * from memory. The history has to list its journeys in the natural order of
+ * the database: the latest departure first, and the equal departures by the
+ * journey identifier.
+ *
+ * The recent tier mirrors the journeys of the history departing at or after
+ * the cutoff as of a data set version of the history. When the history
+ * changes otherwise than through these journeys, for example by another
+ * importing process, the journeys are served from the history until the
+ * recent tier has been reloaded in the background.
+ *
+ * The journeys of the recent tier are listed before the older journeys of the
+ * history. The queries limited to either tier by the departure time filters
+ * are served by that tier alone. Other queries merge the windows of both tiers
+ * starting at the page, except that the queries sorted by station names are
+ * served by the history, as its collation defines the order of the names.
+ *
+ * The months older than the number of recent months, and the oldest months
+ * exceeding the memory budget, are demoted in the background. The recent tier
+ * contains the journeys loaded by {@link #load()} and the journeys added
+ * through these journeys.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class TieredJourneys extends Journeys implements AutoCloseable, Logging.MessageLogging {
+
+	/**
+	 * The default number of months kept in memory.
+	 */
+	public static final int DEFAULT_RECENT_MONTHS = 3;
+
+	/**
+	 * The default memory budget of the recent tier in bytes.
+	 */
+	public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+	/**
+	 * The estimated memory use of a journey of the recent tier in bytes. The
+	 * columns store two times and seven integers of each journey.
+	 */
+	public static final int JOURNEY_SIZE = 2 * Long.BYTES + 7 * Integer.BYTES;
+
+	/**
+	 * The number of journeys fetched at once when loading the recent tier.
+	 */
+	private static final int LOAD_PAGE_SIZE = 10000;
+
+	/**
+	 * The sort keys of the natural order of the journeys.
+	 */
+	private static final List<SortKey> NATURAL_ORDER = Arrays.asList(new SortKey(START_TIME_PROPERTY, true, null),
+			new SortKey(ID_PROPERTY));
+
+	/**
+	 * The maximum number of the remembered cursors.
+	 */
+	private static final int CURSOR_CACHE_SIZE = 64;
+
+	/**
+	 * The position of the merged order after a listed page.
+	 *
+	 * The next page continues from the cursor with the history journeys after
+	 * the last history journey of the earlier pages, thus the consecutive pages
+	 * neither skip nor search the history journeys before the page.
+	 */
+	private static final class MergeCursor {
+
+		/**
+		 * The snapshot of the recent tier the page was merged from.
+		 */
+		private final RecentJourneys snapshot;
+
+		/**
+		 * The number of the recent journeys before the position.
+		 */
+		private final int recentIndex;
+
+		/**
+		 * The last history journey before the position, or undefined value, if there
+		 * is no history journey before the position.
+		 */
+		private final Journey lastHistory;
+
+		/**
+		 * Creates a new cursor.
+		 *
+		 * @param snapshot    The snapshot of the recent tier.
+		 * @param recentIndex The number of the recent journeys before the position.
+		 * @param lastHistory The last history journey before the position, or
+		 *                    undefined value.
+		 */
+		private MergeCursor(RecentJourneys snapshot, int recentIndex, Journey lastHistory) {
+			this.snapshot = snapshot;
+			this.recentIndex = recentIndex;
+			this.lastHistory = lastHistory;
+		}
+	}
+
+	/**
+	 * The aligned version of the recent tier not mirroring any version of the
+	 * history.
+	 */
+	private static final long UNALIGNED = Long.MIN_VALUE;
+
+	/**
+	 * The station name properties.
+	 */
+	private static final List<String> STRING_PROPERTIES = Arrays.asList(START_LOCATION_NAME_PROPERTY,
+			END_LOCATION_NAME_PROPERTY);
+
+	/**
+	 * The read only snapshot of the recent tier.
+	 *
+	 * The snapshot concatenates the month columns from the latest month. The
+	 * journeys appended to the months after the snapshot was taken are not part
+	 * of the snapshot.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class RecentJourneys extends Journeys implements JourneyColumns {
+
+		/**
+		 * The month columns from the latest month.
+		 */
+		private final ColumnarJourneys[] parts;
+
+		/**
+		 * The index of the first journey of each part followed by the number of
+		 * journeys.
+		 */
+		private final int[] offsets;
+
+		/**
+		 * The dictionary of the station names shared by the parts.
+		 */
+		private final StringDictionary stationNames;
+
+		/**
+		 * The cutoff of the recent tier when the snapshot was taken.
+		 */
+		private final long cutoff;
+
+		/**
+		 * Creates a new snapshot.
+		 *
+		 * @param parts        The month columns from the latest month.
+		 * @param stationNames The station name dictionary shared by the parts.
+		 * @param cutoff       The departure time in milliseconds since epoch from
+		 *                     which on the journeys belong to the snapshot.
+		 */
+		private RecentJourneys(List<ColumnarJourneys> parts, StringDictionary stationNames, long cutoff) {
+			this.parts = parts.toArray(new ColumnarJourneys[parts.size()]);
+			this.offsets = new int[this.parts.length + 1];
+			for (int i = 0; i < this.parts.length; i++) {
+				offsets[i + 1] = offsets[i] + this.parts[i].getJourneyCount();
+			}
+			this.stationNames = stationNames;
+			this.cutoff = cutoff;
+		}
+
+		/**
+		 * The part containing a journey.
+		 *
+		 * @param index The journey index.
+		 * @return The index of the part containing the journey.
+		 * @throws IndexOutOfBoundsException The index was not an index of a journey.
+		 */
+		private int partOf(int index) throws IndexOutOfBoundsException {
+			java.util.Objects.checkIndex(index, getJourneyCount());
+			int result = 0;
+			while (offsets[result + 1] <= index) {
+				result++;
+			}
+			return result;
+		}
+
+		@Override
+		public int getJourneyCount() {
+			return offsets[parts.length];
+		}
+
+		@Override
+		public boolean addJourney(Journey journey) {
+			// The snapshot is read only.
+			return false;
+		}
+
+		@Override
+		public Journey getJourney(int index) {
+			if (index < 0 || index >= getJourneyCount()) {
+				return null;
+			}
+			int part = partOf(index);
+			return parts[part].getJourney(index - offsets[part]);
+		}
+
+		@Override
+		public StringDictionary getStationNames() {
+			return stationNames;
+		}
+
+		@Override
+		public int getIntValue(String property, int index)
+				throws IllegalArgumentException, IndexOutOfBoundsException {
+			int part = partOf(index);
+			return parts[part].getIntValue(property, index - offsets[part]);
+		}
+
+		@Override
+		public long getTimeValue(String property, int index)
+				throws IllegalArgumentException, IndexOutOfBoundsException {
+			int part = partOf(index);
+			return parts[part].getTimeValue(property, index - offsets[part]);
+		}
+
+		@Override
+		public int[] copyIntColumn(String property) throws IllegalArgumentException {
+			int[] result = new int[getJourneyCount()];
+			for (int i = 0; i < parts.length; i++) {
+				// The journeys appended after the snapshot are left out.
+				System.arraycopy(parts[i].copyIntColumn(property), 0, result, offsets[i], offsets[i + 1] - offsets[i]);
+			}
+			return result;
+		}
+
+		@Override
+		public long[] copyTimeColumn(String property) throws IllegalArgumentException {
+			long[] result = new long[getJourneyCount()];
+			for (int i = 0; i < parts.length; i++) {
+				// The journeys appended after the snapshot are left out.
+				System.arraycopy(parts[i].copyTimeColumn(property), 0, result, offsets[i], offsets[i + 1] - offsets[i]);
+			}
+			return result;
+		}
+
+		/**
+		 * The journeys of the snapshot in the given order.
+		 *
+		 * @param sortKeys   The sort keys.
+		 * @param startIndex The index of the first journey.
+		 * @param endIndex   The first index after the journeys.
+		 * @return The journeys of the page.
+		 */
+		private List<Journey> getJourneys(List<SortKey> sortKeys, int startIndex, int endIndex) {
+			return getSorter().getJourneys(sortKeys, startIndex, endIndex);
+		}
+	}
+
+	/**
+	 * The history tier.
+	 */
+	private final Journeys history;
+
+	/**
+	 * The number of months kept in memory.
+	 */
+	private final int recentMonths;
+
+	/**
+	 * The memory budget of the recent tier in bytes.
+	 */
+	private final long memoryBudget;
+
+	/**
+	 * The time zone of the departure months.
+	 */
+	private final ZoneId zone;
+
+	/**
+	 * The dictionary of the station names of the recent tier.
+	 */
+	private final StringDictionary stationNames = new StringDictionary();
+
+	/**
+	 * The journeys of the recent tier by the departure month.
+	 */
+	private final TreeMap<YearMonth, ColumnarJourneys> months = new TreeMap<>();
+
+	/**
+	 * The departure time in milliseconds since epoch from which on the journeys
+	 * belong to the recent tier.
+	 */
+	private long cutoff = Long.MIN_VALUE;
+
+	/**
+	 * The snapshot of the recent tier, or undefined value, if the recent tier
+	 * has changed since the last snapshot.
+	 */
+	private RecentJourneys recent = null;
+
+	/**
+	 * The data set version of the history mirrored by the recent tier, or
+	 * {@link #UNALIGNED}, if the recent tier has not been loaded.
+	 */
+	private long alignedVersion = UNALIGNED;
+
+	/**
+	 * Is a demotion pending.
+	 */
+	private boolean demotionPending = false;
+
+	/**
+	 * Is a reload of the recent tier pending or running.
+	 */
+	private boolean reloadPending = false;
+
+	/**
+	 * The cursors of the positions after the latest listed pages by the query of
+	 * the position.
+	 */
+	private final Map<JourneyQuery, MergeCursor> cursors = new java.util.LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<JourneyQuery, MergeCursor> eldest) {
+			return size() > CURSOR_CACHE_SIZE;
+		}
+	};
+
+	/**
+	 * The executor of the demotions and the reloads.
+	 */
+	private final ExecutorService demotion = Executors
+			.newSingleThreadExecutor(new DaemonThreadFactory("journeys-tiering"));
+
+	/**
+	 * Creates new tiered journeys with the default number of recent months and
+	 * memory budget.
+	 *
+	 * @param history The history tier.
+	 * @throws IllegalArgumentException The history was undefined.
+	 */
+	public TieredJourneys(Journeys history) throws IllegalArgumentException {
+		this(history, DEFAULT_RECENT_MONTHS, DEFAULT_MEMORY_BUDGET, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Creates new tiered journeys.
+	 *
+	 * @param history      The history tier.
+	 * @param recentMonths The number of the latest departure months kept in
+	 *                     memory.
+	 * @param memoryBudget The memory budget of the recent tier in bytes.
+	 * @param zone         The time zone of the departure months.
+	 * @throws IllegalArgumentException The history or the zone was undefined,
+	 *                                  or the number of months or the budget
+	 *                                  was not positive.
+	 */
+	public TieredJourneys(Journeys history, int recentMonths, long memoryBudget, ZoneId zone)
+			throws IllegalArgumentException {
+		if (history == null || zone == null) {
+			throw new IllegalArgumentException("Undefined history or time zone");
+		} else if (recentMonths <= 0 || memoryBudget <= 0) {
+			throw new IllegalArgumentException("Non-positive number of recent months or memory budget");
+		}
+		this.history = history;
+		this.recentMonths = recentMonths;
+		this.memoryBudget = memoryBudget;
+		this.zone = zone;
+	}
+
+	/**
+	 * The history tier.
+	 *
+	 * @return The journeys containing all journeys.
+	 */
+	public Journeys getHistory() {
+		return this.history;
+	}
+
+	/**
+	 * The start of the recent tier.
+	 *
+	 * @return The departure time in milliseconds since epoch from which on the
+	 *         journeys are served from memory.
+	 */
+	public synchronized long getCutoff() {
+		return this.cutoff;
+	}
+
+	/**
+	 * The months of the recent tier.
+	 *
+	 * @return The departure months kept in memory from the oldest.
+	 */
+	public synchronized List<YearMonth> getRecentMonths() {
+		return new ArrayList<>(months.keySet());
+	}
+
+	/**
+	 * The estimated memory use of the recent tier.
+	 *
+	 * @return The estimated size of the journeys kept in memory in bytes.
+	 */
+	public synchronized long getMemorySize() {
+		long result = 0;
+		for (ColumnarJourneys journeys : months.values()) {
+			result += (long) journeys.getJourneyCount() * JOURNEY_SIZE;
+		}
+		return result;
+	}
+
+	/**
+	 * The departure month of a departure time.
+	 *
+	 * @param time The departure time in milliseconds since epoch.
+	 * @return The month of the departure in the time zone of the journeys.
+	 */
+	protected YearMonth monthOf(long time) {
+		return YearMonth.from(Instant.ofEpochMilli(time).atZone(zone));
+	}
+
+	/**
+	 * The start of a month.
+	 *
+	 * @param month The month.
+	 * @return The start of the month in milliseconds since epoch.
+	 */
+	protected long startOf(YearMonth month) {
+		return month.atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * Loads the recent tier from the history.
+	 *
+	 * The recent tier gets the journeys of the recent months counted from the
+	 * month of the latest departure of the history. The journeys are served from
+	 * the history while loading. If the history changes during the load, the
+	 * recent tier is loaded again when it is next used.
+	 */
+	public void load() {
+		long version = history.getVersion();
+		Journey latest = history.getJourney(0);
+		Object departure = (latest == null ? null : latest.getProperty(START_TIME_PROPERTY));
+		long start = (departure instanceof Date
+				? startOf(monthOf(((Date) departure).getTime()).minusMonths(recentMonths - 1))
+				: Long.MIN_VALUE);
+		synchronized (this) {
+			months.clear();
+			cutoff = start;
+			recent = null;
+			alignedVersion = UNALIGNED;
+			reloadPending = true;
+		}
+		int count = 0;
+		try {
+			if (start != Long.MIN_VALUE) {
+				List<JourneyQuery.Filter> filters = Arrays.asList(
+						new JourneyQuery.Filter(START_TIME_PROPERTY, JourneyQuery.Operator.GE, new Date(start)));
+				List<Journey> page;
+				Journey last = null;
+				do {
+					// The pages continue after the last loaded journey.
+					page = history.getJourneysAfter(new JourneyQuery(filters, null, 0, LOAD_PAGE_SIZE), last);
+					for (Journey journey : page) {
+						addRecentJourney(journey);
+					}
+					count += page.size();
+					last = (page.isEmpty() ? last : page.get(page.size() - 1));
+				} while (page.size() == LOAD_PAGE_SIZE);
+			}
+			synchronized (this) {
+				if (history.getVersion() == version) {
+					alignedVersion = version;
+				}
+			}
+		} finally {
+			synchronized (this) {
+				reloadPending = false;
+			}
+		}
+		journeysChanged();
+		info("Loaded {0} journeys of months {1} into memory", count, getRecentMonths());
+	}
+
+	/**
+	 * Reloads the recent tier in the background, unless a reload is already
+	 * pending.
+	 */
+	protected synchronized void reload() {
+		if (!reloadPending) {
+			reloadPending = true;
+			demotion.execute(() -> {
+				try {
+					load();
+				} catch (RuntimeException re) {
+					severe("Reloading the journeys into memory failed due {0}", re.getMessage());
+				}
+			});
+		}
+	}
+
+	/**
+	 * Adds a journey to the recent tier, if it departs at or after the cutoff.
+	 *
+	 * The recent tier has to contain every history journey departing at or after
+	 * the cutoff. If the journey cannot be kept in memory, its month and the
+	 * older months are demoted to the history.
+	 *
+	 * @param journey The journey already added to the history.
+	 * @return True, if and only if the journey was added to the recent tier.
+	 */
+	protected synchronized boolean addRecentJourney(Journey journey) {
+		Object departure = journey.getProperty(START_TIME_PROPERTY);
+		if (!(departure instanceof Date) || ((Date) departure).getTime() < cutoff) {
+			return false;
+		}
+		YearMonth month = monthOf(((Date) departure).getTime());
+		try {
+			months.computeIfAbsent(month,
+					(YearMonth key) -> new ColumnarJourneys(ColumnarJourneys.DEFAULT_CAPACITY, stationNames))
+					.addJourney(journey);
+		} catch (IllegalArgumentException iae) {
+			months.headMap(month, true).clear();
+			cutoff = Math.max(cutoff, startOf(month.plusMonths(1)));
+			recent = null;
+			severe("Journey {0} was not kept in memory due {1}, and the months until {2} were demoted to the history",
+					journey, iae.getMessage(), month);
+			return false;
+		}
+		recent = null;
+		if (!demotionPending && needsDemotion()) {
+			demotionPending = true;
+			demotion.execute(this::demote);
+		}
+		return true;
+	}
+
+	/**
+	 * Does the recent tier exceed the number of months or the memory budget.
+	 *
+	 * @return True, if and only if the oldest month should be demoted.
+	 */
+	protected synchronized boolean needsDemotion() {
+		return months.size() > recentMonths || (!months.isEmpty() && getMemorySize() > memoryBudget);
+	}
+
+	/**
+	 * Demotes the oldest months to the history until the recent tier is within
+	 * the number of months and the memory budget.
+	 */
+	public void demote() {
+		List<YearMonth> demoted = new ArrayList<>();
+		synchronized (this) {
+			demotionPending = false;
+			while (needsDemotion()) {
+				Map.Entry<YearMonth, ColumnarJourneys> oldest = months.pollFirstEntry();
+				// The history already contains the journeys of the month.
+				cutoff = Math.max(cutoff, startOf(oldest.getKey().plusMonths(1)));
+				demoted.add(oldest.getKey());
+				recent = null;
+			}
+		}
+		if (!demoted.isEmpty()) {
+			journeysChanged();
+			info("Demoted journeys of months {0} to the history", demoted);
+		}
+	}
+
+	/**
+	 * The current snapshot of the recent tier.
+	 *
+	 * If the history has changed since the recent tier was aligned with it, the
+	 * recent tier is reloaded in the background, and the snapshot is empty.
+	 *
+	 * @return The snapshot of the journeys kept in memory.
+	 */
+	protected synchronized RecentJourneys getRecent() {
+		if (alignedVersion == UNALIGNED || alignedVersion != history.getVersion()) {
+			reload();
+			return new RecentJourneys(Collections.emptyList(), stationNames, cutoff);
+		}
+		if (recent == null) {
+			recent = new RecentJourneys(new ArrayList<>(months.descendingMap().values()), stationNames, cutoff);
+		}
+		return recent;
+	}
+
+	/**
+	 * The data set version of the journeys.
+	 *
+	 * The version changes whenever either tier changes.
+	 */
+	@Override
+	public long getVersion() {
+		return super.getVersion() + history.getVersion();
+	}
+
+	@Override
+	public int getJourneyCount() {
+		return history.getJourneyCount();
+	}
+
+	/**
+	 * Adds a journey to the history and the recent tier.
+	 *
+	 * The recent tier stays aligned with the history only if adding the journey
+	 * was the only change of the history. Otherwise the recent tier is reloaded.
+	 */
+	@Override
+	public boolean addJourney(Journey journey) throws IllegalArgumentException {
+		if (journey == null) {
+			return false;
+		}
+		long version = history.getVersion();
+		if (!history.addJourney(journey)) {
+			return false;
+		}
+		synchronized (this) {
+			if (alignedVersion == version && history.getVersion() == version + 1) {
+				addRecentJourney(journey);
+				alignedVersion = version + 1;
+			}
+		}
+		journeysChanged();
+		return true;
+	}
+
+	/**
+	 * The filters of the history journeys older than the recent tier.
+	 *
+	 * @param filters The filters of the query.
+	 * @param cutoff  The start of the recent tier.
+	 * @return The filters with the departure before the cutoff.
+	 */
+	protected static List<JourneyQuery.Filter> historyFilters(List<JourneyQuery.Filter> filters, long cutoff) {
+		List<JourneyQuery.Filter> result = new ArrayList<>(filters);
+		result.add(new JourneyQuery.Filter(START_TIME_PROPERTY, JourneyQuery.Operator.LT, new Date(cutoff)));
+		return result;
+	}
+
+	/**
+	 * The cursor of a position.
+	 *
+	 * @param position The query of the position with an empty page at the
+	 *                 position.
+	 * @param snapshot The current snapshot of the recent tier.
+	 * @return The cursor of the position, or undefined value, if the position has
+	 *         no cursor merged from the snapshot.
+	 */
+	protected MergeCursor cursorOf(JourneyQuery position, RecentJourneys snapshot) {
+		synchronized (cursors) {
+			MergeCursor result = cursors.get(position);
+			return (result == null || result.snapshot != snapshot ? null : result);
+		}
+	}
+
+	/**
+	 * Remembers the cursor of a position.
+	 *
+	 * @param position The query of the position with an empty page at the
+	 *                 position.
+	 * @param cursor   The cursor of the position.
+	 */
+	protected void rememberCursor(JourneyQuery position, MergeCursor cursor) {
+		synchronized (cursors) {
+			cursors.put(position, cursor);
+		}
+	}
+
+	@Override
+	public Journey getJourney(int index) {
+		List<Journey> result = (index < 0 ? Collections.emptyList() : getJourneys(index, index + 1));
+		return (result.isEmpty() ? null : result.get(0));
+	}
+
+	@Override
+	public List<Journey> getJourneys(int startIndex, int endIndex) {
+		RecentJourneys snapshot = getRecent();
+		int count = snapshot.getJourneyCount();
+		int start = Math.max(0, startIndex);
+		if (count == 0) {
+			return history.getJourneys(start, endIndex);
+		}
+		List<Journey> result = new ArrayList<>();
+		if (start < count) {
+			result.addAll(snapshot.getJourneys(NATURAL_ORDER, start, Math.min(endIndex, count)));
+		}
+		if (endIndex > Math.max(start, count) && snapshot.cutoff != Long.MIN_VALUE) {
+			// The recent tier contains every history journey from the cutoff on.
+			JourneyQuery historyQuery = new JourneyQuery(historyFilters(Collections.emptyList(), snapshot.cutoff),
+					null, Math.max(start, count) - count, endIndex - count);
+			MergeCursor cursor = (start > count ? cursorOf(new JourneyQuery(start, start), snapshot) : null);
+			List<Journey> historyJourneys = (cursor == null ? history.getJourneys(historyQuery)
+					: history.getJourneysAfter(historyQuery.withPage(0, endIndex - start), cursor.lastHistory));
+			if (!historyJourneys.isEmpty()) {
+				int end = Math.max(start, count) + historyJourneys.size();
+				rememberCursor(new JourneyQuery(end, end),
+						new MergeCursor(snapshot, count, historyJourneys.get(historyJourneys.size() - 1)));
+			}
+			result.addAll(historyJourneys);
+		}
+		return result;
+	}
+
+	/**
+	 * The tier of the journeys passing the departure time filters.
+	 *
+	 * @param filters The filters.
+	 * @param cutoff  The start of the recent tier.
+	 * @return Negative value, if only the history journeys pass the filters,
+	 *         positive value, if only the recent journeys pass the filters, and
+	 *         zero, if both tiers have to be queried.
+	 */
+	protected static int tierOf(List<JourneyQuery.Filter> filters, long cutoff) {
+		long time;
+		for (JourneyQuery.Filter filter : filters) {
+			if (START_TIME_PROPERTY.equals(filter.getProperty()) && filter.getValue() instanceof Date) {
+				time = ((Date) filter.getValue()).getTime();
+				switch (filter.getOperator()) {
+				case EQ:
+					return (time < cutoff ? -1 : 1);
+				case GE:
+				case GT:
+					if (time >= cutoff) {
+						return 1;
+					}
+					break;
+				case LT:
+					if (time <= cutoff) {
+						return -1;
+					}
+					break;
+				case LE:
+					if (time < cutoff) {
+						return -1;
+					}
+					break;
+				default:
+				}
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * The sort keys of the recent tier ordering the journeys as the history
+	 * does.
+	 *
+	 * @param sortKeys The sort keys of the query.
+	 * @return The sort keys with the tie breaking journey identifier.
+	 */
+	protected static List<SortKey> recentOrder(List<SortKey> sortKeys) {
+		if (sortKeys.isEmpty()) {
+			return NATURAL_ORDER;
+		}
+		List<SortKey> result = new ArrayList<>(sortKeys);
+		result.add(new SortKey(ID_PROPERTY));
+		return new JourneyQuery(null, result, 0, 0).getSortKeys();
+	}
+
+	/**
+	 * Is a query sorted by a station name.
+	 *
+	 * @param sortKeys The sort keys of the query.
+	 * @return True, if and only if a sort key is a station name property.
+	 */
+	protected static boolean hasStringKey(List<SortKey> sortKeys) {
+		return sortKeys.stream().anyMatch((SortKey key) -> STRING_PROPERTIES.contains(key.getProperty()));
+	}
+
+	/**
+	 * The number of the recent journeys ordered before or equal to a journey.
+	 *
+	 * @param journey  The journey.
+	 * @param snapshot The snapshot of the recent tier.
+	 * @param indexes  The indexes of the recent journeys in the merged order.
+	 * @param order    The merged order.
+	 * @return The number of the recent journeys not ordered after the journey.
+	 */
+	private static int countNotAfter(Journey journey, RecentJourneys snapshot, int[] indexes,
+			Comparator<Journey> order) {
+		int low = 0, high = indexes.length, middle;
+		while (low < high) {
+			middle = (low + high) >>> 1;
+			if (order.compare(snapshot.getJourney(indexes[middle]), journey) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * The number of the history journeys before a position of the merged order.
+	 *
+	 * The history journey of an offset is at the offset plus the number of the
+	 * recent journeys not ordered after it. The positions increase with the
+	 * offset, so the offset is searched by fetching single history journeys. The
+	 * offset is searched only for the pages not continuing from a cursor.
+	 *
+	 * @param position     The position of the merged order.
+	 * @param historyQuery The query of the history journeys before the recent
+	 *                     tier.
+	 * @param snapshot     The snapshot of the recent tier.
+	 * @param indexes      The indexes of the recent journeys in the merged order.
+	 * @param order        The merged order.
+	 * @return The number of the history journeys before the position.
+	 */
+	protected int historyOffsetOf(int position, JourneyQuery historyQuery, RecentJourneys snapshot, int[] indexes,
+			Comparator<Journey> order) {
+		int low = Math.max(0, position - indexes.length), high = position, middle;
+		List<Journey> probe;
+		while (low < high) {
+			middle = (low + high) >>> 1;
+			probe = history.getJourneys(historyQuery.withPage(middle, middle + 1));
+			if (!probe.isEmpty() && middle + countNotAfter(probe.get(0), snapshot, indexes, order) < position) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public List<Journey> getJourneys(JourneyQuery query) throws IllegalArgumentException {
+		if (query.getFilters().isEmpty() && query.getSortKeys().isEmpty()) {
+			// The natural order is split by the index.
+			return getJourneys(query.getStartIndex(), query.getEndIndex());
+		}
+		RecentJourneys snapshot = getRecent();
+		int tier = (snapshot.getJourneyCount() == 0 ? -1
+				: (snapshot.cutoff == Long.MIN_VALUE ? 1 : tierOf(query.getFilters(), snapshot.cutoff)));
+		if (tier < 0 || (tier == 0 && hasStringKey(query.getSortKeys()))) {
+			// The history contains the journeys of both tiers.
+			return history.getJourneys(query);
+		}
+		JourneyQuery recentQuery = new JourneyQuery(query.getFilters(), recentOrder(query.getSortKeys()),
+				query.getStartIndex(), query.getEndIndex());
+		if (tier > 0) {
+			return snapshot.getJourneys(recentQuery);
+		}
+		// The page merges the windows of both tiers starting at the number of
+		// their journeys before the page.
+		int[] indexes = snapshot.getSorter().indexesOf(recentQuery.withPage(0, Integer.MAX_VALUE));
+		Comparator<Journey> order = orderOf(recentOrder(query.getSortKeys()));
+		JourneyQuery historyQuery = new JourneyQuery(historyFilters(query.getFilters(), snapshot.cutoff),
+				query.getSortKeys(), 0, 0);
+		int size = query.getEndIndex() - query.getStartIndex();
+		int historyIndex, recentIndex;
+		Journey lastHistory = null;
+		List<Journey> historyJourneys;
+		MergeCursor cursor = cursorOf(query.withPage(query.getStartIndex(), query.getStartIndex()), snapshot);
+		boolean known = (cursor != null);
+		if (known) {
+			// The page continues an earlier page.
+			recentIndex = cursor.recentIndex;
+			lastHistory = cursor.lastHistory;
+			historyJourneys = history.getJourneysAfter(historyQuery.withPage(0, size), lastHistory);
+		} else {
+			historyIndex = historyOffsetOf(query.getStartIndex(), historyQuery, snapshot, indexes, order);
+			recentIndex = query.getStartIndex() - historyIndex;
+			historyJourneys = history.getJourneys(historyQuery.withPage(historyIndex, historyIndex + size));
+			known = (historyIndex == 0);
+		}
+		List<Journey> result = new ArrayList<>(size);
+		Journey next;
+		historyIndex = 0;
+		while (result.size() < size && (recentIndex < indexes.length || historyIndex < historyJourneys.size())) {
+			next = (recentIndex < indexes.length ? snapshot.getJourney(indexes[recentIndex]) : null);
+			if (next != null && (historyIndex >= historyJourneys.size()
+					|| order.compare(next, historyJourneys.get(historyIndex)) <= 0)) {
+				recentIndex++;
+			} else {
+				next = historyJourneys.get(historyIndex++);
+			}
+			result.add(next);
+		}
+		if (historyIndex > 0) {
+			lastHistory = historyJourneys.get(historyIndex - 1);
+			known = true;
+		}
+		if (known) {
+			// The next page continues from the end of the page.
+			int end = query.getStartIndex() + result.size();
+			rememberCursor(query.withPage(end, end), new MergeCursor(snapshot, recentIndex, lastHistory));
+		}
+		return result;
+	}
+
+	/**
+	 * Stops the demotions. The history is not closed.
+	 */
+	@Override
+	public void close() {
+		demotion.shutdownNow();
+	}
+}
@@ -0,0 +1,435 @@
+package solita.helsinkicitybikeapp.model.db;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.metrics.Counter;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
+import solita.helsinkicitybikeapp.model.JourneyQuery;
+import solita.helsinkicitybikeapp.model.Journeys;
+
+/**
+ * The asynchronous read access to the database journeys.
+ *
+ * The queries are executed by a bounded number of query threads, at most one
+ * per pooled connection, and waiting queries are queued into a bounded queue.
+ * A query rejected by the full queue completes with
+ * {@link RejectedExecutionException}.
+ *
+ * Each request completes with {@link java.util.concurrent.TimeoutException},
+ * if it does not complete within its timeout. Identical queries in flight are
+ * executed once, and their result is shared by all requests. When every
+ * request of a query has timed out or has been cancelled, the running
+ * statement of the query is cancelled.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class AsyncJourneys implements Closeable, Logging.MessageLogging {
+
+	/**
+	 * The default timeout of the requests in milliseconds.
+	 */
+	public static final long DEFAULT_TIMEOUT = 10000L;
+
+	/**
+	 * The default maximum number of queued queries.
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+	/**
+	 * The number of requests sharing the result of an identical query in flight.
+	 */
+	private static final Counter COALESCED_REQUESTS = MetricsRegistry.getDefault()
+			.counter("db_async_requests_total", "The number of asynchronous journey requests.", "result", "coalesced");
+
+	/**
+	 * The number of requests rejected by the full queue.
+	 */
+	private static final Counter REJECTED_REQUESTS = MetricsRegistry.getDefault()
+			.counter("db_async_requests_total", "The number of asynchronous journey requests.", "result", "rejected");
+
+	/**
+	 * The number of requests timed out.
+	 */
+	private static final Counter TIMED_OUT_REQUESTS = MetricsRegistry.getDefault()
+			.counter("db_async_requests_total", "The number of asynchronous journey requests.", "result", "timeout");
+
+	/**
+	 * The number of queries whose running statement was cancelled.
+	 */
+	private static final Counter CANCELLED_QUERIES = MetricsRegistry.getDefault()
+			.counter("db_async_queries_cancelled_total", "The number of cancelled asynchronous journey queries.");
+
+	/**
+	 * The database query reporting its running statement.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 * @param <R> The type of the result.
+	 */
+	@FunctionalInterface
+	protected static interface Query<R> {
+
+		/**
+		 * Executes the query.
+		 *
+		 * @param running The consumer informed of the statement before it is
+		 *                executed.
+		 * @return The result of the query.
+		 * @throws SQLException The query failed.
+		 */
+		public R execute(Consumer<Statement> running) throws SQLException;
+	}
+
+	/**
+	 * The execution of a query shared by the identical requests.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 * @param <R> The type of the result.
+	 */
+	private static class Execution<R> implements Runnable {
+
+		/**
+		 * The executed query.
+		 */
+		private final Query<R> query;
+
+		/**
+		 * The result of the query.
+		 */
+		private final CompletableFuture<R> result = new CompletableFuture<>();
+
+		/**
+		 * The number of requests waiting for the result.
+		 */
+		private final AtomicInteger waiting = new AtomicInteger();
+
+		/**
+		 * The running statement of the query.
+		 */
+		private volatile Statement running = null;
+
+		/**
+		 * The task of the query executor.
+		 */
+		private volatile Future<?> task = null;
+
+		/**
+		 * Creates a new execution of a query.
+		 *
+		 * @param query The executed query.
+		 */
+		private Execution(Query<R> query) {
+			this.query = query;
+		}
+
+		/**
+		 * Sets the running statement, and cancels it, if the execution was
+		 * cancelled meanwhile.
+		 *
+		 * @param statement The running statement.
+		 */
+		private void setRunning(Statement statement) {
+			this.running = statement;
+			if (result.isCancelled()) {
+				cancelStatement();
+			}
+		}
+
+		/**
+		 * Cancels the running statement.
+		 */
+		private void cancelStatement() {
+			Statement statement = running;
+			if (statement != null) {
+				try {
+					statement.cancel();
+					CANCELLED_QUERIES.increment();
+				} catch (SQLException e) {
+					// The statement has already completed.
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			if (result.isDone()) {
+				// The execution was cancelled while queued.
+				return;
+			}
+			try {
+				result.complete(query.execute(this::setRunning));
+			} catch (SQLException | RuntimeException e) {
+				result.completeExceptionally(e);
+			} finally {
+				running = null;
+			}
+		}
+	}
+
+	/**
+	 * The queried journeys.
+	 */
+	private final DatabaseJourneys journeys;
+
+	/**
+	 * The executor of the queries.
+	 */
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * The default timeout of the requests in milliseconds.
+	 */
+	private final long timeout;
+
+	/**
+	 * The executions in flight by their query keys.
+	 */
+	private final ConcurrentMap<List<Object>, Execution<?>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates the asynchronous access to the journeys with a query thread for
+	 * each pooled connection.
+	 *
+	 * @param journeys The queried journeys using a connection pool.
+	 * @throws IllegalArgumentException The journeys did not use a connection
+	 *                                  pool.
+	 */
+	public AsyncJourneys(DatabaseJourneys journeys) throws IllegalArgumentException {
+		this(journeys, journeys.getConnectionPool() == null ? 1 : journeys.getConnectionPool().getMaxSize(),
+				DEFAULT_QUEUE_CAPACITY, DEFAULT_TIMEOUT);
+	}
+
+	/**
+	 * Creates the asynchronous access to the journeys.
+	 *
+	 * @param journeys      The queried journeys.
+	 * @param threads       The maximum number of concurrently executed queries.
+	 * @param queueCapacity The maximum number of queued queries.
+	 * @param timeout       The default timeout of the requests in milliseconds.
+	 * @throws IllegalArgumentException The number of threads, the queue capacity
+	 *                                  or the timeout was not positive.
+	 * @throws NullPointerException     The journeys was undefined.
+	 */
+	public AsyncJourneys(DatabaseJourneys journeys, int threads, int queueCapacity, long timeout)
+			throws IllegalArgumentException, NullPointerException {
+		if (threads <= 0 || queueCapacity <= 0 || timeout <= 0) {
+			throw new IllegalArgumentException("Threads, queue capacity and timeout must be positive");
+		}
+		this.journeys = java.util.Objects.requireNonNull(journeys, "Undefined journeys");
+		this.timeout = timeout;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), (Runnable task) -> {
+					Thread result = new Thread(task, "journeys-query-" + threadCount.incrementAndGet());
+					result.setDaemon(true);
+					return result;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * The queried journeys.
+	 *
+	 * @return The database journeys.
+	 */
+	public DatabaseJourneys getJourneys() {
+		return journeys;
+	}
+
+	/**
+	 * The default timeout of the requests.
+	 *
+	 * @return The default timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Requests the result of a query.
+	 *
+	 * @param <R>     The type of the result.
+	 * @param key     The key identifying identical queries.
+	 * @param timeout The timeout of the request in milliseconds.
+	 * @param query   The query.
+	 * @return The future result of the request.
+	 */
+	@SuppressWarnings("unchecked")
+	protected <R> CompletableFuture<R> submit(List<Object> key, long timeout, Query<R> query) {
+		Execution<R> execution = null;
+		Execution<R> created;
+		while (execution == null) {
+			created = new Execution<>(query);
+			execution = (Execution<R>) inFlight.putIfAbsent(key, created);
+			if (execution == null) {
+				execution = created;
+				execution.waiting.incrementAndGet();
+				start(key, execution);
+			} else if (execution.waiting.incrementAndGet() == 1 || execution.result.isCancelled()) {
+				// The abandoned execution is being removed.
+				inFlight.remove(key, execution);
+				execution = null;
+			} else {
+				COALESCED_REQUESTS.increment();
+			}
+		}
+		Execution<R> shared = execution;
+		CompletableFuture<R> result = new CompletableFuture<>();
+		shared.result.whenComplete((R value, Throwable failure) -> {
+			if (failure == null) {
+				result.complete(value);
+			} else {
+				result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+						? failure.getCause()
+						: failure);
+			}
+		});
+		result.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((R value, Throwable failure) -> {
+			if (failure instanceof java.util.concurrent.TimeoutException) {
+				TIMED_OUT_REQUESTS.increment();
+			}
+			if (failure != null && !shared.result.isDone() && shared.waiting.decrementAndGet() == 0) {
+				// Nobody waits for the result.
+				shared.result.cancel(false);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Starts the execution of a query.
+	 *
+	 * @param <R>       The type of the result.
+	 * @param key       The key of the query.
+	 * @param execution The started execution.
+	 */
+	private <R> void start(List<Object> key, Execution<R> execution) {
+		execution.result.whenComplete((R value, Throwable failure) -> {
+			inFlight.remove(key, execution);
+			if (failure instanceof CancellationException) {
+				execution.cancelStatement();
+				Future<?> task = execution.task;
+				if (task != null) {
+					// The queued query does not occupy the queue.
+					task.cancel(false);
+					executor.purge();
+				}
+			}
+		});
+		try {
+			execution.task = executor.submit(execution);
+		} catch (RejectedExecutionException ree) {
+			REJECTED_REQUESTS.increment();
+			execution.result.completeExceptionally(ree);
+		}
+	}
+
+	/**
+	 * Requests the page of journeys listed by the query.
+	 *
+	 * @param query The query.
+	 * @return The future list of the journeys of the page.
+	 */
+	public CompletableFuture<List<Journeys.Journey>> getJourneys(JourneyQuery query) {
+		return getJourneys(query, timeout);
+	}
+
+	/**
+	 * Requests the page of journeys listed by the query.
+	 *
+	 * @param query   The query.
+	 * @param timeout The timeout of the request in milliseconds.
+	 * @return The future list of the journeys of the page.
+	 */
+	public CompletableFuture<List<Journeys.Journey>> getJourneys(JourneyQuery query, long timeout) {
+		return submit(Arrays.asList("journeys", query, journeys.getVersion()), timeout,
+				(Consumer<Statement> running) -> journeys.queryJourneys(query, running));
+	}
+
+	/**
+	 * Requests the result of reading the rows of the page of journeys listed by
+	 * the query.
+	 *
+	 * The identical queries with the same reader share the result, so the result
+	 * must not be altered by the requesters.
+	 *
+	 * @param <R>    The type of the result.
+	 * @param query  The query.
+	 * @param reader The reader of the journey rows.
+	 * @return The future result of the reader, which is undefined, if there is no
+	 *         database.
+	 */
+	public <R> CompletableFuture<R> fetchJourneys(JourneyQuery query, DatabaseJourneys.ResultSetReader<R> reader) {
+		return submit(Arrays.asList("fetch", query, reader, journeys.getVersion()), timeout,
+				(Consumer<Statement> running) -> {
+					try {
+						return journeys.fetchJourneys(query, reader, running);
+					} catch (java.io.IOException e) {
+						throw new java.io.UncheckedIOException(e);
+					}
+				});
+	}
+
+	/**
+	 * Requests a continuous range of journeys.
+	 *
+	 * @param startIndex The first fetched journey.
+	 * @param endIndex   The first index not belonging to the returned journeys.
+	 * @return The future list of the journeys within given bounds.
+	 */
+	public CompletableFuture<List<Journeys.Journey>> getJourneys(int startIndex, int endIndex) {
+		return submit(Arrays.asList("range", startIndex, endIndex, journeys.getVersion()), timeout,
+				(Consumer<Statement> running) -> journeys.queryJourneys(startIndex, endIndex, running));
+	}
+
+	/**
+	 * Requests the journey at the given index.
+	 *
+	 * @param index The index of the journey.
+	 * @return The future journey, which is undefined, if no such journey exists.
+	 */
+	public CompletableFuture<Journeys.Journey> getJourney(int index) {
+		return submit(Arrays.asList("journey", index, journeys.getVersion()), timeout,
+				(Consumer<Statement> running) -> journeys.queryJourney(index, running));
+	}
+
+	/**
+	 * Requests the number of journeys.
+	 *
+	 * @return The future number of journeys.
+	 */
+	public CompletableFuture<Integer> getJourneyCount() {
+		return submit(Arrays.asList("count", journeys.getVersion()), timeout,
+				(Consumer<Statement> running) -> journeys.queryJourneyCount(running));
+	}
+
+	/**
+	 * Stops the query threads. The queued queries are cancelled.
+	 */
+	@Override
+	public void close() {
+		executor.shutdown();
+		for (Execution<?> execution : inFlight.values()) {
+			execution.result.cancel(false);
+		}
+	}
+}
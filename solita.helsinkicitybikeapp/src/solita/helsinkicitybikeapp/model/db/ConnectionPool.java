@@ -0,0 +1,947 @@
+package solita.helsinkicitybikeapp.model.db;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.metrics.Counter;
+import solita.helsinkicitybikeapp.metrics.Histogram;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
+
+/**
+ * The pool of database connections.
+ *
+ * The borrowed connections are returned into the pool by closing them. A
+ * connection idle for longer than {@value #VALIDATION_INTERVAL} milliseconds is
+ * validated before it is borrowed, and the connections idle for longer than the
+ * idle timeout are closed as long as the pool has more than the minimum number
+ * of connections. A connection borrowed for longer than the leak detection
+ * threshold is reported with the stack trace of its borrower.
+ *
+ * Each connection caches its prepared statements by their SQL. Closing a
+ * cached statement returns it into the cache of its connection.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class ConnectionPool implements Closeable, Logging.MessageLogging {
+
+	/**
+	 * The property name of the minimum number of connections.
+	 */
+	public static final String MIN_SIZE_PROPERTY_NAME = "pool.min";
+
+	/**
+	 * The property name of the maximum number of connections.
+	 */
+	public static final String MAX_SIZE_PROPERTY_NAME = "pool.max";
+
+	/**
+	 * The property name of the idle timeout in milliseconds.
+	 */
+	public static final String IDLE_TIMEOUT_PROPERTY_NAME = "pool.idle.timeout";
+
+	/**
+	 * The property name of the maximum time waiting for a connection in
+	 * milliseconds.
+	 */
+	public static final String BORROW_TIMEOUT_PROPERTY_NAME = "pool.borrow.timeout";
+
+	/**
+	 * The property name of the validation timeout in seconds.
+	 */
+	public static final String VALIDATION_TIMEOUT_PROPERTY_NAME = "pool.validation.timeout";
+
+	/**
+	 * The property name of the leak detection threshold in milliseconds.
+	 */
+	public static final String LEAK_THRESHOLD_PROPERTY_NAME = "pool.leak.threshold";
+
+	/**
+	 * The property name of the number of cached statements of a connection.
+	 */
+	public static final String STATEMENT_CACHE_SIZE_PROPERTY_NAME = "pool.statement.cache";
+
+	/**
+	 * The default minimum number of connections.
+	 */
+	public static final int DEFAULT_MIN_SIZE = 1;
+
+	/**
+	 * The default maximum number of connections.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 10;
+
+	/**
+	 * The default idle timeout in milliseconds.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT = 10L * 60 * 1000;
+
+	/**
+	 * The default maximum time waiting for a connection in milliseconds.
+	 */
+	public static final long DEFAULT_BORROW_TIMEOUT = 30L * 1000;
+
+	/**
+	 * The default validation timeout in seconds.
+	 */
+	public static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+
+	/**
+	 * The default leak detection threshold. Zero disables the leak detection.
+	 */
+	public static final long DEFAULT_LEAK_THRESHOLD = 0L;
+
+	/**
+	 * The default number of cached statements of a connection.
+	 */
+	public static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+	/**
+	 * The prefix of the cache keys of the statements returning the generated
+	 * keys.
+	 */
+	private static final String GENERATED_KEYS_PREFIX = "\u0000keys:";
+
+	/**
+	 * The time in milliseconds a connection may be idle before it is validated
+	 * on borrowing.
+	 */
+	public static final long VALIDATION_INTERVAL = 1000L;
+
+	/**
+	 * The time waited for a connection.
+	 */
+	private static final Histogram BORROW_DURATION = MetricsRegistry.getDefault()
+			.timer("db_pool_borrow_duration_seconds", "The time waited for a pooled connection.");
+
+	/**
+	 * The number of opened connections.
+	 */
+	private static final Counter CREATED_CONNECTIONS = MetricsRegistry.getDefault()
+			.counter("db_pool_connections_created_total", "The number of opened pooled connections.");
+
+	/**
+	 * The number of prepared statements served from the statement cache.
+	 */
+	private static final Counter STATEMENT_CACHE_HITS = MetricsRegistry.getDefault()
+			.counter("db_statement_cache_total", "The number of prepared statement requests.", "result", "hit");
+
+	/**
+	 * The number of prepared statements prepared by the database.
+	 */
+	private static final Counter STATEMENT_CACHE_MISSES = MetricsRegistry.getDefault()
+			.counter("db_statement_cache_total", "The number of prepared statement requests.", "result", "miss");
+
+	/**
+	 * The factory of the database connections.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	public static interface ConnectionFactory {
+
+		/**
+		 * Opens a new database connection.
+		 *
+		 * @return The opened connection.
+		 * @throws SQLException The connection failed.
+		 */
+		public Connection connect() throws SQLException;
+	}
+
+	/**
+	 * The connection with a prepared statement cache.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static class CachingConnection implements InvocationHandler {
+
+		/**
+		 * The database connection.
+		 */
+		private final Connection target;
+
+		/**
+		 * The maximum number of cached statements.
+		 */
+		private final int cacheSize;
+
+		/**
+		 * The idle cached statements by their SQL in the order of their use.
+		 */
+		private final LinkedHashMap<String, Deque<PreparedStatement>> statements = new LinkedHashMap<>(16, 0.75f,
+				true);
+
+		/**
+		 * The number of idle cached statements.
+		 */
+		private int cachedCount = 0;
+
+		/**
+		 * The pool of the connection, or undefined value, if the connection is
+		 * shared.
+		 */
+		private final ConnectionPool pool;
+
+		/**
+		 * The proxy of the connection.
+		 */
+		private final Connection proxy;
+
+		/**
+		 * The time of the last return or borrowing of the connection.
+		 */
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		/**
+		 * The stack trace of the borrower of the connection.
+		 */
+		private volatile Throwable borrower = null;
+
+		/**
+		 * Has the leak of the connection been reported.
+		 */
+		private volatile boolean leakReported = false;
+
+		/**
+		 * Is the connection borrowed.
+		 */
+		private boolean borrowed = false;
+
+		/**
+		 * Creates a new caching connection.
+		 *
+		 * @param target    The database connection.
+		 * @param cacheSize The maximum number of cached statements.
+		 * @param pool      The pool of the connection, or undefined value, if the
+		 *                  connection is shared.
+		 */
+		private CachingConnection(Connection target, int cacheSize, ConnectionPool pool) {
+			this.target = target;
+			this.cacheSize = cacheSize;
+			this.pool = pool;
+			this.proxy = (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, this);
+		}
+
+		/**
+		 * Gets a prepared statement from the cache, or prepares a new statement.
+		 *
+		 * @param sql               The SQL of the statement.
+		 * @param autoGeneratedKeys Does the statement return the generated keys.
+		 * @return The proxy of the prepared statement.
+		 * @throws SQLException The preparing failed.
+		 */
+		private PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+			// The statements returning the generated keys are cached apart from the others.
+			boolean generatedKeys = (autoGeneratedKeys == java.sql.Statement.RETURN_GENERATED_KEYS);
+			String key = (generatedKeys ? GENERATED_KEYS_PREFIX + sql : sql);
+			PreparedStatement statement = null;
+			synchronized (this) {
+				Deque<PreparedStatement> idle = statements.get(key);
+				if (idle != null && !idle.isEmpty()) {
+					statement = idle.pop();
+					cachedCount--;
+				}
+			}
+			if (statement == null) {
+				STATEMENT_CACHE_MISSES.increment();
+				statement = (generatedKeys ? target.prepareStatement(sql, autoGeneratedKeys)
+						: target.prepareStatement(sql));
+			} else {
+				STATEMENT_CACHE_HITS.increment();
+			}
+			return new CachedStatement(this, key, statement).proxy;
+		}
+
+		/**
+		 * Returns a statement into the cache.
+		 *
+		 * @param sql       The SQL of the statement.
+		 * @param statement The returned statement.
+		 */
+		private void release(String sql, PreparedStatement statement) {
+			PreparedStatement evicted = null;
+			try {
+				statement.clearParameters();
+			} catch (SQLException e) {
+				evicted = statement;
+				statement = null;
+			}
+			if (statement != null) {
+				synchronized (this) {
+					if (cacheSize > 0) {
+						statements.computeIfAbsent(sql, (String key) -> new ArrayDeque<>()).push(statement);
+						cachedCount++;
+						if (cachedCount > cacheSize) {
+							// Evicting a statement of the least recently used SQL.
+							Map.Entry<String, Deque<PreparedStatement>> eldest = statements.entrySet().iterator()
+									.next();
+							evicted = eldest.getValue().pollLast();
+							cachedCount--;
+							if (eldest.getValue().isEmpty()) {
+								statements.remove(eldest.getKey());
+							}
+						}
+					} else {
+						evicted = statement;
+					}
+				}
+			}
+			closeQuietly(evicted);
+		}
+
+		/**
+		 * Closes the cached statements.
+		 */
+		private void clearStatements() {
+			java.util.List<PreparedStatement> closed = new java.util.ArrayList<>();
+			synchronized (this) {
+				statements.values().forEach(closed::addAll);
+				statements.clear();
+				cachedCount = 0;
+			}
+			closed.forEach(CachingConnection::closeQuietly);
+		}
+
+		/**
+		 * Closes a statement ignoring the failures.
+		 *
+		 * @param statement The closed statement.
+		 */
+		private static void closeQuietly(AutoCloseable statement) {
+			if (statement != null) {
+				try {
+					statement.close();
+				} catch (Exception e) {
+					// The closing failure does not matter.
+				}
+			}
+		}
+
+		/**
+		 * Closes the database connection and its statements.
+		 */
+		private void destroy() {
+			clearStatements();
+			closeQuietly(target);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (pool != null) {
+					pool.release(this);
+				}
+				return null;
+			case "isClosed":
+				if (pool != null) {
+					synchronized (this) {
+						if (!borrowed) {
+							return true;
+						}
+					}
+				}
+				break;
+			case "prepareStatement":
+				if (args != null && args.length == 1) {
+					return prepareStatement((String) args[0], java.sql.Statement.NO_GENERATED_KEYS);
+				} else if (args != null && args.length == 2 && args[1] instanceof Integer) {
+					return prepareStatement((String) args[0], (Integer) args[1]);
+				}
+				break;
+			case "unwrap":
+				if (args[0] == Connection.class) {
+					return target;
+				}
+				break;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled " + target.toString();
+			default:
+			}
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ite) {
+				throw ite.getCause();
+			}
+		}
+	}
+
+	/**
+	 * The prepared statement returned into the cache of its connection on
+	 * closing.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static class CachedStatement implements InvocationHandler {
+
+		/**
+		 * The connection of the statement.
+		 */
+		private final CachingConnection connection;
+
+		/**
+		 * The SQL of the statement.
+		 */
+		private final String sql;
+
+		/**
+		 * The prepared statement.
+		 */
+		private final PreparedStatement target;
+
+		/**
+		 * The proxy of the statement.
+		 */
+		private final PreparedStatement proxy;
+
+		/**
+		 * Is the statement closed.
+		 */
+		private boolean closed = false;
+
+		/**
+		 * Creates a new cached statement.
+		 *
+		 * @param connection The connection of the statement.
+		 * @param sql        The SQL of the statement.
+		 * @param target     The prepared statement.
+		 */
+		private CachedStatement(CachingConnection connection, String sql, PreparedStatement target) {
+			this.connection = connection;
+			this.sql = sql;
+			this.target = target;
+			this.proxy = (PreparedStatement) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				synchronized (this) {
+					if (closed) {
+						return null;
+					}
+					closed = true;
+				}
+				connection.release(sql, target);
+				return null;
+			case "isClosed":
+				synchronized (this) {
+					if (closed) {
+						return true;
+					}
+				}
+				break;
+			case "cancel":
+				// The statement is not returned into the cache while it is being
+				// cancelled, thus the cancel never affects the next user.
+				synchronized (this) {
+					if (!closed) {
+						target.cancel();
+					}
+				}
+				return null;
+			case "getConnection":
+				return connection.proxy;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Cached " + target.toString();
+			default:
+				synchronized (this) {
+					if (closed) {
+						throw new SQLException("Statement closed");
+					}
+				}
+			}
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException ite) {
+				throw ite.getCause();
+			}
+		}
+	}
+
+	/**
+	 * Shares a connection with a prepared statement cache.
+	 *
+	 * Closing the returned connection does not close the shared connection, thus
+	 * the returned connection can be used like a pooled connection.
+	 *
+	 * @param connection The shared connection.
+	 * @param cacheSize  The maximum number of cached statements.
+	 * @return The connection caching its prepared statements.
+	 */
+	public static Connection share(Connection connection, int cacheSize) {
+		return new CachingConnection(connection, cacheSize, null).proxy;
+	}
+
+	/**
+	 * The factory of the connections.
+	 */
+	private final ConnectionFactory factory;
+
+	/**
+	 * The minimum number of connections.
+	 */
+	private final int minSize;
+
+	/**
+	 * The maximum number of connections.
+	 */
+	private final int maxSize;
+
+	/**
+	 * The idle timeout in milliseconds.
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * The maximum time waiting for a connection in milliseconds.
+	 */
+	private final long borrowTimeout;
+
+	/**
+	 * The validation timeout in seconds.
+	 */
+	private final int validationTimeout;
+
+	/**
+	 * The leak detection threshold in milliseconds.
+	 */
+	private final long leakThreshold;
+
+	/**
+	 * The number of cached statements of a connection.
+	 */
+	private final int statementCacheSize;
+
+	/**
+	 * The lock guarding the state of the pool.
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The condition signaled when a connection is returned, or a connection slot
+	 * becomes free.
+	 */
+	private final Condition available = lock.newCondition();
+
+	/**
+	 * The idle connections with the most recently used first.
+	 */
+	private final Deque<CachingConnection> idle = new ArrayDeque<>();
+
+	/**
+	 * The borrowed connections.
+	 */
+	private final Set<CachingConnection> borrowed = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * The number of open or opening connections.
+	 */
+	private int size = 0;
+
+	/**
+	 * Is the pool closed.
+	 */
+	private boolean closed = false;
+
+	/**
+	 * The maintenance thread closing the idle connections and reporting the
+	 * leaks.
+	 */
+	private final java.util.concurrent.ScheduledExecutorService maintenance;
+
+	/**
+	 * Creates a new connection pool with settings of the given properties.
+	 *
+	 * The settings missing from the properties use the default values.
+	 *
+	 * @param factory  The factory of the connections.
+	 * @param settings The properties containing the pool settings.
+	 * @throws IllegalArgumentException A setting was invalid.
+	 */
+	public ConnectionPool(ConnectionFactory factory, Properties settings) throws IllegalArgumentException {
+		this(factory, (int) getLong(settings, MIN_SIZE_PROPERTY_NAME, DEFAULT_MIN_SIZE),
+				(int) getLong(settings, MAX_SIZE_PROPERTY_NAME, DEFAULT_MAX_SIZE),
+				getLong(settings, IDLE_TIMEOUT_PROPERTY_NAME, DEFAULT_IDLE_TIMEOUT),
+				getLong(settings, BORROW_TIMEOUT_PROPERTY_NAME, DEFAULT_BORROW_TIMEOUT),
+				(int) getLong(settings, VALIDATION_TIMEOUT_PROPERTY_NAME, DEFAULT_VALIDATION_TIMEOUT),
+				getLong(settings, LEAK_THRESHOLD_PROPERTY_NAME, DEFAULT_LEAK_THRESHOLD),
+				(int) getLong(settings, STATEMENT_CACHE_SIZE_PROPERTY_NAME, DEFAULT_STATEMENT_CACHE_SIZE));
+	}
+
+	/**
+	 * Creates a new connection pool.
+	 *
+	 * @param factory            The factory of the connections.
+	 * @param minSize            The minimum number of connections.
+	 * @param maxSize            The maximum number of connections.
+	 * @param idleTimeout        The idle timeout in milliseconds.
+	 * @param borrowTimeout      The maximum time waiting for a connection in
+	 *                           milliseconds.
+	 * @param validationTimeout  The validation timeout in seconds.
+	 * @param leakThreshold      The leak detection threshold in milliseconds.
+	 *                           Zero disables the leak detection.
+	 * @param statementCacheSize The number of cached statements of a connection.
+	 * @throws IllegalArgumentException A setting was invalid.
+	 * @throws NullPointerException     The factory was undefined.
+	 */
+	public ConnectionPool(ConnectionFactory factory, int minSize, int maxSize, long idleTimeout, long borrowTimeout,
+			int validationTimeout, long leakThreshold, int statementCacheSize)
+			throws IllegalArgumentException, NullPointerException {
+		if (minSize < 0 || maxSize <= 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size");
+		} else if (idleTimeout <= 0 || borrowTimeout < 0 || validationTimeout < 0 || leakThreshold < 0
+				|| statementCacheSize < 0) {
+			throw new IllegalArgumentException("Invalid pool timeout or cache size");
+		}
+		this.factory = java.util.Objects.requireNonNull(factory, "Undefined connection factory");
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.borrowTimeout = borrowTimeout;
+		this.validationTimeout = validationTimeout;
+		this.leakThreshold = leakThreshold;
+		this.statementCacheSize = statementCacheSize;
+		this.maintenance = java.util.concurrent.Executors.newSingleThreadScheduledExecutor((Runnable task) -> {
+			Thread result = new Thread(task, "connection-pool-maintenance");
+			result.setDaemon(true);
+			return result;
+		});
+		long period = Math.max(100, Math.min(idleTimeout, leakThreshold > 0 ? leakThreshold : idleTimeout) / 2);
+		this.maintenance.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The long integer value of a setting.
+	 *
+	 * @param settings     The settings.
+	 * @param name         The name of the setting.
+	 * @param defaultValue The value of a missing setting.
+	 * @return The value of the setting.
+	 * @throws IllegalArgumentException The setting was not an integer.
+	 */
+	private static long getLong(Properties settings, String name, long defaultValue)
+			throws IllegalArgumentException {
+		String value = (settings == null ? null : settings.getProperty(name));
+		if (value == null || value.isBlank()) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid value of pool setting " + name, nfe);
+		}
+	}
+
+	/**
+	 * Borrows a connection from the pool.
+	 *
+	 * The connection is returned into the pool by closing it.
+	 *
+	 * @return The borrowed connection.
+	 * @throws SQLException The pool was closed, no connection became available
+	 *                      within the borrow timeout, or the opening of a new
+	 *                      connection failed.
+	 */
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime(), deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeout);
+		CachingConnection result = null;
+		boolean create;
+		while (result == null) {
+			create = false;
+			lock.lock();
+			try {
+				while (!closed && idle.isEmpty() && size >= maxSize) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						throw new SQLException(
+								format("No connection available within {0} milliseconds", borrowTimeout));
+					}
+					available.awaitNanos(remaining);
+				}
+				if (closed) {
+					throw new SQLException("Connection pool closed");
+				} else if (!idle.isEmpty()) {
+					result = idle.pop();
+				} else {
+					size++;
+					create = true;
+				}
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection", ie);
+			} finally {
+				lock.unlock();
+			}
+			if (create) {
+				result = open();
+			} else if (System.currentTimeMillis() - result.lastUsed > VALIDATION_INTERVAL && !isValid(result)) {
+				// The connection is no longer usable.
+				discard(result);
+				result = null;
+			}
+		}
+		synchronized (result) {
+			result.borrowed = true;
+		}
+		result.lastUsed = System.currentTimeMillis();
+		result.leakReported = false;
+		result.borrower = (leakThreshold > 0 ? new Throwable("Connection borrowed") : null);
+		borrowed.add(result);
+		BORROW_DURATION.recordNanosSince(start);
+		return result.proxy;
+	}
+
+	/**
+	 * Opens a new connection into a reserved slot.
+	 *
+	 * @return The opened connection.
+	 * @throws SQLException The opening failed.
+	 */
+	private CachingConnection open() throws SQLException {
+		try {
+			CachingConnection result = new CachingConnection(factory.connect(), statementCacheSize, this);
+			CREATED_CONNECTIONS.increment();
+			return result;
+		} catch (SQLException | RuntimeException e) {
+			lock.lock();
+			try {
+				size--;
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Tests the validity of a connection.
+	 *
+	 * @param connection The tested connection.
+	 * @return True, if and only if the connection is valid.
+	 */
+	private boolean isValid(CachingConnection connection) {
+		try {
+			return connection.target.isValid(validationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Closes a connection freeing its slot.
+	 *
+	 * @param connection The closed connection.
+	 */
+	private void discard(CachingConnection connection) {
+		connection.destroy();
+		lock.lock();
+		try {
+			size--;
+			available.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a borrowed connection into the pool.
+	 *
+	 * The transaction left open by the borrower is rolled back.
+	 *
+	 * @param connection The returned connection.
+	 */
+	private void release(CachingConnection connection) {
+		synchronized (connection) {
+			if (!connection.borrowed) {
+				// The connection was already returned.
+				return;
+			}
+			connection.borrowed = false;
+		}
+		borrowed.remove(connection);
+		connection.borrower = null;
+		boolean reusable;
+		try {
+			if (!connection.target.getAutoCommit()) {
+				connection.target.rollback();
+				connection.target.setAutoCommit(true);
+			}
+			reusable = !connection.target.isClosed();
+		} catch (SQLException e) {
+			reusable = false;
+		}
+		if (!reusable) {
+			discard(connection);
+			return;
+		}
+		connection.lastUsed = System.currentTimeMillis();
+		lock.lock();
+		try {
+			if (!closed) {
+				idle.push(connection);
+				available.signal();
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		discard(connection);
+	}
+
+	/**
+	 * Closes the expired idle connections, opens the minimum number of
+	 * connections, and reports the leaked connections.
+	 */
+	private void maintain() {
+		long now = System.currentTimeMillis();
+		java.util.List<CachingConnection> expired = new java.util.ArrayList<>();
+		int missing;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			// The least recently used connections are at the end.
+			while (size - expired.size() > minSize && !idle.isEmpty() && now - idle.peekLast().lastUsed > idleTimeout) {
+				expired.add(idle.pollLast());
+			}
+			missing = minSize - size + expired.size();
+			size += Math.max(0, missing);
+		} finally {
+			lock.unlock();
+		}
+		expired.forEach(this::discard);
+		for (int i = 0; i < missing; i++) {
+			try {
+				CachingConnection connection = open();
+				connection.borrowed = true;
+				release(connection);
+			} catch (SQLException | RuntimeException e) {
+				severe("Opening a pooled connection failed: {0}", e.getMessage());
+				// The remaining slots are freed.
+				lock.lock();
+				try {
+					size -= missing - i - 1;
+				} finally {
+					lock.unlock();
+				}
+				break;
+			}
+		}
+		if (leakThreshold > 0) {
+			for (CachingConnection connection : borrowed) {
+				Throwable borrower = connection.borrower;
+				if (borrower != null && !connection.leakReported && now - connection.lastUsed > leakThreshold) {
+					connection.leakReported = true;
+					java.io.StringWriter trace = new java.io.StringWriter();
+					borrower.printStackTrace(new java.io.PrintWriter(trace));
+					severe("Connection borrowed for more than {0} milliseconds: {1}", leakThreshold, trace);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The maximum number of connections.
+	 *
+	 * @return The maximum number of the open connections.
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * The number of open connections.
+	 *
+	 * @return The number of the open connections including the borrowed ones.
+	 */
+	public int getSize() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of idle connections.
+	 *
+	 * @return The number of the connections waiting for borrowing.
+	 */
+	public int getIdleCount() {
+		lock.lock();
+		try {
+			return idle.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The number of borrowed connections.
+	 *
+	 * @return The number of the connections not yet returned.
+	 */
+	public int getBorrowedCount() {
+		return borrowed.size();
+	}
+
+	/**
+	 * Closes the pool and its idle connections.
+	 *
+	 * The borrowed connections are closed when they are returned.
+	 */
+	@Override
+	public void close() {
+		java.util.List<CachingConnection> closing;
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			closing = new java.util.ArrayList<>(idle);
+			idle.clear();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		maintenance.shutdownNow();
+		closing.forEach(this::discard);
+	}
+}
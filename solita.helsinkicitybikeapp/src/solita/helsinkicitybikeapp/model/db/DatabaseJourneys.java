@@ -8,7 +8,15 @@ import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
+import solita.helsinkicitybikeapp.metrics.Histogram;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
+import solita.helsinkicitybikeapp.model.ColumnarJourneys;
+import solita.helsinkicitybikeapp.model.DemandCube;
+import solita.helsinkicitybikeapp.model.JourneyQuery;
+import solita.helsinkicitybikeapp.model.JourneyScanner;
+import solita.helsinkicitybikeapp.model.JourneySorter;
 import solita.helsinkicitybikeapp.model.Journeys;
 import solita.helsinkicitybikeapp.model.Journeys.Journey;
 
@@ -23,7 +31,7 @@ import solita.helsinkicitybikeapp.model.Journeys.Journey;
  * @author Antti Kautiainen
  *
  */
-public class DatabaseJourneys extends Journeys {
+public class DatabaseJourneys extends Journeys implements JourneyScanner {
 
 	/**
 	 * Database implementation of journeys.
@@ -45,8 +53,34 @@ public class DatabaseJourneys extends Journeys {
 		}
 
 		public boolean initFromResultSet(ResultSet dbRow) throws IllegalArgumentException, SQLException {
-			for (String property : DatabaseJourneys.this.getJourneyIntegerProperties()) {
-				this.setProperty(property, dbRow.getInt(getDBFieldName(property)));
+			java.sql.ResultSetMetaData meta = dbRow.getMetaData();
+			java.util.Set<String> columns = new java.util.TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+			for (int i = 1, len = meta.getColumnCount(); i <= len; i++) {
+				columns.add(meta.getColumnLabel(i));
+			}
+			String field;
+			Object value;
+			for (String property : DatabaseJourneys.this.getJourneyPropertyNames()) {
+				field = getDBFieldName(property);
+				if (field == null || !columns.contains(field)) {
+					// The result does not contain the property.
+					continue;
+				}
+				if (isDateProperty(property)) {
+					Timestamp time = dbRow.getTimestamp(field);
+					value = (time == null ? null : new java.util.Date(time.getTime()));
+				} else if (isIntegerProperty(property)) {
+					int number = dbRow.getInt(field);
+					value = (dbRow.wasNull() ? null : number);
+				} else {
+					value = dbRow.getString(field);
+				}
+				// The database content is valid by its constraints.
+				if (value == null) {
+					this.properties().remove(property);
+				} else {
+					this.properties().put(property, value);
+				}
 			}
 			setAltered(false); 
 			return true;
@@ -105,22 +139,198 @@ public class DatabaseJourneys extends Journeys {
 	 */
 	private java.sql.Connection journeysDB = null;
 
+	/**
+	 * The pool of the connections to the Journeys database.
+	 */
+	private ConnectionPool pool = null;
+
 	/**
 	 * The connection to the database.
 	 * 
-	 * @return The database connection storing the journeys.
+	 * @return The shared database connection storing the journeys, or undefined
+	 *         value, if the journeys use a connection pool.
 	 */
 	protected java.sql.Connection getConnection() {
 		return this.journeysDB;
 	}
 
+	/**
+	 * The pool of the database connections.
+	 * 
+	 * @return The connection pool, or undefined value, if the journeys use a
+	 *         shared connection.
+	 */
+	public ConnectionPool getConnectionPool() {
+		return this.pool;
+	}
+
+	/**
+	 * Opens a connection to the database.
+	 * 
+	 * The returned connection must be closed after use. Closing returns a pooled
+	 * connection into the pool, and does nothing to the shared connection.
+	 * 
+	 * @return The database connection, or undefined value, if there is no
+	 *         database.
+	 * @throws SQLException The connection could not be borrowed from the pool.
+	 */
+	protected java.sql.Connection openConnection() throws SQLException {
+		java.sql.Connection result = (this.pool == null ? this.journeysDB : this.pool.getConnection());
+		if (result != null && this.dialect == null) {
+			this.dialect = SQLDialect.of(result);
+		}
+		return result;
+	}
+
+	/**
+	 * The router of the reads to the read replicas, or undefined value, if all
+	 * reads use the primary database.
+	 */
+	private volatile ReplicaRouter replicaRouter = null;
+
+	/**
+	 * The router of the reads to the read replicas.
+	 * 
+	 * @return The replica router, or undefined value, if all reads use the
+	 *         primary database.
+	 */
+	public ReplicaRouter getReplicaRouter() {
+		return this.replicaRouter;
+	}
+
+	/**
+	 * Sets the router of the reads to the read replicas. The insertions and the
+	 * data set version always use the primary database.
+	 * 
+	 * @param router The replica router, or undefined value to read from the
+	 *               primary database.
+	 */
+	public void setReplicaRouter(ReplicaRouter router) {
+		this.replicaRouter = router;
+	}
+
+	/**
+	 * Opens a connection for reading journeys or stations.
+	 * 
+	 * The read uses an eligible replica not behind the last data set version read
+	 * from the primary database. Without an eligible replica the read uses the
+	 * primary database.
+	 * 
+	 * @return The database connection, which must be closed after use, or
+	 *         undefined value, if there is no database.
+	 * @throws SQLException The connection could not be borrowed from the pool.
+	 */
+	protected java.sql.Connection openReadConnection() throws SQLException {
+		ReplicaRouter router = this.replicaRouter;
+		if (router != null) {
+			long version;
+			synchronized (this) {
+				version = this.databaseVersion;
+			}
+			java.sql.Connection result = router.getReadConnection(version);
+			if (result != null) {
+				return result;
+			}
+		}
+		return openConnection();
+	}
+
+	/**
+	 * The SQL dialect of the database, or undefined value, if no connection has
+	 * been opened.
+	 */
+	private volatile SQLDialect dialect = null;
+
+	/**
+	 * The SQL dialect of the database.
+	 * 
+	 * @return The dialect of the database. Until the first connection is opened,
+	 *         the PostgreSQL dialect is assumed.
+	 */
+	public SQLDialect getDialect() {
+		SQLDialect result = this.dialect;
+		return (result == null ? SQLDialect.POSTGRESQL : result);
+	}
+
+	/**
+	 * The latency of the journey insertions.
+	 */
+	private static final Histogram INSERT_DURATION = MetricsRegistry.getDefault().timer("db_insert_duration_seconds",
+			"The duration of the journey insertions.", "table", "journeys");
+
+	/**
+	 * The latency of the batched journey insertions into the staging tables.
+	 */
+	private static final Histogram STAGED_INSERT_DURATION = MetricsRegistry.getDefault()
+			.timer("db_insert_duration_seconds", "The duration of the journey insertions.", "table", "staging");
+
+	/**
+	 * The latency of the journey page queries.
+	 */
+	private static final Histogram JOURNEYS_QUERY_DURATION = queryTimer("journeys");
+
+	/**
+	 * The latency of the single journey queries.
+	 */
+	private static final Histogram JOURNEY_QUERY_DURATION = queryTimer("journey");
+
+	/**
+	 * The latency of the journey count queries.
+	 */
+	private static final Histogram COUNT_QUERY_DURATION = queryTimer("count");
+
+	/**
+	 * The latency of the data set version queries.
+	 */
+	private static final Histogram VERSION_QUERY_DURATION = queryTimer("version");
+
+	/**
+	 * The latency of the station queries.
+	 */
+	private static final Histogram STATIONS_QUERY_DURATION = queryTimer("stations");
+
+	/**
+	 * The number of journeys fetched by the journey page queries.
+	 */
+	private static final Histogram JOURNEYS_BATCH_SIZE = MetricsRegistry.getDefault().histogram("db_batch_rows",
+			"The number of rows fetched or stored by a database operation.", 1.0, "operation", "journeys");
+
+	/**
+	 * The number of journeys stored by the batched insertions into the staging
+	 * tables.
+	 */
+	private static final Histogram STAGED_BATCH_SIZE = MetricsRegistry.getDefault().histogram("db_batch_rows",
+			"The number of rows fetched or stored by a database operation.", 1.0, "operation", "staged");
+
+	/**
+	 * Creates the latency histogram of a query.
+	 *
+	 * @param operation The query operation.
+	 * @return The histogram of the query durations.
+	 */
+	private static Histogram queryTimer(String operation) {
+		return MetricsRegistry.getDefault().timer("db_query_duration_seconds", "The duration of the database queries.",
+				"operation", operation);
+	}
+
 	/**
 	 * Creates a new collection of journeys from database connection.
 	 * 
 	 * @param db The database connection used to get the journey data.
 	 */
 	public DatabaseJourneys(java.sql.Connection db) {
-		this.journeysDB = db;
+		this.journeysDB = (db == null ? null
+				: ConnectionPool.share(db, ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE));
+	}
+
+	/**
+	 * Creates a new collection of journeys from database connection pool.
+	 * 
+	 * @param pool The pool of the database connections used to get the journey
+	 *             data.
+	 */
+	public DatabaseJourneys(ConnectionPool pool) {
+		this.pool = pool;
 	}
 
 	/**
@@ -152,13 +362,36 @@ public class DatabaseJourneys extends Journeys {
 		JOURNEY_DB_FIELD_NAMES = Collections.unmodifiableMap(fieldNames);
 	}
 
+	/**
+	 * The languages of the station names in the journey listing.
+	 */
+	public static final List<String> LISTING_LANGUAGES = Collections.unmodifiableList(Arrays.asList("fi", "sv", "en"));
+
+	/**
+	 * The field names of the journey property names in the language of the
+	 * program.
+	 */
+	private java.util.Map<String, String> localizedFieldNames = null;
+
 	/**
 	 * The field names of the journey property names.
 	 * 
+	 * The station names are read in the language of the program, if the journey
+	 * listing has the language, and in the default language of the station
+	 * otherwise.
+	 * 
 	 * @return The mapping from journey property names to the database field names.
 	 */
 	public java.util.Map<String, String> fieldNames() {
-		return JOURNEY_DB_FIELD_NAMES;
+		if (localizedFieldNames == null) {
+			java.util.Map<String, String> result = new java.util.TreeMap<>(JOURNEY_DB_FIELD_NAMES);
+			if (LISTING_LANGUAGES.contains(getLanguage())) {
+				result.put(START_LOCATION_NAME_PROPERTY, "departure_station_name_" + getLanguage());
+				result.put(END_LOCATION_NAME_PROPERTY, "arrival_station_name_" + getLanguage());
+			}
+			localizedFieldNames = Collections.unmodifiableMap(result);
+		}
+		return localizedFieldNames;
 	}
 
 	/**
@@ -171,11 +404,50 @@ public class DatabaseJourneys extends Journeys {
 		return this.fieldNames().get(journeyPropertyName);
 	}
 
+	/**
+	 * The default table of the added journeys.
+	 */
+	public static final String DEFAULT_TABLE_NAME = "journeys";
+
+	/**
+	 * The journey properties inserted into the journeys table in the order of the
+	 * insert query parameters.
+	 */
+	protected static final List<String> INSERTED_PROPERTIES = Collections
+			.unmodifiableList(Arrays.asList(START_TIME_PROPERTY, END_TIME_PROPERTY, START_LOCATION_ID_PROPERTY,
+					END_LOCATION_ID_PROPERTY, DURATION_PROPERTY, DISTANCE_PROPERTY));
+
+	/**
+	 * The table the journeys are added to.
+	 */
+	private String targetTableName = DEFAULT_TABLE_NAME;
+
 	/**
 	 * The stored SQL query.
 	 */
 	private String insertJourneySQLQuery = null;
 
+	/**
+	 * The table the journeys are added to.
+	 * 
+	 * @return The name of the table receiving the added journeys.
+	 */
+	public String getTargetTableName() {
+		return this.targetTableName;
+	}
+
+	/**
+	 * Sets the table the journeys are added to. The staging tables of the
+	 * partitioned loading receive the journeys instead of the journeys table.
+	 * 
+	 * @param tableName The name of the table. An undefined name restores the
+	 *                  default table.
+	 */
+	public synchronized void setTargetTableName(String tableName) {
+		this.targetTableName = (tableName == null ? DEFAULT_TABLE_NAME : tableName);
+		forgetAddJourneySQLQuery();
+	}
+
 	/**
 	 * The SQL query string for query inserting new journey.
 	 * 
@@ -192,9 +464,208 @@ public class DatabaseJourneys extends Journeys {
 	 * @return The string of SQL query for adding journey.
 	 */
 	protected String composeAddJourneySQLQuery() {
-		return "INSERT INTO journeys(jid, departure_time, arrival_time"
-				+ ", departure_station_id, arrival_station_id, duration, distance,"
-				+ ", departure_station_name, arrival_station_name" + ") VALUES(?,?,?,?,?,?,?,?,?)" + " RETURNING jid";
+		StringBuilder fields = new StringBuilder(), parameters = new StringBuilder();
+		for (String property : INSERTED_PROPERTIES) {
+			if (fields.length() > 0) {
+				fields.append(", ");
+				parameters.append(',');
+			}
+			fields.append(getFieldName(property));
+			parameters.append('?');
+		}
+		return "INSERT INTO " + getTargetTableName() + "(" + fields + ") VALUES(" + parameters + ")"
+				+ (getDialect().supportsReturning() ? " RETURNING jid" : "");
+	}
+
+	/**
+	 * Is the target table a staging table.
+	 * 
+	 * @return True, if and only if the journeys are added to a staging table
+	 *         instead of the journeys table.
+	 */
+	public boolean isStaging() {
+		return !DEFAULT_TABLE_NAME.equals(getTargetTableName());
+	}
+
+	/**
+	 * The number of journeys inserted into a staging table with a single batch.
+	 */
+	public static final int STAGING_BATCH_SIZE = 1000;
+
+	/**
+	 * The writer of the journeys into the target staging table.
+	 * 
+	 * The journeys are inserted in batches with a single connection. The station
+	 * names are not checked, as the foreign keys of the staging table are
+	 * validated before the staging table is attached to the journeys table. The
+	 * staged journeys do not change the data set version until they are attached.
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public class StagedJourneyWriter implements AutoCloseable {
+
+		/**
+		 * The connection of the writer.
+		 */
+		private final java.sql.Connection db;
+
+		/**
+		 * The batched insert statement.
+		 */
+		private final PreparedStatement insert;
+
+		/**
+		 * The number of journeys in the current batch.
+		 */
+		private int batchSize = 0;
+
+		/**
+		 * Creates a new writer of the target staging table.
+		 * 
+		 * @throws SQLException The preparing of the insert statement failed.
+		 */
+		private StagedJourneyWriter() throws SQLException {
+			this.db = openConnection();
+			if (db == null) {
+				throw new SQLException("No database");
+			}
+			StringBuilder fields = new StringBuilder(), parameters = new StringBuilder();
+			for (String property : INSERTED_PROPERTIES) {
+				if (fields.length() > 0) {
+					fields.append(", ");
+					parameters.append(',');
+				}
+				fields.append(getFieldName(property));
+				parameters.append('?');
+			}
+			try {
+				this.insert = db.prepareStatement(
+						"INSERT INTO " + getTargetTableName() + "(" + fields + ") VALUES(" + parameters + ")");
+			} catch (SQLException e) {
+				db.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Adds a journey from its typed property values. The undefined values are
+		 * {@link ColumnarJourneys#UNDEFINED_TIME} and
+		 * {@link ColumnarJourneys#UNDEFINED_INT}. The journey identifier and the
+		 * station names are not stored.
+		 * 
+		 * @param id             The journey identifier.
+		 * @param startTime      The departure time in milliseconds since epoch.
+		 * @param endTime        The return time in milliseconds since epoch.
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @param startName      The departure station name.
+		 * @param endName        The return station name.
+		 * @param distance       The covered distance.
+		 * @param duration       The duration.
+		 * @return Always true, as the journey is added to the batch.
+		 * @throws IllegalStateException The writing of a full batch failed.
+		 */
+		public boolean addJourney(int id, long startTime, long endTime, int startStationId, int endStationId,
+				String startName, String endName, int distance, int duration) throws IllegalStateException {
+			try {
+				setTime(1, startTime);
+				setTime(2, endTime);
+				setInt(3, startStationId);
+				setInt(4, endStationId);
+				setInt(5, duration);
+				setInt(6, distance);
+				insert.addBatch();
+				if (++batchSize >= STAGING_BATCH_SIZE) {
+					flush();
+				}
+				return true;
+			} catch (SQLException e) {
+				throw new IllegalStateException(severe("Staging journeys failed due {0}", e.getMessage()), e);
+			}
+		}
+
+		/**
+		 * Sets a time parameter.
+		 * 
+		 * @param index The parameter index.
+		 * @param time  The time in milliseconds since epoch, or
+		 *              {@link ColumnarJourneys#UNDEFINED_TIME}.
+		 * @throws SQLException The setting failed.
+		 */
+		private void setTime(int index, long time) throws SQLException {
+			if (time == ColumnarJourneys.UNDEFINED_TIME) {
+				insert.setNull(index, java.sql.Types.TIMESTAMP);
+			} else {
+				insert.setTimestamp(index, new Timestamp(time));
+			}
+		}
+
+		/**
+		 * Sets an integer parameter.
+		 * 
+		 * @param index The parameter index.
+		 * @param value The value, or {@link ColumnarJourneys#UNDEFINED_INT}.
+		 * @throws SQLException The setting failed.
+		 */
+		private void setInt(int index, int value) throws SQLException {
+			if (value == ColumnarJourneys.UNDEFINED_INT) {
+				insert.setNull(index, java.sql.Types.INTEGER);
+			} else {
+				insert.setInt(index, value);
+			}
+		}
+
+		/**
+		 * Writes the current batch.
+		 * 
+		 * @throws SQLException The writing failed.
+		 */
+		public void flush() throws SQLException {
+			if (batchSize > 0) {
+				long start = System.nanoTime();
+				try {
+					insert.executeBatch();
+					STAGED_INSERT_DURATION.recordNanosSince(start);
+					STAGED_BATCH_SIZE.record(batchSize);
+				} finally {
+					// A failed batch is not retried.
+					batchSize = 0;
+				}
+			}
+		}
+
+		/**
+		 * Writes the last batch and releases the connection.
+		 * 
+		 * @throws SQLException The writing failed.
+		 */
+		@Override
+		public void close() throws SQLException {
+			try {
+				flush();
+			} finally {
+				try {
+					insert.close();
+				} finally {
+					db.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a writer of the journeys into the target staging table.
+	 * 
+	 * @return The writer inserting the journeys in batches.
+	 * @throws IllegalStateException The target table is not a staging table.
+	 * @throws SQLException          The opening of the writer failed.
+	 */
+	public StagedJourneyWriter openStagedJourneyWriter() throws IllegalStateException, SQLException {
+		if (!isStaging()) {
+			throw new IllegalStateException("The journeys are not staged");
+		}
+		return new StagedJourneyWriter();
 	}
 
 	/**
@@ -207,61 +678,74 @@ public class DatabaseJourneys extends Journeys {
 
 	@Override
 	public boolean addJourney(Journeys.Journey journey) throws IllegalArgumentException {
-		java.sql.Connection db = getConnection();
-		if (db != null) {
-			if (insertJourneySQLQuery == null) {
-				insertJourneySQLQuery = composeAddJourneySQLQuery();
+		try (java.sql.Connection db = openConnection()) {
+			if (db == null) {
+				// Without database the journey cannot be added.
+				return false;
 			}
-			try {
-				String locationName, idProperty, nameProperty;
-				Integer locationId;
-				for (String locationProperty : Arrays.asList("start", "end")) {
-					idProperty = locationProperty + ".location.id"; 
-					nameProperty = locationProperty + ".location.name"; 
-					locationId = (Integer) journey.getProperty(idProperty);
-					locationName = (String) journey.getProperty(nameProperty);
-					if (!checkStationName(getLanguage(), locationId, locationName)) {
-						// The station is erroneous.
-						throw new IllegalArgumentException(
-								this.severe("The {0]={1} with {2} {3} does not exist", 
-										idProperty, locationId, 
-										nameProperty, locationName));
-					}
+			String insertJourneySQLQuery;
+			synchronized (this) {
+				// The query depends on the dialect known after opening the connection.
+				if (this.insertJourneySQLQuery == null) {
+					this.insertJourneySQLQuery = composeAddJourneySQLQuery();
+				}
+				insertJourneySQLQuery = this.insertJourneySQLQuery;
+			}
+			boolean returning = getDialect().supportsReturning();
+			String locationName, idProperty, nameProperty;
+			Integer locationId;
+			// The foreign keys of a staging table are validated before it is attached.
+			for (String locationProperty : (isStaging() ? Collections.<String>emptyList()
+					: Arrays.asList("start", "end"))) {
+				idProperty = locationProperty + ".location.id"; 
+				nameProperty = locationProperty + ".location.name"; 
+				locationId = (Integer) journey.getProperty(idProperty);
+				locationName = (String) journey.getProperty(nameProperty);
+				if (locationId != null && !checkStationName(db, getLanguage(), locationId, locationName)) {
+					// The station is erroneous. The undefined station is allowed.
+					throw new IllegalArgumentException(
+							this.severe("The {0}={1} with {2} {3} does not exist", 
+									idProperty, locationId, 
+									nameProperty, locationName));
 				}
+			}
 
-				PreparedStatement pstmt = db.prepareStatement(insertJourneySQLQuery);
+			try (PreparedStatement pstmt = (returning ? db.prepareStatement(insertJourneySQLQuery)
+					: db.prepareStatement(insertJourneySQLQuery, Statement.RETURN_GENERATED_KEYS))) {
 				int index = 1;
-				for (String property : journey.getDateProperties()) {
-					if (getFieldName(property) != null)
-						pstmt.setTimestamp(index++,
-								new Timestamp(((java.util.Date) journey.getProperty(property)).getTime()));
-
-				}
-				for (String property : journey.getIntegerProperties()) {
-					if (getFieldName(property) != null)
-						pstmt.setInt(index++, (Integer) journey.getProperty(property));
+				Object value;
+				for (String property : INSERTED_PROPERTIES) {
+					value = journey.getProperty(property);
+					if (value == null) {
+						pstmt.setNull(index++, (START_TIME_PROPERTY.equals(property) || END_TIME_PROPERTY.equals(property)
+								? java.sql.Types.TIMESTAMP
+								: java.sql.Types.INTEGER));
+					} else {
+						setParameter(pstmt, index++, value);
+					}
 				}
-				for (String property : journey.getStringProperties()) {
-					if (getFieldName(property) != null)
-						pstmt.setString(index++, (String) journey.getProperty(property));
+				long start = System.nanoTime();
+				if (!returning) {
+					pstmt.executeUpdate();
 				}
-				pstmt.setString(index++, getLanguage());
-				ResultSet resultSet = pstmt.executeQuery();
-				if (resultSet.next()) {
-					// The operation succeeded.
-					Integer id = resultSet.getInt(1);
-					this.info("Journey {0} added to journeys with id {1}", journey.toString(),
-							journey.getProperty(ID_PROPERTY));
-					journey.setProperty(ID_PROPERTY, id);
-					return true;
-				} else {
-					// THe operation failed.
-					this.severe("Could not add journey {0}", journey.toString());
-					return false;
+				try (ResultSet resultSet = (returning ? pstmt.executeQuery() : pstmt.getGeneratedKeys())) {
+					INSERT_DURATION.recordNanosSince(start);
+					if (resultSet.next()) {
+						// The operation succeeded.
+						Integer id = resultSet.getInt(1);
+						journey.setProperty(ID_PROPERTY, id);
+						this.fine("Journey {0} added to journeys with id {1}", journey, id);
+						journeysChanged();
+						return true;
+					} else {
+						// THe operation failed.
+						this.severe("Could not add journey {0}", journey.toString());
+						return false;
+					}
 				}
-			} catch (SQLException e) {
-				this.severe("Adding a journey {0} failed due {1}", journey.toString(), e.getMessage());
 			}
+		} catch (SQLException e) {
+			this.severe("Adding a journey {0} failed due {1}", journey.toString(), e.getMessage());
 		}
 		// Default result is false.
 		return false;
@@ -299,28 +783,28 @@ public class DatabaseJourneys extends Journeys {
 	/**
 	 * Checks validity of the station name.
 	 * 
+	 * @param db        The database connection.
 	 * @param language  The language of the station name.
 	 * @param property  The station identifier number.
 	 * @param property2 The expected station name.
 	 * @return True, if and only if either the station id has given station name.
 	 */
-	private boolean checkStationName(String language, Object property, Object property2) {
-		java.sql.Connection db = getConnection();
-		if (db != null) {
-			try {
-				PreparedStatement stationNameQuery = db
-						.prepareStatement("SELECT station_name FROM station_names WHERE lang=? AND station_id=?");
+	private boolean checkStationName(java.sql.Connection db, String language, Object property, Object property2) {
+		if (db != null && property != null) {
+			try (PreparedStatement stationNameQuery = db
+					.prepareStatement("SELECT name FROM station_names WHERE lang=? AND station_id=?")) {
 				stationNameQuery.setString(1, language);
 				Integer stationId = (Integer) property;
 				String stationName = (String) property2;
 				stationNameQuery.setInt(2, stationId);
 
-				ResultSet result = stationNameQuery.executeQuery();
-				if (result != null && result.next()) {
-					// We have a station.
-					if ((stationName == null && result.getString(1) == null)
-							|| (stationName != null && stationName.equals(result.getString(1)))) {
-						return true;
+				try (ResultSet result = stationNameQuery.executeQuery()) {
+					if (result != null && result.next()) {
+						// We have a station.
+						if ((stationName == null && result.getString(1) == null)
+								|| (stationName != null && stationName.equals(result.getString(1)))) {
+							return true;
+						}
 					}
 				}
 			} catch (SQLException sqle) {
@@ -330,24 +814,61 @@ public class DatabaseJourneys extends Journeys {
 		return false;
 	}
 
-	@Override
-	public Journey getJourney(int index) {
-		java.sql.Connection db = getConnection();
-		if (db != null) {
-			try {
-				PreparedStatement stmt = db
-						.prepareStatement("SELECT jid, departure_station_id, arrival_station_id, duration, distance"
-								+ ", departure_time, arrival_time " + ", departure_station, arrival_station, lang"
-								+ " FROM journeys WHERE jid=?");
-				stmt.setInt(1, getRowIdOfIndex(index));
-				ResultSet resultSet = stmt.executeQuery();
+	/**
+	 * Queries the journey at the given index in the default order.
+	 * 
+	 * @param index   The index of the journey.
+	 * @param running The consumer informed of the statement before it is
+	 *                executed, or undefined value.
+	 * @return The journey, or undefined value, if no such journey exists.
+	 * @throws SQLException The query failed.
+	 */
+	protected Journey queryJourney(int index, Consumer<Statement> running) throws SQLException {
+		if (index < 0) {
+			return null;
+		}
+		try (java.sql.Connection db = openReadConnection();
+				PreparedStatement stmt = (db == null ? null
+						: db.prepareStatement(composeFetchJourneysQuery(null,
+								java.util.Collections.emptyList(), true)))) {
+			if (stmt == null) {
+				// There is no database.
+				return null;
+			}
+			stmt.setInt(1, index);
+			stmt.setInt(2, 1);
+			notifyRunning(running, stmt);
+			long start = System.nanoTime();
+			try (ResultSet resultSet = stmt.executeQuery()) {
+				JOURNEY_QUERY_DURATION.recordNanosSince(start);
 				if (resultSet.next()) {
 					// WE do have result.
-					this.addJourney(this.new DBJourney(resultSet));
+					return this.new DBJourney(resultSet);
 				} else {
 					// No such journey exists.
 					return null;
 				}
+			}
+		}
+	}
+
+	/**
+	 * Informs the consumer of the running statement.
+	 * 
+	 * @param running   The consumer, or undefined value.
+	 * @param statement The statement about to be executed.
+	 */
+	private static void notifyRunning(Consumer<Statement> running, Statement statement) {
+		if (running != null) {
+			running.accept(statement);
+		}
+	}
+
+	@Override
+	public Journey getJourney(int index) {
+		if (index >= 0) {
+			try {
+				return queryJourney(index, null);
 			} catch (SQLException e) {
 				this.severe("Getting a journey at row {0} failed due SQL Exception {1}", index, e.getMessage());
 				return null; 
@@ -361,6 +882,208 @@ public class DatabaseJourneys extends Journeys {
 		return null;
 	}
 
+	/**
+	 * Queries the number of journeys.
+	 * 
+	 * @param running The consumer informed of the statement before it is
+	 *                executed, or undefined value.
+	 * @return The number of journeys.
+	 * @throws SQLException The query failed.
+	 */
+	protected int queryJourneyCount(Consumer<Statement> running) throws SQLException {
+		long start = System.nanoTime();
+		try (java.sql.Connection db = openReadConnection();
+				PreparedStatement stmt = (db == null ? null
+						: db.prepareStatement("SELECT COUNT(*) FROM " + getJourneysListViewName()))) {
+			if (stmt != null) {
+				notifyRunning(running, stmt);
+				try (ResultSet result = stmt.executeQuery()) {
+					if (result.next()) {
+						return result.getInt(1);
+					}
+				}
+			}
+		} finally {
+			COUNT_QUERY_DURATION.recordNanosSince(start);
+		}
+		// The default is no journeys.
+		return 0;
+	}
+
+	@Override
+	public int getJourneyCount() {
+		try {
+			return queryJourneyCount(null);
+		} catch (SQLException e) {
+			this.severe("Counting journeys failed due {0}", e.getMessage());
+		}
+		// The default is no journeys.
+		return 0;
+	}
+
+	/**
+	 * The last data set version read from the database.
+	 */
+	private long databaseVersion = Long.MIN_VALUE;
+
+	/**
+	 * Refreshes the data set version from the database.
+	 *
+	 * The database increases its data set version whenever journeys or stations
+	 * change, including changes performed by other clients. If the database
+	 * version has changed since the last refresh, the journeys are marked
+	 * changed.
+	 *
+	 * @return The current data set version of the journeys.
+	 */
+	public long refreshVersion() {
+		long start = System.nanoTime();
+		try (java.sql.Connection db = openConnection()) {
+			if (db != null) {
+				try (PreparedStatement stmt = db.prepareStatement(SQLDialect.of(db).getVersionQuery());
+						ResultSet result = stmt.executeQuery()) {
+					VERSION_QUERY_DURATION.recordNanosSince(start);
+					if (result.next()) {
+						long version = result.getLong(1);
+						synchronized (this) {
+							if (version != databaseVersion) {
+								// The data set has changed.
+								if (databaseVersion != Long.MIN_VALUE) {
+									journeysChanged();
+								}
+								databaseVersion = version;
+							}
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			this.severe("Refreshing data set version failed due {0}", e.getMessage());
+		}
+		return getVersion();
+	}
+
+	/**
+	 * The name of the view listing the stations.
+	 *
+	 * @return The name of the station listing view.
+	 */
+	public String getStationsViewName() {
+		return "station_info";
+	}
+
+	/**
+	 * The reader of a result set.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 * @param <R> The type of the result.
+	 */
+	@FunctionalInterface
+	public static interface ResultSetReader<R> {
+
+		/**
+		 * Reads the result set.
+		 *
+		 * @param rows The read result set.
+		 * @return The result of reading.
+		 * @throws SQLException        The reading of the result set failed.
+		 * @throws java.io.IOException The handling of the read rows failed.
+		 */
+		public R read(ResultSet rows) throws SQLException, java.io.IOException;
+	}
+
+	/**
+	 * Fetches the stations ordered by station identifier.
+	 *
+	 * @param <R>    The type of the result.
+	 * @param reader The reader of the station rows.
+	 * @return The result of the reader, or undefined value, if there is no
+	 *         database.
+	 * @throws SQLException        The query failed.
+	 * @throws java.io.IOException The reader failed.
+	 */
+	public <R> R fetchStations(ResultSetReader<R> reader) throws SQLException, java.io.IOException {
+		long start = System.nanoTime();
+		try (java.sql.Connection db = openReadConnection()) {
+			if (db == null) {
+				return null;
+			}
+			try (PreparedStatement stmt = db
+					.prepareStatement("SELECT * FROM " + getStationsViewName() + " ORDER BY sid");
+					ResultSet rows = stmt.executeQuery()) {
+				return reader.read(rows);
+			}
+		} finally {
+			STATIONS_QUERY_DURATION.recordNanosSince(start);
+		}
+	}
+
+	/**
+	 * The fetch size of the cursor reading all journeys.
+	 */
+	private static final int CURSOR_FETCH_SIZE = 10000;
+
+	/**
+	 * Scans all journeys with a single pass of a cursor.
+	 * 
+	 * @param handler The handler of the journeys.
+	 * @return The current data set version of the scanned journeys.
+	 * @throws SQLException The query failed.
+	 */
+	@Override
+	public long scanJourneys(JourneyScanner.JourneyHandler handler) throws SQLException {
+		long version = refreshVersion();
+		try (java.sql.Connection db = openReadConnection()) {
+			if (db != null) {
+				boolean autoCommit = db.getAutoCommit();
+				// The PostgreSQL driver uses a cursor only within a transaction.
+				db.setAutoCommit(false);
+				try (PreparedStatement stmt = db.prepareStatement("SELECT departure_time, arrival_time, "
+						+ "departure_station_id, arrival_station_id, distance, duration FROM journeys")) {
+					stmt.setFetchSize(CURSOR_FETCH_SIZE);
+					try (ResultSet rows = stmt.executeQuery()) {
+						Timestamp departure, arrival;
+						int startId, endId, distance, duration;
+						while (rows.next()) {
+							departure = rows.getTimestamp(1);
+							arrival = rows.getTimestamp(2);
+							startId = rows.getInt(3);
+							startId = (rows.wasNull() ? -1 : startId);
+							endId = rows.getInt(4);
+							endId = (rows.wasNull() ? -1 : endId);
+							distance = rows.getInt(5);
+							distance = (rows.wasNull() ? ColumnarJourneys.UNDEFINED_INT : distance);
+							duration = rows.getInt(6);
+							duration = (rows.wasNull() ? ColumnarJourneys.UNDEFINED_INT : duration);
+							handler.handle(departure == null ? ColumnarJourneys.UNDEFINED_TIME : departure.getTime(),
+									arrival == null ? ColumnarJourneys.UNDEFINED_TIME : arrival.getTime(), startId,
+									endId, distance, duration);
+						}
+					}
+					db.commit();
+				} finally {
+					db.setAutoCommit(autoCommit);
+				}
+			}
+		}
+		return version;
+	}
+
+	/**
+	 * Builds the demand cube of all journeys with a single pass of a cursor.
+	 * 
+	 * @param zone The time zone of the weekdays and the hours of the day.
+	 * @return The demand cube of the journeys with the current data set version.
+	 *         Without database the cube is empty.
+	 * @throws SQLException The query failed.
+	 */
+	public DemandCube buildDemandCube(java.time.ZoneId zone) throws SQLException {
+		DemandCube result = new DemandCube(zone);
+		result.setVersion(scanJourneys(result::add));
+		return result;
+	}
+
 	/**
 	 * The row index of the given index.
 	 * 
@@ -369,23 +1092,26 @@ public class DatabaseJourneys extends Journeys {
 	 */
 	protected Integer getRowIdOfIndex(int index) {
 		if (index >= 0) {
-			java.sql.Connection db = getConnection();
-			if (db != null) {
-				try {
-					PreparedStatement pstmt = db.prepareStatement(
-							"SELECT row_id, jid FROM journeys_view ORDER BY departure_time DESC WHERE row_id=?");
-					pstmt.setInt(1, index + 1);
-					ResultSet result = pstmt.executeQuery();
+			try (java.sql.Connection db = openReadConnection();
+					PreparedStatement pstmt = (db == null ? null
+							: db.prepareStatement("SELECT jid FROM " + getJourneysListViewName() + " ORDER BY "
+									+ getDefaultOrder() + " OFFSET ? ROWS FETCH NEXT 1 ROWS ONLY"))) {
+				if (pstmt == null) {
+					// There is no database.
+					return null;
+				}
+				pstmt.setInt(1, index);
+				try (ResultSet result = pstmt.executeQuery()) {
 					if (result.next()) {
-						return result.getInt(2);
+						return result.getInt(1);
 					} else {
 						return null;
 					}
-				} catch (SQLException e) {
-					// Exception prevented answering the result.
-					this.severe("Fetching jid of row {0} failed due {1}", index, e.getMessage());
-					return null;
 				}
+			} catch (SQLException e) {
+				// Exception prevented answering the result.
+				this.severe("Fetching jid of row {0} failed due {1}", index, e.getMessage());
+				return null;
 			}
 		}
 		// The default is null.
@@ -437,7 +1163,18 @@ public class DatabaseJourneys extends Journeys {
 	 * @return The current view used to fetch journeys. 
 	 */
 	protected String getJourneysViewName() {
-		return "journeys_view"; 
+		return "journeys_info"; 
+	}
+
+	/**
+	 * The table used to list journeys. The denormalized journey listing carries
+	 * the station names and the durations of the journeys, thus the list queries
+	 * are index scans of a single table.
+	 * 
+	 * @return The table used to list the journeys of queries.
+	 */
+	protected String getJourneysListViewName() {
+		return "journey_listing";
 	}
 	
 	/**
@@ -459,7 +1196,7 @@ public class DatabaseJourneys extends Journeys {
 		StringBuilder result = new StringBuilder("SELECT * FROM ");
 		result.append(this.getJourneysViewName()); 
 		if (numberOfIndexes > 0) {
-			result.append("WHERE ");
+			result.append(" WHERE ");
 			String operatorString = " " + operator + " ";
 			int i = 0;
 			if (rangeQuery) {
@@ -484,40 +1221,407 @@ public class DatabaseJourneys extends Journeys {
 		return result.toString();
 	}
 
-	private String fetchJourneysSQLQuery = "SELECT * FROM journeys_view ORDER BY departure_time DESC WHERE row_id>=? AND row_id <?";
+	private String fetchJourneysSQLQuery = null;
 
+	/**
+	 * The query fetching a range of journeys in the default order.
+	 * 
+	 * The query has two parameters: the number of skipped journeys, and the
+	 * maximum number of fetched journeys.
+	 * 
+	 * @return The prepared SQL query string fetching range of journeys.
+	 */
 	protected String getFetchJourneysSQLQuery() {
+		if (this.fetchJourneysSQLQuery == null) {
+			this.fetchJourneysSQLQuery = "SELECT * FROM " + getJourneysListViewName() + " ORDER BY "
+					+ getDefaultOrder() + " OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
+		}
 		return this.fetchJourneysSQLQuery;
 	}
 
+	/**
+	 * The default order of the journeys.
+	 * 
+	 * @return The SQL order by clause content of the natural order of the
+	 *         journeys.
+	 */
+	protected String getDefaultOrder() {
+		return "departure_time DESC, jid ASC";
+	}
+
+	/**
+	 * The sort keys of the default order of the journeys.
+	 * 
+	 * @return The sort keys ordering the journeys as {@link #getDefaultOrder()}
+	 *         together with the journey identifier.
+	 */
+	protected List<JourneySorter.SortKey> getDefaultSortKeys() {
+		return Collections.singletonList(new JourneySorter.SortKey(START_TIME_PROPERTY, true, null));
+	}
+
+	/**
+	 * The properties every journey of the database defines.
+	 */
+	protected static final java.util.Set<String> DEFINED_PROPERTIES = java.util.Set.of(ID_PROPERTY,
+			START_TIME_PROPERTY, START_LOCATION_ID_PROPERTY);
+
+	/**
+	 * Composes the condition of the journeys listed after a journey.
+	 * 
+	 * A journey is listed after the given journey, if a sort key follows the
+	 * value of the given journey, and the more significant sort keys are equal.
+	 * The journey identifier is the least significant sort key. If every journey
+	 * defines the most significant sort key, its value bounds the range, thus
+	 * the index of the order is scanned only from the given journey on.
+	 * 
+	 * @param sortKeys   The sort keys.
+	 * @param last       The journey before the listed journeys.
+	 * @param parameters The list receiving the parameter values of the condition
+	 *                   in order.
+	 * @return The SQL condition.
+	 * @throws IllegalArgumentException A sort key property is not a database
+	 *                                  field.
+	 */
+	protected String composeAfterCondition(List<JourneySorter.SortKey> sortKeys, Journeys.Journey last,
+			List<Object> parameters) throws IllegalArgumentException {
+		List<JourneySorter.SortKey> keys = new java.util.ArrayList<>(sortKeys);
+		keys.add(new JourneySorter.SortKey(ID_PROPERTY));
+		String bound = null;
+		StringBuilder equal = new StringBuilder();
+		java.util.StringJoiner after = new java.util.StringJoiner(" OR ", "(", ")");
+		List<Object> equalParameters = new java.util.ArrayList<>(), afterParameters = new java.util.ArrayList<>();
+		String fieldName, following;
+		Object value;
+		for (JourneySorter.SortKey key : new JourneyQuery(null, keys, 0, 0).getSortKeys()) {
+			fieldName = getFieldName(key.getProperty());
+			if (fieldName == null) {
+				throw new IllegalArgumentException(format("Cannot sort by property {0}", key.getProperty()));
+			}
+			value = last.getProperty(key.getProperty());
+			// The undefined values are last in ascending order and first in descending order.
+			if (value == null) {
+				following = (key.isDescending() ? fieldName + " IS NOT NULL" : null);
+			} else if (key.isDescending() || DEFINED_PROPERTIES.contains(key.getProperty())) {
+				following = fieldName + (key.isDescending() ? " < ?" : " > ?");
+			} else {
+				following = "(" + fieldName + " > ? OR " + fieldName + " IS NULL)";
+			}
+			if (following != null) {
+				after.add(equal.length() == 0 ? following : "(" + equal + " AND " + following + ")");
+				afterParameters.addAll(equalParameters);
+				if (value != null) {
+					afterParameters.add(value);
+				}
+			}
+			if (equal.length() == 0 && value != null && DEFINED_PROPERTIES.contains(key.getProperty())) {
+				bound = fieldName + (key.isDescending() ? " <= ?" : " >= ?");
+				parameters.add(value);
+			}
+			if (value == null) {
+				equal.append(equal.length() == 0 ? "" : " AND ").append(fieldName).append(" IS NULL");
+			} else {
+				equal.append(equal.length() == 0 ? "" : " AND ").append(fieldName).append(" = ?");
+				equalParameters.add(value);
+			}
+		}
+		parameters.addAll(afterParameters);
+		return (bound == null ? after.toString() : bound + " AND " + after);
+	}
+
+	/**
+	 * Composes the query fetching a page of journeys passing the filters.
+	 * 
+	 * The query has a parameter for each filter value in the order of the
+	 * filters, followed by the offset and the maximum number of the fetched
+	 * journeys.
+	 * 
+	 * @param filters    The filters. Undefined value means no filters.
+	 * @param sortKeys   The sort keys. An empty list means the default order.
+	 * @param paged      Does the query have the page parameters.
+	 * @return The prepared SQL query string.
+	 * @throws IllegalArgumentException A filter or a sort key property is not a
+	 *                                  database field.
+	 */
+	protected String composeFetchJourneysQuery(List<JourneyQuery.Filter> filters,
+			List<JourneySorter.SortKey> sortKeys, boolean paged) throws IllegalArgumentException {
+		return composeFetchJourneysQuery(filters, sortKeys, null, paged);
+	}
+
+	/**
+	 * Composes the query fetching a page of journeys passing the filters and a
+	 * condition.
+	 * 
+	 * The query has a parameter for each filter value in the order of the
+	 * filters, followed by the parameters of the condition, the offset and the
+	 * maximum number of the fetched journeys.
+	 * 
+	 * @param filters   The filters. Undefined value means no filters.
+	 * @param sortKeys  The sort keys. An empty list means the default order.
+	 * @param condition The SQL condition, or undefined value, if the query has no
+	 *                  other condition.
+	 * @param paged     Does the query have the page parameters.
+	 * @return The prepared SQL query string.
+	 * @throws IllegalArgumentException A filter or a sort key property is not a
+	 *                                  database field.
+	 */
+	protected String composeFetchJourneysQuery(List<JourneyQuery.Filter> filters,
+			List<JourneySorter.SortKey> sortKeys, String condition, boolean paged) throws IllegalArgumentException {
+		StringBuilder result = new StringBuilder("SELECT * FROM ");
+		result.append(getJourneysListViewName());
+		String fieldName;
+		boolean first = true;
+		if (filters != null && !filters.isEmpty()) {
+			for (JourneyQuery.Filter filter : filters) {
+				fieldName = getFieldName(filter.getProperty());
+				if (fieldName == null) {
+					throw new IllegalArgumentException(format("Cannot filter by property {0}", filter.getProperty()));
+				}
+				result.append(first ? " WHERE " : " AND ");
+				result.append(fieldName).append(filter.getOperator().getSymbol()).append('?');
+				first = false;
+			}
+		}
+		if (condition != null) {
+			result.append(first ? " WHERE " : " AND ").append(condition);
+		}
+		result.append(" ORDER BY ");
+		if (sortKeys.isEmpty()) {
+			result.append(getDefaultOrder());
+		} else {
+			for (JourneySorter.SortKey key : sortKeys) {
+				fieldName = getFieldName(key.getProperty());
+				if (fieldName == null) {
+					throw new IllegalArgumentException(format("Cannot sort by property {0}", key.getProperty()));
+				}
+				result.append(fieldName).append(key.isDescending() ? " DESC NULLS FIRST" : " ASC NULLS LAST");
+				result.append(", ");
+			}
+			// The journey identifier keeps the order of equal journeys stable.
+			result.append("jid ASC");
+		}
+		if (paged) {
+			result.append(" OFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Sets the value of a query parameter.
+	 * 
+	 * @param stmt  The statement.
+	 * @param index The parameter index.
+	 * @param value The parameter value.
+	 * @throws SQLException The setting failed.
+	 */
+	protected void setParameter(PreparedStatement stmt, int index, Object value) throws SQLException {
+		if (value instanceof java.util.Date) {
+			stmt.setTimestamp(index, new Timestamp(((java.util.Date) value).getTime()));
+		} else if (value instanceof Integer) {
+			stmt.setInt(index, (Integer) value);
+		} else {
+			stmt.setString(index, value == null ? null : value.toString());
+		}
+	}
+
+	/**
+	 * Fetching the page of journeys listed by the query.
+	 * 
+	 * The filtering, sorting and paging are performed by the database.
+	 * 
+	 * @param query The query.
+	 * @return The list of the journeys of the page.
+	 * @throws IllegalArgumentException The query refers to property, which is not
+	 *                                  stored in the database.
+	 */
+	@Override
+	public List<Journeys.Journey> getJourneys(JourneyQuery query) throws IllegalArgumentException {
+		try {
+			return queryJourneys(query, null);
+		} catch (SQLException e) {
+			this.severe("Fetching journeys of query {0} failed due {1}", query, e.getMessage());
+		}
+		return new java.util.ArrayList<>();
+	}
+
+	/**
+	 * Queries the page of journeys listed by the query.
+	 * 
+	 * @param query   The query.
+	 * @param running The consumer informed of the statement before it is
+	 *                executed, or undefined value.
+	 * @return The list of the journeys of the page.
+	 * @throws IllegalArgumentException The query refers to property, which is not
+	 *                                  stored in the database.
+	 * @throws SQLException             The query failed.
+	 */
+	protected List<Journeys.Journey> queryJourneys(JourneyQuery query, Consumer<Statement> running)
+			throws IllegalArgumentException, SQLException {
+		return queryJourneys(composeFetchJourneysQuery(query.getFilters(), query.getSortKeys(), true), query,
+				Collections.emptyList(), running);
+	}
+
+	/**
+	 * Fetching the page of journeys listed by the query after a journey.
+	 * 
+	 * The journeys after the given journey are selected by their sort key values,
+	 * thus the consecutive pages do not skip the journeys of the earlier pages.
+	 * 
+	 * @param query The query.
+	 * @param last  The journey before the page, or undefined value, if the page is
+	 *              counted from the first journey.
+	 * @return The list of the journeys of the page.
+	 * @throws IllegalArgumentException The query refers to property, which is not
+	 *                                  stored in the database.
+	 */
+	@Override
+	public List<Journeys.Journey> getJourneysAfter(JourneyQuery query, Journeys.Journey last)
+			throws IllegalArgumentException {
+		if (last == null) {
+			return getJourneys(query);
+		}
+		List<JourneySorter.SortKey> sortKeys = (query.getSortKeys().isEmpty() ? getDefaultSortKeys()
+				: query.getSortKeys());
+		List<Object> parameters = new java.util.ArrayList<>();
+		String condition = composeAfterCondition(sortKeys, last, parameters);
+		try {
+			return queryJourneys(composeFetchJourneysQuery(query.getFilters(), sortKeys, condition, true), query,
+					parameters, null);
+		} catch (SQLException e) {
+			this.severe("Fetching journeys of query {0} after journey {1} failed due {2}", query,
+					last.getProperty(ID_PROPERTY), e.getMessage());
+		}
+		return new java.util.ArrayList<>();
+	}
+
+	/**
+	 * Queries the page of journeys with a composed query.
+	 * 
+	 * @param sql        The query composed for the query.
+	 * @param query      The query.
+	 * @param parameters The parameter values of the condition of the composed
+	 *                   query.
+	 * @param running    The consumer informed of the statement before it is
+	 *                   executed, or undefined value.
+	 * @return The list of the journeys of the page.
+	 * @throws SQLException The query failed.
+	 */
+	private List<Journeys.Journey> queryJourneys(String sql, JourneyQuery query, List<Object> parameters,
+			Consumer<Statement> running) throws SQLException {
+		List<Journeys.Journey> result = new java.util.ArrayList<>();
+		try (java.sql.Connection db = openReadConnection();
+				PreparedStatement pstmt = (db == null ? null : db.prepareStatement(sql))) {
+			if (pstmt == null) {
+				// There is no database.
+				return result;
+			}
+			setQueryParameters(pstmt, query, parameters);
+			notifyRunning(running, pstmt);
+			long start = System.nanoTime();
+			try (ResultSet resultSet = pstmt.executeQuery()) {
+				while (resultSet.next()) {
+					result.add(this.new DBJourney(resultSet));
+				}
+			}
+			JOURNEYS_QUERY_DURATION.recordNanosSince(start);
+			JOURNEYS_BATCH_SIZE.record(result.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Sets the filter values, the condition values and the page of the query as
+	 * the parameters of the statement composed for the query.
+	 * 
+	 * @param pstmt      The statement of the query.
+	 * @param query      The query.
+	 * @param parameters The parameter values of the condition of the statement.
+	 * @throws SQLException The setting failed.
+	 */
+	private void setQueryParameters(PreparedStatement pstmt, JourneyQuery query, List<Object> parameters)
+			throws SQLException {
+		int index = 1;
+		for (JourneyQuery.Filter filter : query.getFilters()) {
+			setParameter(pstmt, index++, filter.getValue());
+		}
+		for (Object value : parameters) {
+			setParameter(pstmt, index++, value);
+		}
+		pstmt.setInt(index++, query.getStartIndex());
+		pstmt.setInt(index++, query.getEndIndex() - query.getStartIndex());
+	}
+
+	/**
+	 * Fetches the page of journeys listed by the query without creating journeys.
+	 * 
+	 * The reader reads the rows of the journey listing, whose columns are named by
+	 * the {@link #fieldNames()}.
+	 * 
+	 * @param <R>    The type of the result.
+	 * @param query  The query.
+	 * @param reader The reader of the journey rows.
+	 * @return The result of the reader, or undefined value, if there is no
+	 *         database.
+	 * @throws IllegalArgumentException The query refers to property, which is not
+	 *                                  stored in the database.
+	 * @throws SQLException             The query failed.
+	 * @throws java.io.IOException      The reader failed.
+	 */
+	public <R> R fetchJourneys(JourneyQuery query, ResultSetReader<R> reader)
+			throws IllegalArgumentException, SQLException, java.io.IOException {
+		return fetchJourneys(query, reader, null);
+	}
+
+	/**
+	 * Fetches the page of journeys listed by the query without creating journeys.
+	 * 
+	 * @param <R>     The type of the result.
+	 * @param query   The query.
+	 * @param reader  The reader of the journey rows.
+	 * @param running The consumer informed of the statement before it is
+	 *                executed, or undefined value.
+	 * @return The result of the reader, or undefined value, if there is no
+	 *         database.
+	 * @throws IllegalArgumentException The query refers to property, which is not
+	 *                                  stored in the database.
+	 * @throws SQLException             The query failed.
+	 * @throws java.io.IOException      The reader failed.
+	 */
+	protected <R> R fetchJourneys(JourneyQuery query, ResultSetReader<R> reader, Consumer<Statement> running)
+			throws IllegalArgumentException, SQLException, java.io.IOException {
+		String sql = composeFetchJourneysQuery(query.getFilters(), query.getSortKeys(), true);
+		try (java.sql.Connection db = openReadConnection();
+				PreparedStatement pstmt = (db == null ? null : db.prepareStatement(sql))) {
+			if (pstmt == null) {
+				// There is no database.
+				return null;
+			}
+			setQueryParameters(pstmt, query, Collections.emptyList());
+			notifyRunning(running, pstmt);
+			long start = System.nanoTime();
+			try (ResultSet resultSet = pstmt.executeQuery()) {
+				return reader.read(resultSet);
+			} finally {
+				JOURNEYS_QUERY_DURATION.recordNanosSince(start);
+			}
+		}
+	}
+
 	/**
 	 * Fetching continuous range of journeys.
 	 * 
 	 * @param startIndex The first fetched journey.
 	 * @param endIndex   The first index not belonging to the returned journeys.
-	 * @param endIndex   The last fetched journey.
 	 * @return The list containing all journeys within given bounds.
 	 */
+	@Override
 	public List<Journeys.Journey> getJourneys(int startIndex, int endIndex) {
 		if (startIndex >= 0) {
-			java.sql.Connection db = getConnection();
-			if (db != null) {
-				try {
-					PreparedStatement pstmt = db.prepareStatement(getFetchJourneysSQLQuery());
-					pstmt.setInt(1, startIndex + 1);
-					pstmt.setInt(2, endIndex + 1);
-					ResultSet resultSet = pstmt.executeQuery();
-					List<Journeys.Journey> result = new java.util.ArrayList<>();
-					Journeys.Journey journey;
-					while (resultSet.next()) {
-						result.add(this.new DBJourney(resultSet));
-					}
-					return result;
-				} catch (SQLException e) {
-					// Exception prevented answering the result.
-					this.severe("Fetching jid of rows from {0} to {1} failed due {2}", startIndex, endIndex, e.getMessage());
-					return null;
-				}
+			try {
+				return queryJourneys(startIndex, endIndex, null);
+			} catch (SQLException e) {
+				// Exception prevented answering the result.
+				this.severe("Fetching jid of rows from {0} to {1} failed due {2}", startIndex, endIndex, e.getMessage());
+				return null;
 			}
 		}
 		// The default is null.
@@ -525,6 +1629,44 @@ public class DatabaseJourneys extends Journeys {
 
 	}
 
+	/**
+	 * Queries a continuous range of journeys.
+	 * 
+	 * @param startIndex The first fetched journey.
+	 * @param endIndex   The first index not belonging to the returned journeys.
+	 * @param running    The consumer informed of the statement before it is
+	 *                   executed, or undefined value.
+	 * @return The list containing all journeys within given bounds, or undefined
+	 *         value, if there is no database or the start index is negative.
+	 * @throws SQLException The query failed.
+	 */
+	protected List<Journeys.Journey> queryJourneys(int startIndex, int endIndex, Consumer<Statement> running)
+			throws SQLException {
+		if (startIndex < 0) {
+			return null;
+		}
+		try (java.sql.Connection db = openReadConnection();
+				PreparedStatement pstmt = (db == null ? null : db.prepareStatement(getFetchJourneysSQLQuery()))) {
+			if (pstmt == null) {
+				// There is no database.
+				return null;
+			}
+			pstmt.setInt(1, startIndex);
+			pstmt.setInt(2, Math.max(0, endIndex - startIndex));
+			notifyRunning(running, pstmt);
+			long start = System.nanoTime();
+			List<Journeys.Journey> result = new java.util.ArrayList<>();
+			try (ResultSet resultSet = pstmt.executeQuery()) {
+				while (resultSet.next()) {
+					result.add(this.new DBJourney(resultSet));
+				}
+			}
+			JOURNEYS_QUERY_DURATION.recordNanosSince(start);
+			JOURNEYS_BATCH_SIZE.record(result.size());
+			return result;
+		}
+	}
+
 	/**
 	 * Handling SQL exception.
 	 * 
@@ -3,16 +3,19 @@ package solita.helsinkicitybikeapp.model.db;
 import java.io.InputStream;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.YearMonth;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
 import java.util.TreeSet;
 import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import i18n.Logging.LocalizedMessageLogging;
 import solita.helsinki.citybikeapp.controller.CSVReader;
 import solita.helsinki.citybikeapp.controller.JourneysLoader;
+import solita.helsinki.citybikeapp.controller.Utf8CSVParser;
 import solita.helsinkicitybikeapp.model.CSVException;
 import solita.helsinkicitybikeapp.model.CSVException.RowType;
 
@@ -49,6 +52,57 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 		return this.connection;
 	}
 
+	/**
+	 * The SQL dialect of the database, or undefined value, if it is not yet
+	 * known.
+	 */
+	private SQLDialect dialect = null;
+
+	/**
+	 * The SQL dialect of the database.
+	 * 
+	 * @return The dialect of the database of the connection.
+	 * @throws SQLException The database metadata was not available.
+	 */
+	public SQLDialect getDialect() throws SQLException {
+		if (dialect == null) {
+			dialect = SQLDialect.of(getConnection());
+		}
+		return dialect;
+	}
+
+	/**
+	 * Does the database contain the journeys tables.
+	 * 
+	 * @return True, if and only if the journeys table exists.
+	 * @throws SQLException The database metadata was not available.
+	 */
+	public boolean hasJourneysTables() throws SQLException {
+		java.sql.DatabaseMetaData metaData = getConnection().getMetaData();
+		try (java.sql.ResultSet tables = metaData.getTables(null, null,
+				metaData.storesUpperCaseIdentifiers() ? JOURNEYS_TABLE_NAME.toUpperCase() : JOURNEYS_TABLE_NAME,
+				null)) {
+			return tables.next();
+		}
+	}
+
+	/**
+	 * Creates the database tables, unless the database contains the journeys
+	 * tables. A new embedded database is empty. The foreign keys deferred by an
+	 * interrupted bulk load of an existing database are restored.
+	 * 
+	 * @return True, if and only if the tables were created.
+	 * @throws SQLException The creation or the restoring failed.
+	 */
+	public boolean ensureDatabase() throws SQLException {
+		if (hasJourneysTables()) {
+			restoreDeferredForeignKeys();
+			return false;
+		}
+		info("Creating the journeys database of {0}", getDialect());
+		return createDatabase();
+	}
+
 	/**
 	 * Construct station related tables.
 	 * 
@@ -56,8 +110,18 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 	 * @throws SQLException The construction failed due station SQL exception.
 	 */
 	public boolean createStationTables() throws SQLException {
+		return executeScript(getDialect().getStationsScript());
+	}
+
+	/**
+	 * Executes a database script resource.
+	 * 
+	 * @param resourceName The resource name of the script.
+	 * @return True, if and only if the script existed and was executed.
+	 * @throws SQLException The script failed.
+	 */
+	protected boolean executeScript(String resourceName) throws SQLException {
 		java.sql.Connection db = this.getConnection();
-		String resourceName = "db/create_db.postgresql.sql";
 		InputStream in = getClass().getResourceAsStream(resourceName);
 		if (in == null) {
 			this.severe("Missing resource: Database initialization script {0} does not exist", resourceName);
@@ -69,7 +133,16 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 			scanner.close();
 
 			try (Statement stmt = db.createStatement()) {
-				stmt.execute(query);
+				if (getDialect().isScriptSplit()) {
+					// The statements are executed one by one without the comment lines.
+					for (String statement : query.replaceAll("(?m)^\\s*--.*$", "").split(";\\s*(\\n|$)")) {
+						if (!statement.isBlank()) {
+							stmt.execute(statement.trim());
+						}
+					}
+				} else {
+					stmt.execute(query);
+				}
 				return true;
 			} catch (SQLException se) {
 				throw se;
@@ -90,15 +163,1109 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 		createStationTables();
 		createJourneysTables();
 		db.endRequest();
-		db.commit();
+		if (!db.getAutoCommit()) {
+			db.commit();
+		}
 		return true;
 	}
 
 	/**
 	 * Creates Journeys tables.
+	 * 
+	 * The journeys table is partitioned by the month of the departure time. The
+	 * journeys of the months without partition are stored into the default
+	 * partition.
+	 * 
+	 * @return Did the creation of journeys tables succeed or not.
+	 * @throws SQLException The construction failed due SQL exception.
+	 */
+	public boolean createJourneysTables() throws SQLException {
+		if (executeScript(getDialect().getJourneysScript())) {
+			if (getDialect().supportsPartitions()) {
+				// The indexes of the other dialects are created by the script.
+				createJourneysIndexes();
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The name of the partitioned journeys table.
+	 */
+	public static final String JOURNEYS_TABLE_NAME = "journeys";
+
+	/**
+	 * The prefix of the names of the staging tables.
+	 */
+	public static final String STAGING_TABLE_PREFIX = "journeys_staging_";
+
+	/**
+	 * The number of staging tables created by this program.
+	 */
+	private static final java.util.concurrent.atomic.AtomicLong STAGING_TABLE_COUNT = new java.util.concurrent.atomic.AtomicLong();
+
+	/**
+	 * The index definitions of the partitioned journeys table.
+	 */
+	private static final java.util.regex.Pattern INDEX_DEFINITION = java.util.regex.Pattern
+			.compile("^CREATE (UNIQUE )?INDEX \\S+ ON (?:ONLY )?\\S+ (.*)$");
+
+	/**
+	 * The loader of the journeys into a staging table.
+	 * 
+	 * @author Antti Kautiainen
+	 *
+	 */
+	@FunctionalInterface
+	public static interface StagingLoader {
+
+		/**
+		 * Loads the journeys into the staging table.
+		 * 
+		 * @param stagingTable The name of the staging table.
+		 * @return True, if and only if the loading succeeded.
+		 * @throws java.io.IOException The reading of the journeys failed.
+		 * @throws SQLException        The storing of the journeys failed.
+		 */
+		public boolean load(String stagingTable) throws java.io.IOException, SQLException;
+	}
+
+	/**
+	 * The name of the journeys partition of a month.
+	 * 
+	 * @param month The month.
+	 * @return The name of the partition containing the journeys departed on the
+	 *         month.
+	 */
+	public static String getPartitionName(YearMonth month) {
+		return String.format("%s_%04d_%02d", JOURNEYS_TABLE_NAME, month.getYear(), month.getMonthValue());
+	}
+
+	/**
+	 * Creates the journeys partition of a month, unless it exists.
+	 * 
+	 * @param month The month.
+	 * @return The name of the partition.
+	 * @throws SQLException The creation failed.
+	 */
+	public String createJourneysPartition(YearMonth month) throws SQLException {
+		try (java.sql.PreparedStatement stmt = getConnection().prepareStatement("SELECT create_journeys_partition(?)")) {
+			stmt.setDate(1, java.sql.Date.valueOf(month.atDay(1)));
+			try (java.sql.ResultSet result = stmt.executeQuery()) {
+				return result.next() ? result.getString(1) : getPartitionName(month);
+			}
+		}
+	}
+
+	/**
+	 * Creates a staging table with the columns and the defaults of the journeys
+	 * table. The journey identifiers of the staging table are taken from the
+	 * sequence of the journeys table.
+	 * 
+	 * @return The name of the created staging table.
+	 * @throws SQLException The creation failed.
+	 */
+	public String createStagingTable() throws SQLException {
+		String result = STAGING_TABLE_PREFIX + Long.toString(System.currentTimeMillis(), 36) + "_"
+				+ STAGING_TABLE_COUNT.incrementAndGet();
+		try (Statement stmt = getConnection().createStatement()) {
+			stmt.execute("CREATE TABLE " + result + " (LIKE " + JOURNEYS_TABLE_NAME
+					+ " INCLUDING DEFAULTS INCLUDING STORAGE)");
+		}
+		return result;
+	}
+
+	/**
+	 * Drops a staging table, if it exists.
+	 * 
+	 * @param stagingTable The name of the staging table.
+	 * @throws SQLException The dropping failed.
+	 */
+	public void dropStagingTable(String stagingTable) throws SQLException {
+		try (Statement stmt = getConnection().createStatement()) {
+			stmt.execute("DROP TABLE IF EXISTS " + stagingTable);
+		}
+	}
+
+	/**
+	 * The statements creating the indexes and the constraints of the journeys
+	 * table on a staging table. The attaching of a partition uses the matching
+	 * existing indexes instead of building them.
+	 * 
+	 * @param stagingTable The name of the staging table.
+	 * @return The list of the statements creating the indexes of the staging
+	 *         table.
+	 * @throws SQLException The fetching of the index definitions failed.
+	 */
+	protected List<String> getStagingIndexStatements(String stagingTable) throws SQLException {
+		List<String> result = new java.util.ArrayList<>();
+		try (Statement stmt = getConnection().createStatement();
+				java.sql.ResultSet indexes = stmt.executeQuery(
+						"SELECT pg_get_indexdef(i.indexrelid), pg_get_constraintdef(c.oid) FROM pg_index i "
+								+ "LEFT JOIN pg_constraint c ON c.conindid = i.indexrelid AND c.conrelid = i.indrelid "
+								+ "WHERE i.indrelid = '" + JOURNEYS_TABLE_NAME + "'::regclass")) {
+			java.util.regex.Matcher matcher;
+			while (indexes.next()) {
+				if (indexes.getString(2) != null) {
+					// The constraint index is created by the constraint.
+					result.add("ALTER TABLE " + stagingTable + " ADD " + indexes.getString(2));
+				} else if ((matcher = INDEX_DEFINITION.matcher(indexes.getString(1))).matches()) {
+					result.add("CREATE " + (matcher.group(1) == null ? "" : matcher.group(1)) + "INDEX ON "
+							+ stagingTable + " " + matcher.group(2));
+				} else {
+					severe("Unsupported journeys index {0}", indexes.getString(1));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Moves the journeys of a staging table into the journeys table, and drops
+	 * the staging table.
+	 * 
+	 * @param stagingTable The name of the staging table.
+	 * @throws SQLException The moving failed.
+	 */
+	protected void moveStagingRows(String stagingTable) throws SQLException {
+		long start = System.nanoTime();
+		try (Statement stmt = getConnection().createStatement()) {
+			stmt.executeUpdate("INSERT INTO " + JOURNEYS_TABLE_NAME + " SELECT * FROM " + stagingTable);
+			stmt.execute("DROP TABLE " + stagingTable);
+		}
+		recordPhase("move", start);
+	}
+
+	/**
+	 * Does the journeys table have a partition.
+	 * 
+	 * @param partition The name of the partition.
+	 * @return True, if and only if the partition is attached to the journeys
+	 *         table.
+	 * @throws SQLException The checking failed.
+	 */
+	public boolean hasJourneysPartition(String partition) throws SQLException {
+		try (java.sql.PreparedStatement stmt = getConnection().prepareStatement("SELECT 1 FROM pg_inherits i "
+				+ "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = '" + JOURNEYS_TABLE_NAME
+				+ "'::regclass AND c.relname = ?")) {
+			stmt.setString(1, partition);
+			try (java.sql.ResultSet existing = stmt.executeQuery()) {
+				return existing.next();
+			}
+		}
+	}
+
+	/**
+	 * Attaches a loaded staging table as the journeys partition of its month.
+	 * 
+	 * The staging table is indexed before attaching, and a check constraint of
+	 * the month bounds lets the attaching skip the validation of the bounds, thus
+	 * the journeys table is locked only briefly. The journey listing of the month
+	 * is refreshed after the attaching has been committed, thus the readers of the
+	 * journeys are not blocked while the month is listed. The journeys of a
+	 * staging table spanning several months, of a month already having a partition, or
+	 * conflicting with the default partition, are moved into the journeys table
+	 * instead, thus the journeys of the earlier loads are kept.
+	 * 
+	 * @param stagingTable The name of the loaded staging table.
+	 * @return The month of the attached partition, or undefined value, if the
+	 *         journeys were moved or the staging table was empty.
+	 * @throws SQLException The attaching and the moving failed.
+	 */
+	public YearMonth attachStagingTable(String stagingTable) throws SQLException {
+		java.sql.Connection db = getConnection();
+		java.sql.Timestamp first, last;
+		try (Statement stmt = db.createStatement();
+				java.sql.ResultSet bounds = stmt
+						.executeQuery("SELECT MIN(departure_time), MAX(departure_time) FROM " + stagingTable)) {
+			bounds.next();
+			first = bounds.getTimestamp(1);
+			last = bounds.getTimestamp(2);
+		}
+		if (first == null) {
+			// There is nothing to attach.
+			dropStagingTable(stagingTable);
+			return null;
+		}
+		YearMonth month = YearMonth.from(first.toLocalDateTime());
+		if (!month.equals(YearMonth.from(last.toLocalDateTime()))) {
+			info("Journeys of {0} span months {1} to {2}", stagingTable, month,
+					YearMonth.from(last.toLocalDateTime()));
+			moveStagingRows(stagingTable);
+			return null;
+		}
+		String partition = getPartitionName(month);
+		if (hasJourneysPartition(partition)) {
+			info("Journeys of {0} are merged into the existing partition {1}", stagingTable, partition);
+			moveStagingRows(stagingTable);
+			return null;
+		}
+		String lowerBound = java.sql.Timestamp.valueOf(month.atDay(1).atStartOfDay()).toString();
+		String upperBound = java.sql.Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()).toString();
+		String boundsConstraint = stagingTable + "_bounds";
+		long start = System.nanoTime();
+		List<String> indexes = new java.util.ArrayList<>();
+		try (Statement stmt = db.createStatement()) {
+			stmt.execute("ALTER TABLE " + stagingTable + " ADD CONSTRAINT " + boundsConstraint
+					+ " CHECK (departure_time >= TIMESTAMP '" + lowerBound + "' AND departure_time < TIMESTAMP '"
+					+ upperBound + "')");
+			for (String sql : getStagingIndexStatements(stagingTable)) {
+				if (sql.startsWith("ALTER")) {
+					// The constraints lock the staging table.
+					stmt.execute(sql);
+				} else {
+					indexes.add(sql);
+				}
+			}
+		}
+		executeInParallel(indexes);
+		recordPhase("index", start);
+		start = System.nanoTime();
+		addStagingForeignKeys(stagingTable);
+		recordPhase("constraint", start);
+		start = System.nanoTime();
+
+		boolean autoCommit = db.getAutoCommit();
+		boolean attached = false;
+		db.setAutoCommit(false);
+		try (Statement stmt = db.createStatement()) {
+			// A partition of the month attached meanwhile makes the attaching fail.
+			stmt.execute("ALTER TABLE " + JOURNEYS_TABLE_NAME + " ATTACH PARTITION " + stagingTable
+					+ " FOR VALUES FROM ('" + lowerBound + "') TO ('" + upperBound + "')");
+			stmt.execute("ALTER TABLE " + stagingTable + " DROP CONSTRAINT " + boundsConstraint);
+			stmt.execute("ALTER TABLE " + stagingTable + " RENAME TO " + partition);
+			db.commit();
+			attached = true;
+			recordPhase("attach", start);
+		} catch (SQLException e) {
+			db.rollback();
+			info("Attaching {0} as partition {1} failed due {2}", stagingTable, partition, e.getMessage());
+		} finally {
+			db.setAutoCommit(autoCommit);
+		}
+		if (!attached) {
+			moveStagingRows(stagingTable);
+			return null;
+		}
+		// The exclusive locks of the attaching are released before the listing.
+		refreshJourneyListing(month);
+		info("Journeys of {0} attached as partition {1}", month, partition);
+		return month;
+	}
+
+	/**
+	 * Refreshes the journey listing of a month, and increases the data set
+	 * version.
+	 * 
+	 * The attaching of a partition does not fire the triggers of the journeys
+	 * table, thus the listing of an attached month is refreshed in a transaction
+	 * of its own. The month is listed with the data set version increased, so the
+	 * readers see the journeys of the month only after they have been listed. A
+	 * failed refresh can be retried.
+	 * 
+	 * @param month The month.
+	 * @throws SQLException The refresh failed.
+	 */
+	public void refreshJourneyListing(YearMonth month) throws SQLException {
+		java.sql.Connection db = getConnection();
+		String lowerBound = java.sql.Timestamp.valueOf(month.atDay(1).atStartOfDay()).toString();
+		String upperBound = java.sql.Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()).toString();
+		long start = System.nanoTime();
+		boolean autoCommit = db.getAutoCommit();
+		db.setAutoCommit(false);
+		try (Statement stmt = db.createStatement()) {
+			try (java.sql.ResultSet listed = stmt.executeQuery("SELECT refresh_journey_listing(TIMESTAMP '"
+					+ lowerBound + "', TIMESTAMP '" + upperBound + "')")) {
+				if (listed.next()) {
+					fine("Listed {0} journeys of {1}", listed.getLong(1), month);
+				}
+			}
+			// The attaching does not fire the triggers increasing the version.
+			stmt.execute("SELECT nextval('dataset_version_sequence')");
+			db.commit();
+			recordPhase("listing", start);
+		} catch (SQLException e) {
+			db.rollback();
+			severe("Listing the journeys of {0} failed due {1}", month, e.getMessage());
+			throw e;
+		} finally {
+			db.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * The secondary indexes of the journeys table by name. The block range index
+	 * of the departure time is small, as the journeys are loaded in the order of
+	 * the departure, and the btree indexes serve the station and the keyset
+	 * queries.
+	 */
+	public static final java.util.Map<String, String> JOURNEYS_INDEXES;
+
+	static {
+		java.util.Map<String, String> indexes = new java.util.LinkedHashMap<>();
+		indexes.put("journeys_departure_time_brin", "USING brin (departure_time)");
+		indexes.put("journeys_departure_station_idx", "USING btree (departure_station_id)");
+		indexes.put("journeys_arrival_station_idx", "USING btree (arrival_station_id)");
+		indexes.put("journeys_departure_time_jid_idx", "USING btree (departure_time, jid)");
+		JOURNEYS_INDEXES = java.util.Collections.unmodifiableMap(indexes);
+	}
+
+	/**
+	 * The pool of the connections building the indexes and validating the
+	 * constraints in parallel, or undefined value, if they are built with the
+	 * connection of the database.
+	 */
+	private ConnectionPool parallelPool = null;
+
+	/**
+	 * The name of the table storing the foreign keys of the journeys table
+	 * dropped for the bulk load.
+	 */
+	public static final String DEFERRED_FOREIGN_KEYS_TABLE_NAME = "journeys_deferred_foreign_keys";
+
+	/**
+	 * The key of the advisory lock held by the connection performing the bulk
+	 * load.
+	 */
+	private static final String BULK_LOAD_LOCK_KEY = "hashtext('" + DEFERRED_FOREIGN_KEYS_TABLE_NAME + "')";
+
+	/**
+	 * The time spent in the load phases in nanoseconds by phase.
+	 */
+	private final java.util.Map<String, Long> phaseDurations = new java.util.LinkedHashMap<>();
+
+	/**
+	 * Sets the pool of the connections building the indexes and validating the
+	 * constraints in parallel.
+	 * 
+	 * @param pool The connection pool, or undefined value, if the indexes are
+	 *             built with the connection of the database.
+	 */
+	public void setConnectionPool(ConnectionPool pool) {
+		this.parallelPool = pool;
+	}
+
+	/**
+	 * Records the time spent in a load phase.
+	 * 
+	 * @param phase      The name of the phase.
+	 * @param startNanos The start of the phase in nanoseconds.
+	 */
+	protected void recordPhase(String phase, long startNanos) {
+		long duration = System.nanoTime() - startNanos;
+		synchronized (phaseDurations) {
+			phaseDurations.merge(phase, duration, Long::sum);
+		}
+		solita.helsinkicitybikeapp.metrics.MetricsRegistry.getDefault()
+				.timer("db_load_phase_duration_seconds", "The duration of the journey load phases.", "phase", phase)
+				.record(duration);
+	}
+
+	/**
+	 * The time spent in the load phases.
+	 * 
+	 * @return The map from the phases to the time spent in them in milliseconds
+	 *         in the order the phases were first performed.
+	 */
+	public java.util.Map<String, Long> getPhaseDurations() {
+		java.util.Map<String, Long> result = new java.util.LinkedHashMap<>();
+		synchronized (phaseDurations) {
+			phaseDurations.forEach((String phase, Long nanos) -> result.put(phase, nanos / 1000000L));
+		}
+		return result;
+	}
+
+	/**
+	 * Logs the time spent in the load phases.
+	 */
+	public void logPhaseDurations() {
+		getPhaseDurations().forEach((String phase, Long millis) -> info("Load phase {0} took {1} ms", phase, millis));
+	}
+
+	/**
+	 * Executes statements in parallel with the connections of the connection
+	 * pool. Without connection pool the statements are executed in order with the
+	 * connection of the database.
+	 * 
+	 * @param statements The executed statements, which must not conflict each
+	 *                   other.
+	 * @throws SQLException Any statement failed. All statements are executed
+	 *                      before the first failure is thrown.
+	 */
+	protected void executeInParallel(List<String> statements) throws SQLException {
+		ConnectionPool pool = this.parallelPool;
+		int threads = (pool == null ? 1
+				: Math.min(statements.size(), Math.max(1, pool.getMaxSize() - pool.getBorrowedCount())));
+		if (threads <= 1) {
+			try (Statement stmt = getConnection().createStatement()) {
+				for (String sql : statements) {
+					stmt.execute(sql);
+				}
+			}
+			return;
+		}
+		java.util.concurrent.atomic.AtomicInteger threadCount = new java.util.concurrent.atomic.AtomicInteger();
+		java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(threads,
+				(Runnable task) -> {
+					Thread result = new Thread(task, "journeys-maintenance-" + threadCount.incrementAndGet());
+					result.setDaemon(true);
+					return result;
+				});
+		try {
+			List<java.util.concurrent.Future<?>> tasks = new java.util.ArrayList<>();
+			for (String sql : statements) {
+				tasks.add(executor.submit(() -> {
+					try (java.sql.Connection db = pool.getConnection(); Statement stmt = db.createStatement()) {
+						fine("Executing {0}", sql);
+						stmt.execute(sql);
+					}
+					return null;
+				}));
+			}
+			SQLException failure = null;
+			for (java.util.concurrent.Future<?> task : tasks) {
+				try {
+					task.get();
+				} catch (java.util.concurrent.ExecutionException ee) {
+					if (failure == null) {
+						failure = (ee.getCause() instanceof SQLException ? (SQLException) ee.getCause()
+								: new SQLException(ee.getCause()));
+					}
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while executing statements", ie);
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The partitions of the journeys table.
+	 * 
+	 * @return The names of the partitions including the default partition.
+	 * @throws SQLException The fetching of the partitions failed.
+	 */
+	public List<String> getJourneysPartitions() throws SQLException {
+		List<String> result = new java.util.ArrayList<>();
+		try (Statement stmt = getConnection().createStatement();
+				java.sql.ResultSet partitions = stmt.executeQuery("SELECT c.relname FROM pg_inherits i "
+						+ "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = '" + JOURNEYS_TABLE_NAME
+						+ "'::regclass ORDER BY c.relname")) {
+			while (partitions.next()) {
+				result.add(partitions.getString(1));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The foreign keys of the journeys table.
+	 * 
+	 * @return The map from the constraint names to their definitions.
+	 * @throws SQLException The fetching of the constraints failed.
+	 */
+	protected java.util.Map<String, String> getJourneysForeignKeys() throws SQLException {
+		java.util.Map<String, String> result = new java.util.LinkedHashMap<>();
+		try (Statement stmt = getConnection().createStatement();
+				java.sql.ResultSet constraints = stmt
+						.executeQuery("SELECT conname, pg_get_constraintdef(oid) FROM pg_constraint WHERE conrelid = '"
+								+ JOURNEYS_TABLE_NAME + "'::regclass AND contype = 'f' ORDER BY conname")) {
+			while (constraints.next()) {
+				result.put(constraints.getString(1), constraints.getString(2));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the missing secondary indexes of the journeys table.
+	 * 
+	 * The indexes of the partitions are built in parallel, and attached to the
+	 * indexes of the journeys table created only for the journeys table.
+	 * 
+	 * @throws SQLException The creation failed.
+	 */
+	public void createJourneysIndexes() throws SQLException {
+		long start = System.nanoTime();
+		List<String> partitions = getJourneysPartitions();
+		List<String> builds = new java.util.ArrayList<>(), attachments = new java.util.ArrayList<>();
+		String partitionIndex;
+		try (Statement stmt = getConnection().createStatement()) {
+			for (java.util.Map.Entry<String, String> index : JOURNEYS_INDEXES.entrySet()) {
+				stmt.execute("CREATE INDEX IF NOT EXISTS " + index.getKey() + " ON ONLY " + JOURNEYS_TABLE_NAME + " "
+						+ index.getValue());
+				for (String partition : partitions) {
+					partitionIndex = partition + index.getKey().substring(JOURNEYS_TABLE_NAME.length());
+					builds.add("CREATE INDEX IF NOT EXISTS " + partitionIndex + " ON " + partition + " "
+							+ index.getValue());
+					attachments.add("ALTER INDEX " + index.getKey() + " ATTACH PARTITION " + partitionIndex);
+				}
+			}
+		}
+		executeInParallel(builds);
+		try (Statement stmt = getConnection().createStatement()) {
+			for (String sql : attachments) {
+				try {
+					stmt.execute(sql);
+				} catch (SQLException e) {
+					// The partition had an equivalent index attached earlier.
+					fine("Index attachment {0} skipped due {1}", sql, e.getMessage());
+				}
+			}
+		}
+		recordPhase("index", start);
+	}
+
+	/**
+	 * Drops the secondary indexes of the journeys table and its partitions.
+	 * 
+	 * @throws SQLException The dropping failed.
+	 */
+	public void dropJourneysIndexes() throws SQLException {
+		try (Statement stmt = getConnection().createStatement()) {
+			for (String index : JOURNEYS_INDEXES.keySet()) {
+				stmt.execute("DROP INDEX IF EXISTS " + index);
+			}
+		}
+	}
+
+	/**
+	 * Starts the bulk load of the journeys.
+	 * 
+	 * The secondary indexes and the foreign keys of the journeys table are
+	 * dropped, thus the loaded journeys are neither indexed nor checked row by
+	 * row. The definitions of the dropped foreign keys are stored in the same
+	 * transaction, thus a bulk load interrupted before its end does not lose
+	 * them. The connection holds the bulk load lock until the end, thus the
+	 * concurrent bulk loads wait for each other. The bulk load has to be ended
+	 * with {@linkplain #endBulkLoad()}.
+	 * 
+	 * @throws SQLException The dropping of the indexes or the constraints failed.
+	 */
+	public void beginBulkLoad() throws SQLException {
+		if (!getDialect().supportsPartitions()) {
+			info("Bulk load of {0} keeps the indexes", getDialect());
+			return;
+		}
+		long start = System.nanoTime();
+		java.sql.Connection db = getConnection();
+		try (Statement stmt = db.createStatement()) {
+			stmt.execute("SELECT pg_advisory_lock(" + BULK_LOAD_LOCK_KEY + ")");
+		}
+		boolean autoCommit = db.getAutoCommit();
+		try {
+			try (Statement stmt = db.createStatement()) {
+				stmt.execute("CREATE TABLE IF NOT EXISTS " + DEFERRED_FOREIGN_KEYS_TABLE_NAME
+						+ " (name text PRIMARY KEY, definition text NOT NULL)");
+			}
+			java.util.Map<String, String> foreignKeys = getJourneysForeignKeys();
+			db.setAutoCommit(false);
+			try (java.sql.PreparedStatement store = db.prepareStatement("INSERT INTO "
+					+ DEFERRED_FOREIGN_KEYS_TABLE_NAME + " (name, definition) VALUES (?, ?) ON CONFLICT (name) DO NOTHING");
+					Statement stmt = db.createStatement()) {
+				for (java.util.Map.Entry<String, String> foreignKey : foreignKeys.entrySet()) {
+					store.setString(1, foreignKey.getKey());
+					store.setString(2, foreignKey.getValue());
+					store.executeUpdate();
+					stmt.execute("ALTER TABLE " + JOURNEYS_TABLE_NAME + " DROP CONSTRAINT " + foreignKey.getKey());
+				}
+				db.commit();
+			} catch (SQLException e) {
+				db.rollback();
+				throw e;
+			} finally {
+				db.setAutoCommit(autoCommit);
+			}
+			dropJourneysIndexes();
+		} catch (SQLException e) {
+			unlockBulkLoad();
+			throw e;
+		}
+		recordPhase("defer", start);
+	}
+
+	/**
+	 * Ends the bulk load of the journeys.
+	 * 
+	 * The secondary indexes are rebuilt in parallel, and the stored foreign keys
+	 * are restored. The bulk load lock is released even if the rebuilding fails.
+	 * 
+	 * @throws SQLException The rebuilding of the indexes or the constraints
+	 *                      failed.
+	 */
+	public void endBulkLoad() throws SQLException {
+		if (!getDialect().supportsPartitions()) {
+			return;
+		}
+		try {
+			createJourneysIndexes();
+			restoreForeignKeys();
+		} finally {
+			unlockBulkLoad();
+		}
+	}
+
+	/**
+	 * Restores the foreign keys deferred by an interrupted bulk load.
+	 * 
+	 * The foreign keys are restored only if no bulk load is running, thus the
+	 * restoring does not interfere with the bulk load of another connection.
+	 * 
+	 * @throws SQLException The restoring of the constraints failed.
+	 */
+	public void restoreDeferredForeignKeys() throws SQLException {
+		if (!getDialect().supportsPartitions()) {
+			return;
+		}
+		try (Statement stmt = getConnection().createStatement();
+				java.sql.ResultSet locked = stmt.executeQuery("SELECT pg_try_advisory_lock(" + BULK_LOAD_LOCK_KEY + ")")) {
+			if (!locked.next() || !locked.getBoolean(1)) {
+				info("Deferred foreign keys are left to the running bulk load");
+				return;
+			}
+		}
+		try {
+			restoreForeignKeys();
+		} finally {
+			unlockBulkLoad();
+		}
+	}
+
+	/**
+	 * Releases the bulk load lock of the connection.
+	 * 
+	 * @throws SQLException The releasing failed.
+	 */
+	private void unlockBulkLoad() throws SQLException {
+		try (Statement stmt = getConnection().createStatement()) {
+			stmt.execute("SELECT pg_advisory_unlock(" + BULK_LOAD_LOCK_KEY + ")");
+		}
+	}
+
+	/**
+	 * The stored foreign keys of the journeys table dropped for the bulk load.
+	 * 
+	 * @return The map from the constraint names to their definitions.
+	 * @throws SQLException The fetching of the constraints failed.
 	 */
-	public void createJourneysTables() {
+	protected java.util.Map<String, String> getDeferredForeignKeys() throws SQLException {
+		java.util.Map<String, String> result = new java.util.LinkedHashMap<>();
+		try (Statement stmt = getConnection().createStatement()) {
+			try (java.sql.ResultSet table = stmt
+					.executeQuery("SELECT to_regclass('" + DEFERRED_FOREIGN_KEYS_TABLE_NAME + "') IS NOT NULL")) {
+				if (!table.next() || !table.getBoolean(1)) {
+					return result;
+				}
+			}
+			try (java.sql.ResultSet constraints = stmt.executeQuery(
+					"SELECT name, definition FROM " + DEFERRED_FOREIGN_KEYS_TABLE_NAME + " ORDER BY name")) {
+				while (constraints.next()) {
+					result.put(constraints.getString(1), constraints.getString(2));
+				}
+			}
+		}
+		return result;
+	}
 
+	/**
+	 * Restores the stored foreign keys of the journeys table.
+	 * 
+	 * The foreign keys are added to the partitions without validation, validated
+	 * in parallel, and restored to the journeys table, which adopts the validated
+	 * constraints of the partitions. The stored definitions are removed in the
+	 * transaction restoring the constraints of the journeys table, thus an
+	 * interrupted restoring is completed by the next restoring.
+	 * 
+	 * @throws SQLException The restoring of the constraints failed.
+	 */
+	protected void restoreForeignKeys() throws SQLException {
+		java.util.Map<String, String> deferredForeignKeys = getDeferredForeignKeys();
+		if (deferredForeignKeys.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		java.sql.Connection db = getConnection();
+		List<String> partitions = getJourneysPartitions();
+		List<String> validations = new java.util.ArrayList<>();
+		try (Statement stmt = db.createStatement()) {
+			for (java.util.Map.Entry<String, String> foreignKey : deferredForeignKeys.entrySet()) {
+				for (String partition : partitions) {
+					String sql = "ALTER TABLE " + partition + " ADD CONSTRAINT " + partition + "_" + foreignKey.getKey()
+							+ " " + foreignKey.getValue() + " NOT VALID";
+					try {
+						stmt.execute(sql);
+					} catch (SQLException e) {
+						// The partition had the constraint added by an interrupted restoring.
+						fine("Constraint addition {0} skipped due {1}", sql, e.getMessage());
+					}
+					validations.add("ALTER TABLE " + partition + " VALIDATE CONSTRAINT " + partition + "_"
+							+ foreignKey.getKey());
+				}
+			}
+		}
+		executeInParallel(validations);
+		java.util.Set<String> existing = getJourneysForeignKeys().keySet();
+		boolean autoCommit = db.getAutoCommit();
+		db.setAutoCommit(false);
+		try (Statement stmt = db.createStatement()) {
+			for (java.util.Map.Entry<String, String> foreignKey : deferredForeignKeys.entrySet()) {
+				if (!existing.contains(foreignKey.getKey())) {
+					stmt.execute("ALTER TABLE " + JOURNEYS_TABLE_NAME + " ADD CONSTRAINT " + foreignKey.getKey() + " "
+							+ foreignKey.getValue());
+				}
+			}
+			stmt.executeUpdate("DELETE FROM " + DEFERRED_FOREIGN_KEYS_TABLE_NAME);
+			db.commit();
+		} catch (SQLException e) {
+			db.rollback();
+			throw e;
+		} finally {
+			db.setAutoCommit(autoCommit);
+		}
+		info("Restored {0} deferred foreign keys", deferredForeignKeys.size());
+		recordPhase("constraint", start);
+	}
+
+	/**
+	 * Adds the foreign keys of the journeys table to a staging table. The
+	 * constraints are added without validation, and validated in parallel, thus
+	 * the journeys are not checked row by row, and the attaching adopts the
+	 * validated constraints.
+	 * 
+	 * @param stagingTable The name of the staging table.
+	 * @throws SQLException The adding or the validation failed.
+	 */
+	protected void addStagingForeignKeys(String stagingTable) throws SQLException {
+		List<String> validations = new java.util.ArrayList<>();
+		try (Statement stmt = getConnection().createStatement()) {
+			for (java.util.Map.Entry<String, String> foreignKey : getJourneysForeignKeys().entrySet()) {
+				stmt.execute("ALTER TABLE " + stagingTable + " ADD CONSTRAINT " + stagingTable + "_"
+						+ foreignKey.getKey() + " " + foreignKey.getValue() + " NOT VALID");
+				validations.add(
+						"ALTER TABLE " + stagingTable + " VALIDATE CONSTRAINT " + stagingTable + "_" + foreignKey.getKey());
+			}
+		}
+		executeInParallel(validations);
+	}
+
+	/**
+	 * Loads journeys into the journeys table through a staging table.
+	 * 
+	 * The journeys are loaded into a new staging table, which is attached as the
+	 * partition of its month after a successful load. A failed load, or a failed
+	 * attaching or moving of the loaded journeys, is discarded by dropping the
+	 * staging table, thus no staging table is left behind. The dialects without
+	 * partitions load the journeys directly into the journeys table.
+	 * 
+	 * @param loader The loader of the journeys into the staging table.
+	 * @return True, if and only if the loading succeeded.
+	 * @throws java.io.IOException The reading of the journeys failed.
+	 * @throws SQLException        The storing of the journeys failed.
+	 */
+	public boolean loadIntoPartition(StagingLoader loader) throws java.io.IOException, SQLException {
+		if (!getDialect().supportsPartitions()) {
+			// The journeys are loaded directly into the journeys table.
+			long start = System.nanoTime();
+			try {
+				return loader.load(JOURNEYS_TABLE_NAME);
+			} finally {
+				recordPhase("load", start);
+			}
+		}
+		String stagingTable = createStagingTable();
+		boolean stored = false;
+		try {
+			long start = System.nanoTime();
+			boolean loaded = loader.load(stagingTable);
+			recordPhase("load", start);
+			if (loaded) {
+				// The staging table is attached, moved or dropped as empty.
+				attachStagingTable(stagingTable);
+				stored = true;
+			}
+			return loaded;
+		} finally {
+			if (!stored) {
+				try {
+					dropStagingTable(stagingTable);
+				} catch (SQLException e) {
+					// The failure of the load is not hidden by the failure of the dropping.
+					severe("Dropping staging table {0} failed due {1}", stagingTable, e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of staged rows inserted with a single batch.
+	 */
+	public static final int STATION_BATCH_SIZE = 500;
+
+	/**
+	 * The station file column of the station identifier.
+	 */
+	public static final String STATION_ID_COLUMN = "ID";
+
+	/**
+	 * The station file column of the operator name.
+	 */
+	public static final String STATION_OPERATOR_COLUMN = "Operaattor";
+
+	/**
+	 * The station file column of the station capacity.
+	 */
+	public static final String STATION_CAPACITY_COLUMN = "Kapasiteet";
+
+	/**
+	 * The station file columns of the coordinates.
+	 */
+	public static final List<String> STATION_COORDINATE_COLUMNS = Arrays.asList("x", "y");
+
+	/**
+	 * The station file columns of the station names by their languages.
+	 */
+	public static final java.util.Map<String, String> STATION_NAME_COLUMNS = java.util.Map.of("fi", "Nimi", "sv",
+			"Namn", "en", "Name");
+
+	/**
+	 * The statements creating the staging tables of the station import. The
+	 * staging tables are temporary tables of the session emptied on commit.
+	 */
+	private static final List<String> CREATE_STATION_STAGING_SQL = Arrays.asList(
+			"CREATE TEMPORARY TABLE IF NOT EXISTS station_staging (sid smallint PRIMARY KEY, "
+					+ "operator_name varchar(80), capacity smallint, x decimal(9, 6), y decimal(9, 6)) "
+					+ "ON COMMIT DELETE ROWS",
+			"CREATE TEMPORARY TABLE IF NOT EXISTS station_name_staging (sid smallint, lang varchar(20), "
+					+ "name varchar(80), PRIMARY KEY (sid, lang)) ON COMMIT DELETE ROWS");
+
+	/**
+	 * The statements moving the staged stations into the station tables in
+	 * order. The count of the stations upsert is the number of imported stations.
+	 */
+	private static final List<String> UPSERT_STATIONS_SQL = Arrays.asList(
+			"INSERT INTO operators (operator_name) SELECT DISTINCT operator_name FROM station_staging "
+					+ "WHERE operator_name IS NOT NULL ON CONFLICT (operator_name) DO NOTHING",
+			"INSERT INTO stations (sid, operator_id, capacity, x, y) "
+					+ "SELECT s.sid, o.opid, s.capacity, s.x, s.y FROM station_staging s "
+					+ "LEFT JOIN operators o ON o.operator_name = s.operator_name "
+					+ "ON CONFLICT (sid) DO UPDATE SET operator_id = EXCLUDED.operator_id, "
+					+ "capacity = EXCLUDED.capacity, x = EXCLUDED.x, y = EXCLUDED.y "
+					+ "WHERE (stations.operator_id, stations.capacity, stations.x, stations.y) "
+					+ "IS DISTINCT FROM (EXCLUDED.operator_id, EXCLUDED.capacity, EXCLUDED.x, EXCLUDED.y)",
+			"INSERT INTO station_names (station_id, lang, name) SELECT sid, lang, name FROM station_name_staging "
+					+ "ON CONFLICT (station_id, lang) DO UPDATE SET name = EXCLUDED.name "
+					+ "WHERE station_names.name IS DISTINCT FROM EXCLUDED.name",
+			"SELECT setval('stations_sid_seq', GREATEST((SELECT MAX(sid) FROM stations), 1))");
+
+	/**
+	 * The statements emptying the staging tables of the embedded station import.
+	 * The staging tables are created by the database script, as the temporary
+	 * tables of the embedded database cannot be merged from.
+	 */
+	private static final List<String> CLEAR_STATION_STAGING_SQL = Arrays.asList("DELETE FROM station_staging",
+			"DELETE FROM station_name_staging");
+
+	/**
+	 * The condition of a column of two tables differing, where an undefined value
+	 * differs from a defined value. The embedded database has no null-safe
+	 * comparison of rows.
+	 * 
+	 * @param target  The name of the target table.
+	 * @param source  The name of the source table.
+	 * @param columns The compared columns.
+	 * @return The condition of any of the columns differing.
+	 */
+	private static String differs(String target, String source, String... columns) {
+		java.util.StringJoiner result = new java.util.StringJoiner(" OR ");
+		for (String column : columns) {
+			String t = target + "." + column, s = source + "." + column;
+			result.add(t + " <> " + s + " OR " + t + " IS NULL AND " + s + " IS NOT NULL OR " + t + " IS NOT NULL AND "
+					+ s + " IS NULL");
+		}
+		return result.toString();
+	}
+
+	/**
+	 * The statements merging the staged stations into the station tables of the
+	 * embedded database in order. The unchanged stations are not rewritten.
+	 */
+	private static final List<String> MERGE_STATIONS_SQL = Arrays.asList(
+			"INSERT INTO operators (operator_name) SELECT DISTINCT operator_name FROM station_staging s "
+					+ "WHERE operator_name IS NOT NULL "
+					+ "AND NOT EXISTS (SELECT 1 FROM operators o WHERE o.operator_name = s.operator_name)",
+			"UPDATE station_staging SET operator_id = "
+					+ "(SELECT opid FROM operators WHERE operators.operator_name = station_staging.operator_name)",
+			"MERGE INTO stations USING station_staging s ON stations.sid = s.sid "
+					+ "WHEN MATCHED AND (" + differs("stations", "s", "operator_id", "capacity", "x", "y") + ") "
+					+ "THEN UPDATE SET operator_id = s.operator_id, capacity = s.capacity, x = s.x, y = s.y "
+					+ "WHEN NOT MATCHED THEN INSERT (sid, operator_id, capacity, x, y) "
+					+ "VALUES (s.sid, s.operator_id, s.capacity, s.x, s.y)",
+			"MERGE INTO station_names USING station_name_staging s "
+					+ "ON station_names.station_id = s.sid AND station_names.lang = s.lang "
+					+ "WHEN MATCHED AND station_names.name <> s.name THEN UPDATE SET name = s.name "
+					+ "WHEN NOT MATCHED THEN INSERT (station_id, lang, name) VALUES (s.sid, s.lang, s.name)",
+			"DELETE FROM station_staging", "DELETE FROM station_name_staging");
+
+	/**
+	 * The index of a station file column.
+	 * 
+	 * @param header The header fields.
+	 * @param column The column name.
+	 * @return The index of the column, or -1, if the column does not exist.
+	 */
+	private static int indexOfColumn(List<String> header, String column) {
+		for (int i = 0; i < header.size(); i++) {
+			if (column.equalsIgnoreCase(header.get(i).trim())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * The trimmed value of a station file field.
+	 * 
+	 * @param parser The parser at the station record.
+	 * @param field  The index of the field, or -1, if the column does not exist.
+	 * @return The trimmed value, or undefined value, if the field is missing or
+	 *         blank.
+	 */
+	private static String getTrimmed(Utf8CSVParser parser, int field) {
+		if (field < 0 || field >= parser.getFieldCount() || parser.isEmpty(field)) {
+			return null;
+		}
+		String result = parser.getSharedString(field).trim();
+		return result.isEmpty() ? null : result;
+	}
+
+	/**
+	 * Imports the station file into the station tables.
+	 * 
+	 * The whole station file is staged into temporary tables, and the operators,
+	 * the stations and the station names are upserted with a single statement
+	 * each within one transaction. The embedded database merges from the staging
+	 * tables of the database script. The per row triggers of the station views are
+	 * not used, and the existing unchanged rows are not rewritten.
+	 * 
+	 * @param source The source of the station CSV file.
+	 * @return The number of inserted or updated stations.
+	 * @throws java.io.IOException      The reading of the source failed.
+	 * @throws SQLException             The import failed. The station tables are
+	 *                                  not altered.
+	 * @throws IllegalArgumentException The station file has no station
+	 *                                  identifier column.
+	 */
+	public int importStations(InputStream source) throws java.io.IOException, SQLException, IllegalArgumentException {
+		long start = System.nanoTime();
+		java.sql.Connection db = this.getConnection();
+		boolean autoCommit = db.getAutoCommit();
+		int result = 0;
+		int staged = 0;
+		try (Utf8CSVParser parser = new Utf8CSVParser(source)) {
+			if (!parser.nextRecord()) {
+				throw new IllegalArgumentException("Missing station file header");
+			}
+			List<String> header = parser.getStrings();
+			int idField = indexOfColumn(header, STATION_ID_COLUMN);
+			if (idField < 0) {
+				throw new IllegalArgumentException(format("Missing station file column {0}", STATION_ID_COLUMN));
+			}
+			int operatorField = indexOfColumn(header, STATION_OPERATOR_COLUMN);
+			int capacityField = indexOfColumn(header, STATION_CAPACITY_COLUMN);
+			int xField = indexOfColumn(header, STATION_COORDINATE_COLUMNS.get(0));
+			int yField = indexOfColumn(header, STATION_COORDINATE_COLUMNS.get(1));
+			java.util.Map<String, Integer> nameFields = new java.util.TreeMap<>();
+			STATION_NAME_COLUMNS.forEach((String lang, String column) -> {
+				if (indexOfColumn(header, column) >= 0) {
+					nameFields.put(lang, indexOfColumn(header, column));
+				}
+			});
+
+			boolean partitioned = getDialect().supportsPartitions();
+			db.setAutoCommit(false);
+			try (Statement stmt = db.createStatement()) {
+				for (String sql : (partitioned ? CREATE_STATION_STAGING_SQL : CLEAR_STATION_STAGING_SQL)) {
+					stmt.execute(sql);
+				}
+			}
+			// The first record of a station is imported.
+			java.util.Set<Integer> stagedStations = new java.util.HashSet<>();
+			try (java.sql.PreparedStatement stations = db.prepareStatement(
+					"INSERT INTO station_staging (sid, operator_name, capacity, x, y) VALUES (?,?,?,?,?)");
+					java.sql.PreparedStatement names = db.prepareStatement(
+							"INSERT INTO station_name_staging (sid, lang, name) VALUES (?,?,?)")) {
+				int sid, capacity;
+				String value;
+				while (parser.nextRecord()) {
+					try {
+						sid = parser.parseInt(idField, -1);
+						capacity = (capacityField < 0 ? -1 : parser.parseInt(capacityField, -1));
+						if (sid < 0 || stagedStations.contains(sid)) {
+							continue;
+						}
+						stations.setInt(1, sid);
+						stations.setString(2, getTrimmed(parser, operatorField));
+						if (capacity < 0) {
+							stations.setNull(3, java.sql.Types.SMALLINT);
+						} else {
+							stations.setInt(3, capacity);
+						}
+						value = getTrimmed(parser, xField);
+						stations.setBigDecimal(4, value == null ? null : new java.math.BigDecimal(value));
+						value = getTrimmed(parser, yField);
+						stations.setBigDecimal(5, value == null ? null : new java.math.BigDecimal(value));
+						stagedStations.add(sid);
+					} catch (CSVException.FieldException | NumberFormatException e) {
+						severe("Station record at line {0} rejected: {1}", parser.getLineNumber(), e.getMessage());
+						continue;
+					}
+					stations.addBatch();
+					for (java.util.Map.Entry<String, Integer> nameField : nameFields.entrySet()) {
+						value = getTrimmed(parser, nameField.getValue());
+						if (value != null) {
+							names.setInt(1, sid);
+							names.setString(2, nameField.getKey());
+							names.setString(3, value);
+							names.addBatch();
+						}
+					}
+					if (++staged % STATION_BATCH_SIZE == 0) {
+						stations.executeBatch();
+						names.executeBatch();
+					}
+				}
+				stations.executeBatch();
+				names.executeBatch();
+			}
+
+			try (Statement stmt = db.createStatement()) {
+				for (String sql : (partitioned ? UPSERT_STATIONS_SQL : MERGE_STATIONS_SQL)) {
+					if (sql.startsWith("SELECT")) {
+						stmt.executeQuery(sql).close();
+					} else if (sql.startsWith("INSERT INTO stations ") || sql.startsWith("MERGE INTO stations ")) {
+						result = stmt.executeUpdate(sql);
+					} else {
+						stmt.executeUpdate(sql);
+					}
+				}
+			}
+			db.commit();
+		} catch (SQLException | java.io.IOException | RuntimeException e) {
+			if (!db.getAutoCommit()) {
+				db.rollback();
+			}
+			throw e;
+		} finally {
+			db.setAutoCommit(autoCommit);
+		}
+		info("Imported {0} of {1} stations in {2} ms", result, staged, (System.nanoTime() - start) / 1000000);
+		return result;
 	}
 	
 	/**
@@ -122,6 +1289,9 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 
 		@Override
 		public String info(String format, Object... formatArgs) {
+			if (!isLoggable(Level.INFO)) {
+				return null;
+			}
 			String result = format("Record: {0} of Source {1}: {2}", 
 					this.getRecordNumber(), this.getSourceName(), format(format, formatArgs));
 			Logger log = this.getLogger();
@@ -245,11 +1415,12 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 				info("No station info found");
 				return;
 			} else {
-				CSVReader stationReader = this.new StationFileReader();
-				stationReader.open(in);
+				// The stations are imported as a set without the station view triggers.
+				importStations(in);
 
-				// Loading journeys after stations has been initialized.
-				JourneysLoader loader;
+				// Loading journeys after stations has been initialized. The files share the
+				// cached statements of the journeys.
+				DatabaseJourneys journeys = new DatabaseJourneys(this.getConnection());
 				for (String fileName : Arrays.asList("2021-05.csv", "2021-06.csv", "2021-07.csv")) {
 					in = getClass().getResourceAsStream("/solita.helsinkicitybikeapp/data" + fileName);
 					if (in == null) {
@@ -257,8 +1428,15 @@ public class JourneyDB implements i18n.Logging.LocalizedMessageLogging {
 					} else {
 						if (in != null) {
 							// Loading the csvs.
-							loader = new JourneysLoader(in, this.getConnection());
-							if (loader.readAll()) {
+							InputStream source = in;
+							if (loadIntoPartition((String stagingTable) -> {
+								journeys.setTargetTableName(stagingTable);
+								try {
+									return new JourneysLoader(source, journeys).readAll();
+								} finally {
+									journeys.setTargetTableName(null);
+								}
+							})) {
 								// The loading of the journeys succeeded.
 								info("Journey data {0} read from jar", fileName);
 							} else {
@@ -0,0 +1,290 @@
+package solita.helsinkicitybikeapp.model.db;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.metrics.Counter;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
+
+/**
+ * The router of the read queries to the read replicas of the database.
+ *
+ * The reads are distributed over the healthy replicas in round-robin order.
+ * The replicas are checked periodically: a replica is healthy, if it answers,
+ * its replication lag is within the maximum lag, and its data set version is
+ * not behind the version required by the reader. Without an eligible replica
+ * the reader uses the primary database.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class ReplicaRouter implements Closeable, Logging.MessageLogging {
+
+	/**
+	 * The default maximum replication lag of a used replica in milliseconds.
+	 */
+	public static final long DEFAULT_MAX_LAG = 30000;
+
+	/**
+	 * The default interval of the health checks in milliseconds.
+	 */
+	public static final long DEFAULT_CHECK_INTERVAL = 5000;
+
+	/**
+	 * The borrow timeout of the replica connection pools in milliseconds. A
+	 * replica not giving a connection quickly is skipped.
+	 */
+	public static final long REPLICA_BORROW_TIMEOUT = 1000;
+
+	/**
+	 * The query of the replication lag of a PostgreSQL replica in milliseconds.
+	 * A replica, which has replayed all received changes, has no lag.
+	 */
+	private static final String POSTGRESQL_LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery() "
+			+ "OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+			+ "ELSE COALESCE(EXTRACT(EPOCH FROM (clock_timestamp() - pg_last_xact_replay_timestamp())) * 1000, 0) END";
+
+	/**
+	 * The number of reads routed to the replicas.
+	 */
+	private static final Counter REPLICA_READS = MetricsRegistry.getDefault().counter("db_routed_reads_total",
+			"The number of the routed database reads.", "target", "replica");
+
+	/**
+	 * The number of reads routed to the primary database due missing eligible
+	 * replica.
+	 */
+	private static final Counter PRIMARY_READS = MetricsRegistry.getDefault().counter("db_routed_reads_total",
+			"The number of the routed database reads.", "target", "primary");
+
+	/**
+	 * The state of a replica.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	private static final class Replica {
+
+		/**
+		 * The name of the replica in the log.
+		 */
+		private final String name;
+
+		/**
+		 * The connection pool of the replica.
+		 */
+		private final ConnectionPool pool;
+
+		/**
+		 * Did the last health check succeed.
+		 */
+		private volatile boolean healthy = false;
+
+		/**
+		 * The replication lag of the last health check in milliseconds.
+		 */
+		private volatile long lag = Long.MAX_VALUE;
+
+		/**
+		 * The data set version of the last health check.
+		 */
+		private volatile long version = Long.MIN_VALUE;
+
+		/**
+		 * Creates a new replica.
+		 *
+		 * @param name The name of the replica.
+		 * @param pool The connection pool of the replica.
+		 */
+		private Replica(String name, ConnectionPool pool) {
+			this.name = name;
+			this.pool = pool;
+		}
+	}
+
+	/**
+	 * The replicas.
+	 */
+	private final List<Replica> replicas;
+
+	/**
+	 * The maximum replication lag of a used replica in milliseconds.
+	 */
+	private final long maxLag;
+
+	/**
+	 * The index of the next replica of the round-robin.
+	 */
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * The executor of the health checks.
+	 */
+	private final ScheduledExecutorService healthCheck;
+
+	/**
+	 * Creates a new router with the default lag and check interval.
+	 *
+	 * @param replicas The connection pools of the replicas by their names.
+	 */
+	public ReplicaRouter(Map<String, ConnectionPool> replicas) {
+		this(replicas, DEFAULT_MAX_LAG, DEFAULT_CHECK_INTERVAL);
+	}
+
+	/**
+	 * Creates a new router.
+	 *
+	 * @param replicas      The connection pools of the replicas by their names.
+	 *                      The router closes the pools.
+	 * @param maxLag        The maximum replication lag of a used replica in
+	 *                      milliseconds.
+	 * @param checkInterval The interval of the health checks in milliseconds.
+	 * @throws IllegalArgumentException The lag was negative or the interval was
+	 *                                  not positive.
+	 */
+	public ReplicaRouter(Map<String, ConnectionPool> replicas, long maxLag, long checkInterval)
+			throws IllegalArgumentException {
+		if (maxLag < 0 || checkInterval <= 0) {
+			throw new IllegalArgumentException("Negative lag or non-positive check interval");
+		}
+		List<Replica> list = new ArrayList<>();
+		replicas.forEach((String name, ConnectionPool pool) -> list.add(new Replica(name, pool)));
+		this.replicas = Collections.unmodifiableList(list);
+		this.maxLag = maxLag;
+		this.healthCheck = Executors.newSingleThreadScheduledExecutor((Runnable task) -> {
+			Thread result = new Thread(task, "replica-health-check");
+			result.setDaemon(true);
+			return result;
+		});
+		this.healthCheck.scheduleWithFixedDelay(this::checkHealth, 0, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * The number of replicas.
+	 *
+	 * @return The number of the routed replicas.
+	 */
+	public int getReplicaCount() {
+		return replicas.size();
+	}
+
+	/**
+	 * The number of replicas eligible for reading.
+	 *
+	 * @param minVersion The minimum data set version of the read.
+	 * @return The number of the healthy replicas within the maximum lag and not
+	 *         behind the version.
+	 */
+	public int getEligibleCount(long minVersion) {
+		int result = 0;
+		for (Replica replica : replicas) {
+			if (isEligible(replica, minVersion)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Is a replica eligible for reading.
+	 *
+	 * @param replica    The replica.
+	 * @param minVersion The minimum data set version of the read.
+	 * @return True, if and only if the replica is healthy, within the maximum
+	 *         lag, and not behind the version.
+	 */
+	private boolean isEligible(Replica replica, long minVersion) {
+		return replica.healthy && replica.lag <= maxLag && replica.version >= minVersion;
+	}
+
+	/**
+	 * Checks the health, the lag and the data set version of the replicas.
+	 */
+	public void checkHealth() {
+		for (Replica replica : replicas) {
+			boolean wasHealthy = replica.healthy;
+			try (Connection db = replica.pool.getConnection(); Statement stmt = db.createStatement()) {
+				if (SQLDialect.of(db).supportsPartitions()) {
+					// Only the PostgreSQL replicas replicate.
+					try (ResultSet result = stmt.executeQuery(POSTGRESQL_LAG_QUERY)) {
+						replica.lag = (result.next() ? (long) result.getDouble(1) : Long.MAX_VALUE);
+					}
+				} else {
+					replica.lag = 0;
+				}
+				// The version sequence of a PostgreSQL replica may run ahead of the primary
+				// by the values logged in advance, thus the lag bounds the staleness.
+				try (ResultSet result = stmt.executeQuery(SQLDialect.of(db).getVersionQuery())) {
+					replica.version = (result.next() ? result.getLong(1) : Long.MIN_VALUE);
+				}
+				replica.healthy = true;
+			} catch (SQLException | RuntimeException e) {
+				replica.healthy = false;
+				if (wasHealthy) {
+					severe("Replica {0} failed health check: {1}", replica.name, e.getMessage());
+				}
+			}
+			if (replica.healthy && !wasHealthy) {
+				info("Replica {0} is healthy with lag {1} ms", replica.name, replica.lag);
+			} else if (replica.healthy && replica.lag > maxLag) {
+				fine("Replica {0} lags {1} ms", replica.name, replica.lag);
+			}
+		}
+	}
+
+	/**
+	 * Borrows a connection of the next eligible replica.
+	 *
+	 * @param minVersion The minimum data set version of the read. The replicas
+	 *                   behind the version are skipped.
+	 * @return The borrowed replica connection, which must be closed after use,
+	 *         or undefined value, if no replica is eligible, and the read has to
+	 *         use the primary database.
+	 */
+	public Connection getReadConnection(long minVersion) {
+		int count = replicas.size();
+		if (count > 0) {
+			int start = Math.floorMod(next.getAndIncrement(), count);
+			Replica replica;
+			for (int i = 0; i < count; i++) {
+				replica = replicas.get((start + i) % count);
+				if (isEligible(replica, minVersion)) {
+					try {
+						Connection result = replica.pool.getConnection();
+						REPLICA_READS.increment();
+						return result;
+					} catch (SQLException e) {
+						// The replica is skipped until the next health check.
+						replica.healthy = false;
+						severe("Replica {0} skipped: {1}", replica.name, e.getMessage());
+					}
+				}
+			}
+		}
+		PRIMARY_READS.increment();
+		return null;
+	}
+
+	/**
+	 * Stops the health checks and closes the replica connection pools.
+	 */
+	@Override
+	public void close() {
+		healthCheck.shutdownNow();
+		for (Replica replica : replicas) {
+			replica.pool.close();
+		}
+	}
+}
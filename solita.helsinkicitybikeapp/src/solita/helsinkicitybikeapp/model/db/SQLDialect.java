@@ -0,0 +1,195 @@
+package solita.helsinkicitybikeapp.model.db;
+
+import java.sql.SQLException;
+
+/**
+ * The SQL dialects of the supported database management systems.
+ *
+ * The networked PostgreSQL database is the default database. The embedded
+ * Derby database runs within the program, and serves small installations and
+ * the measurements without a database server.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public enum SQLDialect {
+
+	/**
+	 * The PostgreSQL database server.
+	 */
+	POSTGRESQL("postgresql", "PostgreSQL", false, true, true, "SELECT last_value FROM dataset_version_sequence"),
+
+	/**
+	 * The embedded Apache Derby database.
+	 */
+	DERBY("derby", "Apache Derby", true, false, false,
+			"VALUES SYSCS_UTIL.SYSCS_PEEK_AT_SEQUENCE(CURRENT SCHEMA, 'DATASET_VERSION_SEQUENCE')");
+
+	/**
+	 * The JDBC protocol name of the dialect.
+	 */
+	private final String protocol;
+
+	/**
+	 * The database product name reported by the JDBC driver.
+	 */
+	private final String productName;
+
+	/**
+	 * Does the database run within the program.
+	 */
+	private final boolean embedded;
+
+	/**
+	 * Does the dialect support partitioned tables, the PL/pgSQL functions, and
+	 * the PostgreSQL system catalogs.
+	 */
+	private final boolean partitioned;
+
+	/**
+	 * Does the dialect support the RETURNING clause of the insert statement.
+	 */
+	private final boolean returning;
+
+	/**
+	 * The query of the data set version.
+	 */
+	private final String versionQuery;
+
+	/**
+	 * Creates a new dialect.
+	 *
+	 * @param protocol     The JDBC protocol name.
+	 * @param productName  The database product name.
+	 * @param embedded     Does the database run within the program.
+	 * @param partitioned  Does the dialect support the partitioned tables.
+	 * @param returning    Does the dialect support the RETURNING clause.
+	 * @param versionQuery The query of the data set version.
+	 */
+	private SQLDialect(String protocol, String productName, boolean embedded, boolean partitioned,
+			boolean returning, String versionQuery) {
+		this.protocol = protocol;
+		this.productName = productName;
+		this.embedded = embedded;
+		this.partitioned = partitioned;
+		this.returning = returning;
+		this.versionQuery = versionQuery;
+	}
+
+	/**
+	 * The JDBC protocol name of the dialect.
+	 *
+	 * @return The protocol name used in the JDBC connection URL.
+	 */
+	public String getProtocol() {
+		return protocol;
+	}
+
+	/**
+	 * Does the database run within the program.
+	 *
+	 * @return True, if and only if the database is opened by its name without a
+	 *         server.
+	 */
+	public boolean isEmbedded() {
+		return embedded;
+	}
+
+	/**
+	 * Does the dialect support partitioned journeys.
+	 *
+	 * @return True, if and only if the journeys are partitioned by month, and
+	 *         loaded through the staging partitions.
+	 */
+	public boolean supportsPartitions() {
+		return partitioned;
+	}
+
+	/**
+	 * Does the dialect support the RETURNING clause.
+	 *
+	 * @return True, if and only if the inserts return the generated keys with the
+	 *         RETURNING clause. Otherwise the generated keys are fetched from the
+	 *         statement.
+	 */
+	public boolean supportsReturning() {
+		return returning;
+	}
+
+	/**
+	 * The query of the data set version.
+	 *
+	 * The data set version is a sequence increased whenever journeys or stations
+	 * change.
+	 *
+	 * @return The query returning the data set version as its only value.
+	 */
+	public String getVersionQuery() {
+		return versionQuery;
+	}
+
+	/**
+	 * The script creating the station tables.
+	 *
+	 * @return The resource name of the script.
+	 */
+	public String getStationsScript() {
+		return "/db/create_db." + protocol + ".sql";
+	}
+
+	/**
+	 * The script creating the journeys tables.
+	 *
+	 * @return The resource name of the script.
+	 */
+	public String getJourneysScript() {
+		return "/db/create_journeys." + protocol + ".sql";
+	}
+
+	/**
+	 * Does the script contain several statements separated with semicolons. The
+	 * PostgreSQL scripts are executed as a whole.
+	 *
+	 * @return True, if and only if the statements of the scripts are executed one
+	 *         by one.
+	 */
+	public boolean isScriptSplit() {
+		return embedded;
+	}
+
+	/**
+	 * The dialect of a protocol.
+	 *
+	 * @param protocol The database protocol, or undefined value.
+	 * @return The dialect of the protocol. The unknown protocols use the
+	 *         PostgreSQL dialect.
+	 */
+	public static SQLDialect forProtocol(String protocol) {
+		if (protocol != null) {
+			for (SQLDialect dialect : values()) {
+				if (dialect.protocol.equalsIgnoreCase(protocol.trim())) {
+					return dialect;
+				}
+			}
+		}
+		return POSTGRESQL;
+	}
+
+	/**
+	 * The dialect of a database connection.
+	 *
+	 * @param connection The database connection.
+	 * @return The dialect of the database of the connection. The unknown
+	 *         databases use the PostgreSQL dialect.
+	 * @throws SQLException The database metadata was not available.
+	 */
+	public static SQLDialect of(java.sql.Connection connection) throws SQLException {
+		String product = connection.getMetaData().getDatabaseProductName();
+		for (SQLDialect dialect : values()) {
+			if (dialect.productName.equalsIgnoreCase(product)) {
+				return dialect;
+			}
+		}
+		return POSTGRESQL;
+	}
+}
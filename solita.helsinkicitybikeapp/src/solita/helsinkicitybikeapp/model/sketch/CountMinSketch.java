@@ -0,0 +1,204 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The Count-Min sketch estimating the counts of keys.
+ *
+ * Each key is counted in one counter of every row. The estimate of a key is the
+ * minimum of its counters, which never underestimates the count, and
+ * overestimates it by at most e/width of the total count with probability 1 -
+ * e<sup>-depth</sup>. The counting uses the conservative update: only the
+ * counters below the new estimate are raised, which reduces the
+ * overestimation of the rare keys sharing counters with the frequent keys. The
+ * sketches of the same dimensions are merged by adding their counters.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class CountMinSketch {
+
+	/**
+	 * The default number of rows.
+	 */
+	public static final int DEFAULT_DEPTH = 4;
+
+	/**
+	 * The default number of counters of a row.
+	 */
+	public static final int DEFAULT_WIDTH = 1 << 16;
+
+	/**
+	 * The number of rows.
+	 */
+	private final int depth;
+
+	/**
+	 * The number of counters of a row.
+	 */
+	private final int width;
+
+	/**
+	 * The counters of the rows one row after another.
+	 */
+	private final long[] counters;
+
+	/**
+	 * The total count of the keys.
+	 */
+	private long total = 0;
+
+	/**
+	 * Creates a new empty sketch with the default dimensions.
+	 */
+	public CountMinSketch() {
+		this(DEFAULT_DEPTH, DEFAULT_WIDTH);
+	}
+
+	/**
+	 * Creates a new empty sketch.
+	 *
+	 * @param depth The number of rows.
+	 * @param width The number of counters of a row. The width is a power of two.
+	 * @throws IllegalArgumentException The depth was not positive, or the width
+	 *                                  was not a power of two.
+	 */
+	public CountMinSketch(int depth, int width) throws IllegalArgumentException {
+		if (depth <= 0 || width <= 0 || Integer.bitCount(width) != 1 || (long) depth * width > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid dimensions " + depth + "x" + width);
+		}
+		this.depth = depth;
+		this.width = width;
+		this.counters = new long[depth * width];
+	}
+
+	/**
+	 * The number of rows.
+	 *
+	 * @return The depth of the sketch.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * The number of counters of a row.
+	 *
+	 * @return The width of the sketch.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * The total count of the keys.
+	 *
+	 * @return The sum of the added counts.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * The counter of a key on a row.
+	 *
+	 * The counters of the rows are derived from the two halves of a single hash.
+	 *
+	 * @param hash The hash of the key.
+	 * @param row  The row.
+	 * @return The index of the counter of the key.
+	 */
+	private int indexOf(long hash, int row) {
+		return row * width + (((int) hash + row * (int) (hash >>> 32)) & (width - 1));
+	}
+
+	/**
+	 * Counts a key.
+	 *
+	 * @param key   The counted key.
+	 * @param count The added count.
+	 * @return The estimated count of the key after adding.
+	 */
+	public long add(long key, long count) {
+		long hash = Hashing.hash(key), result = estimate(key) + count;
+		int index;
+		for (int row = 0; row < depth; row++) {
+			index = indexOf(hash, row);
+			if (counters[index] < result) {
+				counters[index] = result;
+			}
+		}
+		total += count;
+		return result;
+	}
+
+	/**
+	 * The estimated count of a key.
+	 *
+	 * @param key The key.
+	 * @return The estimate, which is not less than the count of the key.
+	 */
+	public long estimate(long key) {
+		long hash = Hashing.hash(key), result = Long.MAX_VALUE;
+		for (int row = 0; row < depth; row++) {
+			result = Math.min(result, counters[indexOf(hash, row)]);
+		}
+		return result;
+	}
+
+	/**
+	 * Merges another sketch into this sketch.
+	 *
+	 * @param other The merged sketch.
+	 * @return This sketch estimating the counts of both sketches.
+	 * @throws IllegalArgumentException The dimensions differed.
+	 */
+	public CountMinSketch merge(CountMinSketch other) throws IllegalArgumentException {
+		if (other.depth != depth || other.width != width) {
+			throw new IllegalArgumentException("Merging sketches of different dimensions");
+		}
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] += other.counters[i];
+		}
+		total += other.total;
+		return this;
+	}
+
+	/**
+	 * Writes the sketch.
+	 *
+	 * @param out The output.
+	 * @throws IOException The writing failed.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(depth);
+		out.writeInt(width);
+		out.writeLong(total);
+		for (long counter : counters) {
+			out.writeLong(counter);
+		}
+	}
+
+	/**
+	 * Reads a sketch.
+	 *
+	 * @param in The input.
+	 * @return The read sketch.
+	 * @throws IOException The reading failed, or the sketch was corrupted.
+	 */
+	public static CountMinSketch read(DataInput in) throws IOException {
+		CountMinSketch result;
+		try {
+			result = new CountMinSketch(in.readInt(), in.readInt());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Corrupted Count-Min sketch", e);
+		}
+		result.total = in.readLong();
+		for (int i = 0; i < result.counters.length; i++) {
+			result.counters[i] = in.readLong();
+		}
+		return result;
+	}
+}
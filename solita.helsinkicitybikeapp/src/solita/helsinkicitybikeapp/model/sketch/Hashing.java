@@ -0,0 +1,34 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+/**
+ * The hashing of the sketched keys.
+ *
+ * The sketches hash the keys with the finalizer of the SplitMix64 generator,
+ * which spreads every bit of the key over the whole hash. The hashes do not
+ * depend on the running program, and thus the written sketches remain
+ * mergeable with the sketches of later imports.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+final class Hashing {
+
+	/**
+	 * The hashing has no instances.
+	 */
+	private Hashing() {
+	}
+
+	/**
+	 * The hash of a key.
+	 *
+	 * @param key The hashed key.
+	 * @return The 64-bit hash of the key.
+	 */
+	static long hash(long key) {
+		long result = key + 0x9E3779B97F4A7C15L;
+		result = (result ^ (result >>> 30)) * 0xBF58476D1CE4E5B9L;
+		result = (result ^ (result >>> 27)) * 0x94D049BB133111EBL;
+		return result ^ (result >>> 31);
+	}
+}
@@ -0,0 +1,331 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The most frequent keys estimated with a Count-Min sketch.
+ *
+ * The keys are counted with a {@link CountMinSketch}, and a bounded min-heap
+ * keeps the keys with the greatest estimates. A key replaces the least frequent
+ * key of a full heap, when its estimate exceeds the estimate of the least
+ * frequent key. Merging merges the sketches and re-estimates the union of the
+ * heap keys.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class HeavyHitters {
+
+	/**
+	 * The default number of the kept keys.
+	 */
+	public static final int DEFAULT_CAPACITY = 100;
+
+	/**
+	 * A frequent key with its estimated count.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static final class Entry {
+
+		/**
+		 * The key.
+		 */
+		private final long key;
+
+		/**
+		 * The estimated count.
+		 */
+		private final long count;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param key   The key.
+		 * @param count The estimated count.
+		 */
+		private Entry(long key, long count) {
+			this.key = key;
+			this.count = count;
+		}
+
+		/**
+		 * The key.
+		 *
+		 * @return The frequent key.
+		 */
+		public long getKey() {
+			return key;
+		}
+
+		/**
+		 * The estimated count.
+		 *
+		 * @return The estimated count of the key.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + count;
+		}
+	}
+
+	/**
+	 * The counts of the keys.
+	 */
+	private final CountMinSketch counts;
+
+	/**
+	 * The keys of the heap.
+	 */
+	private final long[] heapKeys;
+
+	/**
+	 * The estimated counts of the keys of the heap.
+	 */
+	private final long[] heapCounts;
+
+	/**
+	 * The heap positions of the keys of the heap.
+	 */
+	private final Map<Long, Integer> positions = new HashMap<>();
+
+	/**
+	 * The number of keys of the heap.
+	 */
+	private int size = 0;
+
+	/**
+	 * Creates new heavy hitters of the default capacity and sketch.
+	 */
+	public HeavyHitters() {
+		this(DEFAULT_CAPACITY, new CountMinSketch());
+	}
+
+	/**
+	 * Creates new heavy hitters.
+	 *
+	 * @param capacity The number of the kept keys.
+	 * @param counts   The empty sketch counting the keys.
+	 * @throws IllegalArgumentException The capacity was not positive.
+	 */
+	public HeavyHitters(int capacity, CountMinSketch counts) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Non-positive capacity");
+		}
+		this.counts = counts;
+		this.heapKeys = new long[capacity];
+		this.heapCounts = new long[capacity];
+	}
+
+	/**
+	 * The number of the kept keys.
+	 *
+	 * @return The maximum number of the frequent keys.
+	 */
+	public int getCapacity() {
+		return heapKeys.length;
+	}
+
+	/**
+	 * The total count of the keys.
+	 *
+	 * @return The number of the counted keys.
+	 */
+	public long getTotal() {
+		return counts.getTotal();
+	}
+
+	/**
+	 * The estimated count of a key.
+	 *
+	 * @param key The key.
+	 * @return The estimate, which is not less than the count of the key.
+	 */
+	public long estimate(long key) {
+		return counts.estimate(key);
+	}
+
+	/**
+	 * Counts a key once.
+	 *
+	 * @param key The counted key.
+	 */
+	public void add(long key) {
+		offer(key, counts.add(key, 1));
+	}
+
+	/**
+	 * Offers a key to the heap.
+	 *
+	 * @param key      The key.
+	 * @param estimate The current estimate of the key.
+	 */
+	private void offer(long key, long estimate) {
+		Integer position = positions.get(key);
+		if (position != null) {
+			heapCounts[position] = estimate;
+			siftDown(position);
+		} else if (size < heapKeys.length) {
+			heapKeys[size] = key;
+			heapCounts[size] = estimate;
+			positions.put(key, size);
+			siftUp(size++);
+		} else if (estimate > heapCounts[0]) {
+			// The least frequent key is replaced.
+			positions.remove(heapKeys[0]);
+			heapKeys[0] = key;
+			heapCounts[0] = estimate;
+			positions.put(key, 0);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Moves a heap entry towards the root until its parent is not greater.
+	 *
+	 * @param position The position of the entry.
+	 */
+	private void siftUp(int position) {
+		int parent;
+		while (position > 0 && heapCounts[parent = (position - 1) / 2] > heapCounts[position]) {
+			swap(position, parent);
+			position = parent;
+		}
+	}
+
+	/**
+	 * Moves a heap entry towards the leaves until its children are not less.
+	 *
+	 * @param position The position of the entry.
+	 */
+	private void siftDown(int position) {
+		int child;
+		while ((child = 2 * position + 1) < size) {
+			if (child + 1 < size && heapCounts[child + 1] < heapCounts[child]) {
+				child++;
+			}
+			if (heapCounts[child] >= heapCounts[position]) {
+				break;
+			}
+			swap(position, child);
+			position = child;
+		}
+	}
+
+	/**
+	 * Swaps two heap entries.
+	 *
+	 * @param first  The position of the first entry.
+	 * @param second The position of the second entry.
+	 */
+	private void swap(int first, int second) {
+		long key = heapKeys[first], count = heapCounts[first];
+		heapKeys[first] = heapKeys[second];
+		heapCounts[first] = heapCounts[second];
+		heapKeys[second] = key;
+		heapCounts[second] = count;
+		positions.put(heapKeys[first], first);
+		positions.put(heapKeys[second], second);
+	}
+
+	/**
+	 * Merges other heavy hitters into these heavy hitters.
+	 *
+	 * @param other The merged heavy hitters.
+	 * @return These heavy hitters of the keys of both.
+	 * @throws IllegalArgumentException The sketches had different dimensions.
+	 */
+	public HeavyHitters merge(HeavyHitters other) throws IllegalArgumentException {
+		counts.merge(other.counts);
+		Set<Long> candidates = new LinkedHashSet<>(positions.keySet());
+		for (int i = 0; i < other.size; i++) {
+			candidates.add(other.heapKeys[i]);
+		}
+		rebuild(candidates);
+		return this;
+	}
+
+	/**
+	 * Rebuilds the heap of the candidate keys with their current estimates.
+	 *
+	 * @param candidates The candidate keys.
+	 */
+	private void rebuild(Iterable<Long> candidates) {
+		positions.clear();
+		size = 0;
+		for (long key : candidates) {
+			offer(key, counts.estimate(key));
+		}
+	}
+
+	/**
+	 * The most frequent keys.
+	 *
+	 * @param limit The maximum number of the keys.
+	 * @return The most frequent keys in descending order of their estimated
+	 *         counts.
+	 */
+	public List<Entry> top(int limit) {
+		List<Entry> result = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			result.add(new Entry(heapKeys[i], heapCounts[i]));
+		}
+		result.sort(Comparator.comparingLong(Entry::getCount).reversed().thenComparingLong(Entry::getKey));
+		return (result.size() > limit ? new ArrayList<>(result.subList(0, Math.max(0, limit))) : result);
+	}
+
+	/**
+	 * Writes the heavy hitters.
+	 *
+	 * @param out The output.
+	 * @throws IOException The writing failed.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(heapKeys.length);
+		counts.write(out);
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeLong(heapKeys[i]);
+		}
+	}
+
+	/**
+	 * Reads heavy hitters.
+	 *
+	 * @param in The input.
+	 * @return The read heavy hitters.
+	 * @throws IOException The reading failed, or the heavy hitters were
+	 *                     corrupted.
+	 */
+	public static HeavyHitters read(DataInput in) throws IOException {
+		int capacity = in.readInt();
+		if (capacity <= 0 || capacity > 1 << 20) {
+			throw new IOException("Corrupted heavy hitters");
+		}
+		HeavyHitters result = new HeavyHitters(capacity, CountMinSketch.read(in));
+		int size = in.readInt();
+		if (size < 0 || size > capacity) {
+			throw new IOException("Corrupted heavy hitters");
+		}
+		List<Long> keys = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			keys.add(in.readLong());
+		}
+		result.rebuild(keys);
+		return result;
+	}
+}
@@ -0,0 +1,174 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The HyperLogLog sketch estimating the number of distinct keys.
+ *
+ * The sketch keeps the maximum rank of the hashes of each of its 2<sup>p</sup>
+ * registers, where p is the precision. The relative standard error of the
+ * estimate is about 1.04/sqrt(2<sup>p</sup>), and the sketch takes
+ * 2<sup>p</sup> bytes regardless of the number of keys. The union of the key
+ * sets is estimated by merging the sketches of the same precision.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class HyperLogLog {
+
+	/**
+	 * The minimum precision.
+	 */
+	public static final int MIN_PRECISION = 4;
+
+	/**
+	 * The maximum precision.
+	 */
+	public static final int MAX_PRECISION = 16;
+
+	/**
+	 * The default precision with relative standard error of about 1.6 percent.
+	 */
+	public static final int DEFAULT_PRECISION = 12;
+
+	/**
+	 * The precision.
+	 */
+	private final int precision;
+
+	/**
+	 * The maximum ranks of the registers.
+	 */
+	private final byte[] registers;
+
+	/**
+	 * Creates a new empty sketch with the default precision.
+	 */
+	public HyperLogLog() {
+		this(DEFAULT_PRECISION);
+	}
+
+	/**
+	 * Creates a new empty sketch.
+	 *
+	 * @param precision The number of the hash bits selecting the register.
+	 * @throws IllegalArgumentException The precision was out of bounds.
+	 */
+	public HyperLogLog(int precision) throws IllegalArgumentException {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+			throw new IllegalArgumentException("Invalid precision " + precision);
+		}
+		this.precision = precision;
+		this.registers = new byte[1 << precision];
+	}
+
+	/**
+	 * The precision.
+	 *
+	 * @return The number of the hash bits selecting the register.
+	 */
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * Adds a key.
+	 *
+	 * @param key The added key.
+	 */
+	public void add(long key) {
+		long hash = Hashing.hash(key);
+		int index = (int) (hash >>> (Long.SIZE - precision));
+		// The sentinel bit limits the rank of the remaining bits.
+		int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+		if (rank > registers[index]) {
+			registers[index] = (byte) rank;
+		}
+	}
+
+	/**
+	 * Merges another sketch into this sketch.
+	 *
+	 * @param other The merged sketch.
+	 * @return This sketch estimating the union of the key sets.
+	 * @throws IllegalArgumentException The precisions differed.
+	 */
+	public HyperLogLog merge(HyperLogLog other) throws IllegalArgumentException {
+		if (other.precision != precision) {
+			throw new IllegalArgumentException("Merging sketches of different precision");
+		}
+		for (int i = 0; i < registers.length; i++) {
+			if (other.registers[i] > registers[i]) {
+				registers[i] = other.registers[i];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * The estimated number of distinct keys.
+	 *
+	 * @return The estimated number of distinct added keys.
+	 */
+	public long estimate() {
+		int m = registers.length, zeros = 0;
+		double sum = 0;
+		for (byte rank : registers) {
+			sum += Math.scalb(1.0, -rank);
+			if (rank == 0) {
+				zeros++;
+			}
+		}
+		double alpha;
+		switch (m) {
+		case 16:
+			alpha = 0.673;
+			break;
+		case 32:
+			alpha = 0.697;
+			break;
+		case 64:
+			alpha = 0.709;
+			break;
+		default:
+			alpha = 0.7213 / (1 + 1.079 / m);
+		}
+		double result = alpha * m * m / sum;
+		if (result <= 2.5 * m && zeros > 0) {
+			// The small cardinalities are estimated with linear counting.
+			result = m * Math.log((double) m / zeros);
+		}
+		return Math.round(result);
+	}
+
+	/**
+	 * Writes the sketch.
+	 *
+	 * @param out The output.
+	 * @throws IOException The writing failed.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(precision);
+		out.write(registers);
+	}
+
+	/**
+	 * Reads a sketch.
+	 *
+	 * @param in The input.
+	 * @return The read sketch.
+	 * @throws IOException The reading failed, or the sketch was corrupted.
+	 */
+	public static HyperLogLog read(DataInput in) throws IOException {
+		HyperLogLog result;
+		try {
+			result = new HyperLogLog(in.readByte());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Corrupted HyperLogLog sketch", e);
+		}
+		in.readFully(result.registers);
+		return result;
+	}
+}
@@ -0,0 +1,476 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.model.ColumnarJourneys;
+
+/**
+ * The approximate analytics of the journeys maintained while they are loaded.
+ *
+ * The sketches estimate the distinct station pairs of each departure day with
+ * {@link HyperLogLog}, the most frequent routes with {@link HeavyHitters}, and
+ * the quantiles of the distances and the durations with {@link TDigest}. The
+ * sketches take bounded memory regardless of the number of journeys, and are
+ * queried without the journeys. The sketches of parallel loaders and of
+ * separate imports are combined by merging. The sketches count every added
+ * journey, and thus a journey loaded twice is counted twice by the routes and
+ * the quantiles.
+ *
+ * The sketch file starts with the magic {@value #MAGIC}, the format version,
+ * and the time zone, followed by the sketches and the CRC-32 of the preceding
+ * content.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class JourneySketches implements Logging.MessageLogging {
+
+	/**
+	 * The magic identifying the sketch files.
+	 */
+	public static final String MAGIC = "HCBJSKCH";
+
+	/**
+	 * The current format version.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * A frequent route with its estimated number of journeys.
+	 *
+	 * @author Antti Kautiainen
+	 *
+	 */
+	public static final class Route {
+
+		/**
+		 * The departure station identifier.
+		 */
+		private final int startStationId;
+
+		/**
+		 * The return station identifier.
+		 */
+		private final int endStationId;
+
+		/**
+		 * The estimated number of journeys.
+		 */
+		private final long count;
+
+		/**
+		 * Creates a new route.
+		 *
+		 * @param startStationId The departure station identifier.
+		 * @param endStationId   The return station identifier.
+		 * @param count          The estimated number of journeys.
+		 */
+		private Route(int startStationId, int endStationId, long count) {
+			this.startStationId = startStationId;
+			this.endStationId = endStationId;
+			this.count = count;
+		}
+
+		/**
+		 * The departure station identifier.
+		 *
+		 * @return The identifier of the departure station of the route.
+		 */
+		public int getStartStationId() {
+			return startStationId;
+		}
+
+		/**
+		 * The return station identifier.
+		 *
+		 * @return The identifier of the return station of the route.
+		 */
+		public int getEndStationId() {
+			return endStationId;
+		}
+
+		/**
+		 * The estimated number of journeys.
+		 *
+		 * @return The estimate, which is not less than the number of the journeys
+		 *         of the route.
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		@Override
+		public String toString() {
+			return startStationId + "->" + endStationId + "=" + count;
+		}
+	}
+
+	/**
+	 * The time zone of the departure days.
+	 */
+	private final ZoneId zone;
+
+	/**
+	 * The distinct station pairs of the departure days.
+	 */
+	private final NavigableMap<LocalDate, HyperLogLog> dailyPairs = new TreeMap<>();
+
+	/**
+	 * The most frequent routes.
+	 */
+	private HeavyHitters routes = new HeavyHitters();
+
+	/**
+	 * The distances of the journeys.
+	 */
+	private TDigest distances = new TDigest();
+
+	/**
+	 * The durations of the journeys.
+	 */
+	private TDigest durations = new TDigest();
+
+	/**
+	 * The number of the added journeys.
+	 */
+	private long journeyCount = 0;
+
+	/**
+	 * The start of the day of the last departure in milliseconds since epoch.
+	 */
+	private long dayStart = Long.MAX_VALUE;
+
+	/**
+	 * The end of the day of the last departure in milliseconds since epoch.
+	 */
+	private long dayEnd = Long.MIN_VALUE;
+
+	/**
+	 * The distinct station pairs of the day of the last departure.
+	 */
+	private HyperLogLog dayPairs = null;
+
+	/**
+	 * Creates new empty sketches of the system default time zone.
+	 */
+	public JourneySketches() {
+		this(ZoneId.systemDefault());
+	}
+
+	/**
+	 * Creates new empty sketches.
+	 *
+	 * @param zone The time zone of the departure days.
+	 * @throws IllegalArgumentException The time zone was undefined.
+	 */
+	public JourneySketches(ZoneId zone) throws IllegalArgumentException {
+		if (zone == null) {
+			throw new IllegalArgumentException("Undefined time zone");
+		}
+		this.zone = zone;
+	}
+
+	/**
+	 * The time zone of the departure days.
+	 *
+	 * @return The time zone of the days.
+	 */
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	/**
+	 * The key of a route.
+	 *
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @return The key combining the station identifiers.
+	 */
+	public static long routeKey(int startStationId, int endStationId) {
+		return ((long) startStationId << Integer.SIZE) | (endStationId & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Adds a journey.
+	 *
+	 * The undefined values are {@link ColumnarJourneys#UNDEFINED_TIME} and
+	 * {@link ColumnarJourneys#UNDEFINED_INT}. The station pairs are sketched only
+	 * with both stations and the departure time.
+	 *
+	 * @param startTime      The departure time in milliseconds since epoch.
+	 * @param endTime        The return time in milliseconds since epoch.
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @param distance       The covered distance.
+	 * @param duration       The duration.
+	 */
+	public synchronized void add(long startTime, long endTime, int startStationId, int endStationId, int distance,
+			int duration) {
+		journeyCount++;
+		if (startStationId >= 0 && endStationId >= 0) {
+			long route = routeKey(startStationId, endStationId);
+			routes.add(route);
+			if (startTime != ColumnarJourneys.UNDEFINED_TIME) {
+				pairsOf(startTime).add(route);
+			}
+		}
+		if (distance != ColumnarJourneys.UNDEFINED_INT) {
+			distances.add(distance);
+		}
+		if (duration != ColumnarJourneys.UNDEFINED_INT) {
+			durations.add(duration);
+		}
+	}
+
+	/**
+	 * The distinct station pairs of the day of a departure.
+	 *
+	 * The day of the previous departure is remembered, as the departures of a
+	 * journey stream are mostly ordered.
+	 *
+	 * @param time The departure time in milliseconds since epoch.
+	 * @return The sketch of the distinct station pairs of the day.
+	 */
+	private HyperLogLog pairsOf(long time) {
+		if (time < dayStart || time >= dayEnd) {
+			LocalDate day = Instant.ofEpochMilli(time).atZone(zone).toLocalDate();
+			dayStart = day.atStartOfDay(zone).toInstant().toEpochMilli();
+			dayEnd = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+			dayPairs = dailyPairs.computeIfAbsent(day, (LocalDate key) -> new HyperLogLog());
+		}
+		return dayPairs;
+	}
+
+	/**
+	 * Merges other sketches into these sketches. The other sketches must not be
+	 * merging these sketches at the same time.
+	 *
+	 * @param other The merged sketches.
+	 * @return These sketches of the journeys of both.
+	 * @throws IllegalArgumentException The time zones differed.
+	 */
+	public JourneySketches merge(JourneySketches other) throws IllegalArgumentException {
+		if (!zone.equals(other.zone)) {
+			throw new IllegalArgumentException("Merged sketches of different time zones");
+		}
+		synchronized (this) {
+			synchronized (other) {
+				for (Map.Entry<LocalDate, HyperLogLog> entry : other.dailyPairs.entrySet()) {
+					dailyPairs.computeIfAbsent(entry.getKey(),
+							(LocalDate key) -> new HyperLogLog(entry.getValue().getPrecision())).merge(entry.getValue());
+				}
+				routes.merge(other.routes);
+				distances.merge(other.distances);
+				durations.merge(other.durations);
+				journeyCount += other.journeyCount;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * The number of the added journeys.
+	 *
+	 * @return The number of the sketched journeys.
+	 */
+	public synchronized long getJourneyCount() {
+		return journeyCount;
+	}
+
+	/**
+	 * The departure days.
+	 *
+	 * @return The departure days of the sketched journeys in ascending order.
+	 */
+	public synchronized List<LocalDate> getDays() {
+		return new ArrayList<>(dailyPairs.keySet());
+	}
+
+	/**
+	 * The estimated number of the distinct station pairs of a day.
+	 *
+	 * @param day The departure day.
+	 * @return The estimated number of the distinct station pairs of the journeys
+	 *         departed on the day.
+	 */
+	public synchronized long getDistinctPairs(LocalDate day) {
+		HyperLogLog pairs = dailyPairs.get(day);
+		return pairs == null ? 0 : pairs.estimate();
+	}
+
+	/**
+	 * The estimated number of the distinct station pairs of a period.
+	 *
+	 * @param first The first departure day.
+	 * @param last  The last departure day.
+	 * @return The estimated number of the distinct station pairs of the journeys
+	 *         departed within the period.
+	 */
+	public synchronized long getDistinctPairs(LocalDate first, LocalDate last) {
+		if (first.isAfter(last)) {
+			return 0;
+		}
+		HyperLogLog result = null;
+		for (HyperLogLog pairs : dailyPairs.subMap(first, true, last, true).values()) {
+			result = (result == null ? new HyperLogLog(pairs.getPrecision()) : result).merge(pairs);
+		}
+		return result == null ? 0 : result.estimate();
+	}
+
+	/**
+	 * The most frequent routes.
+	 *
+	 * @param limit The maximum number of the routes.
+	 * @return The most frequent routes in descending order of their estimated
+	 *         number of journeys.
+	 */
+	public synchronized List<Route> getTopRoutes(int limit) {
+		List<Route> result = new ArrayList<>();
+		for (HeavyHitters.Entry entry : routes.top(limit)) {
+			result.add(new Route((int) (entry.getKey() >>> Integer.SIZE), (int) entry.getKey(), entry.getCount()));
+		}
+		return result;
+	}
+
+	/**
+	 * The estimated number of journeys of a route.
+	 *
+	 * @param startStationId The departure station identifier.
+	 * @param endStationId   The return station identifier.
+	 * @return The estimate, which is not less than the number of the journeys of
+	 *         the route.
+	 */
+	public synchronized long getRouteCount(int startStationId, int endStationId) {
+		return routes.estimate(routeKey(startStationId, endStationId));
+	}
+
+	/**
+	 * The estimated quantile of the distances.
+	 *
+	 * @param q The quantile between 0 and 1.
+	 * @return The estimated distance of the quantile, or NaN, if no journey had
+	 *         distance.
+	 * @throws IllegalArgumentException The quantile was not between 0 and 1.
+	 */
+	public synchronized double getDistanceQuantile(double q) throws IllegalArgumentException {
+		return distances.quantile(q);
+	}
+
+	/**
+	 * The estimated quantile of the durations.
+	 *
+	 * @param q The quantile between 0 and 1.
+	 * @return The estimated duration of the quantile, or NaN, if no journey had
+	 *         duration.
+	 * @throws IllegalArgumentException The quantile was not between 0 and 1.
+	 */
+	public synchronized double getDurationQuantile(double q) throws IllegalArgumentException {
+		return durations.quantile(q);
+	}
+
+	/**
+	 * Writes the sketches.
+	 *
+	 * The sketches are written into a temporary file, which replaces the target
+	 * only after it has been completely written.
+	 *
+	 * @param target The path of the sketch file.
+	 * @throws IOException The writing failed.
+	 */
+	public synchronized void write(Path target) throws IOException {
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+		CRC32 checksum = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(
+				new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)), checksum))) {
+			out.write(MAGIC.getBytes(StandardCharsets.US_ASCII));
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(zone.getId());
+			out.writeLong(journeyCount);
+			out.writeInt(dailyPairs.size());
+			for (Map.Entry<LocalDate, HyperLogLog> entry : dailyPairs.entrySet()) {
+				out.writeLong(entry.getKey().toEpochDay());
+				entry.getValue().write(out);
+			}
+			routes.write(out);
+			distances.write(out);
+			durations.write(out);
+			out.flush();
+			// The checksum covers the content before it.
+			out.writeLong(checksum.getValue());
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		try {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (java.nio.file.AtomicMoveNotSupportedException e) {
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+		info("Wrote sketches of {0} journeys to {1}", journeyCount, target);
+	}
+
+	/**
+	 * Reads sketches.
+	 *
+	 * @param source The path of the sketch file.
+	 * @return The read sketches.
+	 * @throws IOException The sketches could not be read, or they were corrupted.
+	 */
+	public static JourneySketches read(Path source) throws IOException {
+		CRC32 checksum = new CRC32();
+		try (DataInputStream in = new DataInputStream(
+				new CheckedInputStream(new BufferedInputStream(Files.newInputStream(source)), checksum))) {
+			byte[] magic = new byte[MAGIC.length()];
+			in.readFully(magic);
+			if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+				throw new IOException("Not a journey sketch file");
+			}
+			int formatVersion = in.readInt();
+			if (formatVersion != FORMAT_VERSION) {
+				throw new IOException("Unsupported sketch format version " + formatVersion);
+			}
+			JourneySketches result;
+			try {
+				result = new JourneySketches(ZoneId.of(in.readUTF()));
+			} catch (java.time.DateTimeException e) {
+				throw new IOException("Invalid sketch time zone", e);
+			}
+			result.journeyCount = in.readLong();
+			int days = in.readInt();
+			if (days < 0) {
+				throw new IOException("Corrupted sketch header");
+			}
+			for (int i = 0; i < days; i++) {
+				result.dailyPairs.put(LocalDate.ofEpochDay(in.readLong()), HyperLogLog.read(in));
+			}
+			result.routes = HeavyHitters.read(in);
+			result.distances = TDigest.read(in);
+			result.durations = TDigest.read(in);
+			long expected = checksum.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("Corrupted journey sketches");
+			}
+			return result;
+		}
+	}
+}
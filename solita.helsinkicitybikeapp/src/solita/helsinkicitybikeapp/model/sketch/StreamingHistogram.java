@@ -0,0 +1,247 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+import java.util.Arrays;
+
+/**
+ * The histogram of integer values estimating their quantiles in one pass.
+ *
+ * The first {@value #EXACT_CAPACITY} values are kept as is, and their
+ * quantiles are exact. After that the values are counted into log-linear
+ * buckets: the values below {@value #LINEAR_LIMIT} have buckets of their own,
+ * and every greater power of two is split into {@value #SUB_BUCKETS} buckets.
+ * Thus the relative error of a bucketed quantile is less than one percent, and
+ * the histogram takes at most a few kilobytes regardless of the number of
+ * values. The negative values are counted as zero, but the minimum and the
+ * mean are exact.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class StreamingHistogram {
+
+	/**
+	 * The number of values kept as is.
+	 */
+	public static final int EXACT_CAPACITY = 256;
+
+	/**
+	 * The number of buckets of each power of two.
+	 */
+	public static final int SUB_BUCKETS = 128;
+
+	/**
+	 * The number of bits of the sub-bucket.
+	 */
+	private static final int SUB_BUCKET_BITS = 7;
+
+	/**
+	 * The limit of the values with buckets of their own.
+	 */
+	public static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	/**
+	 * The kept values, or undefined value, if the values have been bucketed.
+	 */
+	private int[] values = new int[8];
+
+	/**
+	 * The bucket counts, or undefined value, if the values are kept as is.
+	 */
+	private long[] buckets = null;
+
+	/**
+	 * The number of values.
+	 */
+	private long count = 0;
+
+	/**
+	 * The sum of the values.
+	 */
+	private long sum = 0;
+
+	/**
+	 * The minimum value.
+	 */
+	private int min = Integer.MAX_VALUE;
+
+	/**
+	 * The maximum value.
+	 */
+	private int max = Integer.MIN_VALUE;
+
+	/**
+	 * The number of values.
+	 *
+	 * @return The number of the added values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * The minimum value.
+	 *
+	 * @return The least added value, or NaN, if the histogram is empty.
+	 */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 * The maximum value.
+	 *
+	 * @return The greatest added value, or NaN, if the histogram is empty.
+	 */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	/**
+	 * The mean value.
+	 *
+	 * @return The mean of the added values, or NaN, if the histogram is empty.
+	 */
+	public double getMean() {
+		return count == 0 ? Double.NaN : (double) sum / count;
+	}
+
+	/**
+	 * Are the quantiles exact.
+	 *
+	 * @return True, if and only if the values are kept as is.
+	 */
+	public boolean isExact() {
+		return buckets == null;
+	}
+
+	/**
+	 * The bucket of a value.
+	 *
+	 * @param value The non-negative value.
+	 * @return The index of the bucket of the value.
+	 */
+	private static int bucketOf(int value) {
+		if (value < LINEAR_LIMIT) {
+			return value;
+		}
+		int exponent = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(value);
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS
+				+ ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+	}
+
+	/**
+	 * The representative value of a bucket.
+	 *
+	 * @param bucket The index of the bucket.
+	 * @return The middle of the values of the bucket.
+	 */
+	private static double valueOf(int bucket) {
+		if (bucket < LINEAR_LIMIT) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long lower = (long) (SUB_BUCKETS + (bucket - LINEAR_LIMIT) % SUB_BUCKETS) << shift;
+		return lower + ((1L << shift) - 1) / 2.0;
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param value The added value.
+	 */
+	public void add(int value) {
+		if (buckets == null) {
+			if (count == values.length) {
+				if (count < EXACT_CAPACITY) {
+					values = Arrays.copyOf(values, values.length * 2);
+				} else {
+					// The kept values are moved into the buckets.
+					buckets = new long[LINEAR_LIMIT];
+					for (int kept : values) {
+						countBucket(kept);
+					}
+					values = null;
+				}
+			}
+			if (values != null) {
+				values[(int) count] = value;
+			}
+		}
+		if (buckets != null) {
+			countBucket(value);
+		}
+		count++;
+		sum += value;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Counts a value into its bucket.
+	 *
+	 * @param value The counted value.
+	 */
+	private void countBucket(int value) {
+		int bucket = bucketOf(Math.max(0, value));
+		if (bucket >= buckets.length) {
+			buckets = Arrays.copyOf(buckets, bucket + SUB_BUCKETS);
+		}
+		buckets[bucket]++;
+	}
+
+	/**
+	 * The value of a rank.
+	 *
+	 * @param rank The zero based rank.
+	 * @return The value of the rank clamped between the minimum and the maximum.
+	 */
+	private double valueOfRank(long rank) {
+		long cumulative = 0;
+		for (int bucket = 0; bucket < buckets.length; bucket++) {
+			cumulative += buckets[bucket];
+			if (rank < cumulative) {
+				return Math.min(max, Math.max(min, valueOf(bucket)));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * The quantiles.
+	 *
+	 * The quantiles are interpolated linearly between the closest ranks.
+	 *
+	 * @param levels The quantile levels between 0 and 1.
+	 * @return The values of the quantiles, or NaN values, if the histogram is
+	 *         empty.
+	 * @throws IllegalArgumentException Any level was not between 0 and 1.
+	 */
+	public double[] quantiles(double... levels) throws IllegalArgumentException {
+		double[] result = new double[levels.length];
+		int[] sorted = (buckets == null ? Arrays.copyOf(values, (int) count) : null);
+		if (sorted != null) {
+			Arrays.sort(sorted);
+		}
+		double position, lower, upper;
+		long rank;
+		for (int i = 0; i < levels.length; i++) {
+			if (!(levels[i] >= 0 && levels[i] <= 1)) {
+				throw new IllegalArgumentException("Invalid quantile " + levels[i]);
+			} else if (count == 0) {
+				result[i] = Double.NaN;
+				continue;
+			}
+			position = (count - 1) * levels[i];
+			rank = (long) position;
+			if (sorted != null) {
+				lower = sorted[(int) rank];
+				upper = (rank + 1 < count ? sorted[(int) rank + 1] : lower);
+			} else {
+				lower = valueOfRank(rank);
+				upper = (rank + 1 < count ? valueOfRank(rank + 1) : lower);
+			}
+			result[i] = lower + (position - rank) * (upper - lower);
+		}
+		return result;
+	}
+}
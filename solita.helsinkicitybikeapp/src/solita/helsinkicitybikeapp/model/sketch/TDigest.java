@@ -0,0 +1,365 @@
+package solita.helsinkicitybikeapp.model.sketch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The merging t-digest estimating the quantiles of values.
+ *
+ * The digest summarizes the values with weighted centroids ordered by their
+ * means. The centroids near the extreme quantiles are small, and thus the tail
+ * quantiles are estimated more accurately than the median. The added values are
+ * buffered, and the buffer is merged into the centroids once it is full. The
+ * number of centroids stays in the order of the compression regardless of the
+ * number of values. The digests are merged by merging their centroids.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class TDigest {
+
+	/**
+	 * The default compression.
+	 */
+	public static final double DEFAULT_COMPRESSION = 100;
+
+	/**
+	 * The compression limiting the number of centroids.
+	 */
+	private final double compression;
+
+	/**
+	 * The means of the merged centroids.
+	 */
+	private double[] means = new double[0];
+
+	/**
+	 * The weights of the merged centroids.
+	 */
+	private long[] weights = new long[0];
+
+	/**
+	 * The number of the merged centroids.
+	 */
+	private int centroidCount = 0;
+
+	/**
+	 * The buffered means.
+	 */
+	private final double[] bufferMeans;
+
+	/**
+	 * The buffered weights.
+	 */
+	private final long[] bufferWeights;
+
+	/**
+	 * The number of the buffered centroids.
+	 */
+	private int bufferCount = 0;
+
+	/**
+	 * Have all buffered values unit weight.
+	 */
+	private boolean unitBuffer = true;
+
+	/**
+	 * The total weight of the values.
+	 */
+	private long total = 0;
+
+	/**
+	 * The minimum value.
+	 */
+	private double min = Double.POSITIVE_INFINITY;
+
+	/**
+	 * The maximum value.
+	 */
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * Creates a new empty digest with the default compression.
+	 */
+	public TDigest() {
+		this(DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a new empty digest.
+	 *
+	 * @param compression The compression. The greater compression gives more
+	 *                    accurate quantiles with more centroids.
+	 * @throws IllegalArgumentException The compression was less than 10, or
+	 *                                  greater than 10000.
+	 */
+	public TDigest(double compression) throws IllegalArgumentException {
+		if (!(compression >= 10 && compression <= 10000)) {
+			throw new IllegalArgumentException("Invalid compression " + compression);
+		}
+		this.compression = compression;
+		int bufferSize = (int) (5 * compression);
+		this.bufferMeans = new double[bufferSize];
+		this.bufferWeights = new long[bufferSize];
+	}
+
+	/**
+	 * The compression.
+	 *
+	 * @return The compression of the digest.
+	 */
+	public double getCompression() {
+		return compression;
+	}
+
+	/**
+	 * The number of values.
+	 *
+	 * @return The total weight of the added values.
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * The minimum value.
+	 *
+	 * @return The least added value, or NaN, if the digest is empty.
+	 */
+	public double getMin() {
+		return total == 0 ? Double.NaN : min;
+	}
+
+	/**
+	 * The maximum value.
+	 *
+	 * @return The greatest added value, or NaN, if the digest is empty.
+	 */
+	public double getMax() {
+		return total == 0 ? Double.NaN : max;
+	}
+
+	/**
+	 * Adds a value.
+	 *
+	 * @param value The added value.
+	 * @throws IllegalArgumentException The value was not a number.
+	 */
+	public void add(double value) throws IllegalArgumentException {
+		add(value, 1);
+	}
+
+	/**
+	 * Adds a weighted value.
+	 *
+	 * @param value  The added value.
+	 * @param weight The weight of the value.
+	 * @throws IllegalArgumentException The value was not a number, or the weight
+	 *                                  was not positive.
+	 */
+	public void add(double value, long weight) throws IllegalArgumentException {
+		if (Double.isNaN(value) || weight <= 0) {
+			throw new IllegalArgumentException("Invalid value " + value + " of weight " + weight);
+		}
+		if (bufferCount == bufferMeans.length) {
+			compress();
+		}
+		bufferMeans[bufferCount] = value;
+		bufferWeights[bufferCount++] = weight;
+		unitBuffer &= (weight == 1);
+		total += weight;
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Merges the buffered values into the centroids.
+	 *
+	 * The centroids and the buffered values are ordered by their means, and the
+	 * neighbours are merged as long as the weight of the merged centroid stays
+	 * within the size limit of its quantile.
+	 */
+	public void compress() {
+		if (bufferCount == 0) {
+			return;
+		}
+		sortBuffer();
+		int count = centroidCount + bufferCount;
+		double[] mergedMeans = new double[count];
+		long[] mergedWeights = new long[count];
+		int merged = 0, centroid = 0, buffered = 0;
+		double mean = 0, nextMean, q0, q2;
+		long weight = 0, before = 0, nextWeight, proposed;
+		for (int i = 0; i < count; i++) {
+			// The sorted centroids and the sorted buffer are merged in order.
+			if (buffered >= bufferCount || (centroid < centroidCount && means[centroid] <= bufferMeans[buffered])) {
+				nextMean = means[centroid];
+				nextWeight = weights[centroid++];
+			} else {
+				nextMean = bufferMeans[buffered];
+				nextWeight = bufferWeights[buffered++];
+			}
+			if (i == 0) {
+				mean = nextMean;
+				weight = nextWeight;
+				continue;
+			}
+			proposed = weight + nextWeight;
+			q0 = (double) before / total;
+			q2 = (double) (before + proposed) / total;
+			if (proposed <= total * Math.min(q0 * (1 - q0), q2 * (1 - q2)) * 4 / compression) {
+				// The neighbour fits into the current centroid.
+				mean += (nextMean - mean) * nextWeight / proposed;
+				weight = proposed;
+			} else {
+				mergedMeans[merged] = mean;
+				mergedWeights[merged++] = weight;
+				before += weight;
+				mean = nextMean;
+				weight = nextWeight;
+			}
+		}
+		mergedMeans[merged] = mean;
+		mergedWeights[merged++] = weight;
+		means = Arrays.copyOf(mergedMeans, merged);
+		weights = Arrays.copyOf(mergedWeights, merged);
+		centroidCount = merged;
+		bufferCount = 0;
+		unitBuffer = true;
+	}
+
+	/**
+	 * Sorts the buffered values by their means.
+	 */
+	private void sortBuffer() {
+		if (unitBuffer) {
+			// The values of unit weight are sorted as primitives.
+			Arrays.sort(bufferMeans, 0, bufferCount);
+			return;
+		}
+		Integer[] order = new Integer[bufferCount];
+		for (int i = 0; i < bufferCount; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (Integer first, Integer second) -> Double.compare(bufferMeans[first], bufferMeans[second]));
+		double[] sortedMeans = new double[bufferCount];
+		long[] sortedWeights = new long[bufferCount];
+		for (int i = 0; i < bufferCount; i++) {
+			sortedMeans[i] = bufferMeans[order[i]];
+			sortedWeights[i] = bufferWeights[order[i]];
+		}
+		System.arraycopy(sortedMeans, 0, bufferMeans, 0, bufferCount);
+		System.arraycopy(sortedWeights, 0, bufferWeights, 0, bufferCount);
+	}
+
+	/**
+	 * Merges another digest into this digest.
+	 *
+	 * @param other The merged digest.
+	 * @return This digest of the values of both digests.
+	 */
+	public TDigest merge(TDigest other) {
+		other.compress();
+		for (int i = 0; i < other.centroidCount; i++) {
+			add(other.means[i], other.weights[i]);
+		}
+		if (other.total > 0) {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+		return this;
+	}
+
+	/**
+	 * The estimated quantile.
+	 *
+	 * The value is interpolated between the centers of the neighbouring
+	 * centroids, and between the extreme centroids and the minimum and the
+	 * maximum.
+	 *
+	 * @param q The quantile between 0 and 1.
+	 * @return The estimated value of the quantile, or NaN, if the digest is
+	 *         empty.
+	 * @throws IllegalArgumentException The quantile was not between 0 and 1.
+	 */
+	public double quantile(double q) throws IllegalArgumentException {
+		if (!(q >= 0 && q <= 1)) {
+			throw new IllegalArgumentException("Invalid quantile " + q);
+		}
+		compress();
+		if (total == 0) {
+			return Double.NaN;
+		} else if (centroidCount == 1) {
+			return means[0];
+		}
+		double index = q * total;
+		if (index <= weights[0] / 2.0) {
+			return min + (means[0] - min) * (weights[0] == 1 ? 0 : index / (weights[0] / 2.0));
+		}
+		double center = weights[0] / 2.0, nextCenter;
+		for (int i = 0; i < centroidCount - 1; i++) {
+			nextCenter = center + (weights[i] + weights[i + 1]) / 2.0;
+			if (index <= nextCenter) {
+				return means[i] + (means[i + 1] - means[i]) * (index - center) / (nextCenter - center);
+			}
+			center = nextCenter;
+		}
+		int last = centroidCount - 1;
+		return means[last] + (max - means[last]) * Math.min(1, (index - center) / (weights[last] / 2.0));
+	}
+
+	/**
+	 * Writes the digest.
+	 *
+	 * @param out The output.
+	 * @throws IOException The writing failed.
+	 */
+	public void write(DataOutput out) throws IOException {
+		compress();
+		out.writeDouble(compression);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeInt(centroidCount);
+		for (int i = 0; i < centroidCount; i++) {
+			out.writeDouble(means[i]);
+			out.writeLong(weights[i]);
+		}
+	}
+
+	/**
+	 * Reads a digest.
+	 *
+	 * @param in The input.
+	 * @return The read digest.
+	 * @throws IOException The reading failed, or the digest was corrupted.
+	 */
+	public static TDigest read(DataInput in) throws IOException {
+		TDigest result;
+		try {
+			result = new TDigest(in.readDouble());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Corrupted t-digest", e);
+		}
+		double min = in.readDouble(), max = in.readDouble();
+		int count = in.readInt();
+		if (count < 0 || count > 1 << 20) {
+			throw new IOException("Corrupted t-digest");
+		}
+		result.means = new double[count];
+		result.weights = new long[count];
+		for (int i = 0; i < count; i++) {
+			result.means[i] = in.readDouble();
+			result.weights[i] = in.readLong();
+			if (result.weights[i] <= 0) {
+				throw new IOException("Corrupted t-digest");
+			}
+			result.total += result.weights[i];
+		}
+		result.centroidCount = count;
+		result.min = min;
+		result.max = max;
+		return result;
+	}
+}
@@ -0,0 +1,129 @@
+package solita.helsinkicitybikeapp.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pool of byte buffers reused by the response output.
+ *
+ * The pool hands out buffers of fixed size, and keeps at most the given number
+ * of released buffers for reuse. Buffers of other sizes are never pooled.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class BufferPool {
+
+	/**
+	 * The default size of the pooled buffers.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * The default maximum number of pooled buffers.
+	 */
+	public static final int DEFAULT_MAX_POOLED = 256;
+
+	/**
+	 * The default pool shared by the server.
+	 */
+	private static final BufferPool DEFAULT_POOL = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+	/**
+	 * The default pool.
+	 *
+	 * @return The buffer pool shared by the server.
+	 */
+	public static BufferPool getDefault() {
+		return DEFAULT_POOL;
+	}
+
+	/**
+	 * The size of the pooled buffers.
+	 */
+	private final int bufferSize;
+
+	/**
+	 * The maximum number of pooled buffers.
+	 */
+	private final int maxPooled;
+
+	/**
+	 * The released buffers available for reuse.
+	 */
+	private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The number of released buffers available for reuse.
+	 */
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	/**
+	 * Creates a new buffer pool.
+	 *
+	 * @param bufferSize The size of the pooled buffers.
+	 * @param maxPooled  The maximum number of buffers kept for reuse.
+	 * @throws IllegalArgumentException The buffer size was not positive, or the
+	 *                                  maximum number of pooled buffers was
+	 *                                  negative.
+	 */
+	public BufferPool(int bufferSize, int maxPooled) throws IllegalArgumentException {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("Buffer size has to be positive");
+		} else if (maxPooled < 0) {
+			throw new IllegalArgumentException("Negative pool size");
+		}
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * The size of the pooled buffers.
+	 *
+	 * @return The size of the buffers the pool hands out.
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Acquires a buffer from the pool.
+	 *
+	 * @return A buffer of the pool buffer size. The content of the buffer is
+	 *         undefined.
+	 */
+	public byte[] acquire() {
+		byte[] result = free.poll();
+		if (result == null) {
+			return new byte[bufferSize];
+		} else {
+			freeCount.decrementAndGet();
+			return result;
+		}
+	}
+
+	/**
+	 * Releases a buffer back to the pool.
+	 *
+	 * The caller must not use the buffer after releasing it.
+	 *
+	 * @param buffer The released buffer.
+	 */
+	public void release(byte[] buffer) {
+		if (buffer != null && buffer.length == bufferSize && freeCount.incrementAndGet() <= maxPooled) {
+			free.offer(buffer);
+		} else if (buffer != null && buffer.length == bufferSize) {
+			// The pool is full.
+			freeCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * The number of buffers available for reuse.
+	 *
+	 * @return The number of pooled buffers.
+	 */
+	public int getPooledCount() {
+		return freeCount.get();
+	}
+}
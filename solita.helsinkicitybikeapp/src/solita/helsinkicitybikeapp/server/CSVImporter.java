@@ -3,14 +3,30 @@ package solita.helsinkicitybikeapp.server;
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.ZoneId;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
+import i18n.AsyncHandler;
 import solita.helsinki.citybikeapp.controller.JourneysLoader;
+import solita.helsinki.citybikeapp.controller.Quarantine;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
+import solita.helsinkicitybikeapp.model.ColumnarJourneys;
 import solita.helsinkicitybikeapp.model.Config;
+import solita.helsinkicitybikeapp.model.DemandCube;
+import solita.helsinkicitybikeapp.model.JourneySnapshot;
+import solita.helsinkicitybikeapp.model.Journeys;
+import solita.helsinkicitybikeapp.model.db.ConnectionPool;
+import solita.helsinkicitybikeapp.model.db.DatabaseJourneys;
+import solita.helsinkicitybikeapp.model.db.JourneyDB;
+import solita.helsinkicitybikeapp.model.db.SQLDialect;
+import solita.helsinkicitybikeapp.model.sketch.JourneySketches;
 
 /**
  * The program class performing importing of the CSV data into the server. 
@@ -32,40 +48,249 @@ public class CSVImporter {
 	 */
 	public static void main(String[] args) {
 		Logger logger = Logger.getLogger(JourneysLoader.class.getCanonicalName()); 
+		// The import does not wait for the log output. 
+		List<AsyncHandler> logHandlers = AsyncHandler.install(Logger.getLogger(""), AsyncHandler.DEFAULT_CAPACITY); 
 
 		Config config = new Config(); 
 		Properties dbProperties = config.getDatabaseProperties(); 
-		Connection db; 
-		JourneysLoader loader; 
-		try {
-			db = getConnection(dbProperties.getProperty(config.DATABASE_PROTOCOL_PROPERTY_NAME), dbProperties); 
-			logger.info("Connection established to database " + dbProperties.toString());
+		String protocol = dbProperties.getProperty("dbms"); 
+		ConnectionPool pool = new ConnectionPool(() -> getConnection(protocol, dbProperties), dbProperties); 
+		DatabaseJourneys db; 
+		try (Connection connection = pool.getConnection()) {
+			if (SQLDialect.forProtocol(protocol).isEmbedded()) {
+				// The embedded database is created on the first use. 
+				new JourneyDB(connection).ensureDatabase(); 
+			}
+			db = new DatabaseJourneys(pool); 
+			logger.info("Connection established to database " + dbProperties.getProperty("db"));
 		} catch(java.sql.SQLException sqle) {
 			// The connection failed.
 			logger.severe("Could not connect to the database. Testing the integrity of the CSV files"); 
+			pool.close(); 
+			shutdownDatabase(protocol); 
 			db = null; 
 		}
 		
-		File file; 
-		for (String filename: args) {
-			logger.info(String.format("Loading file \"%s\"",filename));
-			file = new File(filename);
+		Quarantine quarantine = createQuarantine(config.getQuarantineFile()); 
+		
+		// Without database the journeys are collected into memory, and their demand is counted 
+		// while they are loaded. 
+		ColumnarJourneys memoryJourneys = (db == null ? new ColumnarJourneys() : null); 
+		DemandCube demand = (db == null ? new DemandCube() : null); 
+		// The sketches of the approximate analytics are updated from the loaded journeys. 
+		JourneySketches sketches = (config.getSketchFile() == null ? null : new JourneySketches()); 
+		if (db == null) {
+			for (String filename: args) {
+				logger.info(String.format("Loading file \"%s\"",filename));
+				quarantine.setSource(filename); 
+				JourneySketches fileSketches = (sketches == null ? null : new JourneySketches(sketches.getZone())); 
+				if (!loadFile(new File(filename), memoryJourneys, config, quarantine, demand::add, 
+						fileSketches == null ? null : fileSketches::add)) {
+					logger.severe(String.format("Loading file \"%s\" failed", filename));
+				} else if (fileSketches != null) {
+					sketches.merge(fileSketches); 
+				}
+			}
+		} else {
+			loadFiles(args, db, pool, config, quarantine, sketches); 
+		}
+		
+		// The summary of the rejected rows by their reasons. 
+		quarantine.logSummary(); 
+		try {
+			quarantine.close(); 
+		} catch (IOException e) {
+			logger.severe("Writing the rejected rows failed: " + e.getMessage());
+		}
+		
+		if (sketches != null && args.length > 0) {
+			writeSketches(config.getSketchFile(), sketches); 
+		}
+		Path snapshot = config.getSnapshotFile(); 
+		if (snapshot != null && args.length > 0) {
+			ColumnarJourneys journeys = (memoryJourneys != null ? memoryJourneys : ColumnarJourneys.copyOf(db)); 
+			if (demand == null) {
+				// The demand of the database journeys is counted in parallel from the copy. 
+				demand = DemandCube.build(journeys, ZoneId.systemDefault(), Runtime.getRuntime().availableProcessors()); 
+			}
+			demand.setVersion(journeys.getVersion()); 
+			if (writeSnapshot(snapshot, journeys)) {
+				writeDemandCube(DemandCube.cubeFileOf(snapshot), demand); 
+			}
+		}
+		pool.close(); 
+		shutdownDatabase(protocol); 
+		
+		// The metrics of the import run. 
+		logger.info("Import metrics:\n" + MetricsRegistry.getDefault().toPrometheusText());
+		logHandlers.forEach(AsyncHandler::flush);
+	}
+
+	/**
+	 * Loads journey files into the database. Each file is loaded into a staging table 
+	 * attached as the partition of its month. 
+	 * @param filenames The names of the loaded files. 
+	 * @param target The database journeys receiving the journeys. 
+	 * @param pool The connection pool of the database. 
+	 * @param config The configuration of the import. 
+	 * @param quarantine The quarantine of the rejected rows. 
+	 * @param sketches The sketches receiving the journeys of the loaded files, or undefined value. 
+	 */
+	protected static void loadFiles(String[] filenames, DatabaseJourneys target, ConnectionPool pool, Config config, 
+			Quarantine quarantine, JourneySketches sketches) {
+		Logger logger = Logger.getLogger(JourneysLoader.class.getCanonicalName()); 
+		try (Connection connection = pool.getConnection()) {
+			JourneyDB journeyDB = new JourneyDB(connection); 
+			// The indexes and the constraints are built with the pooled connections. 
+			journeyDB.setConnectionPool(pool); 
+			boolean bulk = config.isBulkImport() && filenames.length > 0; 
+			if (bulk) {
+				journeyDB.beginBulkLoad(); 
+			}
+			try {
+				for (String filename: filenames) {
+					logger.info(String.format("Loading file \"%s\"",filename));
+					quarantine.setSource(filename); 
+					// The sketches of a file are merged only after the file has been loaded. 
+					JourneySketches fileSketches = (sketches == null ? null : new JourneySketches(sketches.getZone())); 
+					try {
+						if (!journeyDB.loadIntoPartition((String stagingTable) -> {
+							target.setTargetTableName(stagingTable); 
+							try {
+								return loadFile(new File(filename), target, config, quarantine, 
+										fileSketches == null ? null : fileSketches::add); 
+							} finally {
+								target.setTargetTableName(null); 
+							}
+						})) {
+							logger.severe(String.format("Loading file \"%s\" failed", filename));
+						} else if (fileSketches != null) {
+							sketches.merge(fileSketches); 
+						}
+					} catch (SQLException | IOException e) {
+						logger.severe(String.format("Loading file \"%s\" failed: %s", filename, e.getMessage()));
+					}
+				}
+			} finally {
+				if (bulk) {
+					journeyDB.endBulkLoad(); 
+				}
+				journeyDB.logPhaseDurations(); 
+			}
+		} catch (SQLException e) {
+			logger.severe("Maintaining the journeys table failed: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Loads a journeys file. 
+	 * @param file The loaded file. 
+	 * @param target The journeys receiving the loaded journeys. 
+	 * @param config The configuration of the import. 
+	 * @param quarantine The quarantine of the rejected rows. 
+	 * @param listeners The listeners of the loaded journeys. The undefined listeners are ignored. 
+	 * @return True, if and only if the file was loaded. 
+	 */
+	protected static boolean loadFile(File file, Journeys target, Config config, Quarantine quarantine, 
+			JourneysLoader.JourneyListener... listeners) {
+		Logger logger = Logger.getLogger(JourneysLoader.class.getCanonicalName()); 
+		JourneysLoader loader; 
+		try {
+			// The files share the journeys and their pooled connections. 
+			loader = new JourneysLoader(file.toURI().toURL(), target);
+		} catch (MalformedURLException e) {
+			logger.severe("The file name was malformed: " + e.getMessage());
+			return false; 
+		} catch (IOException e) {
+			logger.severe("The reading failed: " + e.getMessage());
+			return false; 
+		} 
+		loader.setBufferSize(config.getImportBufferSize()); 
+		loader.setQuarantine(quarantine); 
+		for (JourneysLoader.JourneyListener listener: listeners) {
+			if (listener != null) {
+				loader.addJourneyListener(listener); 
+			}
+		}
+		return loader.readAll(); 
+	}
+
+	/**
+	 * Creates the quarantine of the rejected rows. 
+	 * @param target The quarantine file, or undefined value, if the rejected rows are only counted. 
+	 * @return The quarantine of the rejected rows. 
+	 */
+	protected static Quarantine createQuarantine(Path target) {
+		if (target != null && target.getParent() != null) {
 			try {
-				loader = new JourneysLoader(file.toURI().toURL(), db);
-			} catch (MalformedURLException e) {
-				loader = null; 
-				logger.severe("The file name was malformed: " + e.getMessage());
+				Files.createDirectories(target.getParent()); 
 			} catch (IOException e) {
-				loader = null; 
-				logger.severe("The reading failed: " + e.getMessage());
-			} catch (SQLException e) {
-				loader = null; 
-				logger.severe("The establishing of hte conneciton failed: " + e.getMessage());
-			} 
-			
-			if (loader != null) {
-				
+				Logger.getLogger(JourneysLoader.class.getCanonicalName()).severe(
+						String.format("Creating quarantine directory of \"%s\" failed: %s", target, e.getMessage()));
+				return new Quarantine(); 
+			}
+		}
+		return (target == null ? new Quarantine() : new Quarantine(target, Quarantine.DEFAULT_CAPACITY)); 
+	}
+
+	/**
+	 * Writes the snapshot of the imported journeys. 
+	 * @param snapshot The path of the snapshot file. 
+	 * @param journeys The imported journeys. 
+	 * @return True, if and only if the snapshot was written. 
+	 */
+	protected static boolean writeSnapshot(Path snapshot, ColumnarJourneys journeys) {
+		Logger logger = Logger.getLogger(JourneysLoader.class.getCanonicalName()); 
+		try {
+			if (snapshot.getParent() != null) {
+				Files.createDirectories(snapshot.getParent()); 
+			}
+			JourneySnapshot.write(journeys, snapshot); 
+			return true; 
+		} catch (IOException e) {
+			logger.severe(String.format("Writing snapshot \"%s\" failed: %s", snapshot, e.getMessage()));
+			return false; 
+		}
+	}
+
+	/**
+	 * Writes the demand cube of the imported journeys. 
+	 * @param target The path of the cube file. 
+	 * @param demand The demand cube of the imported journeys. 
+	 * @return True, if and only if the cube was written. 
+	 */
+	protected static boolean writeDemandCube(Path target, DemandCube demand) {
+		try {
+			demand.write(target); 
+			return true; 
+		} catch (IOException e) {
+			Logger.getLogger(JourneysLoader.class.getCanonicalName()).severe(
+					String.format("Writing demand cube \"%s\" failed: %s", target, e.getMessage()));
+			return false; 
+		}
+	}
+
+	/**
+	 * Writes the sketches of the imported journeys merged with the sketches of the earlier imports. 
+	 * @param target The path of the sketch file. 
+	 * @param sketches The sketches of the imported journeys. 
+	 * @return True, if and only if the sketches were written. 
+	 */
+	protected static boolean writeSketches(Path target, JourneySketches sketches) {
+		try {
+			if (target.getParent() != null) {
+				Files.createDirectories(target.getParent()); 
+			}
+			JourneySketches result = sketches; 
+			if (Files.isReadable(target)) {
+				result = JourneySketches.read(target).merge(sketches); 
 			}
+			result.write(target); 
+			return true; 
+		} catch (IOException | IllegalArgumentException e) {
+			Logger.getLogger(JourneysLoader.class.getCanonicalName()).severe(
+					String.format("Writing sketches \"%s\" failed: %s", target, e.getMessage()));
+			return false; 
 		}
 	}
 
@@ -75,12 +300,7 @@ public class CSVImporter {
 	 * @return True, if and only if the database connects with URL. 
 	 */
 	protected static boolean doesDbUseURL(String protocol) {
-		switch (protocol) {
-		case "derby": 
-			return false;
-		default:
-			return true; 
-		}
+		return !SQLDialect.forProtocol(protocol).isEmbedded(); 
 	}
 
 	/**
@@ -98,7 +318,23 @@ public class CSVImporter {
 			String port = connectionProperties.getProperty("port");
 			return DriverManager.getConnection("jdbc:" + protocol + "://" + host + ":" + port + "/" + db, connectionProperties);
 		} else { 
-			return DriverManager.getConnection("jdbc:" + protocol + ":" + db, connectionProperties);
+			// The embedded database is created, if it does not exist. 
+			return DriverManager.getConnection("jdbc:" + protocol + ":" + db + ";create=true", connectionProperties);
+		}
+	}
+
+	/**
+	 * Shuts down the embedded database engine. The networked databases need no shutdown. 
+	 * @param protocol The database protocol. 
+	 */
+	public static void shutdownDatabase(String protocol) {
+		if (SQLDialect.forProtocol(protocol).isEmbedded()) {
+			try {
+				DriverManager.getConnection("jdbc:" + protocol + ":;shutdown=true"); 
+			} catch (SQLException e) {
+				// The successful shutdown is reported with an exception. 
+				Logger.getLogger(JourneysLoader.class.getCanonicalName()).fine("Embedded database shut down: " + e.getMessage()); 
+			}
 		}
 	}
 
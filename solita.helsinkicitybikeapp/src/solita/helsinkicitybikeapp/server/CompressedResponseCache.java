@@ -0,0 +1,173 @@
+package solita.helsinkicitybikeapp.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The cache of compressed response bodies.
+ *
+ * The cache stores compressed bodies keyed by the request and the content
+ * encoding. The cached bodies belong to a single data set version, and all
+ * bodies are dropped when a body of another version is requested. The total
+ * size of the cached bodies is bounded, and the least recently used bodies are
+ * evicted first.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class CompressedResponseCache {
+
+	/**
+	 * The estimated size of an entry without the body.
+	 */
+	private static final int ENTRY_OVERHEAD = 128;
+
+	/**
+	 * The maximum total size of the cached bodies.
+	 */
+	private final long maxSize;
+
+	/**
+	 * The cached bodies in the least recently used order.
+	 */
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The total estimated size of the cached bodies.
+	 */
+	private long size = 0;
+
+	/**
+	 * The data set version of the cached bodies.
+	 */
+	private long cachedVersion = Long.MIN_VALUE;
+
+	/**
+	 * The number of bodies answered from the cache.
+	 */
+	private final LongAdder hits = new LongAdder();
+
+	/**
+	 * The number of bodies not found from the cache.
+	 */
+	private final LongAdder misses = new LongAdder();
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxSize The maximum total size of the cached bodies in bytes.
+	 * @throws IllegalArgumentException The maximum size was negative.
+	 */
+	public CompressedResponseCache(long maxSize) throws IllegalArgumentException {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Negative cache size");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The cache key of a body.
+	 *
+	 * @param request  The request identifier.
+	 * @param encoding The content encoding.
+	 * @return The key of the body.
+	 */
+	private static String key(String request, String encoding) {
+		return encoding + ' ' + request;
+	}
+
+	/**
+	 * Drops all cached bodies, if the version differs from the version of the
+	 * cached bodies.
+	 *
+	 * @param version The data set version.
+	 */
+	private void validate(long version) {
+		if (version != cachedVersion) {
+			entries.clear();
+			size = 0;
+			cachedVersion = version;
+		}
+	}
+
+	/**
+	 * Get a cached body.
+	 *
+	 * @param version  The data set version of the body.
+	 * @param request  The request identifier.
+	 * @param encoding The content encoding.
+	 * @return The cached compressed body, or undefined value, if no body is
+	 *         cached.
+	 */
+	public synchronized byte[] get(long version, String request, String encoding) {
+		validate(version);
+		byte[] result = entries.get(key(request, encoding));
+		if (result == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return result;
+	}
+
+	/**
+	 * Stores a body into the cache.
+	 *
+	 * The caller must not alter the stored body.
+	 *
+	 * @param version  The data set version of the body.
+	 * @param request  The request identifier.
+	 * @param encoding The content encoding.
+	 * @param body     The compressed body.
+	 */
+	public synchronized void put(long version, String request, String encoding, byte[] body) {
+		validate(version);
+		String key = key(request, encoding);
+		long entrySize = ENTRY_OVERHEAD + 2L * key.length() + body.length;
+		if (entrySize > maxSize) {
+			// The body never fits.
+			return;
+		}
+		byte[] old = entries.put(key, body);
+		if (old != null) {
+			size -= ENTRY_OVERHEAD + 2L * key.length() + old.length;
+		}
+		size += entrySize;
+		Iterator<Map.Entry<String, byte[]>> iter = entries.entrySet().iterator();
+		Map.Entry<String, byte[]> evicted;
+		while (size > maxSize && iter.hasNext()) {
+			evicted = iter.next();
+			size -= ENTRY_OVERHEAD + 2L * evicted.getKey().length() + evicted.getValue().length;
+			iter.remove();
+		}
+	}
+
+	/**
+	 * The current size of the cache.
+	 *
+	 * @return The total estimated size of the cached bodies in bytes.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * The number of cache hits.
+	 *
+	 * @return The number of bodies answered from the cache.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * The number of cache misses.
+	 *
+	 * @return The number of bodies not found from the cache.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+}
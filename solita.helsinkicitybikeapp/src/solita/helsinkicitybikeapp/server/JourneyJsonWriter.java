@@ -0,0 +1,447 @@
+package solita.helsinkicitybikeapp.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import i18n.Logging;
+import solita.helsinkicitybikeapp.model.ColumnarJourneys;
+import solita.helsinkicitybikeapp.model.JourneyColumns;
+import solita.helsinkicitybikeapp.model.Journeys;
+import solita.helsinkicitybikeapp.model.StringDictionary;
+
+/**
+ * The writer streaming journeys as JSON.
+ *
+ * The writer writes the journeys directly from their source into the JSON
+ * output without creating intermediate objects. The property name keys are
+ * encoded once when the writer is created, and the station names of columnar
+ * journeys are encoded once per station name.
+ *
+ * The written document has form
+ * <code>{"fields":[{"name":...,"caption":...},...],"count":...,"journeys":[{...},...]}</code>.
+ * The journey properties are written as object members keyed by the property
+ * name. The times are written as ISO-8601 local date times, and undefined
+ * values as null.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class JourneyJsonWriter implements Logging.MessageLogging {
+
+	/**
+	 * The encoded null value.
+	 */
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The journeys whose journeys are written.
+	 */
+	private final Journeys journeys;
+
+	/**
+	 * The written journey properties.
+	 */
+	private final String[] properties;
+
+	/**
+	 * The encoded member keys of the properties including the separating colon.
+	 */
+	private final byte[][] propertyKeys;
+
+	/**
+	 * The dictionary of the encoded station names.
+	 */
+	private StringDictionary encodedDictionary = null;
+
+	/**
+	 * The encoded station names indexed by the station name codes.
+	 */
+	private byte[][] encodedNames = new byte[0][];
+
+	/**
+	 * Creates a new writer for the journeys.
+	 *
+	 * @param journeys The journeys whose journeys are written.
+	 * @throws NullPointerException The journeys was undefined.
+	 */
+	public JourneyJsonWriter(Journeys journeys) throws NullPointerException {
+		this.journeys = java.util.Objects.requireNonNull(journeys, "Undefined journeys");
+		List<String> names = journeys.getJourneyPropertyNames();
+		this.properties = names.toArray(new String[names.size()]);
+		this.propertyKeys = new byte[properties.length][];
+		for (int i = 0; i < properties.length; i++) {
+			propertyKeys[i] = encodeKey(properties[i]);
+		}
+	}
+
+	/**
+	 * Encodes a member key.
+	 *
+	 * @param name The member name.
+	 * @return The encoded member name followed by colon.
+	 */
+	public static byte[] encodeKey(String name) {
+		byte[] encoded = JsonOutput.encodeString(name);
+		byte[] result = java.util.Arrays.copyOf(encoded, encoded.length + 1);
+		result[encoded.length] = ':';
+		return result;
+	}
+
+	/**
+	 * The journeys whose journeys are written.
+	 *
+	 * @return The journeys of the writer.
+	 */
+	public Journeys getJourneys() {
+		return journeys;
+	}
+
+	/**
+	 * The encoded station name.
+	 *
+	 * @param dictionary The station name dictionary.
+	 * @param code       The station name code.
+	 * @return The encoded station name, or null, if the code is undefined.
+	 */
+	protected synchronized byte[] getEncodedName(StringDictionary dictionary, int code) {
+		if (code < 0) {
+			return NULL;
+		}
+		if (dictionary != encodedDictionary) {
+			// Encoded names belong to another dictionary.
+			encodedDictionary = dictionary;
+			encodedNames = new byte[0][];
+		}
+		if (code >= encodedNames.length) {
+			encodedNames = java.util.Arrays.copyOf(encodedNames, Math.max(code + 1, dictionary.size()));
+		}
+		byte[] result = encodedNames[code];
+		if (result == null) {
+			result = JsonOutput.encodeString(dictionary.decode(code));
+			encodedNames[code] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the fields member describing the journey properties.
+	 *
+	 * @param out The output.
+	 * @throws IOException The writing failed.
+	 */
+	public void writeFields(JsonOutput out) throws IOException {
+		out.writeAscii("\"fields\":[");
+		for (int i = 0; i < properties.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.writeAscii("{\"name\":").writeString(properties[i]);
+			out.writeAscii(",\"caption\":").writeString(journeys.getPropertyCaption(properties[i]));
+			out.write('}');
+		}
+		out.write(']');
+	}
+
+	/**
+	 * Writes the journeys document of the given journey columns.
+	 *
+	 * @param out     The output.
+	 * @param source  The columnar journeys.
+	 * @param indexes The indexes of the written journeys in the source.
+	 * @throws IOException               The writing failed.
+	 * @throws IndexOutOfBoundsException Any index was invalid.
+	 */
+	public void writeDocument(JsonOutput out, JourneyColumns source, int[] indexes)
+			throws IOException, IndexOutOfBoundsException {
+		out.write('{');
+		writeFields(out);
+		out.writeAscii(",\"count\":").writeNumber(indexes.length);
+		out.writeAscii(",\"journeys\":");
+		writeJourneys(out, source, indexes);
+		out.write('}');
+	}
+
+	/**
+	 * Writes the journeys document of the given journeys.
+	 *
+	 * @param out  The output.
+	 * @param list The written journeys.
+	 * @throws IOException The writing failed.
+	 */
+	public void writeDocument(JsonOutput out, List<? extends Journeys.Journey> list) throws IOException {
+		out.write('{');
+		writeFields(out);
+		out.writeAscii(",\"count\":").writeNumber(list.size());
+		out.writeAscii(",\"journeys\":");
+		writeJourneys(out, list);
+		out.write('}');
+	}
+
+	/**
+	 * Writes the journeys document of the journeys of the result set.
+	 *
+	 * @param out        The output.
+	 * @param rows       The result set of the journeys.
+	 * @param fieldNames The mapping from journey properties to the result set
+	 *                   column labels.
+	 * @throws IOException  The writing failed.
+	 * @throws SQLException The reading of the result set failed.
+	 */
+	public void writeDocument(JsonOutput out, ResultSet rows, Map<String, String> fieldNames)
+			throws IOException, SQLException {
+		out.write('{');
+		writeFields(out);
+		out.writeAscii(",\"journeys\":");
+		int count = writeJourneys(out, rows, fieldNames);
+		out.writeAscii(",\"count\":").writeNumber(count);
+		out.write('}');
+	}
+
+	/**
+	 * Writes the journeys of the columnar journeys as JSON array.
+	 *
+	 * @param out     The output.
+	 * @param source  The columnar journeys.
+	 * @param indexes The indexes of the written journeys in the source.
+	 * @throws IOException               The writing failed.
+	 * @throws IndexOutOfBoundsException Any index was invalid.
+	 */
+	public void writeJourneys(JsonOutput out, JourneyColumns source, int[] indexes)
+			throws IOException, IndexOutOfBoundsException {
+		StringDictionary dictionary = source.getStationNames();
+		long time;
+		int value;
+		out.write('[');
+		for (int i = 0; i < indexes.length; i++) {
+			if (i > 0) {
+				out.write(',');
+			}
+			out.write('{');
+			for (int p = 0; p < properties.length; p++) {
+				if (p > 0) {
+					out.write(',');
+				}
+				out.write(propertyKeys[p]);
+				if (journeys.isDateProperty(properties[p])) {
+					time = source.getTimeValue(properties[p], indexes[i]);
+					if (time == ColumnarJourneys.UNDEFINED_TIME) {
+						out.writeNull();
+					} else {
+						out.writeDateTime(time);
+					}
+				} else if (journeys.isStringProperty(properties[p])) {
+					out.write(getEncodedName(dictionary, source.getIntValue(properties[p], indexes[i])));
+				} else {
+					value = source.getIntValue(properties[p], indexes[i]);
+					if (value == ColumnarJourneys.UNDEFINED_INT) {
+						out.writeNull();
+					} else {
+						out.writeNumber(value);
+					}
+				}
+			}
+			out.write('}');
+		}
+		out.write(']');
+	}
+
+	/**
+	 * Writes the journeys as JSON array.
+	 *
+	 * @param out  The output.
+	 * @param list The written journeys.
+	 * @throws IOException The writing failed.
+	 */
+	public void writeJourneys(JsonOutput out, List<? extends Journeys.Journey> list) throws IOException {
+		Object value;
+		boolean first = true;
+		out.write('[');
+		for (Journeys.Journey journey : list) {
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			out.write('{');
+			for (int p = 0; p < properties.length; p++) {
+				if (p > 0) {
+					out.write(',');
+				}
+				out.write(propertyKeys[p]);
+				value = journey == null ? null : journey.getProperty(properties[p]);
+				if (value instanceof Date) {
+					out.writeDateTime(((Date) value).getTime());
+				} else if (value instanceof Number) {
+					out.writeNumber(((Number) value).longValue());
+				} else if (value instanceof String) {
+					out.writeString((String) value);
+				} else {
+					out.writeNull();
+				}
+			}
+			out.write('}');
+		}
+		out.write(']');
+	}
+
+	/**
+	 * Writes the remaining rows of the result set as JSON array of journeys.
+	 *
+	 * @param out        The output.
+	 * @param rows       The result set of the journeys.
+	 * @param fieldNames The mapping from journey properties to the result set
+	 *                   column labels. Properties without column are written as
+	 *                   null.
+	 * @return The number of written journeys.
+	 * @throws IOException  The writing failed.
+	 * @throws SQLException The reading of the result set failed.
+	 */
+	public int writeJourneys(JsonOutput out, ResultSet rows, Map<String, String> fieldNames)
+			throws IOException, SQLException {
+		ResultSetMetaData meta = rows.getMetaData();
+		Map<String, Integer> labels = new java.util.TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for (int c = meta.getColumnCount(); c > 0; c--) {
+			labels.put(meta.getColumnLabel(c), c);
+		}
+		int[] columns = new int[properties.length];
+		Integer column;
+		for (int p = 0; p < properties.length; p++) {
+			column = labels.get(fieldNames.getOrDefault(properties[p], ""));
+			columns[p] = (column == null ? 0 : column);
+		}
+		int count = 0;
+		int value;
+		Timestamp time;
+		out.write('[');
+		while (rows.next()) {
+			if (count > 0) {
+				out.write(',');
+			}
+			count++;
+			out.write('{');
+			for (int p = 0; p < properties.length; p++) {
+				if (p > 0) {
+					out.write(',');
+				}
+				out.write(propertyKeys[p]);
+				if (columns[p] == 0) {
+					out.writeNull();
+				} else if (journeys.isDateProperty(properties[p])) {
+					time = rows.getTimestamp(columns[p]);
+					if (time == null) {
+						out.writeNull();
+					} else {
+						out.writeDateTime(time.getTime());
+					}
+				} else if (journeys.isStringProperty(properties[p])) {
+					out.writeString(rows.getString(columns[p]));
+				} else {
+					value = rows.getInt(columns[p]);
+					if (rows.wasNull()) {
+						out.writeNull();
+					} else {
+						out.writeNumber(value);
+					}
+				}
+			}
+			out.write('}');
+		}
+		out.write(']');
+		return count;
+	}
+
+	/**
+	 * Writes the remaining rows of any result set, such as the station listing, as
+	 * JSON array of objects keyed by the column labels.
+	 *
+	 * @param out  The output.
+	 * @param rows The written result set.
+	 * @return The number of written rows.
+	 * @throws IOException  The writing failed.
+	 * @throws SQLException The reading of the result set failed.
+	 */
+	public static int writeRows(JsonOutput out, ResultSet rows) throws IOException, SQLException {
+		ResultSetMetaData meta = rows.getMetaData();
+		int columnCount = meta.getColumnCount();
+		byte[][] keys = new byte[columnCount + 1][];
+		int[] types = new int[columnCount + 1];
+		for (int c = 1; c <= columnCount; c++) {
+			keys[c] = encodeKey(meta.getColumnLabel(c));
+			types[c] = meta.getColumnType(c);
+		}
+		int count = 0;
+		long longValue;
+		double doubleValue;
+		Timestamp time;
+		out.write('[');
+		while (rows.next()) {
+			if (count > 0) {
+				out.write(',');
+			}
+			count++;
+			out.write('{');
+			for (int c = 1; c <= columnCount; c++) {
+				if (c > 1) {
+					out.write(',');
+				}
+				out.write(keys[c]);
+				switch (types[c]) {
+				case Types.TINYINT:
+				case Types.SMALLINT:
+				case Types.INTEGER:
+				case Types.BIGINT:
+					longValue = rows.getLong(c);
+					if (rows.wasNull()) {
+						out.writeNull();
+					} else {
+						out.writeNumber(longValue);
+					}
+					break;
+				case Types.REAL:
+				case Types.FLOAT:
+				case Types.DOUBLE:
+				case Types.NUMERIC:
+				case Types.DECIMAL:
+					doubleValue = rows.getDouble(c);
+					if (rows.wasNull()) {
+						out.writeNull();
+					} else {
+						out.writeNumber(doubleValue);
+					}
+					break;
+				case Types.DATE:
+				case Types.TIMESTAMP:
+				case Types.TIMESTAMP_WITH_TIMEZONE:
+					time = rows.getTimestamp(c);
+					if (time == null) {
+						out.writeNull();
+					} else {
+						out.writeDateTime(time.getTime());
+					}
+					break;
+				case Types.BOOLEAN:
+				case Types.BIT:
+					boolean flag = rows.getBoolean(c);
+					if (rows.wasNull()) {
+						out.writeNull();
+					} else {
+						out.writeAscii(flag ? "true" : "false");
+					}
+					break;
+				default:
+					out.writeString(rows.getString(c));
+				}
+			}
+			out.write('}');
+		}
+		out.write(']');
+		return count;
+	}
+}
@@ -0,0 +1,483 @@
+package solita.helsinkicitybikeapp.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The JSON output writing UTF-8 encoded JSON tokens into pooled buffers.
+ *
+ * The output either streams the content to the target stream whenever a buffer
+ * fills, or collects the whole content into the buffers, if it has no target
+ * stream. The collected content is written with {@link #writeTo(OutputStream)}.
+ * The buffers are returned to the pool when the output is closed.
+ *
+ * The output does not validate the JSON structure. Numbers, times and strings
+ * are encoded directly into the buffers without intermediate objects.
+ *
+ * @author Antti Kautiainen
+ *
+ */
+public class JsonOutput extends OutputStream {
+
+	/**
+	 * The hexadecimal digits.
+	 */
+	private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The bytes of the JSON null.
+	 */
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The number of milliseconds in an hour.
+	 */
+	private static final long HOUR_MILLIS = 3600_000L;
+
+	/**
+	 * The number of cached hourly zone offsets.
+	 */
+	private static final int OFFSET_CACHE_SIZE = 1024;
+
+	/**
+	 * The pool of the buffers.
+	 */
+	private final BufferPool pool;
+
+	/**
+	 * The target stream. Undefined value means the output collects the content.
+	 */
+	private final OutputStream target;
+
+	/**
+	 * The filled buffers of the collected content.
+	 */
+	private final List<byte[]> filled = new ArrayList<>();
+
+	/**
+	 * The lengths of the content of the filled buffers.
+	 */
+	private int[] filledLengths = new int[8];
+
+	/**
+	 * The current buffer.
+	 */
+	private byte[] buffer;
+
+	/**
+	 * The position in the current buffer.
+	 */
+	private int position = 0;
+
+	/**
+	 * The number of bytes written to the target or filled buffers.
+	 */
+	private long written = 0;
+
+	/**
+	 * The rules of the time zone of the written times.
+	 */
+	private final ZoneRules zoneRules;
+
+	/**
+	 * The hours of the cached zone offsets.
+	 */
+	private final long[] offsetHours = new long[OFFSET_CACHE_SIZE];
+
+	/**
+	 * The cached zone offsets in milliseconds.
+	 */
+	private final int[] offsets = new int[OFFSET_CACHE_SIZE];
+
+	/**
+	 * Creates a new output collecting the content into buffers of the default
+	 * pool.
+	 */
+	public JsonOutput() {
+		this(BufferPool.getDefault(), null);
+	}
+
+	/**
+	 * Creates a new output.
+	 *
+	 * @param pool   The pool of the buffers.
+	 * @param target The target stream. Undefined value means the output collects
+	 *               the content.
+	 * @throws NullPointerException The pool was undefined.
+	 */
+	public JsonOutput(BufferPool pool, OutputStream target) throws NullPointerException {
+		this(pool, target, ZoneId.systemDefault());
+	}
+
+	/**
+	 * Creates a new output.
+	 *
+	 * @param pool   The pool of the buffers.
+	 * @param target The target stream. Undefined value means the output collects
+	 *               the content.
+	 * @param zone   The time zone of the written local times.
+	 * @throws NullPointerException The pool or the zone was undefined.
+	 */
+	public JsonOutput(BufferPool pool, OutputStream target, ZoneId zone) throws NullPointerException {
+		this.pool = java.util.Objects.requireNonNull(pool, "Undefined buffer pool");
+		this.target = target;
+		this.zoneRules = zone.getRules();
+		this.buffer = pool.acquire();
+		java.util.Arrays.fill(offsetHours, Long.MIN_VALUE);
+	}
+
+	/**
+	 * Makes room for the given number of bytes in the current buffer.
+	 *
+	 * @param length The number of bytes. Must not exceed the buffer size.
+	 * @throws IOException The writing to the target failed.
+	 */
+	private void require(int length) throws IOException {
+		if (position + length > buffer.length) {
+			nextBuffer();
+		}
+	}
+
+	/**
+	 * Moves the content of the current buffer to the target or to the filled
+	 * buffers.
+	 *
+	 * @throws IOException The writing to the target failed.
+	 */
+	private void nextBuffer() throws IOException {
+		if (target != null) {
+			target.write(buffer, 0, position);
+		} else {
+			// The partially filled buffer is kept as is to return it to the pool.
+			if (filled.size() == filledLengths.length) {
+				filledLengths = java.util.Arrays.copyOf(filledLengths, filledLengths.length * 2);
+			}
+			filledLengths[filled.size()] = position;
+			filled.add(buffer);
+			buffer = pool.acquire();
+		}
+		written += position;
+		position = 0;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		require(1);
+		buffer[position++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		int count;
+		while (length > 0) {
+			if (position == buffer.length) {
+				nextBuffer();
+			}
+			count = Math.min(length, buffer.length - position);
+			System.arraycopy(bytes, offset, buffer, position, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * Writes ASCII characters without quoting.
+	 *
+	 * @param ascii The ASCII string.
+	 * @return This output.
+	 * @throws IOException The writing failed.
+	 */
+	public JsonOutput writeAscii(String ascii) throws IOException {
+		for (int i = 0, len = ascii.length(); i < len; i++) {
+			write(ascii.charAt(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the JSON null.
+	 *
+	 * @return This output.
+	 * @throws IOException The writing failed.
+	 */
+	public JsonOutput writeNull() throws IOException {
+		write(NULL);
+		return this;
+	}
+
+	/**
+	 * Writes an integer number.
+	 *
+	 * @param value The written value.
+	 * @return This output.
+	 * @throws IOException The writing failed.
+	 */
+	public JsonOutput writeNumber(long value) throws IOException {
+		require(20);
+		if (value == Long.MIN_VALUE) {
+			return writeAscii("-9223372036854775808");
+		}
+		if (value < 0) {
+			buffer[position++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+			digits++;
+		}
+		for (int i = position + digits - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		position += digits;
+		return this;
+	}
+
+	/**
+	 * Writes a decimal number.
+	 *
+	 * @param value The written value. Infinite values and not-a-number are
+	 *              written as null.
+	 * @return This output.
+	 * @throws IOException The writing failed.
+	 */
+	public JsonOutput writeNumber(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			return writeNull();
+		} else if (value == (long) value && Math.abs(value) < 1e15) {
+			// Integral values are written without fractions.
+			return writeNumber((long) value);
+		} else {
+			return writeAscii(Double.toString(value));
+		}
+	}
+
+	/**
+	 * Writes a number with fixed number of digits.
+	 *
+	 * @param value  The non-negative value.
+	 * @param digits The number of digits.
+	 */
+	private void writeDigits(int value, int digits) {
+		for (int i = position + digits - 1; i >= position; i--) {
+			buffer[i] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		position += digits;
+	}
+
+	/**
+	 * The zone offset of the given time.
+	 *
+	 * @param epochMillis The time in milliseconds since epoch.
+	 * @return The offset of the local time in milliseconds.
+	 */
+	private int getOffset(long epochMillis) {
+		long hour = Math.floorDiv(epochMillis, HOUR_MILLIS);
+		int slot = Math.floorMod(hour, OFFSET_CACHE_SIZE);
+		if (offsetHours[slot] != hour) {
+			// Zone offsets change only at full hours.
+			offsets[slot] = zoneRules.getOffset(Instant.ofEpochMilli(hour * HOUR_MILLIS)).getTotalSeconds() * 1000;
+			offsetHours[slot] = hour;
+		}
+		return offsets[slot];
+	}
+
+	/**
+	 * Writes a time as quoted ISO-8601 local date time without fractions of
+	 * seconds.
+	 *
+	 * @param epochMillis The time in milliseconds since epoch.
+	 * @return This output.
+	 * @throws IOException The writing failed.
+	 */
+	public JsonOutput writeDateTime(long epochMillis) throws IOException {
+		long local = Math.floorDiv(epochMillis + getOffset(epochMillis), 1000L);
+		long days = Math.floorDiv(local, 86400L);
+		int secondOfDay = (int) Math.floorMod(local, 86400L);
+		// Civil date from the number of days since epoch.
+		long z = days + 719468;
+		long era = (z >= 0 ? z : z - 146096) / 146097;
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long monthIndex = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+		int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			// Outside the four digit years.
+			return writeNull();
+		}
+		require(21);
+		buffer[position++] = '"';
+		writeDigits((int) year, 4);
+		buffer[position++] = '-';
+		writeDigits(month, 2);
+		buffer[position++] = '-';
+		writeDigits(day, 2);
+		buffer[position++] = 'T';
+		writeDigits(secondOfDay / 3600, 2);
+		buffer[position++] = ':';
+		writeDigits((secondOfDay / 60) % 60, 2);
+		buffer[position++] = ':';
+		writeDigits(secondOfDay % 60, 2);
+		buffer[position++] = '"';
+		return this;
+	}
+
+	/**
+	 * Writes a quoted and escaped JSON string.
+	 *
+	 * @param value The written string. Undefined value is written as null.
+	 * @return This output.
+	 * @throws IOException The writing failed.
+	 */
+	public JsonOutput writeString(CharSequence value) throws IOException {
+		if (value == null) {
+			return writeNull();
+		}
+		require(1);
+		buffer[position++] = '"';
+		char c;
+		for (int i = 0, len = value.length(); i < len; i++) {
+			c = value.charAt(i);
+			require(6);
+			if (c < 0x80) {
+				if (c == '"' || c == '\\') {
+					buffer[position++] = '\\';
+					buffer[position++] = (byte) c;
+				} else if (c < 0x20) {
+					buffer[position++] = '\\';
+					buffer[position++] = 'u';
+					buffer[position++] = '0';
+					buffer[position++] = '0';
+					buffer[position++] = HEX_DIGITS[c >> 4];
+					buffer[position++] = HEX_DIGITS[c & 0xF];
+				} else {
+					buffer[position++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				buffer[position++] = (byte) (0xC0 | (c >> 6));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				// Unpaired surrogate is replaced with replacement character.
+				buffer[position++] = (byte) 0xEF;
+				buffer[position++] = (byte) 0xBF;
+				buffer[position++] = (byte) 0xBD;
+			} else {
+				buffer[position++] = (byte) (0xE0 | (c >> 12));
+				buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buffer[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		require(1);
+		buffer[position++] = '"';
+		return this;
+	}
+
+	/**
+	 * Encodes a string as quoted and escaped JSON string bytes.
+	 *
+	 * @param value The encoded string.
+	 * @return The UTF-8 bytes of the JSON string.
+	 */
+	public static byte[] encodeString(CharSequence value) {
+		try (JsonOutput out = new JsonOutput(new BufferPool(Math.max(16, value == null ? 4 : value.length() * 6 + 2), 0),
+				null)) {
+			out.writeString(value);
+			return out.toByteArray();
+		} catch (IOException ioe) {
+			// Collecting output never fails.
+			throw new IllegalStateException(ioe);
+		}
+	}
+
+	/**
+	 * The number of bytes written to the output.
+	 *
+	 * @return The total number of bytes written.
+	 */
+	public long size() {
+		return written + position;
+	}
+
+	/**
+	 * Writes the collected content to the given stream.
+	 *
+	 * @param out The stream into which the collected content is written.
+	 * @throws IOException           The writing failed.
+	 * @throws IllegalStateException The output streams its content to a target.
+	 */
+	public void writeTo(OutputStream out) throws IOException, IllegalStateException {
+		if (target != null) {
+			throw new IllegalStateException("Streaming output does not collect content");
+		}
+		for (int i = 0, len = filled.size(); i < len; i++) {
+			out.write(filled.get(i), 0, filledLengths[i]);
+		}
+		out.write(buffer, 0, position);
+	}
+
+	/**
+	 * The collected content.
+	 *
+	 * @return The array containing the collected content.
+	 * @throws IllegalStateException The output streams its content to a target.
+	 */
+	public byte[] toByteArray() throws IllegalStateException {
+		java.io.ByteArrayOutputStream result = new java.io.ByteArrayOutputStream((int) Math.min(size(), Integer.MAX_VALUE));
+		try {
+			writeTo(result);
+		} catch (IOException ioe) {
+			// Writing to memory never fails.
+			throw new IllegalStateException(ioe);
+		}
+		return result.toByteArray();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (target != null) {
+			nextBuffer();
+			target.flush();
+		}
+	}
+
+	/**
+	 * Closes the output releasing its buffers to the pool. A streaming output
+	 * flushes its content to the target, but does not close the target.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			if (target != null && position > 0) {
+				nextBuffer();
+				target.flush();
+			}
+		} finally {
+			for (byte[] content : filled) {
+				pool.release(content);
+			}
+			filled.clear();
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+}
@@ -1,6 +1,39 @@
 package solita.helsinkicitybikeapp.server;
 
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import i18n.AsyncHandler;
+import i18n.Logging;
+import solita.helsinkicitybikeapp.metrics.MetricsRegistry;
 import solita.helsinkicitybikeapp.model.Config;
+import solita.helsinkicitybikeapp.model.DemandCube;
+import solita.helsinkicitybikeapp.model.JourneyColumns;
+import solita.helsinkicitybikeapp.model.JourneyQuery;
+import solita.helsinkicitybikeapp.model.JourneyQueryCache;
+import solita.helsinkicitybikeapp.model.JourneySnapshot;
+import solita.helsinkicitybikeapp.model.JourneyStatistics;
+import solita.helsinkicitybikeapp.model.JourneySorter;
+import solita.helsinkicitybikeapp.model.Journeys;
+import solita.helsinkicitybikeapp.model.TieredJourneys;
+import solita.helsinkicitybikeapp.model.db.AsyncJourneys;
+import solita.helsinkicitybikeapp.model.db.ConnectionPool;
+import solita.helsinkicitybikeapp.model.db.DatabaseJourneys;
+import solita.helsinkicitybikeapp.model.db.JourneyDB;
+import solita.helsinkicitybikeapp.model.db.ReplicaRouter;
+import solita.helsinkicitybikeapp.model.db.SQLDialect;
+import solita.helsinkicitybikeapp.model.sketch.JourneySketches;
 
 /**
  * The class of the main server listening the user connections and creating the HTML UI
@@ -14,11 +47,1121 @@ public class Server extends Thread {
 	/**
 	 * The servlet performing the generation of HTML user interface for the server. 
 	 * 
+	 * The servlet serves the journeys at path {@value #JOURNEYS_PATH} and the
+	 * stations at path {@value #STATIONS_PATH}, the hourly demand of a station
+	 * at path {@value #DEMAND_PATH}, the distance and duration percentiles of a
+	 * station at path {@value #STATISTICS_PATH}, and the approximate analytics
+	 * of the imported journeys at path {@value #ANALYTICS_PATH} as JSON, and the metrics of the
+	 * application at path {@value #METRICS_PATH} in Prometheus text format. Every response carries an
+	 * entity tag derived from the data set version of the journeys, and the
+	 * conditional requests with a current entity tag are answered with status
+	 * 304 without querying the journeys. Large responses are compressed with
+	 * gzip or deflate, and the compressed responses of pages of past months are
+	 * cached until the data set changes.
+	 * 
 	 * @author Antti Kautiainen
 	 *
 	 */
-	public static class Servlet extends javax.servlet.http.HttpServlet {
-		
+	public static class Servlet extends javax.servlet.http.HttpServlet implements Logging.MessageLogging {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The path of the journeys listing.
+		 */
+		public static final String JOURNEYS_PATH = "/journeys";
+
+		/**
+		 * The path of the station listing.
+		 */
+		public static final String STATIONS_PATH = "/stations";
+
+		/**
+		 * The path of the hourly demand of a station.
+		 */
+		public static final String DEMAND_PATH = "/demand";
+
+		/**
+		 * The path of the distance and duration statistics of a station.
+		 */
+		public static final String STATISTICS_PATH = "/statistics";
+
+		/**
+		 * The path of the approximate analytics of the imported journeys.
+		 */
+		public static final String ANALYTICS_PATH = "/analytics";
+
+		/**
+		 * The default number of the most frequent routes of the analytics.
+		 */
+		public static final int DEFAULT_ROUTE_LIMIT = 10;
+
+		/**
+		 * The quantiles of the distances and the durations of the analytics.
+		 */
+		private static final double[] ANALYTICS_QUANTILES = { 0.5, 0.9, 0.99 };
+
+		/**
+		 * The path of the metrics.
+		 */
+		public static final String METRICS_PATH = "/metrics";
+
+		/**
+		 * The default number of journeys on a page.
+		 */
+		public static final int DEFAULT_PAGE_SIZE = 50;
+
+		/**
+		 * The maximum number of journeys on a page.
+		 */
+		public static final int MAX_PAGE_SIZE = 1000;
+
+		/**
+		 * The minimum size of a compressed response body.
+		 */
+		public static final int MIN_COMPRESSED_SIZE = 1024;
+
+		/**
+		 * The minimum interval between data set version refreshes in milliseconds.
+		 */
+		public static final long VERSION_REFRESH_INTERVAL = 1000L;
+
+		/**
+		 * The content encoding without compression.
+		 */
+		public static final String IDENTITY_ENCODING = "identity";
+
+		/**
+		 * The gzip content encoding.
+		 */
+		public static final String GZIP_ENCODING = "gzip";
+
+		/**
+		 * The deflate content encoding.
+		 */
+		public static final String DEFLATE_ENCODING = "deflate";
+
+		/**
+		 * The operator symbols of the filter parameters with longest first.
+		 */
+		private static final List<String> FILTER_OPERATORS = Arrays.asList(">=", "<=", "<>", "=", "<", ">");
+
+		/**
+		 * The served journeys.
+		 */
+		private transient Journeys journeys;
+
+		/**
+		 * The protocol of the database, or undefined value, if the journeys are not
+		 * stored in a database.
+		 */
+		private transient String protocol = null;
+
+		/**
+		 * The asynchronous queries of the database journeys, or undefined value, if
+		 * the journeys are not in a database.
+		 */
+		private transient AsyncJourneys asyncJourneys;
+
+		/**
+		 * The cache of the journey queries of the journeys, which are neither
+		 * columnar nor in a database.
+		 */
+		private transient JourneyQueryCache queryCache;
+
+		/**
+		 * The writer of the journeys.
+		 */
+		private transient JourneyJsonWriter writer;
+
+		/**
+		 * The reader encoding the journey rows of the database as a journeys
+		 * document.
+		 */
+		private transient DatabaseJourneys.ResultSetReader<byte[]> documentReader;
+
+		/**
+		 * The cache of the compressed responses.
+		 */
+		private transient CompressedResponseCache compressedCache;
+
+		/**
+		 * The served snapshot file, or undefined value, if the journeys are not
+		 * served from a snapshot.
+		 */
+		private transient java.nio.file.Path snapshotFile = null;
+
+		/**
+		 * The demand cube of the last data set version, or undefined value, if the
+		 * demand has not been requested.
+		 */
+		private transient volatile DemandCube demandCube = null;
+
+		/**
+		 * The lock of the building of the demand cube.
+		 */
+		private final transient Object demandLock = new Object();
+
+		/**
+		 * The sketches read from the sketch file with the modification time of the
+		 * file.
+		 * 
+		 * @author Antti Kautiainen
+		 *
+		 */
+		private static final class LoadedSketches {
+
+			/**
+			 * The read sketches.
+			 */
+			private final JourneySketches sketches;
+
+			/**
+			 * The modification time of the read file in milliseconds since epoch.
+			 */
+			private final long modified;
+
+			/**
+			 * Creates new loaded sketches.
+			 * 
+			 * @param sketches The read sketches.
+			 * @param modified The modification time of the read file.
+			 */
+			private LoadedSketches(JourneySketches sketches, long modified) {
+				this.sketches = sketches;
+				this.modified = modified;
+			}
+		}
+
+		/**
+		 * The statistics of the served journeys.
+		 */
+		private transient JourneyStatistics statistics;
+
+		/**
+		 * The sketch file of the analytics, or undefined value, if no sketches are
+		 * maintained.
+		 */
+		private transient java.nio.file.Path sketchFile = null;
+
+		/**
+		 * The last read sketches, or undefined value, if the sketches have not been
+		 * read.
+		 */
+		private transient volatile LoadedSketches loadedSketches = null;
+
+		/**
+		 * The lock of the reading of the sketches.
+		 */
+		private final transient Object sketchLock = new Object();
+
+		/**
+		 * The prefix of the entity tags distinguishing the versions of separate
+		 * servlet instances.
+		 */
+		private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+		/**
+		 * The time of the next data set version refresh.
+		 */
+		private volatile long nextRefresh = 0;
+
+		/**
+		 * Creates a new servlet serving the journeys of the configured database.
+		 */
+		public Servlet() {
+		}
+
+		/**
+		 * Creates a new servlet serving the given journeys.
+		 * 
+		 * @param journeys The served journeys.
+		 * @throws NullPointerException The journeys was undefined.
+		 */
+		public Servlet(Journeys journeys) throws NullPointerException {
+			initJourneys(java.util.Objects.requireNonNull(journeys, "Undefined journeys"), new Config());
+		}
+
+		/**
+		 * Initializes the served journeys.
+		 * 
+		 * @param journeys      The served journeys.
+		 * @param configuration The configuration.
+		 */
+		private void initJourneys(Journeys journeys, Config configuration) {
+			this.journeys = journeys;
+			if (journeys instanceof DatabaseJourneys && ((DatabaseJourneys) journeys).getConnectionPool() != null) {
+				// The identical concurrent queries share a database round trip, and a
+				// request waits for its query at most the query timeout.
+				DatabaseJourneys databaseJourneys = (DatabaseJourneys) journeys;
+				this.asyncJourneys = new AsyncJourneys(databaseJourneys,
+						databaseJourneys.getConnectionPool().getMaxSize(), AsyncJourneys.DEFAULT_QUEUE_CAPACITY,
+						configuration.getQueryTimeout());
+			}
+			this.queryCache = new JourneyQueryCache(journeys, configuration.getQueryCacheSize());
+			this.writer = new JourneyJsonWriter(journeys);
+			if (journeys instanceof DatabaseJourneys) {
+				Map<String, String> fieldNames = ((DatabaseJourneys) journeys).fieldNames();
+				this.documentReader = (ResultSet rows) -> {
+					try (JsonOutput document = new JsonOutput()) {
+						writer.writeDocument(document, rows, fieldNames);
+						return document.toByteArray();
+					}
+				};
+			}
+			this.statistics = new JourneyStatistics(journeys);
+			this.sketchFile = configuration.getSketchFile();
+			this.compressedCache = new CompressedResponseCache(configuration.getHttpCacheSize());
+		}
+
+		@Override
+		public void init() throws ServletException {
+			if (journeys == null) {
+				Config configuration = new Config();
+				java.nio.file.Path snapshot = configuration.getSnapshotFile();
+				if (snapshot != null && java.nio.file.Files.isReadable(snapshot)) {
+					try {
+						// The snapshot is served without database.
+						initJourneys(JourneySnapshot.open(snapshot, false), configuration);
+						this.snapshotFile = snapshot;
+						info("Serving journeys of snapshot {0}", snapshot);
+						return;
+					} catch (IOException e) {
+						severe("Could not open snapshot {0}: {1}", snapshot, e.getMessage());
+					}
+				}
+				Properties dbProperties = configuration.getDatabaseProperties();
+				String protocol = dbProperties.getProperty("dbms");
+				// The concurrent requests share the pooled connections.
+				ConnectionPool pool = new ConnectionPool(() -> CSVImporter.getConnection(protocol, dbProperties),
+						dbProperties);
+				try (java.sql.Connection connection = pool.getConnection()) {
+					// The database is reachable.
+					if (SQLDialect.forProtocol(protocol).isEmbedded()) {
+						// The embedded database is created on the first use.
+						new JourneyDB(connection).ensureDatabase();
+					}
+					this.protocol = protocol;
+				} catch (SQLException e) {
+					pool.close();
+					CSVImporter.shutdownDatabase(protocol);
+					throw new ServletException(severe("Could not connect to the database: {0}", e.getMessage()), e);
+				}
+				DatabaseJourneys databaseJourneys = new DatabaseJourneys(pool);
+				Map<String, Properties> replicas = configuration.getReplicaDatabaseProperties();
+				if (!replicas.isEmpty()) {
+					// The journey reads are spread over the replicas.
+					Map<String, ConnectionPool> replicaPools = new java.util.LinkedHashMap<>();
+					replicas.forEach((String name, Properties replicaProperties) -> replicaPools.put(name,
+							new ConnectionPool(() -> CSVImporter.getConnection(protocol, replicaProperties),
+									replicaProperties)));
+					databaseJourneys.setReplicaRouter(new ReplicaRouter(replicaPools, configuration.getReplicaMaxLag(),
+							configuration.getReplicaCheckInterval()));
+					info("Reading journeys from {0} replicas", replicaPools.size());
+				}
+				if (configuration.getTieredMonths() > 0) {
+					// The recent months are served from memory.
+					TieredJourneys tieredJourneys = new TieredJourneys(databaseJourneys,
+							configuration.getTieredMonths(), configuration.getTieredMemory(),
+							java.time.ZoneId.systemDefault());
+					tieredJourneys.load();
+					initJourneys(tieredJourneys, configuration);
+				} else {
+					initJourneys(databaseJourneys, configuration);
+				}
+			}
+		}
+
+		/**
+		 * The database journeys of the served journeys.
+		 * 
+		 * @return The served database journeys, or the history of the served tiered
+		 *         journeys, or undefined value, if the journeys are not in a
+		 *         database.
+		 */
+		protected DatabaseJourneys getDatabaseJourneys() {
+			Journeys result = journeys;
+			if (result instanceof TieredJourneys) {
+				result = ((TieredJourneys) result).getHistory();
+			}
+			return (result instanceof DatabaseJourneys ? (DatabaseJourneys) result : null);
+		}
+
+		@Override
+		public void destroy() {
+			if (asyncJourneys != null) {
+				asyncJourneys.close();
+			}
+			if (journeys instanceof TieredJourneys) {
+				((TieredJourneys) journeys).close();
+			}
+			DatabaseJourneys databaseJourneys = getDatabaseJourneys();
+			if (databaseJourneys != null && databaseJourneys.getConnectionPool() != null) {
+				if (databaseJourneys.getReplicaRouter() != null) {
+					databaseJourneys.getReplicaRouter().close();
+				}
+				databaseJourneys.getConnectionPool().close();
+				CSVImporter.shutdownDatabase(protocol);
+			}
+			super.destroy();
+		}
+
+		/**
+		 * The current data set version.
+		 * 
+		 * The version of the database journeys is refreshed at most once in
+		 * {@value #VERSION_REFRESH_INTERVAL} milliseconds.
+		 * 
+		 * @return The current data set version of the served journeys.
+		 */
+		protected long getVersion() {
+			DatabaseJourneys databaseJourneys = getDatabaseJourneys();
+			if (databaseJourneys != null) {
+				long now = System.currentTimeMillis();
+				if (now >= nextRefresh) {
+					nextRefresh = now + VERSION_REFRESH_INTERVAL;
+					long version = databaseJourneys.refreshVersion();
+					if (journeys == databaseJourneys) {
+						return version;
+					}
+				}
+			}
+			return journeys.getVersion();
+		}
+
+		/**
+		 * The entity tag of a representation.
+		 * 
+		 * @param version  The data set version.
+		 * @param encoding The content encoding.
+		 * @return The quoted entity tag.
+		 */
+		protected String getEntityTag(long version, String encoding) {
+			return "\"" + epoch + "-" + Long.toString(version, 36)
+					+ (IDENTITY_ENCODING.equals(encoding) ? "" : "-" + encoding) + "\"";
+		}
+
+		/**
+		 * Does the If-None-Match header match the entity tag.
+		 * 
+		 * @param ifNoneMatch The value of the If-None-Match header.
+		 * @param entityTag   The entity tag of the current representation.
+		 * @return True, if and only if the header lists the entity tag.
+		 */
+		protected static boolean matchesEntityTag(String ifNoneMatch, String entityTag) {
+			if (ifNoneMatch == null) {
+				return false;
+			}
+			String tag;
+			for (String candidate : ifNoneMatch.split(",")) {
+				tag = candidate.trim();
+				if (tag.startsWith("W/")) {
+					// The weak comparison is used for If-None-Match.
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(entityTag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Chooses the content encoding accepted by the client.
+		 * 
+		 * @param acceptEncoding The value of the Accept-Encoding header.
+		 * @return The chosen content encoding.
+		 */
+		protected static String chooseEncoding(String acceptEncoding) {
+			if (acceptEncoding == null) {
+				return IDENTITY_ENCODING;
+			}
+			boolean gzip = false, deflate = false;
+			String[] parts;
+			for (String coding : acceptEncoding.split(",")) {
+				parts = coding.trim().split(";");
+				if (parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?")) {
+					// The encoding is refused.
+					continue;
+				}
+				switch (parts[0].trim().toLowerCase()) {
+				case GZIP_ENCODING:
+				case "x-gzip":
+					gzip = true;
+					break;
+				case DEFLATE_ENCODING:
+					deflate = true;
+					break;
+				default:
+				}
+			}
+			return gzip ? GZIP_ENCODING : (deflate ? DEFLATE_ENCODING : IDENTITY_ENCODING);
+		}
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+			String path = req.getPathInfo();
+			if (path == null) {
+				path = req.getServletPath();
+			}
+			String route = (JOURNEYS_PATH.equals(path) || STATIONS_PATH.equals(path) || DEMAND_PATH.equals(path)
+					|| STATISTICS_PATH.equals(path) || ANALYTICS_PATH.equals(path) || METRICS_PATH.equals(path) ? path
+					: "other");
+			MetricsRegistry metrics = MetricsRegistry.getDefault();
+			metrics.counter("http_requests_total", "The number of the HTTP requests.", "route", route).increment();
+			long start = System.nanoTime();
+			try {
+				if (METRICS_PATH.equals(path)) {
+					resp.setContentType(MetricsRegistry.CONTENT_TYPE);
+					resp.setHeader("Cache-Control", "no-cache");
+					byte[] body = metrics.toPrometheusText().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+					resp.setContentLength(body.length);
+					resp.getOutputStream().write(body);
+				} else if (route.equals(path)) {
+					serve(req, resp, path);
+				} else {
+					resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+				}
+			} finally {
+				metrics.timer("http_request_duration_seconds", "The duration of the HTTP requests.", "route", route)
+						.recordNanosSince(start);
+			}
+		}
+
+		/**
+		 * Serves the journeys, the stations, the demand or the statistics of a
+		 * station, or the analytics.
+		 * 
+		 * @param req  The request.
+		 * @param resp The response.
+		 * @param path The path of the journeys, the stations, the demand, the
+		 *             statistics, or the analytics.
+		 * @throws IOException The writing of the response failed.
+		 */
+		private void serve(HttpServletRequest req, HttpServletResponse resp, String path) throws IOException {
+			LoadedSketches sketches = null;
+			if (ANALYTICS_PATH.equals(path) && (sketches = getSketches()) == null) {
+				resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+				return;
+			}
+			// The analytics change with the sketch file.
+			long version = (sketches == null ? getVersion() : sketches.modified);
+			String encoding = chooseEncoding(req.getHeader("Accept-Encoding"));
+			String entityTag = getEntityTag(version, encoding);
+			String identityTag = getEntityTag(version, IDENTITY_ENCODING);
+			String ifNoneMatch = req.getHeader("If-None-Match");
+			resp.setHeader("Vary", "Accept-Encoding");
+			resp.setHeader("ETag", entityTag);
+			if (matchesEntityTag(ifNoneMatch, entityTag) || matchesEntityTag(ifNoneMatch, identityTag)) {
+				// The client has the current representation. The small bodies are sent
+				// with the identity tag whatever the accepted encoding.
+				if (!matchesEntityTag(ifNoneMatch, entityTag)) {
+					resp.setHeader("ETag", identityTag);
+				}
+				resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			JourneyQuery query = null;
+			int station = -1, returnStation = -1, limit = DEFAULT_ROUTE_LIMIT;
+			JourneyStatistics.Grouping grouping = null;
+			java.time.LocalDate first = null, last = null;
+			try {
+				if (JOURNEYS_PATH.equals(path)) {
+					query = parseQuery(req);
+				} else if (DEMAND_PATH.equals(path)) {
+					station = parseStation(req.getParameter("station"));
+				} else if (STATISTICS_PATH.equals(path)) {
+					grouping = parseGrouping(req.getParameter("group"));
+					station = parseStation(req.getParameter("station"));
+					if (grouping == JourneyStatistics.Grouping.STATION_PAIR) {
+						returnStation = parseStation(req.getParameter("return"));
+					}
+				} else if (sketches != null) {
+					limit = parseIndex(req.getParameter("limit"), DEFAULT_ROUTE_LIMIT);
+					first = parseDay(req.getParameter("from"));
+					last = parseDay(req.getParameter("to"));
+				}
+			} catch (IllegalArgumentException | java.time.DateTimeException e) {
+				resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+				return;
+			}
+			boolean historical = query != null && isHistorical(query);
+			String request = path + "?" + (query == null ? "" : query.toString());
+			resp.setContentType("application/json; charset=UTF-8");
+			// The imports into past months change even the historical pages, so the
+			// clients revalidate every response with the entity tag.
+			resp.setHeader("Cache-Control", "no-cache");
+			byte[] cached = (historical ? compressedCache.get(version, request, encoding) : null);
+			if (cached != null) {
+				resp.setHeader("Content-Encoding", encoding);
+				resp.setContentLength(cached.length);
+				resp.getOutputStream().write(cached);
+				return;
+			}
+			try (JsonOutput out = new JsonOutput()) {
+				if (query != null) {
+					writeJourneys(out, query, version);
+				} else if (grouping != null) {
+					writeStatistics(out, grouping, station, returnStation);
+				} else if (station >= 0) {
+					writeDemand(out, getDemandCube(version), station);
+				} else if (sketches != null) {
+					writeAnalytics(out, sketches.sketches, limit, first, last);
+				} else if (!writeStations(out)) {
+					resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+					return;
+				}
+				if (IDENTITY_ENCODING.equals(encoding) || out.size() < MIN_COMPRESSED_SIZE) {
+					// Small responses are not worth compressing.
+					if (!IDENTITY_ENCODING.equals(encoding)) {
+						resp.setHeader("ETag", getEntityTag(version, IDENTITY_ENCODING));
+					}
+					resp.setContentLength((int) out.size());
+					out.writeTo(resp.getOutputStream());
+				} else {
+					byte[] body = compress(out, encoding);
+					if (historical) {
+						compressedCache.put(version, request, encoding, body);
+					}
+					resp.setHeader("Content-Encoding", encoding);
+					resp.setContentLength(body.length);
+					resp.getOutputStream().write(body);
+				}
+			} catch (SQLException e) {
+				resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						severe("Fetching {0} failed due {1}", path, e.getMessage()));
+			} catch (java.util.concurrent.CompletionException e) {
+				Throwable cause = (e.getCause() == null ? e : e.getCause());
+				if (cause instanceof java.util.concurrent.TimeoutException
+						|| cause instanceof java.util.concurrent.RejectedExecutionException) {
+					// The database is overloaded.
+					resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+							format("Fetching journeys of {0} timed out", request));
+				} else {
+					resp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+							severe("Fetching journeys of {0} failed due {1}", request, cause.getMessage()));
+				}
+			}
+		}
+
+		/**
+		 * Writes the journeys document of a query.
+		 * 
+		 * The columnar journeys are written directly from their columns, and the
+		 * database journeys directly from the result set. The documents of the
+		 * database journeys are kept until the data set version changes. The
+		 * other journeys are written from the query cache.
+		 * 
+		 * @param out     The output.
+		 * @param query   The query.
+		 * @param version The current data set version.
+		 * @throws IOException              The writing failed.
+		 * @throws SQLException             The fetching of the journeys failed.
+		 * @throws IllegalArgumentException The query was invalid for the journeys.
+		 */
+		protected void writeJourneys(JsonOutput out, JourneyQuery query, long version)
+				throws IOException, SQLException, IllegalArgumentException {
+			if (journeys instanceof JourneyColumns) {
+				writer.writeDocument(out, (JourneyColumns) journeys, journeys.getSorter().indexesOf(query));
+			} else if (journeys instanceof DatabaseJourneys) {
+				String request = JOURNEYS_PATH + "?" + query;
+				byte[] document = compressedCache.get(version, request, IDENTITY_ENCODING);
+				if (document == null) {
+					document = (asyncJourneys != null ? asyncJourneys.fetchJourneys(query, documentReader).join()
+							: ((DatabaseJourneys) journeys).fetchJourneys(query, documentReader));
+					if (document == null) {
+						// There is no database.
+						writer.writeDocument(out, java.util.Collections.emptyList());
+						return;
+					}
+					compressedCache.put(version, request, IDENTITY_ENCODING, document);
+				}
+				out.write(document);
+			} else {
+				writer.writeDocument(out, queryCache.getJourneys(query));
+			}
+		}
+
+		/**
+		 * Writes the station listing.
+		 * 
+		 * @param out The output.
+		 * @return True, if and only if the stations were available.
+		 * @throws IOException  The writing failed.
+		 * @throws SQLException The fetching of the stations failed.
+		 */
+		protected boolean writeStations(JsonOutput out) throws IOException, SQLException {
+			DatabaseJourneys databaseJourneys = getDatabaseJourneys();
+			if (databaseJourneys != null) {
+				return databaseJourneys.fetchStations((ResultSet rows) -> {
+					out.writeAscii("{\"stations\":");
+					JourneyJsonWriter.writeRows(out, rows);
+					out.write('}');
+					return true;
+				}) != null;
+			} else {
+				return false;
+			}
+		}
+
+		/**
+		 * The demand cube of a data set version.
+		 * 
+		 * The cube is kept until the data set version changes. The cube of a
+		 * snapshot is read from the cube file written with the snapshot, the cube
+		 * of the database journeys is counted with a database cursor, and the cube
+		 * of other journeys is counted from the journeys in parallel.
+		 * 
+		 * @param version The current data set version.
+		 * @return The demand cube of the served journeys.
+		 * @throws SQLException The counting of the database journeys failed.
+		 */
+		protected DemandCube getDemandCube(long version) throws SQLException {
+			DemandCube result = demandCube;
+			if (result != null && result.getVersion() == version) {
+				return result;
+			}
+			synchronized (demandLock) {
+				result = demandCube;
+				if (result == null || result.getVersion() != version) {
+					result = readDemandCube();
+					if (result == null) {
+						DatabaseJourneys databaseJourneys = getDatabaseJourneys();
+						result = (databaseJourneys != null
+								? databaseJourneys.buildDemandCube(java.time.ZoneId.systemDefault())
+								: DemandCube.build(journeys, java.time.ZoneId.systemDefault()));
+					}
+					result.setVersion(version);
+					demandCube = result;
+				}
+				return result;
+			}
+		}
+
+		/**
+		 * Reads the demand cube written with the served snapshot.
+		 * 
+		 * @return The demand cube of the snapshot, or undefined value, if the
+		 *         journeys are not served from a snapshot, or the snapshot has no
+		 *         current cube file.
+		 */
+		protected DemandCube readDemandCube() {
+			java.nio.file.Path snapshot = snapshotFile;
+			if (snapshot == null) {
+				return null;
+			}
+			java.nio.file.Path cubeFile = DemandCube.cubeFileOf(snapshot);
+			try {
+				if (java.nio.file.Files.isReadable(cubeFile) && java.nio.file.Files.getLastModifiedTime(cubeFile)
+						.compareTo(java.nio.file.Files.getLastModifiedTime(snapshot)) >= 0) {
+					// The cube was written after the snapshot.
+					return DemandCube.read(cubeFile);
+				}
+			} catch (IOException e) {
+				severe("Could not read demand cube {0}: {1}", cubeFile, e.getMessage());
+			}
+			return null;
+		}
+
+		/**
+		 * The sketches of the analytics.
+		 * 
+		 * The sketch file is read again, when its modification time has changed.
+		 * 
+		 * @return The current sketches, or undefined value, if there is no sketch
+		 *         file.
+		 */
+		private LoadedSketches getSketches() {
+			java.nio.file.Path file = sketchFile;
+			LoadedSketches result = loadedSketches;
+			if (file == null) {
+				return null;
+			}
+			long modified;
+			try {
+				modified = java.nio.file.Files.getLastModifiedTime(file).toMillis();
+			} catch (IOException e) {
+				// The sketches have not been written yet.
+				return null;
+			}
+			if (result != null && result.modified == modified) {
+				return result;
+			}
+			synchronized (sketchLock) {
+				result = loadedSketches;
+				if (result == null || result.modified != modified) {
+					try {
+						result = new LoadedSketches(JourneySketches.read(file), modified);
+						loadedSketches = result;
+					} catch (IOException e) {
+						severe("Could not read sketches {0}: {1}", file, e.getMessage());
+					}
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * Writes the approximate analytics.
+		 * 
+		 * The analytics contain the number of the journeys, the estimated distinct
+		 * station pairs of the days of the period and of the whole period, the most
+		 * frequent routes, and the estimated quantiles of the distances and the
+		 * durations.
+		 * 
+		 * @param out      The output.
+		 * @param sketches The sketches.
+		 * @param limit    The maximum number of the routes.
+		 * @param first    The first day of the period, or undefined value for the
+		 *                 first sketched day.
+		 * @param last     The last day of the period, or undefined value for the
+		 *                 last sketched day.
+		 * @throws IOException The writing failed.
+		 */
+		protected static void writeAnalytics(JsonOutput out, JourneySketches sketches, int limit,
+				java.time.LocalDate first, java.time.LocalDate last) throws IOException {
+			List<java.time.LocalDate> days = sketches.getDays();
+			java.time.LocalDate from = (first != null ? first : (days.isEmpty() ? null : days.get(0)));
+			java.time.LocalDate to = (last != null ? last : (days.isEmpty() ? null : days.get(days.size() - 1)));
+			out.writeAscii("{\"journeys\":").writeNumber(sketches.getJourneyCount());
+			out.writeAscii(",\"days\":[");
+			boolean firstDay = true;
+			for (java.time.LocalDate day : days) {
+				if (from != null && !day.isBefore(from) && !day.isAfter(to)) {
+					out.writeAscii(firstDay ? "{\"day\":" : ",{\"day\":").writeString(day.toString());
+					out.writeAscii(",\"distinctPairs\":").writeNumber(sketches.getDistinctPairs(day)).write('}');
+					firstDay = false;
+				}
+			}
+			out.writeAscii("],\"distinctPairs\":")
+					.writeNumber(from == null || to == null ? 0 : sketches.getDistinctPairs(from, to));
+			out.writeAscii(",\"routes\":[");
+			boolean firstRoute = true;
+			for (JourneySketches.Route route : sketches.getTopRoutes(limit)) {
+				out.writeAscii(firstRoute ? "{\"departure\":" : ",{\"departure\":")
+						.writeNumber(route.getStartStationId());
+				out.writeAscii(",\"return\":").writeNumber(route.getEndStationId());
+				out.writeAscii(",\"count\":").writeNumber(route.getCount()).write('}');
+				firstRoute = false;
+			}
+			out.writeAscii("],\"distance\":{");
+			for (int i = 0; i < ANALYTICS_QUANTILES.length; i++) {
+				out.writeAscii((i > 0 ? ",\"p" : "\"p") + Math.round(ANALYTICS_QUANTILES[i] * 100) + "\":")
+						.writeNumber(sketches.getDistanceQuantile(ANALYTICS_QUANTILES[i]));
+			}
+			out.writeAscii("},\"duration\":{");
+			for (int i = 0; i < ANALYTICS_QUANTILES.length; i++) {
+				out.writeAscii((i > 0 ? ",\"p" : "\"p") + Math.round(ANALYTICS_QUANTILES[i] * 100) + "\":")
+						.writeNumber(sketches.getDurationQuantile(ANALYTICS_QUANTILES[i]));
+			}
+			out.writeAscii("}}");
+		}
+
+		/**
+		 * The names of the groupings of the statistics.
+		 */
+		private static final Map<JourneyStatistics.Grouping, String> GROUPING_NAMES = Map.of(
+				JourneyStatistics.Grouping.DEPARTURE_STATION, "departure", JourneyStatistics.Grouping.RETURN_STATION,
+				"return", JourneyStatistics.Grouping.STATION_PAIR, "pair");
+
+		/**
+		 * Parses the grouping parameter of the statistics.
+		 * 
+		 * @param value The parameter value <code>departure</code>,
+		 *              <code>return</code>, or <code>pair</code>.
+		 * @return The grouping. The default is the departure station.
+		 * @throws IllegalArgumentException The value was not a grouping.
+		 */
+		private JourneyStatistics.Grouping parseGrouping(String value) throws IllegalArgumentException {
+			if (value == null || value.isBlank()) {
+				return JourneyStatistics.Grouping.DEPARTURE_STATION;
+			}
+			for (Map.Entry<JourneyStatistics.Grouping, String> entry : GROUPING_NAMES.entrySet()) {
+				if (entry.getValue().equalsIgnoreCase(value.trim())) {
+					return entry.getKey();
+				}
+			}
+			throw new IllegalArgumentException(format("Invalid group {0}", value));
+		}
+
+		/**
+		 * Writes the distance and duration statistics of a station or a station
+		 * pair.
+		 * 
+		 * @param out           The output.
+		 * @param grouping      The grouping.
+		 * @param station       The station, or the departure station of the pair.
+		 * @param returnStation The return station of the pair.
+		 * @throws IOException  The writing failed.
+		 * @throws SQLException The scanning of the database journeys failed.
+		 */
+		protected void writeStatistics(JsonOutput out, JourneyStatistics.Grouping grouping, int station,
+				int returnStation) throws IOException, SQLException {
+			boolean pair = (grouping == JourneyStatistics.Grouping.STATION_PAIR);
+			int key = (pair ? JourneyStatistics.pairKey(station, returnStation) : station);
+			out.writeAscii("{\"group\":").writeString(GROUPING_NAMES.get(grouping));
+			out.writeAscii(",\"station\":").writeNumber(station);
+			if (pair) {
+				out.writeAscii(",\"return\":").writeNumber(returnStation);
+			}
+			out.writeAscii(",\"distance\":");
+			writeSummary(out, statistics.getSummary(grouping, JourneyStatistics.Measure.DISTANCE, key));
+			out.writeAscii(",\"duration\":");
+			writeSummary(out, statistics.getSummary(grouping, JourneyStatistics.Measure.DURATION, key));
+			out.write('}');
+		}
+
+		/**
+		 * Writes the statistics of a group.
+		 * 
+		 * @param out     The output.
+		 * @param summary The statistics, or undefined value, if the group has no
+		 *                values.
+		 * @throws IOException The writing failed.
+		 */
+		private static void writeSummary(JsonOutput out, JourneyStatistics.Summary summary) throws IOException {
+			if (summary == null) {
+				out.writeNull();
+				return;
+			}
+			out.writeAscii("{\"count\":").writeNumber(summary.getCount());
+			out.writeAscii(",\"mean\":").writeNumber(summary.getMean());
+			out.writeAscii(",\"min\":").writeNumber(summary.getMin());
+			out.writeAscii(",\"max\":").writeNumber(summary.getMax());
+			for (double level : summary.getLevels()) {
+				out.writeAscii(",\"p" + Math.round(level * 100) + "\":").writeNumber(summary.getQuantile(level));
+			}
+			out.writeAscii(",\"exact\":").writeAscii(Boolean.toString(summary.isExact()));
+			out.write('}');
+		}
+
+		/**
+		 * Writes the hourly demand of a station.
+		 * 
+		 * The hourly values of the week start from Monday midnight.
+		 * 
+		 * @param out     The output.
+		 * @param demand  The demand cube.
+		 * @param station The station identifier.
+		 * @throws IOException The writing failed.
+		 */
+		protected static void writeDemand(JsonOutput out, DemandCube demand, int station) throws IOException {
+			out.writeAscii("{\"station\":").writeNumber(station);
+			out.writeAscii(",\"departures\":");
+			writeNumbers(out, demand.getDepartureProfile(station));
+			out.writeAscii(",\"arrivals\":");
+			writeNumbers(out, demand.getArrivalProfile(station));
+			out.writeAscii(",\"distance\":");
+			writeNumbers(out, demand.getDistanceProfile(station));
+			out.writeAscii(",\"duration\":");
+			writeNumbers(out, demand.getDurationProfile(station));
+			out.write('}');
+		}
+
+		/**
+		 * Writes a JSON array of numbers.
+		 * 
+		 * @param out    The output.
+		 * @param values The written numbers.
+		 * @throws IOException The writing failed.
+		 */
+		private static void writeNumbers(JsonOutput out, int[] values) throws IOException {
+			out.write('[');
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				out.writeNumber(values[i]);
+			}
+			out.write(']');
+		}
+
+		/**
+		 * Writes a JSON array of numbers.
+		 * 
+		 * @param out    The output.
+		 * @param values The written numbers.
+		 * @throws IOException The writing failed.
+		 */
+		private static void writeNumbers(JsonOutput out, long[] values) throws IOException {
+			out.write('[');
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				out.writeNumber(values[i]);
+			}
+			out.write(']');
+		}
+
+		/**
+		 * Compresses the collected content of the output.
+		 * 
+		 * @param out      The output.
+		 * @param encoding The compressing content encoding.
+		 * @return The compressed content.
+		 * @throws IOException The compression failed.
+		 */
+		protected static byte[] compress(JsonOutput out, String encoding) throws IOException {
+			java.io.ByteArrayOutputStream result = new java.io.ByteArrayOutputStream((int) (out.size() / 4));
+			try (java.io.OutputStream compressor = GZIP_ENCODING.equals(encoding)
+					? new java.util.zip.GZIPOutputStream(result, BufferPool.DEFAULT_BUFFER_SIZE)
+					: new java.util.zip.DeflaterOutputStream(result, new java.util.zip.Deflater(), BufferPool.DEFAULT_BUFFER_SIZE)) {
+				out.writeTo(compressor);
+			}
+			return result.toByteArray();
+		}
+
+		/**
+		 * Parses the journey query of the request.
+		 * 
+		 * The request parameters are <code>start</code> and <code>end</code> for the
+		 * page, <code>sort</code> for the comma separated sort keys, and
+		 * <code>filter</code> for filters of form <code>property operator value</code>
+		 * such as <code>start.time&gt;=2021-05-01T00:00</code>.
+		 * 
+		 * @param req The request.
+		 * @return The query of the request.
+		 * @throws IllegalArgumentException Any parameter was invalid.
+		 * @throws java.time.DateTimeException A time value was invalid.
+		 */
+		protected JourneyQuery parseQuery(HttpServletRequest req)
+				throws IllegalArgumentException, java.time.DateTimeException {
+			int startIndex = parseIndex(req.getParameter("start"), 0);
+			int endIndex = parseIndex(req.getParameter("end"), startIndex + DEFAULT_PAGE_SIZE);
+			if (endIndex < startIndex || endIndex - startIndex > MAX_PAGE_SIZE) {
+				throw new IllegalArgumentException(format("Invalid page {0}-{1}", startIndex, endIndex));
+			}
+			List<JourneySorter.SortKey> sortKeys = new ArrayList<>();
+			String sort = req.getParameter("sort");
+			if (sort != null && !sort.isBlank()) {
+				for (String key : sort.split(",")) {
+					sortKeys.add(JourneySorter.SortKey.parse(key.trim()));
+				}
+			}
+			List<JourneyQuery.Filter> filters = new ArrayList<>();
+			String[] filterParameters = req.getParameterValues("filter");
+			if (filterParameters != null) {
+				for (String filter : filterParameters) {
+					filters.add(parseFilter(filter));
+				}
+			}
+			return new JourneyQuery(filters, sortKeys, startIndex, endIndex);
+		}
+
+		/**
+		 * Parses an index parameter.
+		 * 
+		 * @param value        The parameter value.
+		 * @param defaultValue The value of missing parameter.
+		 * @return The index.
+		 * @throws IllegalArgumentException The value was not a non-negative
+		 *                                  integer.
+		 */
+		private int parseIndex(String value, int defaultValue) throws IllegalArgumentException {
+			if (value == null || value.isBlank()) {
+				return defaultValue;
+			}
+			int result = Integer.parseInt(value.trim());
+			if (result < 0) {
+				throw new IllegalArgumentException(format("Negative index {0}", value));
+			}
+			return result;
+		}
+
+		/**
+		 * Parses a day parameter.
+		 * 
+		 * @param value The parameter value in ISO-8601 format.
+		 * @return The day, or undefined value, if the parameter was missing.
+		 * @throws java.time.DateTimeException The value was not a valid day.
+		 */
+		private static java.time.LocalDate parseDay(String value) throws java.time.DateTimeException {
+			return (value == null || value.isBlank() ? null : java.time.LocalDate.parse(value.trim()));
+		}
+
+		/**
+		 * Parses the station parameter.
+		 * 
+		 * @param value The parameter value.
+		 * @return The station identifier.
+		 * @throws IllegalArgumentException The value was missing or not a valid
+		 *                                  station identifier.
+		 */
+		private int parseStation(String value) throws IllegalArgumentException {
+			if (value == null || value.isBlank()) {
+				throw new IllegalArgumentException("Missing station");
+			}
+			int result = Integer.parseInt(value.trim());
+			if (result < 0 || result > Short.MAX_VALUE) {
+				throw new IllegalArgumentException(format("Invalid station {0}", value));
+			}
+			return result;
+		}
+
+		/**
+		 * Parses a filter parameter.
+		 * 
+		 * @param filter The filter parameter.
+		 * @return The filter.
+		 * @throws IllegalArgumentException The filter was invalid.
+		 * @throws java.time.DateTimeException The time value was invalid.
+		 */
+		protected JourneyQuery.Filter parseFilter(String filter)
+				throws IllegalArgumentException, java.time.DateTimeException {
+			int index = -1;
+			String symbol = null;
+			for (int i = 0; i < filter.length() && index < 0; i++) {
+				for (String operator : FILTER_OPERATORS) {
+					if (filter.startsWith(operator, i)) {
+						index = i;
+						symbol = operator;
+						break;
+					}
+				}
+			}
+			if (index <= 0) {
+				throw new IllegalArgumentException(format("Invalid filter {0}", filter));
+			}
+			String property = filter.substring(0, index).trim();
+			String value = filter.substring(index + symbol.length()).trim();
+			Object filterValue;
+			if (journeys.isDateProperty(property)) {
+				filterValue = java.util.Date
+						.from(java.time.LocalDateTime.parse(value).atZone(java.time.ZoneId.systemDefault()).toInstant());
+			} else if (journeys.isIntegerProperty(property)) {
+				filterValue = Integer.valueOf(value);
+			} else if (journeys.isStringProperty(property)) {
+				filterValue = value;
+			} else {
+				throw new IllegalArgumentException(format("Unknown filter property {0}", property));
+			}
+			return new JourneyQuery.Filter(property, JourneyQuery.Operator.ofSymbol(symbol), filterValue);
+		}
+
+		/**
+		 * Is the query limited to journeys of past months. The pages of such
+		 * queries change only when past data is imported, thus their compressed
+		 * bodies are kept until the data set version changes.
+		 * 
+		 * @param query The query.
+		 * @return True, if and only if the query has an upper bound of a time
+		 *         property before the start of the current month.
+		 */
+		protected static boolean isHistorical(JourneyQuery query) {
+			long monthStart = java.time.LocalDate.now().withDayOfMonth(1).atStartOfDay(java.time.ZoneId.systemDefault())
+					.toInstant().toEpochMilli();
+			for (JourneyQuery.Filter filter : query.getFilters()) {
+				if ((Journeys.START_TIME_PROPERTY.equals(filter.getProperty())
+						|| Journeys.END_TIME_PROPERTY.equals(filter.getProperty()))
+						&& (filter.getOperator() == JourneyQuery.Operator.LT
+								|| filter.getOperator() == JourneyQuery.Operator.LE)
+						&& ((java.util.Date) filter.getValue()).getTime() < monthStart) {
+					return true;
+				}
+			}
+			return false;
+		}
 	}
 	
 	private final Config configuration; 
@@ -38,6 +1181,8 @@ public class Server extends Thread {
 	 * @param args The command line arguments. 
 	 */
 	public static void main(String[] args) {
+		// The request handling does not wait for the log output. 
+		AsyncHandler.install(Logger.getLogger(""), AsyncHandler.DEFAULT_CAPACITY); 
 		Config configuration = new Config();
 		Server server = new Server(configuration); 
 		server.start(); 